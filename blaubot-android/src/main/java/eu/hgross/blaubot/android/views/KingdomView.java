@@ -16,6 +16,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.android.R;
 import eu.hgross.blaubot.core.Blaubot;
@@ -139,12 +140,24 @@ public class KingdomView extends LinearLayout implements IBlaubotDebugView {
 		}
 	};
 	
+	/**
+	 * The last census, deltas are applied to it
+	 */
+	private volatile CensusMessage mLastCensusMessage;
+
 	private IBlaubotAdminMessageListener connectionLayerAdminMessageListener = new IBlaubotAdminMessageListener() {
 		
 		@Override
 		public void onAdminMessage(AbstractAdminMessage adminMessage) {
         if(adminMessage instanceof CensusMessage) {
-            updateUI((CensusMessage) adminMessage);
+            mLastCensusMessage = (CensusMessage) adminMessage;
+            updateUI(mLastCensusMessage);
+        } else if(adminMessage instanceof CensusDeltaMessage && mLastCensusMessage != null) {
+            final CensusMessage updated = mLastCensusMessage.applyDelta((CensusDeltaMessage) adminMessage);
+            if(updated != null) {
+                mLastCensusMessage = updated;
+                updateUI(updated);
+            }
         }
 		}
 	};
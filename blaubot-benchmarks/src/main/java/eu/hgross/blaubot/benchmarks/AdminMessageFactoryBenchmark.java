@@ -0,0 +1,121 @@
+package eu.hgross.blaubot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.AddSubscriptionAdminMessage;
+import eu.hgross.blaubot.admin.AdminMessageFactory;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
+import eu.hgross.blaubot.admin.CensusMessage;
+import eu.hgross.blaubot.admin.MetricsAdminMessage;
+import eu.hgross.blaubot.admin.PronouncePrinceAdminMessage;
+import eu.hgross.blaubot.admin.RelayAdminMessage;
+import eu.hgross.blaubot.admin.StringAdminMessage;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+
+/**
+ * Parsing of the most frequent admin messages by the AdminMessageFactory, once from an already
+ * decoded BlaubotMessage and once including the decoding of the message bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdminMessageFactoryBenchmark {
+    /**
+     * The number of devices in census messages
+     */
+    private static final int KINGDOM_SIZE = 16;
+
+    /**
+     * The kinds of admin messages to be parsed
+     */
+    public enum AdminMessageKind {
+        STRING, ADD_SUBSCRIPTION, PRONOUNCE_PRINCE, CENSUS, CENSUS_DELTA, RELAY, METRICS
+    }
+
+    @Param({"STRING", "ADD_SUBSCRIPTION", "PRONOUNCE_PRINCE", "CENSUS", "CENSUS_DELTA", "RELAY", "METRICS"})
+    public AdminMessageKind kind;
+
+    private BlaubotMessage rawMessage;
+    private byte[] messageBytes;
+
+    @Setup
+    public void setUp() {
+        rawMessage = createAdminMessage(kind).toBlaubotMessage();
+        messageBytes = rawMessage.toBytes();
+    }
+
+    private static AbstractAdminMessage createAdminMessage(AdminMessageKind kind) {
+        switch (kind) {
+            case STRING:
+                return new StringAdminMessage("a string admin message");
+            case ADD_SUBSCRIPTION:
+                return new AddSubscriptionAdminMessage("device-1", (short) 42);
+            case PRONOUNCE_PRINCE:
+                final List<ConnectionMetaDataDTO> connectionMetaData = new ArrayList<>();
+                connectionMetaData.add(new ConnectionMetaDataDTO());
+                return new PronouncePrinceAdminMessage("device-1", connectionMetaData);
+            case CENSUS:
+                final Map<String, eu.hgross.blaubot.core.State> states = new HashMap<>();
+                for (int i = 0; i < KINGDOM_SIZE; i++) {
+                    states.put("device-" + i, i == 0 ? eu.hgross.blaubot.core.State.King : eu.hgross.blaubot.core.State.Peasant);
+                }
+                return new CensusMessage(states, 1, 1);
+            case CENSUS_DELTA:
+                final Map<String, eu.hgross.blaubot.core.State> joined = new HashMap<>();
+                joined.put("device-" + KINGDOM_SIZE, eu.hgross.blaubot.core.State.Peasant);
+                final Map<String, eu.hgross.blaubot.core.State> changed = new HashMap<>();
+                changed.put("device-1", eu.hgross.blaubot.core.State.Prince);
+                final Set<String> left = new HashSet<>();
+                left.add("device-2");
+                return new CensusDeltaMessage(1, 2, joined, changed, left);
+            case RELAY:
+                final BlaubotMessage relayedMessage = new BlaubotMessage();
+                relayedMessage.setPayload(new byte[256]);
+                return new RelayAdminMessage(relayedMessage.toBytes());
+            case METRICS:
+                final BlaubotMetricsRegistry registry = new BlaubotMetricsRegistry();
+                registry.counter("sender.messages").add(1000);
+                registry.counter("receiver.messages").add(1000);
+                for (int i = 0; i < 1000; i++) {
+                    registry.histogram("sender.writeLatencyMicros").record(i * 7);
+                }
+                return new MetricsAdminMessage(registry.snapshot("device-1"));
+            default:
+                throw new IllegalArgumentException("Unknown kind " + kind);
+        }
+    }
+
+    @Benchmark
+    public AbstractAdminMessage parse() {
+        return AdminMessageFactory.createAdminMessageFromRawMessage(rawMessage);
+    }
+
+    @Benchmark
+    public AbstractAdminMessage decodeAndParse() {
+        return AdminMessageFactory.createAdminMessageFromRawMessage(BlaubotMessage.fromByteArray(messageBytes));
+    }
+}
@@ -0,0 +1,143 @@
+package eu.hgross.blaubot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotChannelScheduler;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.MessageSenderOverflowPolicy;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+/**
+ * Fan-out of a channel by the master's BlaubotChannelManager to N subscribed devices, which are
+ * connected via BlaubotConnectionQueueMocks (a star like a kingdom).
+ * Each invocation publishes a batch of messages on the master and waits until every subscriber
+ * received all of them, so the score is the number of published messages per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelManagerFanOutBenchmark {
+    private static final int MESSAGES_PER_INVOCATION = 200;
+    private static final short CHANNEL_ID = 1;
+    private static final long PUBLISH_TIMEOUT = 10000;
+    private static final long SUBSCRIPTION_TIMEOUT = 10000;
+
+    /**
+     * The number of devices subscribed to the channel
+     */
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    /**
+     * The payload size of the published messages in bytes
+     */
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private BlaubotChannelManager master;
+    private final List<BlaubotChannelManager> clients = new ArrayList<>();
+    private IBlaubotChannel channel;
+    private final Semaphore receivedMessages = new Semaphore(0);
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        master = createChannelManager("master");
+        master.setSenderOverflowPolicy(MessageSenderOverflowPolicy.BLOCK);
+        master.setMaster(true);
+        final AtomicIntegerArray receivedBySubscriber = new AtomicIntegerArray(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            final String uniqueDeviceId = "client" + i;
+            final BlaubotChannelManager client = createChannelManager(uniqueDeviceId);
+            final BlaubotConnectionQueueMock masterToClient = new BlaubotConnectionQueueMock(new BlaubotDevice(uniqueDeviceId));
+            final BlaubotConnectionQueueMock clientToMaster = masterToClient.getOtherEndpointConnection(new BlaubotDevice("master"));
+            master.addConnection(masterToClient);
+            client.addConnection(clientToMaster);
+
+            final int subscriberIndex = i;
+            client.createOrGetChannel(CHANNEL_ID).subscribe(new IBlaubotMessageListener() {
+                @Override
+                public void onMessage(BlaubotMessage blaubotMessage) {
+                    receivedBySubscriber.incrementAndGet(subscriberIndex);
+                    receivedMessages.release();
+                }
+            });
+            clients.add(client);
+        }
+        channel = master.createOrGetChannel(CHANNEL_ID);
+        channel.getChannelConfig().setQueueCapacity(MESSAGES_PER_INVOCATION);
+        payload = new byte[payloadSize];
+
+        // subscriptions are async: publish until every subscriber got a message
+        final long deadline = System.currentTimeMillis() + SUBSCRIPTION_TIMEOUT;
+        while (!allReceived(receivedBySubscriber)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Subscriptions did not arrive at the master in time");
+            }
+            channel.publish(payload);
+            Thread.sleep(20);
+        }
+        // let the remaining probes arrive
+        Thread.sleep(500);
+        receivedMessages.drainPermits();
+    }
+
+    private static BlaubotChannelManager createChannelManager(String uniqueDeviceId) {
+        return new BlaubotChannelManager(uniqueDeviceId, new BlaubotChannelScheduler(), new BlaubotMetricsRegistry());
+    }
+
+    private static boolean allReceived(AtomicIntegerArray receivedBySubscriber) {
+        for (int i = 0; i < receivedBySubscriber.length(); i++) {
+            if (receivedBySubscriber.get(i) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @TearDown
+    public void tearDown() {
+        master.deactivate();
+        for (BlaubotChannelManager client : clients) {
+            client.deactivate();
+        }
+        clients.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_INVOCATION)
+    public void publishToAllSubscribers() throws InterruptedException {
+        for (int i = 0; i < MESSAGES_PER_INVOCATION; i++) {
+            if (!channel.publish(payload, PUBLISH_TIMEOUT)) {
+                throw new IllegalStateException("Could not publish within " + PUBLISH_TIMEOUT + " ms");
+            }
+        }
+        receivedMessages.acquire(MESSAGES_PER_INVOCATION * subscribers);
+    }
+}
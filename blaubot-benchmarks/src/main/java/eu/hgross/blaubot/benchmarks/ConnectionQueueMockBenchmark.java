@@ -0,0 +1,69 @@
+package eu.hgross.blaubot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+/**
+ * Byte throughput of the BlaubotConnectionQueueMock, which is the transport of most of the other
+ * benchmarks and of the JUnit tests.
+ * Each invocation writes a block to one endpoint and reads it fully from the other one, so the
+ * bytes per second are the score times the block size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionQueueMockBenchmark {
+    /**
+     * The number of bytes written and read per invocation
+     */
+    @Param({"1", "64", "4096", "65536"})
+    public int blockSize;
+
+    private BlaubotConnectionQueueMock writingEndpoint;
+    private BlaubotConnectionQueueMock readingEndpoint;
+    private byte[] writeBuffer;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setUp() {
+        writingEndpoint = new BlaubotConnectionQueueMock(new BlaubotDevice("reader"));
+        readingEndpoint = writingEndpoint.getOtherEndpointConnection(new BlaubotDevice("writer"));
+        writeBuffer = new byte[blockSize];
+        readBuffer = new byte[blockSize];
+    }
+
+    @Benchmark
+    public byte[] writeAndReadFully() throws IOException {
+        writingEndpoint.write(writeBuffer);
+        readingEndpoint.readFully(readBuffer);
+        return readBuffer;
+    }
+
+    @Benchmark
+    public int writeAndReadSingleBytes() throws IOException {
+        int last = 0;
+        for (int i = 0; i < blockSize; i++) {
+            writingEndpoint.write(i);
+            last = readingEndpoint.read();
+        }
+        return last;
+    }
+}
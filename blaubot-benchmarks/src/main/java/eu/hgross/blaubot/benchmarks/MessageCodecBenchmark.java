@@ -0,0 +1,98 @@
+package eu.hgross.blaubot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.BlaubotMessageBufferPool;
+
+/**
+ * Encoding, decoding, chunking and reassembly of BlaubotMessages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    /**
+     * The payload size of the encoded/decoded message in bytes
+     */
+    @Param({"16", "1024", "16384"})
+    public int payloadSize;
+
+    private BlaubotMessage message;
+    private byte[] encodedMessage;
+    private ByteBuffer encodeBuffer;
+    private BlaubotMessage chunkedMessage;
+    private List<BlaubotMessage> chunks;
+
+    @Setup
+    public void setUp() {
+        message = new BlaubotMessage();
+        message.setPayload(new byte[payloadSize]);
+        encodedMessage = message.toBytes();
+        encodeBuffer = ByteBuffer.allocate(message.getEncodedLength()).order(BlaubotConstants.BYTE_ORDER);
+
+        // three full chunks and a partial one
+        chunkedMessage = new BlaubotMessage();
+        chunkedMessage.setPayload(new byte[BlaubotConstants.MAX_PAYLOAD_SIZE * 3 + payloadSize]);
+        chunks = chunkedMessage.createChunks((short) 1);
+    }
+
+    @Benchmark
+    public byte[] encodeToBytes() {
+        return message.toBytes();
+    }
+
+    @Benchmark
+    public int encodeToBuffer() {
+        encodeBuffer.clear();
+        return message.writeTo(encodeBuffer);
+    }
+
+    @Benchmark
+    public int encodeToPooledBuffer() {
+        final BlaubotMessageBufferPool pool = BlaubotMessageBufferPool.getDefault();
+        final ByteBuffer buffer = message.toPooledBuffer(pool);
+        final int length = buffer.remaining();
+        pool.release(buffer);
+        return length;
+    }
+
+    @Benchmark
+    public BlaubotMessage decodeFromBytes() {
+        return BlaubotMessage.fromByteArray(encodedMessage);
+    }
+
+    @Benchmark
+    public BlaubotMessage decodeFromBuffer() throws IOException {
+        return BlaubotMessage.readFromBuffer(ByteBuffer.wrap(encodedMessage).order(BlaubotConstants.BYTE_ORDER), null);
+    }
+
+    @Benchmark
+    public List<BlaubotMessage> createChunks() {
+        return chunkedMessage.createChunks((short) 1);
+    }
+
+    @Benchmark
+    public BlaubotMessage reassembleChunks() {
+        return BlaubotMessage.fromChunks(chunks);
+    }
+}
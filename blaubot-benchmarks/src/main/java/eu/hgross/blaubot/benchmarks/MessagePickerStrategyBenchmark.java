@@ -0,0 +1,87 @@
+package eu.hgross.blaubot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.messaging.BlaubotChannelConfig;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.DiscardNewPickerStrategy;
+import eu.hgross.blaubot.messaging.DiscardOldPickerStrategy;
+import eu.hgross.blaubot.messaging.IBlaubotMessagePickerStrategy;
+import eu.hgross.blaubot.messaging.ProcessAllPickerStrategy;
+
+/**
+ * The IBlaubotMessagePickerStrategy implementations operating on a channel's message queue
+ * (an ArrayBlockingQueue like in BlaubotChannel).
+ * Each invocation fills the queue with queuedMessages messages and picks until the queue is empty,
+ * so the score is the number of drained queues per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePickerStrategyBenchmark {
+    @Param({"PROCESS_ALL", "DISCARD_OLD", "DISCARD_NEW"})
+    public BlaubotChannelConfig.MessagePickerStrategy strategy;
+
+    /**
+     * The number of messages in the queue before the picks
+     */
+    @Param({"1", "16", "256"})
+    public int queuedMessages;
+
+    private IBlaubotMessagePickerStrategy picker;
+    private BlockingQueue<BlaubotMessage> messageQueue;
+    private BlaubotMessage[] messages;
+
+    @Setup
+    public void setUp() {
+        switch (strategy) {
+            case PROCESS_ALL:
+                picker = new ProcessAllPickerStrategy();
+                break;
+            case DISCARD_OLD:
+                picker = new DiscardOldPickerStrategy();
+                break;
+            case DISCARD_NEW:
+                picker = new DiscardNewPickerStrategy();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown strategy " + strategy);
+        }
+        final int queueCapacity = Math.max(new BlaubotChannelConfig((short) 0).getQueueCapacity(), queuedMessages);
+        messageQueue = new ArrayBlockingQueue<>(queueCapacity);
+        messages = new BlaubotMessage[queuedMessages];
+        for (int i = 0; i < queuedMessages; i++) {
+            messages[i] = new BlaubotMessage();
+            messages[i].setPayload(new byte[16]);
+        }
+    }
+
+    @Benchmark
+    public int fillAndPickAll() {
+        for (BlaubotMessage message : messages) {
+            messageQueue.offer(message);
+        }
+        int picked = 0;
+        while (picker.pickNextMessage(messageQueue) != null) {
+            picked++;
+        }
+        return picked;
+    }
+}
@@ -0,0 +1,91 @@
+package eu.hgross.blaubot.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
+import eu.hgross.blaubot.messaging.BlaubotMessageSender;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.MessageSenderOverflowPolicy;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+/**
+ * End to end throughput of a BlaubotMessageSender writing to a BlaubotMessageReceiver over a
+ * BlaubotConnectionQueueMock.
+ * Each invocation sends a batch of messages and waits until all of them were received, so the
+ * score is the number of messages per second including the receiver's dispatch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageSenderReceiverBenchmark {
+    private static final int MESSAGES_PER_INVOCATION = 1000;
+
+    /**
+     * The payload size of the sent messages in bytes
+     */
+    @Param({"16", "1024", "16384"})
+    public int payloadSize;
+
+    private BlaubotMessageSender sender;
+    private BlaubotMessageReceiver receiver;
+    private final Semaphore receivedMessages = new Semaphore(0);
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        final BlaubotConnectionQueueMock senderConnection = new BlaubotConnectionQueueMock(new BlaubotDevice("receiver"));
+        final BlaubotConnectionQueueMock receiverConnection = senderConnection.getOtherEndpointConnection(new BlaubotDevice("sender"));
+        final BlaubotMetricsRegistry metricsRegistry = new BlaubotMetricsRegistry();
+        sender = new BlaubotMessageSender(senderConnection, metricsRegistry);
+        // never drop messages, the benchmark waits for all of them
+        sender.setOverflowPolicy(MessageSenderOverflowPolicy.BLOCK);
+        receiver = new BlaubotMessageReceiver(receiverConnection, metricsRegistry);
+        receiver.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage blaubotMessage) {
+                receivedMessages.release();
+            }
+        });
+        receiver.activate();
+        sender.activate();
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.deactivate(null);
+        receiver.deactivate(null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_INVOCATION)
+    public void sendAndReceive() throws InterruptedException {
+        for (int i = 0; i < MESSAGES_PER_INVOCATION; i++) {
+            final BlaubotMessage message = new BlaubotMessage();
+            message.setPayload(payload);
+            sender.sendMessage(message);
+        }
+        receivedMessages.acquire(MESSAGES_PER_INVOCATION);
+    }
+}
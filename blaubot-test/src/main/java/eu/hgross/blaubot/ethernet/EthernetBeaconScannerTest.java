@@ -0,0 +1,200 @@
+package eu.hgross.blaubot.ethernet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.discovery.BlaubotBeaconStore;
+import eu.hgross.blaubot.core.statemachine.events.DiscoveredFreeEvent;
+import eu.hgross.blaubot.ethernet.BlaubotEthernetMulticastBeacon.MulticastBeaconBlaubotDevice;
+import eu.hgross.blaubot.ethernet.BlaubotEthernetMulticastBeacon.ProbeState;
+
+/**
+ * Tests the probe scheduling of the BlaubotEthernetMulticastBeacon's EthernetBeaconScanner without
+ * sockets: the probes are replaced and the scanner is not started, but driven by calling
+ * startDueProbes() directly.
+ *
+ * The scanner and its bookkeeping are package private, hence this test lives in the ethernet package.
+ */
+public class EthernetBeaconScannerTest {
+    private static final long TIMEOUT = 5000;
+    /**
+     * The probe interval of the scanner in the (initial) free state
+     */
+    private static final long PROBE_INTERVAL = 1000;
+
+    private BlaubotEthernetMulticastBeacon beacon;
+    private List<IBlaubotDevice> aliveDevices;
+    private Set<String> probedDevices;
+    private AtomicInteger runningProbes;
+    private AtomicInteger maxRunningProbes;
+    private CountDownLatch releaseProbes;
+
+    @Before
+    public void setUp() {
+        // the ports are not bound, unless the beacon starts listening
+        beacon = new BlaubotEthernetMulticastBeacon(17171, 17172);
+        aliveDevices = new ArrayList<>();
+        probedDevices = Collections.synchronizedSet(new HashSet<String>());
+        runningProbes = new AtomicInteger();
+        maxRunningProbes = new AtomicInteger();
+        releaseProbes = new CountDownLatch(1);
+    }
+
+    private MulticastBeaconBlaubotDevice createDevice(String uniqueDeviceId) {
+        return beacon.new MulticastBeaconBlaubotDevice(uniqueDeviceId, InetAddress.getLoopbackAddress(), 17173);
+    }
+
+    /**
+     * Creates a scanner that scans the aliveDevices and whose probes block until releaseProbes is
+     * released.
+     *
+     * @param probesStarted counted down on each started probe
+     * @return the scanner
+     */
+    private BlaubotEthernetMulticastBeacon.EthernetBeaconScanner createScanner(final CountDownLatch probesStarted) {
+        return beacon.new EthernetBeaconScanner() {
+            @Override
+            List<IBlaubotDevice> getAliveDevices() {
+                return new ArrayList<>(aliveDevices);
+            }
+
+            @Override
+            boolean probe(MulticastBeaconBlaubotDevice device) {
+                final int running = runningProbes.incrementAndGet();
+                synchronized (maxRunningProbes) {
+                    maxRunningProbes.set(Math.max(maxRunningProbes.get(), running));
+                }
+                probedDevices.add(device.getUniqueDeviceID());
+                probesStarted.countDown();
+                try {
+                    releaseProbes.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    runningProbes.decrementAndGet();
+                }
+                return true;
+            }
+        };
+    }
+
+    @Test
+    /**
+     * The interval doubles with each failed probe up to BEACON_PROBE_MAX_BACKOFF and is reset by a
+     * successful probe.
+     */
+    public void testProbeBackoff() {
+        final ProbeState probeState = new ProbeState(createDevice("Device1"));
+        Assert.assertEquals("A device that was never probed is due at once", 0, probeState.getNextProbeTime(PROBE_INTERVAL));
+
+        final long time = 100000;
+        probeState.onProbeFinished(true, time);
+        Assert.assertEquals(time + PROBE_INTERVAL, probeState.getNextProbeTime(PROBE_INTERVAL));
+
+        long expectedDelay = PROBE_INTERVAL;
+        for (int failures = 1; failures <= 8; failures++) {
+            probeState.onProbeFinished(false, time);
+            expectedDelay = Math.min(expectedDelay * 2, BlaubotEthernetMulticastBeacon.BEACON_PROBE_MAX_BACKOFF);
+            Assert.assertEquals("Wrong delay after " + failures + " failures", time + expectedDelay, probeState.getNextProbeTime(PROBE_INTERVAL));
+        }
+        Assert.assertEquals(time + BlaubotEthernetMulticastBeacon.BEACON_PROBE_MAX_BACKOFF, probeState.getNextProbeTime(PROBE_INTERVAL));
+
+        // many failures must neither exceed the cap nor overflow
+        for (int i = 0; i < 100; i++) {
+            probeState.onProbeFinished(false, time);
+        }
+        Assert.assertEquals(time + BlaubotEthernetMulticastBeacon.BEACON_PROBE_MAX_BACKOFF, probeState.getNextProbeTime(PROBE_INTERVAL));
+        // the decent interval is capped as well
+        Assert.assertEquals(time + BlaubotEthernetMulticastBeacon.BEACON_PROBE_MAX_BACKOFF, probeState.getNextProbeTime(5000));
+
+        probeState.onProbeFinished(true, time);
+        Assert.assertEquals(time + PROBE_INTERVAL, probeState.getNextProbeTime(PROBE_INTERVAL));
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * With more due devices than BEACON_PROBE_PARALLELISM, at most BEACON_PROBE_PARALLELISM probes
+     * run at a time. Devices that were just probed are not due again, so the next scan probes the
+     * remaining devices.
+     */
+    public void testProbeParallelismCap() throws InterruptedException {
+        final int parallelism = BlaubotEthernetMulticastBeacon.EthernetBeaconScanner.BEACON_PROBE_PARALLELISM;
+        for (int i = 0; i < parallelism * 2; i++) {
+            aliveDevices.add(createDevice("Device" + i));
+        }
+        final CountDownLatch firstProbes = new CountDownLatch(parallelism);
+        final BlaubotEthernetMulticastBeacon.EthernetBeaconScanner scanner = createScanner(firstProbes);
+        scanner.startDueProbes();
+        Assert.assertTrue(firstProbes.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        // further scans must not start more probes while the limit is reached
+        scanner.startDueProbes();
+        Thread.sleep(200);
+        Assert.assertEquals(parallelism, probedDevices.size());
+        Assert.assertEquals(parallelism, maxRunningProbes.get());
+
+        final Set<String> firstProbed = new HashSet<>(probedDevices);
+        releaseProbes.countDown();
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (runningProbes.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // let the probe tasks finish their bookkeeping
+        Thread.sleep(100);
+
+        probedDevices.clear();
+        scanner.startDueProbes();
+        Thread.sleep(200);
+        Assert.assertEquals(parallelism, probedDevices.size());
+        for (String uniqueDeviceId : probedDevices) {
+            Assert.assertFalse(uniqueDeviceId + " was probed again within the probe interval", firstProbed.contains(uniqueDeviceId));
+        }
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * Devices the beacon store received a discovery event from within the probe interval (i.e.
+     * they probed us) are not probed.
+     */
+    public void testSkipsRecentlyDiscoveredDevices() throws InterruptedException {
+        final BlaubotBeaconStore beaconStore = new BlaubotBeaconStore();
+        beacon.setBeaconStore(beaconStore);
+        final MulticastBeaconBlaubotDevice discovered = createDevice("Discovered");
+        final MulticastBeaconBlaubotDevice unknown = createDevice("Unknown");
+        aliveDevices.add(discovered);
+        aliveDevices.add(unknown);
+
+        Assert.assertEquals(-1, beaconStore.getLastDiscoveryTimestamp(discovered.getUniqueDeviceID()));
+        final long before = System.currentTimeMillis();
+        beaconStore.onDeviceDiscoveryEvent(new DiscoveredFreeEvent(discovered, new ArrayList<ConnectionMetaDataDTO>()));
+        final long timestamp = beaconStore.getLastDiscoveryTimestamp(discovered.getUniqueDeviceID());
+        Assert.assertTrue(timestamp >= before && timestamp <= System.currentTimeMillis());
+        Assert.assertEquals(-1, beaconStore.getLastDiscoveryTimestamp(unknown.getUniqueDeviceID()));
+
+        releaseProbes.countDown();
+        final CountDownLatch probeStarted = new CountDownLatch(1);
+        final BlaubotEthernetMulticastBeacon.EthernetBeaconScanner scanner = createScanner(probeStarted);
+        scanner.startDueProbes();
+        Assert.assertTrue(probeStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(200);
+        Assert.assertEquals(Collections.singleton(unknown.getUniqueDeviceID()), probedDevices);
+
+        // due again after the probe interval
+        Thread.sleep(Math.max(0, timestamp + PROBE_INTERVAL - System.currentTimeMillis()) + 100);
+        scanner.startDueProbes();
+        Thread.sleep(200);
+        Assert.assertTrue(probedDevices.contains(discovered.getUniqueDeviceID()));
+    }
+}
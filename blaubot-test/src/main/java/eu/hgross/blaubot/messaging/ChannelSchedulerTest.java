@@ -0,0 +1,228 @@
+package eu.hgross.blaubot.messaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+import eu.hgross.blaubot.mock.BlaubotDeviceMock;
+import eu.hgross.blaubot.test.mockups.ChannelManagerDeviceMockup;
+
+/**
+ * Tests the BlaubotChannelScheduler and the processing passes of the BlaubotChannels using it.
+ *
+ * The notification pool and the channel activation are not public, hence this test lives in the
+ * messaging package.
+ */
+public class ChannelSchedulerTest {
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * A channel manager that runs a hook in the processing pass publishing a message.
+     */
+    private static class HookedChannelManager extends BlaubotChannelManager {
+        private volatile Runnable publishHook;
+
+        public HookedChannelManager(String ownUniqueDeviceId) {
+            super(ownUniqueDeviceId);
+        }
+
+        @Override
+        public int publishChannelMessage(BlaubotMessage channelMessage) {
+            final Runnable hook = publishHook;
+            if (hook != null) {
+                hook.run();
+            }
+            return super.publishChannelMessage(channelMessage);
+        }
+    }
+
+    /**
+     * Connects the master to the client and creates a channel on the master, that transmits
+     * without subscribers.
+     *
+     * @param master the master
+     * @param client the client
+     * @return the master's channel
+     */
+    private static BlaubotChannel createChannel(HookedChannelManager master, ChannelManagerDeviceMockup client) {
+        master.setMaster(true);
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(client.mockDevice);
+        master.addConnection(connection);
+        client.channelManager.addConnection(connection.getOtherEndpointConnection(new BlaubotDeviceMock("master")));
+        final BlaubotChannel channel = (BlaubotChannel) master.createOrGetChannel((short) 1);
+        channel.getChannelConfig().setTransmitIfNoSubscribers(true);
+        return channel;
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * Fills the notification queue of a single threaded scheduler while its notification thread is
+     * busy. The next notification has to be run by the submitting thread instead of a new thread.
+     */
+    public void testBoundedNotificationPool() throws InterruptedException {
+        final BlaubotChannelScheduler scheduler = new BlaubotChannelScheduler(1);
+        try {
+            final CountDownLatch blockerStarted = new CountDownLatch(1);
+            final CountDownLatch releaseBlocker = new CountDownLatch(1);
+            final Set<Thread> notificationThreads = Collections.synchronizedSet(new HashSet<Thread>());
+            scheduler.executeNotification(new Runnable() {
+                @Override
+                public void run() {
+                    notificationThreads.add(Thread.currentThread());
+                    blockerStarted.countDown();
+                    try {
+                        releaseBlocker.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Assert.assertTrue(blockerStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            final CountDownLatch queuedLatch = new CountDownLatch(BlaubotChannelScheduler.MAX_QUEUED_NOTIFICATIONS);
+            final Runnable queuedNotification = new Runnable() {
+                @Override
+                public void run() {
+                    notificationThreads.add(Thread.currentThread());
+                    queuedLatch.countDown();
+                }
+            };
+            for (int i = 0; i < BlaubotChannelScheduler.MAX_QUEUED_NOTIFICATIONS; i++) {
+                scheduler.executeNotification(queuedNotification);
+            }
+            Assert.assertEquals("The queued notifications must wait for the busy thread", BlaubotChannelScheduler.MAX_QUEUED_NOTIFICATIONS, queuedLatch.getCount());
+
+            // the queue is full
+            final AtomicReference<Thread> overflowThread = new AtomicReference<>();
+            scheduler.executeNotification(new Runnable() {
+                @Override
+                public void run() {
+                    overflowThread.set(Thread.currentThread());
+                }
+            });
+            Assert.assertSame(Thread.currentThread(), overflowThread.get());
+
+            releaseBlocker.countDown();
+            Assert.assertTrue(queuedLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            Assert.assertEquals("The notifications have to run on the pool's single thread", 1, notificationThreads.size());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * Deactivates a channel while a processing pass is running. The deactivation has to wait for
+     * the pass to finish.
+     */
+    public void testDeactivateWaitsForRunningPass() throws InterruptedException {
+        final HookedChannelManager master = new HookedChannelManager("master");
+        final ChannelManagerDeviceMockup client = new ChannelManagerDeviceMockup("client");
+        try {
+            final CountDownLatch passStarted = new CountDownLatch(1);
+            final CountDownLatch releasePass = new CountDownLatch(1);
+            master.publishHook = new Runnable() {
+                @Override
+                public void run() {
+                    passStarted.countDown();
+                    try {
+                        releasePass.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            final BlaubotChannel channel = createChannel(master, client);
+            Assert.assertTrue(channel.publish(new byte[100]));
+            Assert.assertTrue("The pass did not start", passStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            final AtomicBoolean deactivated = new AtomicBoolean(false);
+            final Thread deactivationThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    channel.deactivate();
+                    deactivated.set(true);
+                }
+            });
+            deactivationThread.start();
+            deactivationThread.join(500);
+            Assert.assertFalse("deactivate() returned while a pass was running", deactivated.get());
+
+            releasePass.countDown();
+            deactivationThread.join(TIMEOUT);
+            Assert.assertTrue(deactivated.get());
+            Assert.assertFalse(channel.isActive());
+        } finally {
+            master.publishHook = null;
+            master.deactivate();
+            client.channelManager.deactivate();
+        }
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * Deactivates a channel from within its own processing pass (i.e. a listener reacting
+     * to a disconnect), which must not deadlock.
+     */
+    public void testDeactivateFromRunningPass() throws InterruptedException {
+        final HookedChannelManager master = new HookedChannelManager("master");
+        final ChannelManagerDeviceMockup client = new ChannelManagerDeviceMockup("client");
+        try {
+            final AtomicReference<BlaubotChannel> channelRef = new AtomicReference<>();
+            final CountDownLatch deactivatedLatch = new CountDownLatch(1);
+            master.publishHook = new Runnable() {
+                @Override
+                public void run() {
+                    channelRef.get().deactivate();
+                    deactivatedLatch.countDown();
+                }
+            };
+            final BlaubotChannel channel = createChannel(master, client);
+            channelRef.set(channel);
+            Assert.assertTrue(channel.publish(new byte[100]));
+            Assert.assertTrue(deactivatedLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            Assert.assertFalse(channel.isActive());
+        } finally {
+            master.publishHook = null;
+            master.deactivate();
+            client.channelManager.deactivate();
+        }
+    }
+
+    @Test
+    /**
+     * The DISCARD_NEW picker returns the oldest queued message, discards the newer ones and does
+     * not wait for messages on an empty queue.
+     */
+    public void testDiscardNewPicker() {
+        final DiscardNewPickerStrategy picker = new DiscardNewPickerStrategy();
+        final BlockingQueue<BlaubotMessage> queue = new LinkedBlockingQueue<>();
+        final long start = System.currentTimeMillis();
+        Assert.assertNull(picker.pickNextMessage(queue));
+        Assert.assertTrue("The picker waited on an empty queue", System.currentTimeMillis() - start < IBlaubotMessagePickerStrategy.POLL_TIMEOUT);
+
+        final BlaubotMessage oldest = new BlaubotMessage();
+        queue.add(oldest);
+        for (int i = 0; i < 3; i++) {
+            queue.add(new BlaubotMessage());
+        }
+        Assert.assertSame(oldest, picker.pickNextMessage(queue));
+        Assert.assertTrue(queue.isEmpty());
+
+        // a single message is picked as well
+        final BlaubotMessage single = new BlaubotMessage();
+        queue.add(single);
+        Assert.assertSame(single, picker.pickNextMessage(queue));
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
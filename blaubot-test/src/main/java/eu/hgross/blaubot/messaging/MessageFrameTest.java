@@ -0,0 +1,185 @@
+package eu.hgross.blaubot.messaging;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+import eu.hgross.blaubot.mock.BlaubotDeviceMock;
+
+/**
+ * Tests the sharing of a serialized message (BlaubotMessageFrame) between multiple
+ * BlaubotMessageSenders, as done by the BlaubotChannelManager's fan-out.
+ *
+ * Frames and their carriers are package private, hence this test lives in the messaging package.
+ */
+public class MessageFrameTest {
+    /**
+     * Big enough to be backed by a pooled buffer
+     */
+    private static final int PAYLOAD_LENGTH = 10000;
+    private static final long RELEASE_TIMEOUT = 5000;
+    private final Random random = new Random();
+
+    /**
+     * Counts the buffers taken from and given back to the pool.
+     */
+    private static class CountingBufferPool extends BlaubotMessageBufferPool {
+        private final AtomicInteger acquired = new AtomicInteger();
+        private final AtomicInteger released = new AtomicInteger();
+
+        public CountingBufferPool() {
+            super(DEFAULT_BUFFER_CAPACITY, 4);
+        }
+
+        @Override
+        public ByteBuffer acquire(int minCapacity) {
+            acquired.incrementAndGet();
+            return super.acquire(minCapacity);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            released.incrementAndGet();
+            super.release(buffer);
+        }
+    }
+
+    /**
+     * A connection whose first writes fail.
+     */
+    private static class FailingConnectionMock extends BlaubotConnectionQueueMock {
+        private final AtomicInteger failuresLeft;
+
+        public FailingConnectionMock(String uniqueDeviceId, int failures) {
+            super(new BlaubotDeviceMock(uniqueDeviceId));
+            this.failuresLeft = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void write(byte[] bytes, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("Mocked write failure");
+            }
+            super.write(bytes, byteOffset, byteCount);
+        }
+    }
+
+    private BlaubotMessage createMessage(int payloadLength) {
+        final byte[] payload = new byte[payloadLength];
+        random.nextBytes(payload);
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setChannelId((short) 1);
+        message.setPayload(payload);
+        return message;
+    }
+
+    /**
+     * Reads a single message's bytes from the data written to the connection.
+     */
+    private static byte[] readWritten(BlaubotConnectionQueueMock connection, int length) throws IOException {
+        final byte[] written = new byte[length];
+        new DataInputStream(connection.getInputStreamForWrittenConnectionData()).readFully(written);
+        return written;
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * Fans a message out to senders that write it, write it after failed writes, drop it and
+     * reject it. The message has to be serialized once and its pooled buffer has to be given
+     * back exactly once.
+     */
+    public void testFrameIsReleasedOnceAcrossSenders() throws IOException, InterruptedException {
+        final CountingBufferPool pool = new CountingBufferPool();
+        final BlaubotMessage message = createMessage(PAYLOAD_LENGTH);
+        final byte[] expectedBytes = message.toBytes();
+
+        final FailingConnectionMock writingConnection = new FailingConnectionMock("Writing", 0);
+        final FailingConnectionMock failingConnection = new FailingConnectionMock("Failing", 2);
+        final BlaubotMessageSender writingSender = new BlaubotMessageSender(writingConnection);
+        final BlaubotMessageSender failingSender = new BlaubotMessageSender(failingConnection);
+        // drops the queued carrier for a newer message
+        final BlaubotMessageSender droppingSender = new BlaubotMessageSender(new FailingConnectionMock("Dropping", 0));
+        droppingSender.setMaxQueuedMessages(1);
+        droppingSender.setOverflowPolicy(MessageSenderOverflowPolicy.DROP_OLDEST);
+        // rejects the carrier because its queue is full
+        final BlaubotMessageSender rejectingSender = new BlaubotMessageSender(new FailingConnectionMock("Rejecting", 0));
+        rejectingSender.setMaxQueuedMessages(1);
+        rejectingSender.setOverflowPolicy(MessageSenderOverflowPolicy.DISCONNECT);
+        Assert.assertTrue(rejectingSender.sendMessage(createMessage(10)));
+        final List<BlaubotMessageSender> senders = Arrays.asList(writingSender, failingSender, droppingSender, rejectingSender);
+
+        // as the channel manager's fan-out: one frame, one carrier per sender, then the creator's reference is released
+        final BlaubotMessageFrame frame = BlaubotMessageFrame.encode(message, pool);
+        Assert.assertEquals("The message has to be serialized into one pooled buffer", 1, pool.acquired.get());
+        for (BlaubotMessageSender sender : senders) {
+            sender.sendMessage(BlaubotMessage.createFrameCarrier(message, frame));
+        }
+        Assert.assertTrue(droppingSender.sendMessage(createMessage(10)));
+        Assert.assertEquals(1, droppingSender.getDroppedMessages());
+        Assert.assertEquals(1, rejectingSender.getDroppedMessages());
+        frame.release();
+        Assert.assertEquals("The frame is still queued to two senders", 0, pool.released.get());
+
+        try {
+            writingSender.activate();
+            failingSender.activate();
+            Assert.assertArrayEquals(expectedBytes, readWritten(writingConnection, expectedBytes.length));
+            Assert.assertArrayEquals(expectedBytes, readWritten(failingConnection, expectedBytes.length));
+            Assert.assertTrue(failingConnection.failuresLeft.get() < 0);
+
+            // the last reference is released after the write returned
+            final long deadline = System.currentTimeMillis() + RELEASE_TIMEOUT;
+            while (pool.released.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            Assert.assertEquals("The frame's buffer has to be released exactly once", 1, pool.released.get());
+            Assert.assertEquals(1, pool.acquired.get());
+            try {
+                frame.retain();
+                Assert.fail("The frame should have been released completely");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            for (BlaubotMessageSender sender : senders) {
+                sender.deactivate(null);
+            }
+        }
+    }
+
+    @Test
+    /**
+     * Small frames are not backed by pooled buffers.
+     */
+    public void testSmallFrameIsNotPooled() {
+        final CountingBufferPool pool = new CountingBufferPool();
+        final BlaubotMessage message = createMessage(100);
+        final BlaubotMessageFrame frame = BlaubotMessageFrame.encode(message, pool);
+        final BlaubotMessage carrier = BlaubotMessage.createFrameCarrier(message, frame);
+        Assert.assertEquals(message.getEncodedLength(), carrier.getEncodedLength());
+        Assert.assertArrayEquals(message.toBytes(), carrier.toBytes());
+
+        carrier.releaseFrame();
+        // releasing a carrier twice must not release the frame's reference twice
+        carrier.releaseFrame();
+        frame.release();
+        Assert.assertEquals(0, pool.acquired.get());
+        Assert.assertEquals(0, pool.released.get());
+        try {
+            frame.release();
+            Assert.fail("A frame must not be released more often than retained");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -3,15 +3,20 @@ package eu.hgross.blaubot.test;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
 import eu.hgross.blaubot.admin.ACKPronouncePrinceAdminMessage;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.AdminMessageFactory;
 import eu.hgross.blaubot.admin.BowDownToNewKingAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
+import eu.hgross.blaubot.admin.CensusResyncRequestAdminMessage;
 import eu.hgross.blaubot.admin.CloseRelayConnectionAdminMessage;
 import eu.hgross.blaubot.admin.DiscoveredDeviceAdminMessage;
 import eu.hgross.blaubot.admin.PrinceFoundAKingAdminMessage;
@@ -19,8 +24,13 @@ import eu.hgross.blaubot.admin.PronouncePrinceAdminMessage;
 import eu.hgross.blaubot.admin.RelayAdminMessage;
 import eu.hgross.blaubot.admin.ServerConnectionAvailableAdminMessage;
 import eu.hgross.blaubot.admin.ServerConnectionDownAdminMessage;
+import eu.hgross.blaubot.admin.StringAdminMessage;
+import eu.hgross.blaubot.messaging.BlaubotAdminMessageDispatcher;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -56,6 +66,45 @@ public class AdminMessagesTest {
         assertSerialization(adminMsg, CensusMessage.class);
 	}
 
+	@Test
+	public void testCensusDeltaMessage() {
+		Map<String, State> oldStates = new HashMap<String, State>();
+		oldStates.put("king", State.King);
+		oldStates.put("prince", State.Prince);
+		oldStates.put("peasant", State.Peasant);
+		oldStates.put("leaving", State.Peasant);
+		Map<String, State> newStates = new HashMap<String, State>();
+		newStates.put("king", State.King);
+		newStates.put("prince", State.Peasant);
+		newStates.put("peasant", State.Prince);
+		newStates.put("joined", State.Peasant);
+
+		CensusMessage census = new CensusMessage(oldStates, 42, 7);
+		assertSerialization(census, CensusMessage.class);
+		CensusDeltaMessage delta = CensusDeltaMessage.diff(42, 8, oldStates, newStates);
+		assertSerialization(delta, CensusDeltaMessage.class);
+		assertEquals(1, delta.getJoinedDevices().size());
+		assertEquals(2, delta.getChangedDevices().size());
+		assertEquals(1, delta.getLeftDevices().size());
+
+		CensusMessage applied = census.applyDelta(delta);
+		assertEquals(newStates, applied.getDeviceStates());
+		assertEquals(8, applied.getEpoch());
+		assertEquals("peasant", applied.extractPrinceUniqueId());
+		assertTrue(delta.isOutdatedBy(applied));
+
+		// gaps and other sessions can not be applied
+		assertNull(census.applyDelta(CensusDeltaMessage.diff(42, 9, oldStates, newStates)));
+		assertNull(census.applyDelta(CensusDeltaMessage.diff(43, 8, oldStates, newStates)));
+		assertNull(new CensusMessage(oldStates).applyDelta(CensusDeltaMessage.diff(CensusMessage.NO_SESSION, 1, oldStates, newStates)));
+	}
+
+	@Test
+	public void testCensusResyncRequestMessage() {
+		CensusResyncRequestAdminMessage adminMsg = new CensusResyncRequestAdminMessage("aUniqueId");
+		assertSerialization(adminMsg, CensusResyncRequestAdminMessage.class);
+	}
+
 	@Test
 	public void testPrinceFoundAKingMessage() {
 		PrinceFoundAKingAdminMessage adminMsg = new PrinceFoundAKingAdminMessage("foundKingUniqueId", new ArrayList<ConnectionMetaDataDTO>());
@@ -94,12 +143,60 @@ public class AdminMessagesTest {
         assertSerialization(relayAdminMessage, RelayAdminMessage.class);
     }
 
+    @Test
+    public void testRoutedRelayAdminMessage() {
+        BlaubotMessage anyMessage = new ServerConnectionDownAdminMessage("mdiatorId").toBlaubotMessage();
+        RelayAdminMessage relayAdminMessage = new RelayAdminMessage("mediatorId", anyMessage.toBytes());
+        assertSerialization(relayAdminMessage, RelayAdminMessage.class);
+        RelayAdminMessage deserialized = (RelayAdminMessage) AdminMessageFactory.createAdminMessageFromRawMessage(relayAdminMessage.toBlaubotMessage());
+        assertEquals("mediatorId", deserialized.getMediatorUniqueDeviceId());
+    }
+
     @Test
     public void testDiscoveredDeviceAdminMessage() {
         DiscoveredDeviceAdminMessage adminMessage = new DiscoveredDeviceAdminMessage("uniqueDeviceId", State.Free, new ArrayList<ConnectionMetaDataDTO>());
         assertSerialization(adminMessage, DiscoveredDeviceAdminMessage.class);
     }
 
+    @Test
+    public void testTypedDispatch() {
+        final BlaubotAdminMessageDispatcher dispatcher = new BlaubotAdminMessageDispatcher();
+        final List<String> calls = new ArrayList<>();
+        final IBlaubotAdminMessageListener all = new IBlaubotAdminMessageListener() {
+            @Override
+            public void onAdminMessage(AbstractAdminMessage adminMessage) {
+                calls.add("all");
+            }
+        };
+        final IBlaubotAdminMessageListener relays = new IBlaubotAdminMessageListener() {
+            @Override
+            public void onAdminMessage(AbstractAdminMessage adminMessage) {
+                calls.add("relay");
+            }
+        };
+        dispatcher.addListener(RelayAdminMessage.class, relays);
+        dispatcher.addListener(all);
+
+        final RelayAdminMessage relayAdminMessage = new RelayAdminMessage("mediatorId", new StringAdminMessage("payload").toBlaubotMessage().toBytes());
+        dispatcher.dispatch(relayAdminMessage);
+        assertEquals(Arrays.asList("relay", "all"), calls);
+
+        calls.clear();
+        dispatcher.dispatch(new StringAdminMessage("string"));
+        assertEquals(Arrays.asList("all"), calls);
+
+        // registrations after the first dispatch of a type are respected
+        calls.clear();
+        dispatcher.addListener(AbstractAdminMessage.class, relays);
+        dispatcher.dispatch(new StringAdminMessage("string"));
+        assertEquals(Arrays.asList("all", "relay"), calls);
+
+        calls.clear();
+        dispatcher.removeListener(relays);
+        dispatcher.dispatch(relayAdminMessage);
+        assertEquals(Arrays.asList("all"), calls);
+    }
+
     private void assertSerialization(AbstractAdminMessage adminMsg, Class type) {
         BlaubotMessage bbm = adminMsg.toBlaubotMessage();
         byte[] payload = bbm.getPayload();
@@ -4,6 +4,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import eu.hgross.blaubot.ethernet.EthernetBeaconScannerTest;
+import eu.hgross.blaubot.messaging.ChannelSchedulerTest;
+import eu.hgross.blaubot.messaging.MessageFrameTest;
+
 @RunWith(Suite.class)
 @SuiteClasses({
         AdminMessagesTest.class,
@@ -11,11 +15,25 @@ import org.junit.runners.Suite.SuiteClasses;
 	    BeaconMessagesTest.class,
 	    BitManipTest.class,
         ChannelManagerTest.class,
+        ChannelSchedulerTest.class,
+        ChunkReassemblerTest.class,
         LifecycleListenerTest.class,
+        MessageBufferPoolTest.class,
+        MessageFrameTest.class,
         MessageSenderAndReceiverTest.class,
         MockObjectsTest.class,
+        PayloadCodecTest.class,
+        TimerServiceTest.class,
+        GeoBeaconIndexTest.class,
+        MetricsTest.class,
+        KingdomSimulatorTest.class,
+        LifeCycleEventDispatcherTest.class,
+        ServerConnectionSelectorTest.class,
+        EthernetNioConnectionTest.class,
+        EthernetBeaconScannerTest.class,
 		EthernetBlaubotWithFixedDeviceSetTest.class,
-        BlaubotFactoryTest.class
+        BlaubotFactoryTest.class,
+        BlaubotServerTest.class
 	})
 public class AllSuite {
 
@@ -3,11 +3,15 @@ package eu.hgross.blaubot.test;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
+import eu.hgross.blaubot.core.BlaubotDevice;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
 import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.ethernet.EthernetConnectionMetaDataDTO;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 
 /**
  * Tests regarding the {@link BeaconMessage}s and their sending components.
@@ -39,4 +43,46 @@ public class BeaconMessagesTest {
 			Assert.assertEquals(bm, bm2);
 		}
 	}
+
+	@Test
+	/**
+	 * Tests the binary form against the legacy form and the decoding from a connection
+	 */
+	public void testBinaryAndLegacyForm() {
+		final ArrayList<ConnectionMetaDataDTO> ownMetaData = new ArrayList<>();
+		ownMetaData.add(new EthernetConnectionMetaDataDTO("192.168.1.23", 17171));
+		final ConnectionMetaDataDTO customDto = new ConnectionMetaDataDTO();
+		customDto.setAcceptorType("CustomAcceptor_1.0");
+		customDto.getMetaData().put("customKey", "customValue");
+		ownMetaData.add(customDto);
+		final ArrayList<ConnectionMetaDataDTO> kingMetaData = new ArrayList<>();
+		kingMetaData.add(new EthernetConnectionMetaDataDTO("192.168.1.42", 17171));
+		final BeaconMessage bm = new BeaconMessage("myUniqueId", State.Peasant, ownMetaData, "someKingUniqueId", kingMetaData);
+
+		final byte[] binary = bm.toBytes(false);
+		final byte[] legacy = bm.toBytes(true);
+		Assert.assertTrue("binary form should be smaller: " + binary.length + " >= " + legacy.length, binary.length < legacy.length);
+
+		final BeaconMessage fromBinary = BeaconMessage.fromBytes(binary);
+		final BeaconMessage fromLegacy = BeaconMessage.fromBytes(legacy);
+		Assert.assertEquals(bm, fromBinary);
+		Assert.assertEquals(bm, fromLegacy);
+		Assert.assertEquals("myUniqueId", fromBinary.getUniqueDeviceId());
+		Assert.assertFalse(fromBinary.isLegacyEncoded());
+		Assert.assertTrue(fromLegacy.isLegacyEncoded());
+
+		// both forms can be read from a connection
+		for (byte[] serialized : new byte[][]{binary, legacy}) {
+			final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDevice("a"));
+			final BlaubotConnectionQueueMock otherEndpoint = connection.getOtherEndpointConnection(new BlaubotDevice("b"));
+			try {
+				connection.write(serialized);
+			} catch (IOException e) {
+				Assert.fail(e.getMessage());
+			}
+			final BeaconMessage received = BeaconMessage.fromBlaubotConnection(otherEndpoint);
+			Assert.assertEquals(bm, received);
+			Assert.assertEquals(serialized == legacy, received.isLegacyEncoded());
+		}
+	}
 }
@@ -0,0 +1,176 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.BlaubotKingdom;
+import eu.hgross.blaubot.core.BlaubotServer;
+import eu.hgross.blaubot.core.BlaubotServerRuntime;
+import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.core.IBlaubotServerLifeCycleListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
+import eu.hgross.blaubot.messaging.BlaubotChannelScheduler;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.mock.BlaubotConnectionAcceptorMock;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+import eu.hgross.blaubot.mock.BlaubotDeviceMock;
+
+/**
+ * Tests the kingdom handshakes and the hibernation of the kingdoms hosted by a
+ * {@link BlaubotServer} and its {@link BlaubotServerRuntime}.
+ */
+public class BlaubotServerTest {
+    private static final String SERVER_DEVICE = "Server1";
+    private static final long HANDSHAKE_TIMEOUT = 500;
+    private static final long IDLE_TIMEOUT = 500;
+
+    private BlaubotServerRuntime runtime;
+    private BlaubotConnectionAcceptorMock acceptor;
+    private BlaubotServer server;
+    private LinkedBlockingQueue<BlaubotKingdom> connectedKingdoms;
+
+    @Before
+    public void setUp() {
+        // a single handshake thread
+        runtime = new BlaubotServerRuntime(2, 1, BlaubotChannelScheduler.DEFAULT_POOL_SIZE, IDLE_TIMEOUT, HANDSHAKE_TIMEOUT, BlaubotServerRuntime.DEFAULT_WRITE_TIMEOUT);
+        acceptor = new BlaubotConnectionAcceptorMock(null);
+        server = new BlaubotServer(runtime, new BlaubotDeviceMock(SERVER_DEVICE), acceptor);
+        connectedKingdoms = new LinkedBlockingQueue<>();
+        server.addServerLifeCycleListener(new IBlaubotServerLifeCycleListener() {
+            @Override
+            public void onKingdomConnected(BlaubotKingdom kingdom) {
+                connectedKingdoms.add(kingdom);
+            }
+
+            @Override
+            public void onKingdomDisconnected(BlaubotKingdom kingdom) {
+            }
+        });
+        server.startBlaubotServer();
+    }
+
+    @After
+    public void cleanUp() {
+        server.stopBlaubotServer();
+        runtime.shutdown();
+    }
+
+    /**
+     * Creates the server side of a connection from a king and hands it to the server.
+     */
+    private BlaubotConnectionQueueMock connectKing(String kingUniqueDeviceId) {
+        final BlaubotConnectionQueueMock serverSide = new BlaubotConnectionQueueMock(new BlaubotDeviceMock(kingUniqueDeviceId));
+        acceptor.mockNewConnection(serverSide);
+        return serverSide;
+    }
+
+    /**
+     * Sends the handshake of a kingdom connection (see BlaubotKingdomConnection).
+     */
+    private static void sendHandshake(BlaubotConnectionQueueMock serverSide, String kingUniqueDeviceId) throws IOException {
+        final IBlaubotConnection kingSide = serverSide.getOtherEndpointConnection(new BlaubotDeviceMock(SERVER_DEVICE));
+        final BlaubotMessage kingdomIdMessage = new BlaubotMessage();
+        kingdomIdMessage.setPriority(BlaubotMessage.Priority.ADMIN);
+        kingdomIdMessage.setPayload(kingUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET));
+        kingdomIdMessage.getMessageType().setIsAdminMessage(false).setContainsPayload(true).setIsKeepAliveMessage(false).setIsFirstHop(false);
+        kingSide.write(kingdomIdMessage.toBytes());
+    }
+
+    @Test(timeout = 10000)
+    public void testSilentConnectionDoesNotBlockHandshakes() throws Exception {
+        final BlaubotConnectionQueueMock silentConnection = connectKing("SilentKing");
+        final CountDownLatch silentClosedLatch = new CountDownLatch(1);
+        silentConnection.addConnectionListener(new IBlaubotConnectionListener() {
+            @Override
+            public void onConnectionClosed(IBlaubotConnection connection) {
+                silentClosedLatch.countDown();
+            }
+        });
+
+        // queued behind the silent connection's handshake on the single handshake thread
+        final BlaubotConnectionQueueMock connection = connectKing("King1");
+        sendHandshake(connection, "King1");
+
+        final BlaubotKingdom kingdom = connectedKingdoms.poll(HANDSHAKE_TIMEOUT * 6, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(kingdom);
+        Assert.assertEquals("King1", kingdom.getKingDevice().getUniqueDeviceID());
+        // the silent connection was closed after the handshake timeout
+        Assert.assertTrue(silentClosedLatch.await(HANDSHAKE_TIMEOUT * 4, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(connectedKingdoms.isEmpty());
+        Assert.assertEquals(1, runtime.getKingdomCount());
+        Assert.assertTrue(connection.isConnected());
+    }
+
+    @Test(timeout = 10000)
+    public void testReconnectingKingReplacesKingdom() throws Exception {
+        final BlaubotConnectionQueueMock firstConnection = connectKing("King1");
+        sendHandshake(firstConnection, "King1");
+        final BlaubotKingdom firstKingdom = connectedKingdoms.poll(5000, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(firstKingdom);
+
+        final BlaubotConnectionQueueMock secondConnection = connectKing("King1");
+        sendHandshake(secondConnection, "King1");
+        final BlaubotKingdom secondKingdom = connectedKingdoms.poll(5000, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(secondKingdom);
+        Assert.assertNotSame(firstKingdom, secondKingdom);
+        Assert.assertFalse(firstConnection.isConnected());
+        Assert.assertTrue(secondConnection.isConnected());
+        Assert.assertEquals(1, runtime.getKingdomCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleKingdomIsHibernated() throws Exception {
+        final BlaubotConnectionQueueMock connection = connectKing("King1");
+        sendHandshake(connection, "King1");
+        final BlaubotKingdom kingdom = connectedKingdoms.poll(5000, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(kingdom);
+
+        // hibernated by the runtime's periodic check after the idle timeout
+        while (!kingdom.isHibernated()) {
+            Thread.sleep(IDLE_TIMEOUT / 4);
+        }
+        Assert.assertEquals(1, runtime.getHibernatedKingdomCount());
+        // nothing to do for an already hibernated kingdom
+        Assert.assertEquals(0, runtime.hibernateIdleKingdoms());
+
+        // wakes up with the next message from the king
+        final BlaubotMessage keepAliveMessage = new BlaubotMessage();
+        keepAliveMessage.setPriority(BlaubotMessage.Priority.ADMIN);
+        keepAliveMessage.getMessageType().setIsAdminMessage(false).setIsKeepAliveMessage(true).setContainsPayload(false).setIsFirstHop(false);
+        connection.getOtherEndpointConnection(new BlaubotDeviceMock(SERVER_DEVICE)).write(keepAliveMessage.toBytes());
+        while (kingdom.isHibernated()) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, runtime.getHibernatedKingdomCount());
+        Assert.assertTrue(connection.isConnected());
+    }
+
+    @Test(timeout = 10000)
+    public void testOwnedRuntimeIsShutDownOnStop() {
+        final BlaubotConnectionAcceptorMock ownAcceptor = new BlaubotConnectionAcceptorMock(null);
+        final BlaubotServer ownRuntimeServer = new BlaubotServer(new BlaubotDeviceMock("Server2"), ownAcceptor);
+        ownRuntimeServer.startBlaubotServer();
+        final BlaubotServerRuntime ownRuntime = ownRuntimeServer.getRuntime();
+        Assert.assertFalse(ownRuntime.isShutdown());
+        ownRuntimeServer.stopBlaubotServer();
+        Assert.assertTrue(ownRuntime.isShutdown());
+
+        // a restarted server gets a new runtime
+        ownRuntimeServer.startBlaubotServer();
+        Assert.assertNotSame(ownRuntime, ownRuntimeServer.getRuntime());
+        Assert.assertFalse(ownRuntimeServer.getRuntime().isShutdown());
+        ownRuntimeServer.stopBlaubotServer();
+
+        // a runtime passed to the server is left alone
+        server.stopBlaubotServer();
+        Assert.assertFalse(runtime.isShutdown());
+    }
+}
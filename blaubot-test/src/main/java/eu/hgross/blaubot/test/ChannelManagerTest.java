@@ -7,17 +7,23 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
@@ -25,12 +31,16 @@ import eu.hgross.blaubot.admin.StringAdminMessage;
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.BlaubotDevice;
 import eu.hgross.blaubot.core.IActionListener;
+import eu.hgross.blaubot.messaging.BlaubotChannel;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessageManager;
+import eu.hgross.blaubot.messaging.BlaubotPayloadCodecs;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
 import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IBlaubotConflationKeyExtractor;
 import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.MessageSenderOverflowPolicy;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 import eu.hgross.blaubot.test.mockups.ChannelManagerDeviceMockup;
 
@@ -432,6 +442,557 @@ public class ChannelManagerTest {
         testExcludeSender(deviceMockups);
     }
 
+    @Test(timeout = 10000)
+    /**
+     * Tests that the master delivers its own messages in order without the reflexive loopback connection
+     */
+    public void testMasterLocalDelivery() throws InterruptedException {
+        // threads of other tests may still be running
+        final Set<Thread> threadsBefore = new HashSet<>(Thread.getAllStackTraces().keySet());
+        final BlaubotChannelManager channelManager = master.channelManager;
+        channelManager.setMaster(true);
+        final int messageCount = 1000;
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(messageCount);
+        final IBlaubotChannel channel = channelManager.createOrGetChannel((short) 1);
+        channel.getChannelConfig().setTransmitReflexiveMessages(true);
+        channel.getChannelConfig().setQueueCapacity(messageCount);
+        channel.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage blaubotMessage) {
+                received.add(Integer.valueOf(new String(blaubotMessage.getPayload(), BlaubotConstants.STRING_CHARSET)));
+                latch.countDown();
+            }
+        });
+        channel.subscribe();
+        Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+        for (int i = 0; i < messageCount; i++) {
+            Assert.assertTrue(channel.publish(String.valueOf(i).getBytes(BlaubotConstants.STRING_CHARSET)));
+        }
+        Assert.assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < messageCount; i++) {
+            Assert.assertEquals(i, (int) received.get(i));
+        }
+
+        // the master's own connection started no sender or receiver threads
+        final Set<Thread> newThreads = new HashSet<>(Thread.getAllStackTraces().keySet());
+        newThreads.removeAll(threadsBefore);
+        for (Thread thread : newThreads) {
+            Assert.assertFalse(thread.getName().startsWith("msg-sender-master"));
+            Assert.assertFalse(thread.getName().startsWith("msg-receiver-master"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    /**
+     * Tests that a role change does not block the listeners of the master's pending own messages,
+     * which add connections, and that these messages are still dispatched.
+     */
+    public void testMasterLocalDeliveryDrainsOnRoleChange() throws InterruptedException {
+        final BlaubotChannelManager channelManager = master.channelManager;
+        channelManager.setMaster(true);
+        final CountDownLatch roleChangeLatch = new CountDownLatch(1);
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        final IBlaubotChannel channel = channelManager.createOrGetChannel((short) 1);
+        channel.getChannelConfig().setTransmitReflexiveMessages(true);
+        channel.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage blaubotMessage) {
+                final int number = blaubotMessage.getPayload()[0];
+                if (number == 0) {
+                    try {
+                        Assert.assertTrue(roleChangeLatch.await(5000, TimeUnit.MILLISECONDS));
+                        // let the role change begin
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    channelManager.addConnection(new BlaubotConnectionQueueMock(new BlaubotDevice("newDevice")));
+                }
+                received.add(number);
+            }
+        });
+        channel.subscribe();
+        Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+        Assert.assertTrue(channel.publish(new byte[]{0}));
+        Assert.assertTrue(channel.publish(new byte[]{1}));
+        // the messages reach the local delivery
+        Thread.sleep(200);
+        roleChangeLatch.countDown();
+        final long start = System.currentTimeMillis();
+        channelManager.setMaster(false);
+        // the local delivery's drain timeout is 5 seconds
+        Assert.assertTrue("The role change waited for the blocked listener", System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(Arrays.asList(0, 1), received);
+    }
+
+    @Test(timeout = 10000)
+    /**
+     * Tests that the senders drain on a shared executor without own threads and that the released
+     * queues of idle channels are re-created on the next publish
+     */
+    public void testSharedSenderExecutorAndIdleRelease() throws InterruptedException {
+        final Set<Thread> threadsBefore = new HashSet<>(Thread.getAllStackTraces().keySet());
+        final ExecutorService senderExecutor = Executors.newFixedThreadPool(2);
+        try {
+            master.channelManager.setSenderExecutor(senderExecutor);
+            for (ChannelManagerDeviceMockup client : clients) {
+                client.channelManager.setSenderExecutor(senderExecutor);
+            }
+            final List<BlaubotChannelManager> deviceMockups = connectNetwork();
+            final List<BlaubotChannelManager> clientManagers = deviceMockups.subList(1, deviceMockups.size());
+
+            final CountDownLatch firstLatch = new CountDownLatch(clientManagers.size());
+            final CountDownLatch secondLatch = new CountDownLatch(clientManagers.size());
+            for (BlaubotChannelManager device : clientManagers) {
+                final IBlaubotChannel channel = device.createOrGetChannel((short) 7);
+                channel.subscribe();
+                channel.addMessageListener(new IBlaubotMessageListener() {
+                    @Override
+                    public void onMessage(BlaubotMessage blaubotMessage) {
+                        if (firstLatch.getCount() > 0) {
+                            firstLatch.countDown();
+                        } else {
+                            secondLatch.countDown();
+                        }
+                    }
+                });
+            }
+            Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+            final IBlaubotChannel channel = master.channelManager.createOrGetChannel((short) 7);
+            Assert.assertTrue(channel.publish("first".getBytes(BlaubotConstants.STRING_CHARSET)));
+            Assert.assertTrue(firstLatch.await(5000, TimeUnit.MILLISECONDS));
+
+            Assert.assertTrue(master.channelManager.releaseIdleResources() > 0);
+            Assert.assertTrue(channel.publish("second".getBytes(BlaubotConstants.STRING_CHARSET)));
+            Assert.assertTrue(secondLatch.await(5000, TimeUnit.MILLISECONDS));
+
+            // no sending threads were started
+            final Set<Thread> newThreads = new HashSet<>(Thread.getAllStackTraces().keySet());
+            newThreads.removeAll(threadsBefore);
+            for (Thread thread : newThreads) {
+                Assert.assertFalse(thread.getName().startsWith("msg-sender-"));
+            }
+        } finally {
+            senderExecutor.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCompressedChannel() throws InterruptedException {
+        final List<BlaubotChannelManager> deviceMockups = connectNetwork();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("{\"key\":\"value\",\"number\":").append(i).append("}");
+        }
+        // big enough to be chunked
+        final byte[] payload = sb.toString().getBytes(BlaubotConstants.STRING_CHARSET);
+        final byte[] smallPayload = "small".getBytes(BlaubotConstants.STRING_CHARSET);
+
+        final CountDownLatch latch = new CountDownLatch(2 * (deviceMockups.size() - 1));
+        for (BlaubotChannelManager device : deviceMockups.subList(1, deviceMockups.size())) {
+            final IBlaubotChannel channel = device.createOrGetChannel((short) 42);
+            channel.subscribe();
+            channel.addMessageListener(new IBlaubotMessageListener() {
+                @Override
+                public void onMessage(BlaubotMessage blaubotMessage) {
+                    Assert.assertFalse(blaubotMessage.getMessageType().isCompressed());
+                    if (blaubotMessage.getPayload().length == smallPayload.length) {
+                        Assert.assertArrayEquals(smallPayload, blaubotMessage.getPayload());
+                    } else {
+                        Assert.assertArrayEquals(payload, blaubotMessage.getPayload());
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+        final IBlaubotChannel channel = deviceMockups.get(0).createOrGetChannel((short) 42);
+        channel.getChannelConfig().setPayloadCodec(BlaubotPayloadCodecs.LZ);
+        Assert.assertTrue(channel.publish(payload));
+        channel.getChannelConfig().setPayloadCodec(BlaubotPayloadCodecs.DEFLATE);
+        Assert.assertTrue(channel.publish(smallPayload));
+        Assert.assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 15000)
+    public void testConflatingChannel() throws InterruptedException {
+        final int keys = 3;
+        final int updatesPerKey = 50;
+        final ExecutorService senderExecutor = Executors.newSingleThreadExecutor();
+        try {
+            master.channelManager.setSenderExecutor(senderExecutor);
+            final List<BlaubotChannelManager> deviceMockups = connectNetwork();
+            final List<BlaubotChannelManager> clientManagers = deviceMockups.subList(1, deviceMockups.size());
+
+            final IBlaubotConflationKeyExtractor keyExtractor = new IBlaubotConflationKeyExtractor() {
+                @Override
+                public Object getConflationKey(BlaubotMessage message) {
+                    return message.getPayload()[0];
+                }
+            };
+            final List<List<byte[]>> receivedPerClient = new ArrayList<>();
+            final CountDownLatch latch = new CountDownLatch(keys * clientManagers.size());
+            for (BlaubotChannelManager device : clientManagers) {
+                final List<byte[]> received = Collections.synchronizedList(new ArrayList<byte[]>());
+                receivedPerClient.add(received);
+                final IBlaubotChannel channel = device.createOrGetChannel((short) 8);
+                channel.getChannelConfig().setConflating(true).setConflationKeyExtractor(keyExtractor);
+                channel.subscribe(new IBlaubotMessageListener() {
+                    @Override
+                    public void onMessage(BlaubotMessage blaubotMessage) {
+                        received.add(blaubotMessage.getPayload());
+                        latch.countDown();
+                    }
+                });
+            }
+            Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+            // stall the master's senders to simulate slow links
+            final CountDownLatch stall = new CountDownLatch(1);
+            senderExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stall.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            final IBlaubotChannel channel = master.channelManager.createOrGetChannel((short) 8);
+            channel.getChannelConfig().setConflating(true).setConflationKeyExtractor(keyExtractor);
+            for (int update = 0; update < updatesPerKey; update++) {
+                for (int key = 0; key < keys; key++) {
+                    Assert.assertTrue(channel.publish(new byte[]{(byte) key, (byte) update}));
+                }
+            }
+            // give the channel time to hand all updates to the stalled senders
+            Thread.sleep(500);
+            stall.countDown();
+
+            Assert.assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+            Thread.sleep(200);
+            for (List<byte[]> received : receivedPerClient) {
+                // only the most recent update per key, in the order the keys were published
+                Assert.assertEquals(keys, received.size());
+                for (int key = 0; key < keys; key++) {
+                    Assert.assertArrayEquals(new byte[]{(byte) key, (byte) (updatesPerKey - 1)}, received.get(key));
+                }
+            }
+        } finally {
+            senderExecutor.shutdown();
+        }
+    }
+
+    @Test(timeout = 15000)
+    /**
+     * Tests that a message of a conflating channel, that is put back to the sender's queue after a
+     * failed write, is still overwritten by the next update with the same key.
+     */
+    public void testConflatingChannelAfterFailedWrite() throws InterruptedException {
+        final ExecutorService senderExecutor = Executors.newSingleThreadExecutor();
+        try {
+            master.channelManager.setSenderExecutor(senderExecutor);
+            master.channelManager.setMaster(true);
+            final ChannelManagerDeviceMockup client = clients.get(0);
+            final AtomicBoolean failWrites = new AtomicBoolean(false);
+            final CountDownLatch failedWriteLatch = new CountDownLatch(1);
+            final BlaubotConnectionQueueMock masterSide = new BlaubotConnectionQueueMock(client.mockDevice) {
+                @Override
+                public void write(byte[] bytes, int byteOffset, int byteCount) throws IOException {
+                    if (failWrites.get()) {
+                        failedWriteLatch.countDown();
+                        throw new IOException("Mocked write failure");
+                    }
+                    super.write(bytes, byteOffset, byteCount);
+                }
+            };
+            final BlaubotConnectionQueueMock clientSide = masterSide.getOtherEndpointConnection(master.mockDevice);
+            master.channelManager.addConnection(masterSide);
+            client.channelManager.addConnection(clientSide);
+
+            final IBlaubotConflationKeyExtractor keyExtractor = new IBlaubotConflationKeyExtractor() {
+                @Override
+                public Object getConflationKey(BlaubotMessage message) {
+                    return message.getPayload()[0];
+                }
+            };
+            final List<byte[]> received = Collections.synchronizedList(new ArrayList<byte[]>());
+            final CountDownLatch latestLatch = new CountDownLatch(1);
+            final IBlaubotChannel clientChannel = client.channelManager.createOrGetChannel((short) 8);
+            clientChannel.getChannelConfig().setConflating(true).setConflationKeyExtractor(keyExtractor);
+            clientChannel.subscribe(new IBlaubotMessageListener() {
+                @Override
+                public void onMessage(BlaubotMessage blaubotMessage) {
+                    received.add(blaubotMessage.getPayload());
+                    if (blaubotMessage.getPayload()[1] == 2) {
+                        latestLatch.countDown();
+                    }
+                }
+            });
+            Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+            final IBlaubotChannel channel = master.channelManager.createOrGetChannel((short) 8);
+            channel.getChannelConfig().setConflating(true).setConflationKeyExtractor(keyExtractor);
+            failWrites.set(true);
+            Assert.assertTrue(channel.publish(new byte[]{0, 0}));
+            Assert.assertTrue(failedWriteLatch.await(5000, TimeUnit.MILLISECONDS));
+            // let the sender put the message back
+            Thread.sleep(100);
+            failWrites.set(false);
+
+            // the updates overwrite the message, that was put back
+            Assert.assertTrue(channel.publish(new byte[]{0, 1}));
+            Assert.assertTrue(channel.publish(new byte[]{0, 2}));
+            Assert.assertTrue(latestLatch.await(5000, TimeUnit.MILLISECONDS));
+            Thread.sleep(200);
+            synchronized (received) {
+                for (byte[] payload : received) {
+                    Assert.assertNotEquals("The outdated update was sent", 0, payload[1]);
+                }
+                Assert.assertArrayEquals(new byte[]{0, 2}, received.get(received.size() - 1));
+            }
+        } finally {
+            senderExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Creates a connection to the given device, whose writes always fail, so that the messages
+     * published to it stay queued.
+     *
+     * @param remoteDevice the device
+     * @return the connection
+     */
+    private static BlaubotConnectionQueueMock createFailingConnection(ChannelManagerDeviceMockup remoteDevice) {
+        return new BlaubotConnectionQueueMock(remoteDevice.mockDevice) {
+            @Override
+            public void write(byte[] bytes, int byteOffset, int byteCount) throws IOException {
+                throw new IOException("Mocked write failure");
+            }
+        };
+    }
+
+    /**
+     * Publishes a message to the device and checks that it was queued to the expected number of connections.
+     *
+     * @param channelManager      the channel manager
+     * @param uniqueDeviceId      the device
+     * @param expectedConnections the number of managed connections to the device
+     */
+    private static void assertPublishedToConnections(BlaubotChannelManager channelManager, String uniqueDeviceId, int expectedConnections) {
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setPayload(new byte[100]);
+        final long queuedBefore = channelManager.getQueuedBytes(uniqueDeviceId);
+        Assert.assertEquals(expectedConnections > 0, channelManager.publishToSingleDevice(message, uniqueDeviceId));
+        Assert.assertEquals(expectedConnections * 100, channelManager.getQueuedBytes(uniqueDeviceId) - queuedBefore);
+    }
+
+    @Test(timeout = 15000)
+    /**
+     * Tests that the connections indexed by the unique device id follow the added and removed
+     * connections, including multiple connections to the same device.
+     */
+    public void testDeviceIdIndexOnConnectionChanges() {
+        final BlaubotChannelManager channelManager = master.channelManager;
+        final String clientId = clients.get(0).mockDevice.getUniqueDeviceID();
+        final String otherClientId = clients.get(1).mockDevice.getUniqueDeviceID();
+        final BlaubotConnectionQueueMock first = createFailingConnection(clients.get(0));
+        final BlaubotConnectionQueueMock second = createFailingConnection(clients.get(0));
+        final BlaubotConnectionQueueMock other = createFailingConnection(clients.get(1));
+        assertPublishedToConnections(channelManager, clientId, 0);
+
+        channelManager.addConnection(first);
+        channelManager.addConnection(second);
+        channelManager.addConnection(other);
+        assertPublishedToConnections(channelManager, clientId, 2);
+        assertPublishedToConnections(channelManager, otherClientId, 1);
+
+        channelManager.removeConnection(first);
+        assertPublishedToConnections(channelManager, clientId, 1);
+        // removing an unmanaged connection changes nothing
+        channelManager.removeConnection(first);
+        assertPublishedToConnections(channelManager, clientId, 1);
+
+        channelManager.removeConnection(second);
+        assertPublishedToConnections(channelManager, clientId, 0);
+        Assert.assertEquals(0, channelManager.getQueuedBytes(clientId));
+        assertPublishedToConnections(channelManager, otherClientId, 1);
+
+        // reconnect
+        channelManager.addConnection(first);
+        assertPublishedToConnections(channelManager, clientId, 1);
+
+        channelManager.removeConnection(first);
+        channelManager.removeConnection(other);
+        assertPublishedToConnections(channelManager, clientId, 0);
+        assertPublishedToConnections(channelManager, otherClientId, 0);
+    }
+
+    @Test(timeout = 20000)
+    /**
+     * Tests that the messages of a reliable channel dropped by the master's senders are retransmitted
+     * and delivered exactly once and in order.
+     */
+    public void testReliableChannel() throws InterruptedException {
+        final int numberOfMessages = 20;
+        final ExecutorService senderExecutor = Executors.newSingleThreadExecutor();
+        try {
+            master.channelManager.setSenderExecutor(senderExecutor);
+            master.channelManager.setSenderQueueLimits(1024 * 1024, 5);
+            master.channelManager.setSenderOverflowPolicy(MessageSenderOverflowPolicy.DROP_OLDEST);
+            final List<BlaubotChannelManager> deviceMockups = connectNetwork();
+            final List<BlaubotChannelManager> clientManagers = deviceMockups.subList(1, deviceMockups.size());
+
+            final List<List<Integer>> receivedPerClient = new ArrayList<>();
+            final CountDownLatch latch = new CountDownLatch(numberOfMessages * clientManagers.size());
+            for (BlaubotChannelManager device : clientManagers) {
+                final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+                receivedPerClient.add(received);
+                final IBlaubotChannel channel = device.createOrGetChannel((short) 9);
+                channel.getChannelConfig().setReliable(true).setRetransmitTimeout(200);
+                channel.subscribe(new IBlaubotMessageListener() {
+                    @Override
+                    public void onMessage(BlaubotMessage blaubotMessage) {
+                        received.add((int) blaubotMessage.getPayload()[0]);
+                        latch.countDown();
+                    }
+                });
+            }
+            Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+            // stall the master's senders, so that they drop all but the most recent messages
+            final CountDownLatch stall = new CountDownLatch(1);
+            senderExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stall.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            final IBlaubotChannel channel = master.channelManager.createOrGetChannel((short) 9);
+            channel.getChannelConfig().setReliable(true).setRetransmitTimeout(200);
+            for (int i = 0; i < numberOfMessages; i++) {
+                Assert.assertTrue(channel.publish(new byte[]{(byte) i}));
+            }
+            Thread.sleep(100);
+            stall.countDown();
+
+            Assert.assertTrue(latch.await(10000, TimeUnit.MILLISECONDS));
+            Thread.sleep(500);
+            for (List<Integer> received : receivedPerClient) {
+                Assert.assertEquals(numberOfMessages, received.size());
+                for (int i = 0; i < numberOfMessages; i++) {
+                    Assert.assertEquals(i, (int) received.get(i));
+                }
+            }
+            Assert.assertTrue(master.channelManager.getMetricsRegistry().counter(BlaubotChannel.METRIC_RETRANSMISSIONS).get() > 0);
+        } finally {
+            senderExecutor.shutdown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    /**
+     * Tests that the messages of a reliable channel, that were stuck at the old master, are replayed
+     * to a new master and delivered exactly once and in order.
+     */
+    public void testReliableChannelMasterSwap() throws InterruptedException {
+        final int messagesPerPhase = 10;
+        // longer than the test waits, so only the replay on activation can deliver the stuck messages
+        final long retransmitTimeout = 60000;
+        final ExecutorService senderExecutor = Executors.newSingleThreadExecutor();
+        final CountDownLatch stall = new CountDownLatch(1);
+        final ChannelManagerDeviceMockup newMaster = new ChannelManagerDeviceMockup("master2");
+        try {
+            master.channelManager.setSenderExecutor(senderExecutor);
+            connectNetwork();
+            final ChannelManagerDeviceMockup publisher = clients.get(0);
+            final List<ChannelManagerDeviceMockup> subscribers = clients.subList(1, clients.size());
+
+            final List<List<Integer>> receivedPerSubscriber = new ArrayList<>();
+            final List<CountDownLatch> phaseLatches = new ArrayList<>();
+            for (int phase = 0; phase < 3; phase++) {
+                phaseLatches.add(new CountDownLatch(messagesPerPhase * subscribers.size()));
+            }
+            for (ChannelManagerDeviceMockup subscriber : subscribers) {
+                final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+                receivedPerSubscriber.add(received);
+                final IBlaubotChannel channel = subscriber.channelManager.createOrGetChannel((short) 9);
+                channel.getChannelConfig().setReliable(true).setRetransmitTimeout(retransmitTimeout);
+                channel.subscribe(new IBlaubotMessageListener() {
+                    @Override
+                    public void onMessage(BlaubotMessage blaubotMessage) {
+                        final int number = blaubotMessage.getPayload()[0];
+                        received.add(number);
+                        phaseLatches.get(number / messagesPerPhase).countDown();
+                    }
+                });
+            }
+            Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+
+            final IBlaubotChannel channel = publisher.channelManager.createOrGetChannel((short) 9);
+            channel.getChannelConfig().setReliable(true).setRetransmitTimeout(retransmitTimeout);
+            for (int i = 0; i < messagesPerPhase; i++) {
+                Assert.assertTrue(channel.publish(new byte[]{(byte) i}));
+            }
+            Assert.assertTrue(phaseLatches.get(0).await(5000, TimeUnit.MILLISECONDS));
+
+            // the old master stops forwarding, the next messages get stuck there
+            senderExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stall.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            for (int i = messagesPerPhase; i < 2 * messagesPerPhase; i++) {
+                Assert.assertTrue(channel.publish(new byte[]{(byte) i}));
+            }
+            Thread.sleep(500);
+            Assert.assertEquals(messagesPerPhase * subscribers.size(), phaseLatches.get(1).getCount());
+
+            // swap the master, the subscribers join the new master first
+            newMaster.channelManager.setMaster(true);
+            for (ChannelManagerDeviceMockup subscriber : subscribers) {
+                subscriber.channelManager.reset();
+                subscriber.connectToOtherDevice(newMaster);
+            }
+            Thread.sleep(SUBSCRIPTION_SLEEP_TIME);
+            publisher.channelManager.reset();
+            publisher.connectToOtherDevice(newMaster);
+
+            Assert.assertTrue(phaseLatches.get(1).await(5000, TimeUnit.MILLISECONDS));
+            for (int i = 2 * messagesPerPhase; i < 3 * messagesPerPhase; i++) {
+                Assert.assertTrue(channel.publish(new byte[]{(byte) i}));
+            }
+            Assert.assertTrue(phaseLatches.get(2).await(5000, TimeUnit.MILLISECONDS));
+
+            Thread.sleep(500);
+            for (List<Integer> received : receivedPerSubscriber) {
+                Assert.assertEquals(3 * messagesPerPhase, received.size());
+                for (int i = 0; i < 3 * messagesPerPhase; i++) {
+                    Assert.assertEquals(i, (int) received.get(i));
+                }
+            }
+        } finally {
+            stall.countDown();
+            senderExecutor.shutdown();
+            newMaster.channelManager.deactivate();
+        }
+    }
+
     /**
      * Tests the message send/and receive order
      *
@@ -0,0 +1,177 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotChunkInputStream;
+import eu.hgross.blaubot.messaging.BlaubotChunkReassembler;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IBlaubotChunkStreamHandler;
+import eu.hgross.blaubot.messaging.IBlaubotChunkStreamListener;
+
+/**
+ * Tests the BlaubotChunkReassembler.
+ */
+public class ChunkReassemblerTest {
+    private final Random random = new Random();
+    private BlaubotChunkReassembler reassembler;
+
+    @Before
+    public void setUp() {
+        reassembler = new BlaubotChunkReassembler();
+    }
+
+    private byte[] createRandomPayload(int numBytes) {
+        byte[] b = new byte[numBytes];
+        random.nextBytes(b);
+        return b;
+    }
+
+    private List<BlaubotMessage> createChunks(byte[] payload, short chunkId) {
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setPayload(payload);
+        return message.createChunks(chunkId);
+    }
+
+    /**
+     * Feeds the chunks to the reassembler and returns the reassembled message(s)
+     */
+    private List<BlaubotMessage> feed(List<BlaubotMessage> chunks) {
+        final List<BlaubotMessage> result = new ArrayList<>();
+        for (BlaubotMessage chunk : chunks) {
+            final BlaubotMessage message = reassembler.onChunk(chunk);
+            if (message != null) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testOutOfOrderReassembly() {
+        final byte[] payload = createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 5 + 123);
+        final byte[] borderCasePayload = createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 3);
+        final List<BlaubotMessage> chunks = createChunks(payload, (short) 1);
+        chunks.addAll(createChunks(borderCasePayload, (short) 2));
+        Collections.shuffle(chunks, random);
+
+        final List<BlaubotMessage> messages = feed(chunks);
+        Assert.assertEquals(2, messages.size());
+        for (BlaubotMessage message : messages) {
+            Assert.assertFalse(message.getMessageType().isChunk());
+            final byte[] expected = message.getPayload().length == payload.length ? payload : borderCasePayload;
+            Assert.assertArrayEquals(expected, message.getPayload());
+        }
+        Assert.assertEquals(0, reassembler.getPendingMessageCount());
+        Assert.assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        reassembler.setExpiryTime(50);
+        final List<BlaubotMessage> chunks = createChunks(createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 3 + 1), (short) 1);
+        // an interrupted transfer
+        Assert.assertTrue(feed(chunks.subList(0, 2)).isEmpty());
+        Assert.assertEquals(1, reassembler.getPendingMessageCount());
+        Thread.sleep(100);
+        Assert.assertEquals(1, reassembler.evictExpired());
+        Assert.assertEquals(0, reassembler.getPendingMessageCount());
+        Assert.assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void testMemoryCap() {
+        reassembler.setMaxPendingBytes(BlaubotConstants.MAX_PAYLOAD_SIZE * 4);
+        final List<BlaubotMessage> first = createChunks(createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 3 + 1), (short) 1);
+        final byte[] secondPayload = createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 3 + 1);
+        final List<BlaubotMessage> second = createChunks(secondPayload, (short) 2);
+
+        // start the first one, then the second one exceeds the cap and evicts the first one
+        Assert.assertTrue(feed(first.subList(0, 3)).isEmpty());
+        final List<BlaubotMessage> messages = feed(second);
+        Assert.assertEquals(1, messages.size());
+        Assert.assertArrayEquals(secondPayload, messages.get(0).getPayload());
+        Assert.assertEquals(1, reassembler.getEvictedMessages());
+
+        // the rest of the first one is ignored
+        Assert.assertTrue(feed(first.subList(3, first.size())).isEmpty());
+        Assert.assertEquals(0, reassembler.getPendingBytes());
+
+        // a message bigger than the cap on its own is discarded
+        Assert.assertTrue(feed(createChunks(createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 6), (short) 3)).isEmpty());
+        Assert.assertEquals(0, reassembler.getPendingMessageCount());
+        Assert.assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void testMemoryCapEvictsLargestMessage() {
+        // the chunks of all publishers arrive over the same connection (i.e. on a peasant)
+        reassembler.setMaxPendingBytes(BlaubotConstants.MAX_PAYLOAD_SIZE * 4);
+        final byte[] smallPayload = createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 2 + 1);
+        final List<BlaubotMessage> small = createChunks(smallPayload, (short) 1);
+        final List<BlaubotMessage> large = createChunks(createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 10), (short) 2);
+
+        Assert.assertTrue(feed(small.subList(0, 1)).isEmpty());
+        // the large message exceeds the cap and discards itself instead of evicting the small one
+        Assert.assertTrue(feed(large).isEmpty());
+        Assert.assertEquals(1, reassembler.getEvictedMessages());
+
+        final List<BlaubotMessage> messages = feed(small.subList(1, small.size()));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertArrayEquals(smallPayload, messages.get(0).getPayload());
+        Assert.assertEquals(0, reassembler.getPendingBytes());
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        final byte[] payload = createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 4 + 10);
+        final BlaubotChunkInputStream inputStream = new BlaubotChunkInputStream();
+        reassembler.setChunkStreamHandler(new IBlaubotChunkStreamHandler() {
+            @Override
+            public IBlaubotChunkStreamListener onChunkedMessageStarted(BlaubotMessage firstChunk) {
+                return inputStream;
+            }
+        });
+        final List<BlaubotMessage> chunks = createChunks(payload, (short) 1);
+        // swap two chunks
+        Collections.swap(chunks, 1, 2);
+        Assert.assertTrue(feed(chunks).isEmpty());
+        Assert.assertEquals(0, reassembler.getPendingBytes());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        Assert.assertArrayEquals(payload, out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testAbortedStream() throws IOException {
+        final BlaubotChunkInputStream inputStream = new BlaubotChunkInputStream();
+        reassembler.setChunkStreamHandler(new IBlaubotChunkStreamHandler() {
+            @Override
+            public IBlaubotChunkStreamListener onChunkedMessageStarted(BlaubotMessage firstChunk) {
+                return inputStream;
+            }
+        });
+        final List<BlaubotMessage> chunks = createChunks(createRandomPayload(BlaubotConstants.MAX_PAYLOAD_SIZE * 2 + 10), (short) 1);
+        feed(chunks.subList(0, 1));
+        reassembler.clear();
+        final byte[] buffer = new byte[BlaubotConstants.MAX_PAYLOAD_SIZE * 3];
+        // the first chunk can be read, then the abort is signaled
+        while (inputStream.read(buffer) != -1) {
+            // reading
+        }
+    }
+}
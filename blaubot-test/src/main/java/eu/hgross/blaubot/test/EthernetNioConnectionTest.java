@@ -0,0 +1,219 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.ethernet.BlaubotEthernetNioConnection;
+import eu.hgross.blaubot.ethernet.BlaubotEthernetSelectorPool;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
+import eu.hgross.blaubot.messaging.BlaubotMessageSender;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.mock.BlaubotDeviceMock;
+
+/**
+ * Tests the selector driven BlaubotEthernetNioConnection over a loopback socket pair.
+ */
+public class EthernetNioConnectionTest {
+    private static final int TIMEOUT = 10000;
+    private BlaubotEthernetSelectorPool selectorPool;
+    private BlaubotEthernetNioConnection connection1;
+    private BlaubotEthernetNioConnection connection2;
+
+    @Before
+    public void setUp() throws IOException {
+        selectorPool = new BlaubotEthernetSelectorPool(1);
+        final BlaubotEthernetNioConnection[] connections = createConnectionPair("NioDevice");
+        connection1 = connections[0];
+        connection2 = connections[1];
+    }
+
+    /**
+     * Creates two connections served by the selectorPool over a loopback socket pair.
+     *
+     * @param devicePrefix the prefix of the device ids
+     * @return the client and the server side connection
+     */
+    private BlaubotEthernetNioConnection[] createConnectionPair(String devicePrefix) throws IOException {
+        final ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        final SocketChannel client = SocketChannel.open(serverSocketChannel.socket().getLocalSocketAddress());
+        final SocketChannel server = serverSocketChannel.accept();
+        serverSocketChannel.close();
+        client.configureBlocking(false);
+        server.configureBlocking(false);
+
+        IBlaubotDevice device1 = new BlaubotDeviceMock(devicePrefix + "1");
+        IBlaubotDevice device2 = new BlaubotDeviceMock(devicePrefix + "2");
+        return new BlaubotEthernetNioConnection[]{
+                new BlaubotEthernetNioConnection(device2, client, selectorPool, TIMEOUT),
+                new BlaubotEthernetNioConnection(device1, server, selectorPool, TIMEOUT)
+        };
+    }
+
+    @After
+    public void cleanUp() {
+        connection1.disconnect();
+        connection2.disconnect();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testStreamReadsAndWrites() throws IOException {
+        final byte[] data = new byte[100000];
+        new Random().nextBytes(data);
+        connection1.write(data);
+        connection1.write(42);
+
+        final byte[] received = new byte[data.length];
+        connection2.readFully(received);
+        Assert.assertArrayEquals(data, received);
+        Assert.assertEquals(42, connection2.read());
+
+        connection2.disconnect();
+        Assert.assertFalse(connection2.isConnected());
+        Assert.assertEquals(-1, connection2.read());
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void testMessagingWithoutThreads() throws InterruptedException, IOException {
+        // a handshake via the stream methods first, like the acceptor and connector do it
+        connection1.write(new byte[]{1, 2, 3});
+        final byte[] handshake = new byte[3];
+        connection2.readFully(handshake);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, handshake);
+
+        final int messageCount = 500;
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection1);
+        final BlaubotMessageReceiver receiver = new BlaubotMessageReceiver(connection2);
+        final List<Integer> receivedNumbers = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<byte[]> receivedBigPayloads = Collections.synchronizedList(new ArrayList<byte[]>());
+        final CountDownLatch latch = new CountDownLatch(messageCount + 1);
+        receiver.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                if (message.getPayload().length == 4) {
+                    receivedNumbers.add(ByteBuffer.wrap(message.getPayload()).getInt());
+                } else {
+                    receivedBigPayloads.add(message.getPayload());
+                }
+                latch.countDown();
+            }
+        });
+        receiver.activate();
+        sender.activate();
+
+        final byte[] bigPayload = new byte[BlaubotConstants.MAX_PAYLOAD_SIZE * 3 + 17];
+        new Random().nextBytes(bigPayload);
+        for (int i = 0; i < messageCount; i++) {
+            BlaubotMessage message = new BlaubotMessage();
+            message.setPayload(ByteBuffer.allocate(4).putInt(i).array());
+            sender.sendMessage(message);
+            if (i == messageCount / 2) {
+                BlaubotMessage bigMessage = new BlaubotMessage();
+                bigMessage.setPayload(bigPayload);
+                sender.sendMessage(bigMessage);
+            }
+        }
+
+        Assert.assertTrue("Not all messages were received", latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < messageCount; i++) {
+            Assert.assertEquals(i, (int) receivedNumbers.get(i));
+        }
+        Assert.assertEquals(1, receivedBigPayloads.size());
+        Assert.assertTrue(Arrays.equals(bigPayload, receivedBigPayloads.get(0)));
+
+        // neither sender nor receiver started own threads
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertFalse(thread.getName().startsWith("msg-sender-NioDevice"));
+            Assert.assertFalse(thread.getName().startsWith("msg-receiver-NioDevice"));
+        }
+
+        sender.deactivate(null);
+        receiver.deactivate(null);
+    }
+
+    @Test(timeout = TIMEOUT)
+    /**
+     * Tests that a blocked listener of one connection neither stalls another connection of the same
+     * selector nor loses messages, once it continues.
+     */
+    public void testSlowListenerDoesNotStallSelector() throws InterruptedException, IOException {
+        final BlaubotEthernetNioConnection[] otherConnections = createConnectionPair("OtherNioDevice");
+        try {
+            final int messageCount = BlaubotEthernetNioConnection.MAX_QUEUED_MESSAGES * 2;
+            final CountDownLatch blocker = new CountDownLatch(1);
+            final List<Integer> slowReceived = Collections.synchronizedList(new ArrayList<Integer>());
+            final CountDownLatch slowLatch = new CountDownLatch(messageCount);
+            final BlaubotMessageReceiver slowReceiver = new BlaubotMessageReceiver(connection2);
+            slowReceiver.addMessageListener(new IBlaubotMessageListener() {
+                @Override
+                public void onMessage(BlaubotMessage message) {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    slowReceived.add(ByteBuffer.wrap(message.getPayload()).getInt());
+                    slowLatch.countDown();
+                }
+            });
+            final CountDownLatch otherLatch = new CountDownLatch(1);
+            final BlaubotMessageReceiver otherReceiver = new BlaubotMessageReceiver(otherConnections[1]);
+            otherReceiver.addMessageListener(new IBlaubotMessageListener() {
+                @Override
+                public void onMessage(BlaubotMessage message) {
+                    otherLatch.countDown();
+                }
+            });
+            slowReceiver.activate();
+            otherReceiver.activate();
+            final BlaubotMessageSender slowSender = new BlaubotMessageSender(connection1);
+            final BlaubotMessageSender otherSender = new BlaubotMessageSender(otherConnections[0]);
+            slowSender.activate();
+            otherSender.activate();
+
+            for (int i = 0; i < messageCount; i++) {
+                BlaubotMessage message = new BlaubotMessage();
+                message.setPayload(ByteBuffer.allocate(4).putInt(i).array());
+                slowSender.sendMessage(message);
+            }
+            Thread.sleep(200);
+            BlaubotMessage otherMessage = new BlaubotMessage();
+            otherMessage.setPayload(new byte[]{1});
+            otherSender.sendMessage(otherMessage);
+            Assert.assertTrue("The blocked listener stalled the selector", otherLatch.await(2000, TimeUnit.MILLISECONDS));
+
+            blocker.countDown();
+            Assert.assertTrue("Not all messages were received", slowLatch.await(TIMEOUT / 2, TimeUnit.MILLISECONDS));
+            for (int i = 0; i < messageCount; i++) {
+                Assert.assertEquals(i, (int) slowReceived.get(i));
+            }
+
+            slowSender.deactivate(null);
+            otherSender.deactivate(null);
+            slowReceiver.deactivate(null);
+            otherReceiver.deactivate(null);
+        } finally {
+            otherConnections[0].disconnect();
+            otherConnections[1].disconnect();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import eu.hgross.blaubot.core.State;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.geobeacon.GeoBeaconIndex;
+import eu.hgross.blaubot.geobeacon.GeoBeaconMessage;
+import eu.hgross.blaubot.geobeacon.GeoBeaconUtil;
+import eu.hgross.blaubot.geobeacon.GeoData;
+
+/**
+ * Tests the spatial index of the GeoBeaconServer against a linear scan.
+ */
+public class GeoBeaconIndexTest {
+    private static final String BEACON_UUID = "beaconUuid";
+    private final Random random = new Random(4711);
+
+    private GeoBeaconMessage createMessage(String uniqueDeviceId, GeoData geoData, String beaconUuid) {
+        final BeaconMessage beaconMessage = new BeaconMessage(uniqueDeviceId, State.Free, new ArrayList<ConnectionMetaDataDTO>());
+        return new GeoBeaconMessage(beaconMessage, geoData, beaconUuid);
+    }
+
+    private Set<String> ids(List<GeoBeaconMessage> messages) {
+        final Set<String> ids = new HashSet<>();
+        for (GeoBeaconMessage message : messages) {
+            ids.add(message.getBeaconMessage().getUniqueDeviceId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testNearbyMatchesLinearScan() {
+        // a city sized cluster, the date line and the poles
+        final double[][] areas = {{51.5, 7.4, 0.3}, {0, 179.9, 0.3}, {89.9, 0, 0.2}, {-89.95, 45, 0.2}};
+        for (double radius : new double[]{0.5, 5, 500}) {
+            final GeoBeaconIndex index = new GeoBeaconIndex(radius, 60000);
+            final List<GeoBeaconMessage> all = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                final double[] area = areas[i % areas.length];
+                double longitude = area[1] + (random.nextDouble() * 2 - 1) * area[2];
+                if (longitude > 180) {
+                    longitude -= 360;
+                }
+                final double latitude = Math.max(-90, Math.min(90, area[0] + (random.nextDouble() * 2 - 1) * area[2]));
+                final GeoBeaconMessage message = createMessage("device" + i, new GeoData(latitude, longitude, 1), BEACON_UUID);
+                index.update(message, 0);
+                all.add(message);
+            }
+            // a device of another beacon uuid and a device without geo data
+            index.update(createMessage("otherUuid", all.get(0).getGeoData(), "otherBeaconUuid"), 0);
+            index.update(createMessage("noGeoData", null, BEACON_UUID), 0);
+
+            for (int i = 0; i < 200; i++) {
+                final GeoBeaconMessage center = all.get(random.nextInt(all.size()));
+                final Set<String> expected = new HashSet<>();
+                for (GeoBeaconMessage message : all) {
+                    if (GeoBeaconUtil.distanceBetweenGeoBeaconMessages(message.getGeoData(), center.getGeoData()) <= radius) {
+                        expected.add(message.getBeaconMessage().getUniqueDeviceId());
+                    }
+                }
+                expected.add("noGeoData");
+                Assert.assertEquals("radius " + radius, expected, ids(index.findNearby(center, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void testMovementAndExpiry() {
+        final GeoBeaconIndex index = new GeoBeaconIndex(1, 1000);
+        final GeoData dortmund = new GeoData(51.512054, 7.463573, 1);
+        final GeoData berlin = new GeoData(52.523403, 13.411400, 1);
+        final GeoBeaconMessage a = createMessage("a", dortmund, BEACON_UUID);
+        index.update(a, 0);
+        index.update(createMessage("b", dortmund, BEACON_UUID), 0);
+        Assert.assertEquals(2, index.findNearby(a, 0).size());
+
+        // b moves away
+        index.update(createMessage("b", berlin, BEACON_UUID), 500);
+        Assert.assertEquals(1, index.findNearby(a, 500).size());
+        Assert.assertEquals(2, index.size());
+
+        // a expires, b not
+        Assert.assertEquals(0, index.findNearby(a, 1000).size());
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(0, index.getAll(1500).size());
+    }
+}
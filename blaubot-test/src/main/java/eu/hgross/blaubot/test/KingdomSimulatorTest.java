@@ -0,0 +1,83 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.hgross.blaubot.mock.simulation.KingdomSimulator;
+import eu.hgross.blaubot.mock.simulation.LinkProperties;
+import eu.hgross.blaubot.mock.simulation.LoadGenerator;
+import eu.hgross.blaubot.mock.simulation.SimulatedNetwork;
+import eu.hgross.blaubot.mock.simulation.SimulatedNode;
+import eu.hgross.blaubot.mock.simulation.SimulationReport;
+
+/**
+ * Runs small kingdoms through the simulated network.
+ */
+public class KingdomSimulatorTest {
+    private static final int NODE_COUNT = 6;
+    private static final long CONVERGENCE_TIMEOUT = 60000;
+    private KingdomSimulator simulator;
+
+    @After
+    public void tearDown() throws IOException {
+        if (simulator != null) {
+            simulator.close();
+        }
+    }
+
+    private void assertConvergence(String message) throws InterruptedException {
+        final boolean converged = simulator.awaitConvergence(CONVERGENCE_TIMEOUT);
+        Assert.assertTrue(message + ": \n" + simulator.createCensusString(), converged);
+    }
+
+    @Test(timeout = 120000)
+    public void testConvergenceAndLoad() throws InterruptedException {
+        final SimulatedNetwork network = new SimulatedNetwork(42);
+        network.setDefaultLinkProperties(new LinkProperties(2, 1, 0, 0));
+        simulator = new KingdomSimulator(NODE_COUNT, network);
+        simulator.start();
+        assertConvergence("No convergence");
+
+        final LoadGenerator load = simulator.startLoad(new short[]{1, 2}, 100, 64);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (load.getLatencies().getCount() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        final SimulationReport report = simulator.createReport();
+        Assert.assertEquals(1, report.getKingdomCount());
+        Assert.assertTrue(report.getElectionConvergenceTime() >= 0);
+        Assert.assertTrue(report.getCensusConvergenceTime() >= report.getElectionConvergenceTime());
+        Assert.assertTrue(report.toString(), report.getMessageLatencies().getCount() >= 100);
+        // at least one hop with 2ms latency
+        Assert.assertTrue(report.toString(), report.getMessageLatencies().getMin() >= 2000);
+    }
+
+    @Test(timeout = 180000)
+    public void testPartitionAndHeal() throws InterruptedException {
+        final SimulatedNetwork network = new SimulatedNetwork(7);
+        simulator = new KingdomSimulator(NODE_COUNT, network);
+        simulator.start();
+        assertConvergence("No convergence");
+
+        final List<String> partition1 = new ArrayList<>();
+        final List<String> partition2 = new ArrayList<>();
+        for (SimulatedNode node : simulator.getNodes()) {
+            (partition1.size() < NODE_COUNT / 2 ? partition1 : partition2).add(node.getUniqueDeviceId());
+        }
+        simulator.schedulePartitions(0, Arrays.asList(partition1, partition2));
+        Thread.sleep(200);
+        assertConvergence("No convergence after partitioning");
+        Assert.assertEquals(2, simulator.createReport().getKingdomCount());
+
+        simulator.scheduleHeal(0);
+        Thread.sleep(200);
+        assertConvergence("No convergence after healing");
+        Assert.assertEquals(1, simulator.createReport().getKingdomCount());
+    }
+}
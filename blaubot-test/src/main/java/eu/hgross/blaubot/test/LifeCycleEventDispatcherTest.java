@@ -0,0 +1,157 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.AdminMessageFactory;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
+import eu.hgross.blaubot.admin.CensusMessage;
+import eu.hgross.blaubot.admin.CensusResyncRequestAdminMessage;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.LifeCycleEventDispatcher;
+import eu.hgross.blaubot.core.LifecycleListenerAdapter;
+import eu.hgross.blaubot.core.State;
+import eu.hgross.blaubot.core.statemachine.states.FreeState;
+import eu.hgross.blaubot.core.statemachine.states.PeasantState;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+import eu.hgross.blaubot.mock.BlaubotDeviceMock;
+
+/**
+ * Tests the census handling of the {@link LifeCycleEventDispatcher}: applying deltas and
+ * requesting a full census from the king, if a delta or the full census was missed.
+ */
+public class LifeCycleEventDispatcherTest {
+    private static final String OWN_DEVICE = "Peasant1";
+    private static final String KING_DEVICE = "King";
+    private static final int SESSION_ID = 4711;
+
+    private List<AbstractAdminMessage> sentAdminMessages;
+    private List<String> joinedDevices;
+    private List<String> leftDevices;
+    private LifeCycleEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        sentAdminMessages = Collections.synchronizedList(new ArrayList<AbstractAdminMessage>());
+        joinedDevices = Collections.synchronizedList(new ArrayList<String>());
+        leftDevices = Collections.synchronizedList(new ArrayList<String>());
+        final BlaubotChannelManager channelManager = new BlaubotChannelManager(OWN_DEVICE) {
+            @Override
+            public int publishToAllConnections(BlaubotMessage message) {
+                sentAdminMessages.add(AdminMessageFactory.createAdminMessageFromRawMessage(message));
+                return 1;
+            }
+        };
+        dispatcher = new LifeCycleEventDispatcher(new BlaubotDeviceMock(OWN_DEVICE), channelManager);
+        dispatcher.addLifecycleListener(new LifecycleListenerAdapter() {
+            @Override
+            public void onDeviceJoined(IBlaubotDevice blaubotDevice) {
+                joinedDevices.add(blaubotDevice.getUniqueDeviceID());
+            }
+
+            @Override
+            public void onDeviceLeft(IBlaubotDevice blaubotDevice) {
+                leftDevices.add(blaubotDevice.getUniqueDeviceID());
+            }
+        });
+    }
+
+    private static Map<String, State> states(String... peasants) {
+        final Map<String, State> states = new HashMap<>();
+        states.put(KING_DEVICE, State.King);
+        states.put(OWN_DEVICE, State.Peasant);
+        for (String peasant : peasants) {
+            states.put(peasant, State.Peasant);
+        }
+        return states;
+    }
+
+    private int countResyncRequests() {
+        int count = 0;
+        synchronized (sentAdminMessages) {
+            for (AbstractAdminMessage adminMessage : sentAdminMessages) {
+                if (adminMessage instanceof CensusResyncRequestAdminMessage) {
+                    Assert.assertEquals(OWN_DEVICE, ((CensusResyncRequestAdminMessage) adminMessage).getUniqueDeviceId());
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testDeltasAreApplied() {
+        dispatcher.onAdminMessage(new CensusMessage(states(), SESSION_ID, 1));
+        Assert.assertEquals(Collections.singletonList(KING_DEVICE), joinedDevices);
+        joinedDevices.clear();
+
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 2, states(), states("Peasant2")));
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 3, states("Peasant2"), states()));
+        Assert.assertEquals(Collections.singletonList("Peasant2"), joinedDevices);
+        Assert.assertEquals(Collections.singletonList("Peasant2"), leftDevices);
+        Assert.assertEquals(0, countResyncRequests());
+    }
+
+    @Test
+    public void testGapRequestsResync() {
+        dispatcher.onAdminMessage(new CensusMessage(states(), SESSION_ID, 1));
+        joinedDevices.clear();
+
+        // epoch 2 got lost
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 3, states("Peasant2"), states("Peasant2", "Peasant3")));
+        Assert.assertEquals(1, countResyncRequests());
+        Assert.assertTrue(joinedDevices.isEmpty());
+        // the requests are rate limited per session
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 4, states("Peasant2", "Peasant3"), states("Peasant2")));
+        Assert.assertEquals(1, countResyncRequests());
+
+        // the king answers with the full census, the deltas follow it again
+        dispatcher.onAdminMessage(new CensusMessage(states("Peasant2"), SESSION_ID, 4));
+        Assert.assertEquals(Collections.singletonList("Peasant2"), joinedDevices);
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 5, states("Peasant2"), states()));
+        Assert.assertEquals(Collections.singletonList("Peasant2"), leftDevices);
+        Assert.assertEquals(1, countResyncRequests());
+    }
+
+    @Test
+    public void testOutdatedDeltaIsIgnored() {
+        dispatcher.onAdminMessage(new CensusMessage(states("Peasant2"), SESSION_ID, 5));
+        joinedDevices.clear();
+
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 5, states(), states("Peasant2")));
+        Assert.assertTrue(joinedDevices.isEmpty());
+        Assert.assertEquals(0, countResyncRequests());
+    }
+
+    @Test
+    public void testDeltaWithoutCensusRequestsResync() {
+        dispatcher.onAdminMessage(CensusDeltaMessage.diff(SESSION_ID, 2, states(), states("Peasant2")));
+        Assert.assertEquals(1, countResyncRequests());
+        Assert.assertTrue(joinedDevices.isEmpty());
+    }
+
+    @Test
+    public void testJoinWithoutCensusRequestsResync() {
+        final BlaubotConnectionQueueMock kingConnection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock(KING_DEVICE));
+        dispatcher.onStateChanged(new FreeState(), new PeasantState(kingConnection, PeasantState.ConnectionAccomplishmentType.VOLUNTARILY));
+        Assert.assertEquals(1, countResyncRequests());
+    }
+
+    @Test
+    public void testJoinWithCensusDoesNotRequestResync() {
+        dispatcher.onAdminMessage(new CensusMessage(states(), SESSION_ID, 1));
+        final BlaubotConnectionQueueMock kingConnection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock(KING_DEVICE));
+        dispatcher.onStateChanged(new FreeState(), new PeasantState(kingConnection, PeasantState.ConnectionAccomplishmentType.VOLUNTARILY));
+        Assert.assertEquals(0, countResyncRequests());
+    }
+}
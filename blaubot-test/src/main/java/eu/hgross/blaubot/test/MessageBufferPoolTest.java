@@ -0,0 +1,147 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.BlaubotMessageBufferPool;
+import eu.hgross.blaubot.mock.BlaubotDeviceMock;
+import eu.hgross.blaubot.websocket.BlaubotWebsocketConnection;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+/**
+ * Tests the encoding of BlaubotMessages into pooled buffers, the decoding and the reuse of the
+ * pooled buffers.
+ */
+public class MessageBufferPoolTest {
+    private final Random random = new Random();
+    private BlaubotMessageBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new BlaubotMessageBufferPool(BlaubotMessageBufferPool.DEFAULT_BUFFER_CAPACITY, 2);
+    }
+
+    private BlaubotMessage createMessage(int payloadLength) {
+        final byte[] payload = new byte[payloadLength];
+        random.nextBytes(payload);
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setPriority(BlaubotMessage.Priority.HIGH);
+        message.setPayload(payload);
+        return message;
+    }
+
+    private static void assertMessageEquals(BlaubotMessage expected, BlaubotMessage actual) {
+        Assert.assertEquals(expected.getMessageType().toByte(), actual.getMessageType().toByte());
+        Assert.assertEquals(expected.getPriority(), actual.getPriority());
+        Assert.assertEquals(expected.getChannelId(), actual.getChannelId());
+        Assert.assertEquals(expected.getChunkId(), actual.getChunkId());
+        Assert.assertEquals(expected.getChunkNo(), actual.getChunkNo());
+        Assert.assertArrayEquals(expected.getPayload(), actual.getPayload());
+    }
+
+    @Test
+    public void testPooledRoundTrip() throws IOException {
+        final BlaubotMessage message = createMessage(BlaubotConstants.MAX_PAYLOAD_SIZE);
+        final BlaubotMessage chunk = createMessage(BlaubotConstants.MAX_PAYLOAD_SIZE * 2).createChunks((short) 42).get(1);
+        final BlaubotMessage empty = createMessage(0);
+        for (BlaubotMessage original : Arrays.asList(message, chunk, empty)) {
+            final ByteBuffer buffer = original.toPooledBuffer(pool);
+            try {
+                Assert.assertEquals(0, buffer.position());
+                Assert.assertEquals(original.getEncodedLength(), buffer.limit());
+                final byte[] encoded = Arrays.copyOfRange(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.limit());
+                Assert.assertArrayEquals(original.toBytes(), encoded);
+
+                assertMessageEquals(original, BlaubotMessage.fromByteArray(encoded));
+                final BlaubotMessage read = BlaubotMessage.readFromBuffer(buffer, null);
+                Assert.assertNotNull(read);
+                assertMessageEquals(original, read);
+                Assert.assertFalse(buffer.hasRemaining());
+            } finally {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    @Test
+    public void testDecodedPayloadIsNotSharedWithTheBuffer() {
+        final BlaubotMessage original = createMessage(100);
+        final byte[] encoded = original.toBytes();
+        final BlaubotMessage decoded = BlaubotMessage.fromByteArray(encoded);
+        // overwriting the received bytes must not change the decoded message
+        Arrays.fill(encoded, (byte) 0);
+        assertMessageEquals(original, decoded);
+    }
+
+    @Test
+    public void testBufferReuseAfterRelease() {
+        final ByteBuffer first = createMessage(500).toPooledBuffer(pool);
+        pool.release(first);
+        Assert.assertEquals(1, pool.getIdleBufferCount());
+
+        // the released buffer is handed out again, cleared
+        final BlaubotMessage second = createMessage(10);
+        final ByteBuffer reused = second.toPooledBuffer(pool);
+        Assert.assertSame(first, reused);
+        Assert.assertEquals(0, pool.getIdleBufferCount());
+        Assert.assertEquals(second.getEncodedLength(), reused.limit());
+        assertMessageEquals(second, BlaubotMessage.fromByteArray(Arrays.copyOf(reused.array(), reused.limit())));
+
+        // the pool keeps at most maxPooledBuffers idle buffers
+        final ByteBuffer other = pool.acquire(10);
+        final ByteBuffer third = pool.acquire(10);
+        pool.release(reused);
+        pool.release(other);
+        pool.release(third);
+        Assert.assertEquals(2, pool.getIdleBufferCount());
+
+        // buffers exceeding the pooled capacity are never pooled
+        final ByteBuffer oversized = pool.acquire(pool.getBufferCapacity() + 1);
+        Assert.assertTrue(oversized.capacity() > pool.getBufferCapacity());
+        pool.acquire(10);
+        pool.release(oversized);
+        Assert.assertEquals(1, pool.getIdleBufferCount());
+    }
+
+    @Test
+    public void testReleasedBufferIsNotSharedWithRetainedWrite() throws IOException {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter());
+        final BlaubotWebsocketConnection connection = new BlaubotWebsocketConnection(new BlaubotDeviceMock("Remote"), channel);
+        try {
+            // write as the sender does: the pooled buffer's array, released after write() returned
+            final BlaubotMessage first = createMessage(BlaubotConstants.MAX_PAYLOAD_SIZE);
+            final ByteBuffer buffer = first.toPooledBuffer(pool);
+            connection.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+            pool.release(buffer);
+
+            // the next message reuses the array
+            final ByteBuffer reused = createMessage(BlaubotConstants.MAX_PAYLOAD_SIZE).toPooledBuffer(pool);
+            Assert.assertSame(buffer, reused);
+            pool.release(reused);
+
+            // the frame retained by the channel still holds the first message
+            final BinaryWebSocketFrame frame = (BinaryWebSocketFrame) channel.readOutbound();
+            try {
+                final ByteBuf content = frame.content();
+                final byte[] written = new byte[content.readableBytes()];
+                content.getBytes(content.readerIndex(), written);
+                Assert.assertArrayEquals(first.toBytes(), written);
+            } finally {
+                frame.release();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
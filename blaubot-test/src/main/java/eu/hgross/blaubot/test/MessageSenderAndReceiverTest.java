@@ -7,8 +7,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
@@ -25,7 +27,10 @@ import eu.hgross.blaubot.admin.RelayAdminMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
 import eu.hgross.blaubot.messaging.BlaubotMessageSender;
+import eu.hgross.blaubot.messaging.BlaubotRelayFrame;
 import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.IBlaubotSenderCongestionListener;
+import eu.hgross.blaubot.messaging.MessageSenderOverflowPolicy;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 import eu.hgross.blaubot.mock.BlaubotDeviceMock;
 
@@ -292,6 +297,46 @@ public class MessageSenderAndReceiverTest {
         }
     }
 
+    @Test(timeout=10000)
+    /**
+     * Tests that many small messages queued at once are coalesced into fewer writes and arrive
+     * complete and in order.
+     */
+    public void testBatchedSendPreservesOrder() throws InterruptedException {
+        final int count = 500;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<byte[]> received = new ArrayList<>();
+        IBlaubotMessageListener conn2_listener = new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                synchronized (received) {
+                    received.add(message.getPayload());
+                }
+                latch.countDown();
+            }
+        };
+        conn2_receiver.addMessageListener(conn2_listener);
+        // give the sending thread time to collect the ready messages
+        conn1_sender.setMaxLingerTime(50);
+
+        final List<byte[]> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] payload = createRandomPayload(8);
+            sent.add(payload);
+            BlaubotMessage msg = new BlaubotMessage();
+            msg.setPayload(payload);
+            conn1_sender.sendMessage(msg);
+        }
+        latch.await();
+        conn2_receiver.removeMessageListener(conn2_listener);
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(sent.get(i), received.get(i));
+        }
+        Assert.assertEquals(count, conn1_sender.getSentMessages());
+        Assert.assertTrue(conn1_sender.getSentBatches() < count);
+    }
+
     @Test(timeout=45000)
     /**
      * Tests if the chunked message logic works for the bordercase, whereas the chunked size is a
@@ -576,4 +621,165 @@ public class MessageSenderAndReceiverTest {
     }
 
 
+
+    /**
+     * Tests relay frames, including frames that have to be chunked because the relayed message is
+     * already of max size.
+     */
+    @Test(timeout=10000)
+    public void testSendAndReceiveRelayFrames() throws InterruptedException {
+        final List<BlaubotMessage> relayedMessages = new ArrayList<>();
+        for (int payloadSize : new int[] {0, 1, BlaubotConstants.MAX_PAYLOAD_SIZE / 2, BlaubotConstants.MAX_PAYLOAD_SIZE}) {
+            final BlaubotMessage message = new BlaubotMessage();
+            message.setPayload(createRandomPayload(payloadSize));
+            relayedMessages.add(message);
+        }
+
+        for (final BlaubotMessage relayedMessage : relayedMessages) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            IBlaubotMessageListener conn2_listener = new IBlaubotMessageListener() {
+                @Override
+                public void onMessage(BlaubotMessage message) {
+                    Assert.assertTrue(message.getMessageType().isRelayFrame());
+                    Assert.assertFalse(message.getMessageType().isChannelMessage());
+                    final BlaubotRelayFrame relayFrame = BlaubotRelayFrame.fromMessage(message);
+                    Assert.assertEquals("mediator", relayFrame.getMediatorUniqueDeviceId());
+                    Assert.assertArrayEquals(relayedMessage.toBytes(), relayFrame.getRelayedMessageBytes());
+                    Assert.assertArrayEquals(relayedMessage.getPayload(), relayFrame.getRelayedMessage().getPayload());
+                    latch.countDown();
+                }
+            };
+            conn2_receiver.addMessageListener(conn2_listener);
+            conn1_sender.sendMessage(BlaubotRelayFrame.createMessage("mediator", relayedMessage));
+            latch.await();
+            conn2_receiver.removeMessageListener(conn2_listener);
+        }
+    }
+
+    /**
+     * Creates a message with an int as payload.
+     */
+    private BlaubotMessage createNumberedMessage(int number, BlaubotMessage.Priority priority) {
+        final BlaubotMessage message = new BlaubotMessage();
+        message.setPriority(priority);
+        message.setPayload(ByteBuffer.allocate(4).putInt(number).array());
+        return message;
+    }
+
+    /**
+     * Activates the given (inactive) sender and a receiver on the other endpoint and collects the
+     * numbers of the expectedCount messages it sends.
+     */
+    private List<Integer> drainSender(BlaubotMessageSender sender, BlaubotConnectionQueueMock connection, int expectedCount) throws InterruptedException {
+        final BlaubotMessageReceiver receiver = new BlaubotMessageReceiver(connection.getOtherEndpointConnection(new BlaubotDeviceMock("OverflowDevice2")));
+        final List<Integer> numbers = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(expectedCount);
+        receiver.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                numbers.add(ByteBuffer.wrap(message.getPayload()).getInt());
+                latch.countDown();
+            }
+        });
+        receiver.activate();
+        sender.activate();
+        Assert.assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+        sender.deactivate(null);
+        receiver.deactivate(null);
+        return numbers;
+    }
+
+    @Test(timeout = 10000)
+    public void testOverflowPolicyDropOldest() throws InterruptedException {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock("OverflowDevice1"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection);
+        sender.setOverflowPolicy(MessageSenderOverflowPolicy.DROP_OLDEST);
+        sender.setMaxQueuedMessages(3);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(sender.sendMessage(createNumberedMessage(i, BlaubotMessage.Priority.NORMAL)));
+        }
+        Assert.assertEquals(2, sender.getDroppedMessages());
+        Assert.assertEquals(Arrays.asList(2, 3, 4), drainSender(sender, connection, 3));
+    }
+
+    @Test(timeout = 10000)
+    public void testOverflowPolicyDropOldestManyMessages() throws InterruptedException {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock("OverflowDevice1"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection);
+        sender.setOverflowPolicy(MessageSenderOverflowPolicy.DROP_OLDEST);
+        sender.setMaxQueuedMessages(10);
+        // enough dropped messages to purge the queue
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(sender.sendMessage(createNumberedMessage(i, BlaubotMessage.Priority.NORMAL)));
+        }
+        Assert.assertEquals(4990, sender.getDroppedMessages());
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 4990; i < 5000; i++) {
+            expected.add(i);
+        }
+        Assert.assertEquals(expected, drainSender(sender, connection, 10));
+    }
+
+    @Test(timeout = 10000)
+    public void testOverflowPolicyDropLowestPriority() throws InterruptedException {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock("OverflowDevice1"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection);
+        sender.setOverflowPolicy(MessageSenderOverflowPolicy.DROP_LOWEST_PRIORITY);
+        sender.setMaxQueuedMessages(2);
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(0, BlaubotMessage.Priority.LOW)));
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(1, BlaubotMessage.Priority.NORMAL)));
+        // drops the LOW message
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(2, BlaubotMessage.Priority.HIGH)));
+        // nothing with a lower priority left
+        Assert.assertFalse(sender.sendMessage(createNumberedMessage(3, BlaubotMessage.Priority.LOW)));
+        Assert.assertEquals(2, sender.getDroppedMessages());
+        Assert.assertEquals(Arrays.asList(2, 1), drainSender(sender, connection, 2));
+    }
+
+    @Test(timeout = 10000)
+    public void testOverflowPolicyDoesNotDropForInfeasibleMessage() throws InterruptedException {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock("OverflowDevice1"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection);
+        sender.setOverflowPolicy(MessageSenderOverflowPolicy.DROP_LOWEST_PRIORITY);
+        sender.setMaxQueuedBytes(12);
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(0, BlaubotMessage.Priority.LOW)));
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(1, BlaubotMessage.Priority.HIGH)));
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(2, BlaubotMessage.Priority.HIGH)));
+        // would not fit even after dropping the LOW message, so it is rejected without dropping anything
+        final BlaubotMessage tooBig = new BlaubotMessage();
+        tooBig.setPriority(BlaubotMessage.Priority.NORMAL);
+        tooBig.setPayload(new byte[8]);
+        Assert.assertFalse(sender.sendMessage(tooBig));
+        Assert.assertEquals(1, sender.getDroppedMessages());
+        Assert.assertEquals(Arrays.asList(1, 2, 0), drainSender(sender, connection, 3));
+    }
+
+    @Test(timeout = 10000)
+    public void testOverflowPolicyBlock() throws InterruptedException {
+        final BlaubotConnectionQueueMock connection = new BlaubotConnectionQueueMock(new BlaubotDeviceMock("OverflowDevice1"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection);
+        sender.setOverflowPolicy(MessageSenderOverflowPolicy.BLOCK);
+        sender.setMaxQueuedMessages(2);
+        final CountDownLatch decongestedLatch = new CountDownLatch(1);
+        sender.addCongestionListener(new IBlaubotSenderCongestionListener() {
+            @Override
+            public void onCongestionChanged(BlaubotMessageSender sender, boolean congested) {
+                if (!congested) {
+                    decongestedLatch.countDown();
+                }
+            }
+        });
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(0, BlaubotMessage.Priority.NORMAL)));
+        Assert.assertFalse(sender.isCongested());
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(1, BlaubotMessage.Priority.NORMAL)));
+        Assert.assertTrue(sender.isCongested());
+        // queued up to twice the budget, nothing is dropped
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(2, BlaubotMessage.Priority.NORMAL)));
+        Assert.assertTrue(sender.sendMessage(createNumberedMessage(3, BlaubotMessage.Priority.NORMAL)));
+        Assert.assertFalse(sender.sendMessage(createNumberedMessage(4, BlaubotMessage.Priority.NORMAL)));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), drainSender(sender, connection, 4));
+        Assert.assertTrue(decongestedLatch.await(5000, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(sender.isCongested());
+    }
+
 }
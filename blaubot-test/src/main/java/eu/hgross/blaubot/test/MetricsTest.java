@@ -0,0 +1,152 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.AdminMessageFactory;
+import eu.hgross.blaubot.admin.MetricsAdminMessage;
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
+import eu.hgross.blaubot.messaging.BlaubotMessageSender;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.HistogramSnapshot;
+import eu.hgross.blaubot.metrics.IGauge;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
+import eu.hgross.blaubot.metrics.MetricsSnapshot;
+import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
+
+/**
+ * Tests the metrics registry, its snapshots and the instrumentation of the message sender and receiver.
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogramPercentiles() {
+        final Random random = new Random(42);
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            // spread over many orders of magnitude
+            final long value = (long) Math.pow(10, random.nextDouble() * 9);
+            values.add(value);
+            histogram.record(value);
+        }
+        Collections.sort(values);
+        final HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(values.size(), snapshot.getCount());
+        Assert.assertEquals((long) values.get(0), snapshot.getMin());
+        Assert.assertEquals((long) values.get(values.size() - 1), snapshot.getMax());
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 100}) {
+            final long exact = values.get((int) Math.ceil(percentile / 100d * values.size()) - 1);
+            final long estimated = snapshot.getValueAtPercentile(percentile);
+            Assert.assertTrue("p" + percentile + ": " + estimated + " < " + exact, estimated >= exact);
+            Assert.assertTrue("p" + percentile + ": " + estimated + " too far from " + exact, estimated <= exact + exact / 32 + 1);
+        }
+    }
+
+    @Test
+    public void testSnapshotAggregationAndSerialization() {
+        final BlaubotMetricsRegistry registry1 = new BlaubotMetricsRegistry();
+        final BlaubotMetricsRegistry registry2 = new BlaubotMetricsRegistry();
+        final LatencyHistogram all = new LatencyHistogram();
+        registry1.counter("a.counter").add(5);
+        registry2.counter("a.counter").add(7);
+        registry2.counter("b.counter").increment();
+        registry1.registerGauge("a.gauge", new IGauge() {
+            @Override
+            public long getValue() {
+                return 3;
+            }
+        });
+        registry2.registerGauge("a.gauge", new IGauge() {
+            @Override
+            public long getValue() {
+                return 4;
+            }
+        });
+        for (long value : Arrays.asList(0L, 1L, 17L, 1000L, 123456789L)) {
+            registry1.histogram("a.histogram").record(value);
+            all.record(value);
+        }
+        for (long value : Arrays.asList(3L, 1000L, 99999L)) {
+            registry2.histogram("a.histogram").record(value);
+            all.record(value);
+        }
+        registry2.histogram("b.histogram");
+
+        final MetricsSnapshot snapshot1 = registry1.snapshot("device1");
+        final MetricsSnapshot snapshot2 = registry2.snapshot("device2");
+
+        // the admin message transports the snapshot unchanged
+        final BlaubotMessage rawMessage = new MetricsAdminMessage(snapshot1).toBlaubotMessage();
+        final AbstractAdminMessage received = AdminMessageFactory.createAdminMessageFromRawMessage(rawMessage);
+        Assert.assertTrue(received instanceof MetricsAdminMessage);
+        Assert.assertEquals(snapshot1, ((MetricsAdminMessage) received).getSnapshot());
+        final MetricsAdminMessage received2 = (MetricsAdminMessage) AdminMessageFactory.createAdminMessageFromRawMessage(new MetricsAdminMessage(snapshot2).toBlaubotMessage());
+        Assert.assertEquals(snapshot2, received2.getSnapshot());
+        Assert.assertEquals(0, received2.getSnapshot().getHistogram("b.histogram").getCount());
+
+        final MetricsSnapshot aggregated = MetricsSnapshot.aggregate("king", Arrays.asList(snapshot1, received2.getSnapshot()));
+        Assert.assertEquals(12, aggregated.getCounter("a.counter"));
+        Assert.assertEquals(1, aggregated.getCounter("b.counter"));
+        Assert.assertEquals(7, aggregated.getGauge("a.gauge"));
+        Assert.assertEquals(all.snapshot(), aggregated.getHistogram("a.histogram"));
+    }
+
+    @Test(timeout = 10000)
+    public void testSenderAndReceiverMetrics() throws InterruptedException {
+        final BlaubotMetricsRegistry senderRegistry = new BlaubotMetricsRegistry();
+        final BlaubotMetricsRegistry receiverRegistry = new BlaubotMetricsRegistry();
+        final BlaubotConnectionQueueMock connection1 = new BlaubotConnectionQueueMock(new BlaubotDevice("device1"));
+        final IBlaubotConnection connection2 = connection1.getOtherEndpointConnection(new BlaubotDevice("device2"));
+        final BlaubotMessageSender sender = new BlaubotMessageSender(connection1, senderRegistry);
+        final BlaubotMessageReceiver receiver = new BlaubotMessageReceiver(connection2, receiverRegistry);
+
+        final int messageCount = 10;
+        final CountDownLatch latch = new CountDownLatch(messageCount + 1);
+        receiver.addMessageListener(new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                latch.countDown();
+            }
+        });
+        receiver.activate();
+        sender.activate();
+        for (int i = 0; i < messageCount; i++) {
+            final BlaubotMessage message = new BlaubotMessage();
+            message.setPayload(new byte[100]);
+            sender.sendMessage(message);
+        }
+        // chunked into three messages
+        final BlaubotMessage bigMessage = new BlaubotMessage();
+        bigMessage.setPayload(new byte[BlaubotConstants.MAX_PAYLOAD_SIZE * 2 + 1]);
+        sender.sendMessage(bigMessage);
+        Assert.assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+        sender.deactivate(null);
+        receiver.deactivate(null);
+
+        final MetricsSnapshot sent = senderRegistry.snapshot("device1");
+        final MetricsSnapshot received = receiverRegistry.snapshot("device2");
+        Assert.assertEquals(messageCount + 3, sent.getCounter(BlaubotMessageSender.METRIC_MESSAGES));
+        Assert.assertEquals(messageCount + 3, received.getCounter(BlaubotMessageReceiver.METRIC_MESSAGES));
+        Assert.assertEquals(3, received.getCounter(BlaubotMessageReceiver.METRIC_CHUNKS));
+        Assert.assertEquals(1, received.getCounter(BlaubotMessageReceiver.METRIC_REASSEMBLED_MESSAGES));
+        Assert.assertEquals(messageCount * 100 + BlaubotConstants.MAX_PAYLOAD_SIZE * 2 + 1, received.getCounter(BlaubotMessageReceiver.METRIC_BYTES));
+        Assert.assertTrue(sent.getCounter(BlaubotMessageSender.METRIC_BYTES) > received.getCounter(BlaubotMessageReceiver.METRIC_BYTES));
+        Assert.assertEquals(sent.getCounter(BlaubotMessageSender.METRIC_BATCHES), sent.getHistogram(BlaubotMessageSender.METRIC_WRITE_LATENCY).getCount());
+        Assert.assertEquals(0, sent.getCounter(BlaubotMessageSender.METRIC_DROPPED));
+    }
+}
@@ -70,6 +70,28 @@ public class MockObjectsTest {
 		assertArrayEquals(data, read);
 	}
 
+	@Test(timeout = 5000)
+	public void testBlaubotConnectionQueueMockLargeChunkedTransfer() throws SocketTimeoutException, IOException {
+		// writes more than the ring buffer's initial capacity in odd chunk sizes to force growth and wrap-arounds
+		BlaubotConnectionQueueMock conn1 = new BlaubotConnectionQueueMock(null);
+		BlaubotConnectionQueueMock conn2 = conn1.getOtherEndpointConnection(null);
+		byte[] data = createRandomTestByteArray(TEST_DATA_SIZE * 100);
+		int written = 0;
+		int chunkSize = 777;
+		byte[] read = new byte[data.length];
+		int readBytes = 0;
+		while (written < data.length) {
+			int len = Math.min(chunkSize, data.length - written);
+			conn1.write(data, written, len);
+			written += len;
+			int toRead = Math.min(chunkSize / 2 + 1, written - readBytes);
+			conn2.readFully(read, readBytes, toRead);
+			readBytes += toRead;
+		}
+		conn2.readFully(read, readBytes, data.length - readBytes);
+		assertArrayEquals(data, read);
+	}
+
 	@Test
 	public void testBlaubotConnectionQueueMockPair() throws SocketTimeoutException, IOException {
 		BlaubotConnectionQueueMock conn1 = new BlaubotConnectionQueueMock(null);
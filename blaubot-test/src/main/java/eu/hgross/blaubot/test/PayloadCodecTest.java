@@ -0,0 +1,97 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotPayloadCodecs;
+import eu.hgross.blaubot.messaging.DeflatePayloadCodec;
+import eu.hgross.blaubot.messaging.IBlaubotPayloadCodec;
+
+/**
+ * Tests the payload codecs used for channel compression.
+ */
+public class PayloadCodecTest {
+    private final Random random = new Random();
+
+    private byte[] createJsonPayload(int entries) {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < entries; i++) {
+            sb.append("{\"deviceId\":\"device").append(random.nextInt(10)).append("\",\"temperature\":").append(random.nextInt(40)).append(",\"timestamp\":").append(1400000000000L + i).append("},");
+        }
+        sb.append("]");
+        return sb.toString().getBytes(BlaubotConstants.STRING_CHARSET);
+    }
+
+    private void assertRoundTrip(IBlaubotPayloadCodec codec, byte[] payload) throws IOException {
+        final byte[] compressed = BlaubotPayloadCodecs.compress(codec, payload);
+        if (compressed == null) {
+            return;
+        }
+        Assert.assertTrue(compressed.length < payload.length);
+        Assert.assertArrayEquals(payload, BlaubotPayloadCodecs.decompress(compressed));
+    }
+
+    @Test
+    public void testRoundTrips() throws IOException {
+        for (IBlaubotPayloadCodec codec : Arrays.asList(BlaubotPayloadCodecs.DEFLATE, BlaubotPayloadCodecs.LZ)) {
+            final byte[] json = createJsonPayload(500);
+            final byte[] compressed = BlaubotPayloadCodecs.compress(codec, json);
+            Assert.assertNotNull(compressed);
+            Assert.assertTrue(codec + " should at least halve redundant json", compressed.length < json.length / 2);
+            Assert.assertArrayEquals(json, BlaubotPayloadCodecs.decompress(compressed));
+
+            // repetitive data with overlapping matches
+            final byte[] repetitive = new byte[100000];
+            Arrays.fill(repetitive, (byte) 7);
+            assertRoundTrip(codec, repetitive);
+
+            // incompressible and tiny data
+            for (int size : new int[]{0, 1, 5, 13, 17, 100, 70000}) {
+                final byte[] randomData = new byte[size];
+                random.nextBytes(randomData);
+                assertRoundTrip(codec, randomData);
+            }
+            Assert.assertNull(BlaubotPayloadCodecs.compress(codec, new byte[]{1, 2, 3}));
+        }
+    }
+
+    @Test
+    public void testDictionary() throws IOException {
+        final List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            samples.add(createJsonPayload(3));
+        }
+        final byte[] dictionary = DeflatePayloadCodec.trainDictionary(samples, 4096);
+        final DeflatePayloadCodec dictionaryCodec = new DeflatePayloadCodec((byte) 100, Deflater.BEST_COMPRESSION, dictionary);
+        BlaubotPayloadCodecs.register(dictionaryCodec);
+
+        final byte[] smallMessage = createJsonPayload(1);
+        final byte[] withDictionary = BlaubotPayloadCodecs.compress(dictionaryCodec, smallMessage);
+        Assert.assertNotNull(withDictionary);
+        final byte[] withoutDictionary = BlaubotPayloadCodecs.compress(BlaubotPayloadCodecs.DEFLATE, smallMessage);
+        Assert.assertTrue(withoutDictionary == null || withDictionary.length < withoutDictionary.length);
+        Assert.assertArrayEquals(smallMessage, BlaubotPayloadCodecs.decompress(withDictionary));
+    }
+
+    @Test
+    public void testCorruptData() {
+        for (IBlaubotPayloadCodec codec : Arrays.asList(BlaubotPayloadCodecs.DEFLATE, BlaubotPayloadCodecs.LZ)) {
+            final byte[] compressed = BlaubotPayloadCodecs.compress(codec, createJsonPayload(100));
+            final byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+            try {
+                BlaubotPayloadCodecs.decompress(truncated);
+                Assert.fail("Truncated data should not be decompressed by " + codec);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.hgross.blaubot.core.ServerConnectionSelector;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+
+/**
+ * Tests the health score and the hysteresis of the server connection selection.
+ */
+public class ServerConnectionSelectorTest {
+
+    @Test
+    public void testDirectConnectionPreferred() {
+        final ServerConnectionSelector selector = new ServerConnectionSelector(new BlaubotChannelManager("king"));
+        final int directScore = selector.getScore(null, 0);
+        final int relayScore = selector.getScore("peasant", 0);
+        Assert.assertTrue(directScore < relayScore);
+        Assert.assertTrue("A direct connection should replace a relay connection", selector.isWorthSwitching(relayScore, directScore));
+    }
+
+    @Test
+    public void testRecentErrors() {
+        final ServerConnectionSelector selector = new ServerConnectionSelector(new BlaubotChannelManager("king"));
+        final long now = 100000;
+        selector.onPathFailed("peasant1", now);
+        final int failedScore = selector.getScore("peasant1", now);
+        final int healthyScore = selector.getScore("peasant2", now);
+        Assert.assertEquals(healthyScore + ServerConnectionSelector.ERROR_PENALTY, failedScore);
+
+        // forgotten after the window
+        Assert.assertEquals(healthyScore, selector.getScore("peasant1", now + ServerConnectionSelector.ERROR_WINDOW + 1));
+
+        selector.onPathFailed(null, now);
+        Assert.assertTrue(selector.getScore(null, now) > 0);
+        selector.clear();
+        Assert.assertEquals(0, selector.getScore(null, now));
+    }
+
+    @Test
+    public void testHysteresis() {
+        final ServerConnectionSelector selector = new ServerConnectionSelector(new BlaubotChannelManager("king"));
+        Assert.assertFalse(selector.isWorthSwitching(10, 10));
+        Assert.assertFalse(selector.isWorthSwitching(10, 10 - ServerConnectionSelector.SWITCH_MARGIN + 1));
+        Assert.assertTrue(selector.isWorthSwitching(10, 10 - ServerConnectionSelector.SWITCH_MARGIN));
+
+        final long selectedAt = 5000;
+        Assert.assertEquals(ServerConnectionSelector.MIN_DWELL_TIME, selector.getRemainingDwellTime(selectedAt, selectedAt));
+        Assert.assertEquals(0, selector.getRemainingDwellTime(selectedAt, selectedAt + ServerConnectionSelector.MIN_DWELL_TIME));
+    }
+}
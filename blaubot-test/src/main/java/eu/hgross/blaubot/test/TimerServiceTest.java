@@ -0,0 +1,158 @@
+package eu.hgross.blaubot.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.mock.ManualTimerService;
+import eu.hgross.blaubot.util.HashedWheelTimerService;
+import eu.hgross.blaubot.util.ITimeout;
+
+/**
+ * Tests the HashedWheelTimerService and the virtual time ManualTimerService.
+ */
+public class TimerServiceTest {
+    private HashedWheelTimerService timerService;
+
+    @Before
+    public void setUp() {
+        timerService = new HashedWheelTimerService("test-timer", 5, 8);
+    }
+
+    @After
+    public void tearDown() {
+        timerService.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void testScheduleAndCancel() throws InterruptedException {
+        final int taskCount = 2000;
+        final CountDownLatch latch = new CountDownLatch(taskCount / 2);
+        final AtomicInteger cancelledRuns = new AtomicInteger();
+        final AtomicInteger earlyRuns = new AtomicInteger();
+        final List<ITimeout> toCancel = new ArrayList<>();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < taskCount; i++) {
+            // spread over multiple wheel rotations
+            final long delay = 50 + (i % 100);
+            if (i % 2 == 0) {
+                timerService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (System.currentTimeMillis() - start < delay) {
+                            earlyRuns.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+                }, delay);
+            } else {
+                toCancel.add(timerService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancelledRuns.incrementAndGet();
+                    }
+                }, delay));
+            }
+        }
+        for (ITimeout timeout : toCancel) {
+            Assert.assertTrue(timeout.cancel());
+            Assert.assertFalse(timeout.cancel());
+            Assert.assertTrue(timeout.isCancelled());
+        }
+        Assert.assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(0, cancelledRuns.get());
+        Assert.assertEquals(0, earlyRuns.get());
+        Assert.assertEquals(0, timerService.getPendingCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testFixedRateAndShutdown() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(5);
+        final ITimeout timeout = timerService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 0, 20);
+        Assert.assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, timerService.getPendingCount());
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertEquals(0, timerService.getPendingCount());
+
+        // a task failing must not kill the timer, a shut down timer restarts on demand
+        timerService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        }, 0);
+        timerService.shutdown();
+        final CountDownLatch restartLatch = new CountDownLatch(2);
+        final Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                restartLatch.countDown();
+            }
+        };
+        timerService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        }, 0);
+        timerService.schedule(countDown, 10);
+        timerService.schedule(countDown, 30);
+        Assert.assertTrue(restartLatch.await(2000, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testManualTimerService() {
+        final ManualTimerService manual = new ManualTimerService();
+        final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        manual.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executed.add("b");
+            }
+        }, 200);
+        manual.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executed.add("a");
+            }
+        }, 100);
+        final ITimeout cancelled = manual.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executed.add("cancelled");
+            }
+        }, 150);
+        final ITimeout periodic = manual.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                executed.add("p");
+            }
+        }, 0, 100);
+        Assert.assertTrue(cancelled.cancel());
+
+        manual.advance(99);
+        Assert.assertEquals(Collections.singletonList("p"), executed);
+        manual.advance(151);
+        Assert.assertEquals(250, manual.getCurrentTime());
+        Assert.assertEquals(Arrays.asList("p", "a", "p", "b", "p"), executed);
+        periodic.cancel();
+        manual.advance(1000);
+        Assert.assertEquals(5, executed.size());
+        Assert.assertEquals(0, manual.getPendingCount());
+    }
+}
@@ -0,0 +1,56 @@
+package eu.hgross.blaubot.test.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import eu.hgross.blaubot.mock.simulation.KingdomSimulator;
+import eu.hgross.blaubot.mock.simulation.LinkProperties;
+import eu.hgross.blaubot.mock.simulation.SimulatedNetwork;
+import eu.hgross.blaubot.mock.simulation.SimulatedNode;
+
+/**
+ * Simulates a large kingdom in one JVM: lets it converge, generates load, splits it into two partitions,
+ * heals the partitions and prints a report after each phase.
+ *
+ * Usage: SimulatedKingdomMain [nodeCount] [latency ms] [loss] [seed]
+ */
+public class SimulatedKingdomMain {
+    private static final long CONVERGENCE_TIMEOUT = 10 * 60 * 1000;
+    private static final long LOAD_DURATION = 20000;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final long latency = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        final double loss = args.length > 2 ? Double.parseDouble(args[2]) : 0.001;
+        final long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        final SimulatedNetwork network = new SimulatedNetwork(seed);
+        network.setDefaultLinkProperties(new LinkProperties(latency, latency / 2, 1024 * 1024, loss));
+        final KingdomSimulator simulator = new KingdomSimulator(nodeCount, network);
+        simulator.start();
+        System.out.println("converged: " + simulator.awaitConvergence(CONVERGENCE_TIMEOUT));
+        System.out.println(simulator.createReport());
+
+        simulator.startLoad(new short[]{1, 2, 3}, 500, 128);
+        Thread.sleep(LOAD_DURATION);
+        System.out.println(simulator.createReport());
+
+        final List<String> partition1 = new ArrayList<>();
+        final List<String> partition2 = new ArrayList<>();
+        for (SimulatedNode node : simulator.getNodes()) {
+            (partition1.size() < nodeCount / 2 ? partition1 : partition2).add(node.getUniqueDeviceId());
+        }
+        simulator.schedulePartitions(0, Arrays.asList(partition1, partition2));
+        Thread.sleep(100);
+        System.out.println("converged after partitioning: " + simulator.awaitConvergence(CONVERGENCE_TIMEOUT));
+        System.out.println(simulator.createReport());
+
+        simulator.scheduleHeal(0);
+        Thread.sleep(100);
+        System.out.println("converged after healing: " + simulator.awaitConvergence(CONVERGENCE_TIMEOUT));
+        System.out.println(simulator.createReport());
+        simulator.close();
+    }
+}
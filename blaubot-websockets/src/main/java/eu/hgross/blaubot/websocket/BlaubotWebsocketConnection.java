@@ -3,13 +3,13 @@ package eu.hgross.blaubot.websocket;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 import eu.hgross.blaubot.util.Log;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufProcessor;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
@@ -58,7 +58,8 @@ public class BlaubotWebsocketConnection extends BlaubotConnectionQueueMock imple
         if (!connected) {
             handleNotConnectedException(new IOException("not connected"));
         }
-        ByteBuf byteBuf = Unpooled.wrappedBuffer(bytes);
+        // copied, the write is asynchronous and the caller may reuse the array
+        ByteBuf byteBuf = Unpooled.copiedBuffer(bytes);
         websocketChannel.writeAndFlush(new BinaryWebSocketFrame(byteBuf));
     }
 
@@ -67,27 +68,34 @@ public class BlaubotWebsocketConnection extends BlaubotConnectionQueueMock imple
         if (!connected) {
             handleNotConnectedException(new IOException("not connected"));
         }
-        ByteBuf byteBuf = Unpooled.wrappedBuffer(bytes, byteOffset, byteCount);
+        // copied, the write is asynchronous and the caller may reuse the array (i.e. pooled buffers)
+        ByteBuf byteBuf = Unpooled.copiedBuffer(bytes, byteOffset, byteCount);
         websocketChannel.writeAndFlush(new BinaryWebSocketFrame(byteBuf));
     }
 
     /**
      * Write data to the stream that can be retrieved via the {@link IBlaubotConnection}s
      * read*() methods.
+     * Synchronized, so that the frames of concurrent writers (netty handler, relay) don't interleave.
      *
      * @param data
      *            the data to write to the input stream as byte array
      */
     public synchronized void writeMockDataToInputStream(ByteBuf data) {
-        data.forEachByte(writeMockDataProcessor);
-    }
-    private final ByteBufProcessor writeMockDataProcessor = new ByteBufProcessor() {
-        @Override
-        public boolean process(byte b) throws Exception {
-            inputQueue.add(b);
-            return true;
+        // bulk copy of the readable bytes (does not modify the ByteBuf's reader index)
+        final int nioBufferCount = data.nioBufferCount();
+        if (nioBufferCount == 1) {
+            inputQueue.write(data.nioBuffer());
+        } else if (nioBufferCount > 1) {
+            for (ByteBuffer component : data.nioBuffers()) {
+                inputQueue.write(component);
+            }
+        } else {
+            final byte[] bytes = new byte[data.readableBytes()];
+            data.getBytes(data.readerIndex(), bytes);
+            inputQueue.write(bytes, 0, bytes.length);
         }
-    };
+    }
 
     @Override
     public InputStream getInputStreamForWrittenConnectionData() {
@@ -40,6 +40,11 @@ public abstract class AbstractAdminMessage {
 
     public static final byte CLASSIFIER_DISCOVERED_DEVICE = 14;
 	public static final byte CLASSIFIER_FINISHED_HANDSHAKE = 15;
+	public static final byte CLASSIFIER_CENSUS_DELTA_MESSAGE = 16;
+	public static final byte CLASSIFIER_CENSUS_RESYNC_REQUEST = 17;
+	public static final byte CLASSIFIER_METRICS = 18;
+	public static final byte CLASSIFIER_SERVER_CONNECTION_ROUTED_RELAY_PAYLOAD = 19;
+	public static final byte CLASSIFIER_RELIABLE_ACK = 20;
 
 	private byte classifier;
 
@@ -17,7 +17,7 @@ public class AdminMessageFactory {
      * @return the deserialized, typed admin message
      */
     public static AbstractAdminMessage createAdminMessageFromRawMessage(BlaubotMessage rawMessage) {
-        byte classifier = rawMessage.getPayload()[0];
+        byte classifier = getClassifier(rawMessage);
         if (classifier == AbstractAdminMessage.CLASSIFIER_CENSUS_MESSAGE) {
             return new CensusMessage(rawMessage);
         } else if (classifier == AbstractAdminMessage.CLASSIFIER_NEW_PRINCE_MESSAGE) {
@@ -38,7 +38,7 @@ public class AdminMessageFactory {
             return new ServerConnectionAvailableAdminMessage(rawMessage);
         } else if (classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_DOWN) {
             return new ServerConnectionDownAdminMessage(rawMessage);
-        } else if (classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_RELAY_PAYLOAD) {
+        } else if (classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_RELAY_PAYLOAD || classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_ROUTED_RELAY_PAYLOAD) {
             return new RelayAdminMessage(rawMessage);
         } else if (classifier == AbstractAdminMessage.CLASSIFIER_CLOSE_SERVER_CONNECTION) {
             return new CloseRelayConnectionAdminMessage(rawMessage);
@@ -46,10 +46,28 @@ public class AdminMessageFactory {
             return new DiscoveredDeviceAdminMessage(rawMessage);
         } else if (classifier == AbstractAdminMessage.CLASSIFIER_FINISHED_HANDSHAKE) {
             return new FinishedHandshakeAdminMessage(rawMessage);
+        } else if (classifier == AbstractAdminMessage.CLASSIFIER_CENSUS_DELTA_MESSAGE) {
+            return new CensusDeltaMessage(rawMessage);
+        } else if (classifier == AbstractAdminMessage.CLASSIFIER_CENSUS_RESYNC_REQUEST) {
+            return new CensusResyncRequestAdminMessage(rawMessage);
+        } else if (classifier == AbstractAdminMessage.CLASSIFIER_METRICS) {
+            return new MetricsAdminMessage(rawMessage);
+        } else if (classifier == AbstractAdminMessage.CLASSIFIER_RELIABLE_ACK) {
+            return new ReliableAckAdminMessage(rawMessage);
         } else
             throw new InvalidClassifierException("The given classifier " + classifier + " is unknown (-> invalid).");
     }
 
+    /**
+     * Reads the classifier of a raw admin message without parsing the message.
+     *
+     * @param rawMessage the rawMessage
+     * @return the classifier
+     */
+    public static byte getClassifier(BlaubotMessage rawMessage) {
+        return rawMessage.getPayload()[0];
+    }
+
     /**
      * Validates if the classifier is valid - throws an exception otherwise.
      *
@@ -71,7 +89,12 @@ public class AdminMessageFactory {
                 classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_RELAY_PAYLOAD ||
                 classifier == AbstractAdminMessage.CLASSIFIER_CLOSE_SERVER_CONNECTION ||
                 classifier == AbstractAdminMessage.CLASSIFIER_DISCOVERED_DEVICE ||
-                classifier == AbstractAdminMessage.CLASSIFIER_FINISHED_HANDSHAKE)) {
+                classifier == AbstractAdminMessage.CLASSIFIER_FINISHED_HANDSHAKE ||
+                classifier == AbstractAdminMessage.CLASSIFIER_CENSUS_DELTA_MESSAGE ||
+                classifier == AbstractAdminMessage.CLASSIFIER_CENSUS_RESYNC_REQUEST ||
+                classifier == AbstractAdminMessage.CLASSIFIER_METRICS ||
+                classifier == AbstractAdminMessage.CLASSIFIER_SERVER_CONNECTION_ROUTED_RELAY_PAYLOAD ||
+                classifier == AbstractAdminMessage.CLASSIFIER_RELIABLE_ACK)) {
             throw new InvalidClassifierException("The given classifier " + classifier + " is unknown (-> invalid).");
         }
     }
@@ -0,0 +1,261 @@
+package eu.hgross.blaubot.admin;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.State;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+
+/**
+ * The changes of the kingdom's census from one epoch to the next (joined devices, left devices
+ * and devices that changed their state).
+ * Sent by the king instead of a full {@link CensusMessage}, if nothing but the changes are needed.
+ * A delta can only be applied to the census of the same session with the directly preceding epoch.
+ * Receivers detecting a gap request a full census via {@link CensusResyncRequestAdminMessage}.
+ *
+ * The message is sent in this binary form:
+ * 		sessionId (int) | epoch (int) | joined count (int) | changed count (int) | left count (int) |
+ * 		[state ordinal (byte) | uniqueDeviceId]* for joined and changed devices | [uniqueDeviceId]* for left devices
+ * where the uniqueDeviceId is encoded as length (short) followed by the string bytes.
+ */
+public class CensusDeltaMessage extends AbstractAdminMessage {
+    private int sessionId;
+    private int epoch;
+    private Map<String, State> joinedDevices;
+    private Map<String, State> changedDevices;
+    private Set<String> leftDevices;
+
+    /**
+     * @param sessionId      the king's census session id
+     * @param epoch          the epoch of the census resulting from this delta
+     * @param joinedDevices  the devices that joined the kingdom and their states
+     * @param changedDevices the devices that changed their state and their new states
+     * @param leftDevices    the devices that left the kingdom
+     */
+    public CensusDeltaMessage(int sessionId, int epoch, Map<String, State> joinedDevices, Map<String, State> changedDevices, Set<String> leftDevices) {
+        super(CLASSIFIER_CENSUS_DELTA_MESSAGE);
+        this.sessionId = sessionId;
+        this.epoch = epoch;
+        this.joinedDevices = joinedDevices;
+        this.changedDevices = changedDevices;
+        this.leftDevices = leftDevices;
+    }
+
+    public CensusDeltaMessage(BlaubotMessage rawMessage) {
+        super(rawMessage);
+    }
+
+    /**
+     * Creates the delta between two device state maps.
+     *
+     * @param sessionId the king's census session id
+     * @param epoch     the epoch of the new census
+     * @param oldStates the device states of the previous epoch
+     * @param newStates the device states of the new epoch
+     * @return the delta
+     */
+    public static CensusDeltaMessage diff(int sessionId, int epoch, Map<String, State> oldStates, Map<String, State> newStates) {
+        final Map<String, State> joined = new HashMap<>();
+        final Map<String, State> changed = new HashMap<>();
+        for (Entry<String, State> entry : newStates.entrySet()) {
+            final State oldState = oldStates.get(entry.getKey());
+            if (oldState == null) {
+                joined.put(entry.getKey(), entry.getValue());
+            } else if (oldState != entry.getValue()) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final Set<String> left = new HashSet<>(oldStates.keySet());
+        left.removeAll(newStates.keySet());
+        return new CensusDeltaMessage(sessionId, epoch, joined, changed, left);
+    }
+
+    @Override
+    protected byte[] payloadToBytes() {
+        final int capacity = 20 + entriesLength(joinedDevices.keySet(), 1) + entriesLength(changedDevices.keySet(), 1) + entriesLength(leftDevices, 0);
+        final ByteBuffer bb = ByteBuffer.allocate(capacity);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.putInt(sessionId);
+        bb.putInt(epoch);
+        bb.putInt(joinedDevices.size());
+        bb.putInt(changedDevices.size());
+        bb.putInt(leftDevices.size());
+        putStates(bb, joinedDevices);
+        putStates(bb, changedDevices);
+        for (String uniqueDeviceId : leftDevices) {
+            putString(bb, uniqueDeviceId);
+        }
+        return bb.array();
+    }
+
+    @Override
+    protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
+        sessionId = messagePayloadAsBytes.getInt();
+        epoch = messagePayloadAsBytes.getInt();
+        final int joinedCount = messagePayloadAsBytes.getInt();
+        final int changedCount = messagePayloadAsBytes.getInt();
+        final int leftCount = messagePayloadAsBytes.getInt();
+        joinedDevices = readStates(messagePayloadAsBytes, joinedCount);
+        changedDevices = readStates(messagePayloadAsBytes, changedCount);
+        leftDevices = new HashSet<>();
+        for (int i = 0; i < leftCount; i++) {
+            leftDevices.add(getString(messagePayloadAsBytes));
+        }
+    }
+
+    private static void putStates(ByteBuffer bb, Map<String, State> states) {
+        for (Entry<String, State> entry : states.entrySet()) {
+            bb.put((byte) entry.getValue().ordinal());
+            putString(bb, entry.getKey());
+        }
+    }
+
+    private static Map<String, State> readStates(ByteBuffer bb, int count) {
+        final Map<String, State> states = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            final State state = State.values()[bb.get()];
+            states.put(getString(bb), state);
+        }
+        return states;
+    }
+
+    /**
+     * Calculates the number of bytes needed to encode the given unique device ids.
+     *
+     * @param uniqueDeviceIds the ids
+     * @param extraBytesPerEntry additional bytes per entry
+     * @return the number of bytes
+     */
+    static int entriesLength(Collection<String> uniqueDeviceIds, int extraBytesPerEntry) {
+        int length = 0;
+        for (String uniqueDeviceId : uniqueDeviceIds) {
+            length += 2 + extraBytesPerEntry + uniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET).length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the string's length (short) followed by it's bytes.
+     */
+    static void putString(ByteBuffer bb, String str) {
+        final byte[] bytes = str.getBytes(BlaubotConstants.STRING_CHARSET);
+        bb.putShort((short) bytes.length);
+        bb.put(bytes);
+    }
+
+    /**
+     * Reads a string written by putString().
+     */
+    static String getString(ByteBuffer bb) {
+        final byte[] bytes = new byte[bb.getShort() & 0xffff];
+        bb.get(bytes);
+        return new String(bytes, BlaubotConstants.STRING_CHARSET);
+    }
+
+    /**
+     * Checks if this delta can be applied to the given census.
+     *
+     * @param census the census
+     * @return true, iff the census is of the same session and has the directly preceding epoch
+     */
+    public boolean follows(CensusMessage census) {
+        return census.getSessionId() != CensusMessage.NO_SESSION && census.getSessionId() == sessionId && census.getEpoch() == epoch - 1;
+    }
+
+    /**
+     * Checks if the given census already contains the changes of this delta.
+     *
+     * @param census the census
+     * @return true, iff the census is of the same session and at least of this delta's epoch
+     */
+    public boolean isOutdatedBy(CensusMessage census) {
+        return census.getSessionId() != CensusMessage.NO_SESSION && census.getSessionId() == sessionId && census.getEpoch() >= epoch;
+    }
+
+    /**
+     * @return true, iff the delta contains no changes
+     */
+    public boolean isEmpty() {
+        return joinedDevices.isEmpty() && changedDevices.isEmpty() && leftDevices.isEmpty();
+    }
+
+    /**
+     * @return the king's census session id
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return the epoch of the census resulting from this delta
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the devices that joined the kingdom and their states
+     */
+    public Map<String, State> getJoinedDevices() {
+        return Collections.unmodifiableMap(joinedDevices);
+    }
+
+    /**
+     * @return the devices that changed their state and their new states
+     */
+    public Map<String, State> getChangedDevices() {
+        return Collections.unmodifiableMap(changedDevices);
+    }
+
+    /**
+     * @return the devices that left the kingdom
+     */
+    public Set<String> getLeftDevices() {
+        return Collections.unmodifiableSet(leftDevices);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("CensusDeltaMessage{");
+        sb.append("sessionId=").append(sessionId);
+        sb.append(", epoch=").append(epoch);
+        sb.append(", joinedDevices=").append(joinedDevices);
+        sb.append(", changedDevices=").append(changedDevices);
+        sb.append(", leftDevices=").append(leftDevices);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        CensusDeltaMessage that = (CensusDeltaMessage) o;
+
+        if (sessionId != that.sessionId) return false;
+        if (epoch != that.epoch) return false;
+        if (!joinedDevices.equals(that.joinedDevices)) return false;
+        if (!changedDevices.equals(that.changedDevices)) return false;
+        return leftDevices.equals(that.leftDevices);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + sessionId;
+        result = 31 * result + epoch;
+        result = 31 * result + joinedDevices.hashCode();
+        result = 31 * result + changedDevices.hashCode();
+        result = 31 * result + leftDevices.hashCode();
+        return result;
+    }
+}
@@ -12,50 +12,47 @@ import eu.hgross.blaubot.messaging.BlaubotMessage;
 /**
  * Informs about devices and their roles (states) in the kingdom.
  *
- * TODO: use json for the map
+ * This is the full snapshot of the census, which is sent by the king on join or resync requests
+ * (see {@link CensusResyncRequestAdminMessage}). All other changes are sent as
+ * {@link CensusDeltaMessage}s, which are applied to the last snapshot (see applyDelta()).
+ * Each king session has its own random session id and counts the census epochs up from 1.
+ * Census messages without a session (id 0) can not be updated by deltas.
  *
- * The status message is sent as one String in this form:
- * 		DeviceId|StateString;Device2Id|StateString; ...
+ * The message is sent in this binary form:
+ * 		sessionId (int) | epoch (int) | device count (int) | [state ordinal (byte) | uniqueDeviceId length (short) | uniqueDeviceId bytes]*
  *
  * @author Henning Gross {@literal (mail.to@henning-gross.de)}
  *
  */
 public class CensusMessage extends AbstractAdminMessage {
+	/**
+	 * The session id of census messages, that are not part of a versioned census session.
+	 */
+	public static final int NO_SESSION = 0;
 	private volatile Map<String, State> deviceStates;
+	private int sessionId;
+	private int epoch;
 	
 	public CensusMessage(Map<String, State> deviceStates) {
+		this(deviceStates, NO_SESSION, 0);
+	}
+
+	/**
+	 * @param deviceStates the devices and their states
+	 * @param sessionId the king's census session id
+	 * @param epoch the census epoch within the session
+	 */
+	public CensusMessage(Map<String, State> deviceStates, int sessionId, int epoch) {
 		super(CLASSIFIER_CENSUS_MESSAGE);
 		this.deviceStates = deviceStates;
+		this.sessionId = sessionId;
+		this.epoch = epoch;
 	}
 	
 	public CensusMessage(BlaubotMessage rawMessage) {
 		super(rawMessage);
 	}
 	
-	private static String mapToString(Map<String, State> deviceStates) {
-		StringBuffer sb = new StringBuffer();
-		
-		for(Entry<String, State> entry : deviceStates.entrySet()) {
-			sb.append(entry.getKey()); // uniqueId
-			sb.append("|");
-			sb.append(entry.getValue().name()); // state
-			sb.append(";");
-		}
-		return new String(sb);
-	}
-	
-	private static Map<String, State> stringToMap(String s) {
-		Map<String, State> map = new HashMap<String, State>();
-		for(String data : s.split(";")) {
-			String[] k_v = data.split("\\|");
-			if(k_v.length <= 1) 
-				break;
-			String deviceUniqueId = k_v[0], stateStr = k_v[1];
-			map.put(deviceUniqueId, State.valueOf(stateStr));
-		}
-		return map;
-	}
-	
 	public static void main(String args[]) {
 		Map<String ,State> m = new HashMap<String, State>();
 		m.put("test1", State.Peasant);
@@ -63,8 +60,6 @@ public class CensusMessage extends AbstractAdminMessage {
 		final CensusMessage cm = new CensusMessage(m);
 		System.out.println(cm+"");
 		System.out.println(m+"");
-		System.out.println(mapToString(m));
-		System.out.println(stringToMap(mapToString(m)));
 		System.out.println(new CensusMessage(cm.toBlaubotMessage())+"");
 
         for(int i=0; i<10;i++) {
@@ -88,16 +83,73 @@ public class CensusMessage extends AbstractAdminMessage {
 	
 	@Override
 	protected byte[] payloadToBytes() {
-		String strToSend = mapToString(deviceStates);
-		return strToSend.getBytes(BlaubotConstants.STRING_CHARSET);
+		final Map<String, State> states = deviceStates;
+		final ByteBuffer bb = ByteBuffer.allocate(12 + CensusDeltaMessage.entriesLength(states.keySet(), 1));
+		bb.order(BlaubotConstants.BYTE_ORDER);
+		bb.putInt(sessionId);
+		bb.putInt(epoch);
+		bb.putInt(states.size());
+		for(Entry<String, State> entry : states.entrySet()) {
+			bb.put((byte) entry.getValue().ordinal());
+			CensusDeltaMessage.putString(bb, entry.getKey());
+		}
+		return bb.array();
 	}
 
 	@Override
 	protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
-		byte[] stringBytes = new byte[messagePayloadAsBytes.remaining()];
-		messagePayloadAsBytes.get(stringBytes);
-		String readString = new String(stringBytes, BlaubotConstants.STRING_CHARSET);
-		deviceStates = stringToMap(readString);
+		sessionId = messagePayloadAsBytes.getInt();
+		epoch = messagePayloadAsBytes.getInt();
+		final int count = messagePayloadAsBytes.getInt();
+		final Map<String, State> states = new HashMap<String, State>();
+		for(int i=0; i<count; i++) {
+			final State state = State.values()[messagePayloadAsBytes.get()];
+			states.put(CensusDeltaMessage.getString(messagePayloadAsBytes), state);
+		}
+		deviceStates = states;
+	}
+
+	/**
+	 * Creates the census resulting from applying the given delta to this census.
+	 *
+	 * @param delta the delta
+	 * @return the new census or null, if the delta does not directly follow this census (other session or a gap)
+	 */
+	public CensusMessage applyDelta(CensusDeltaMessage delta) {
+		if (!delta.follows(this)) {
+			return null;
+		}
+		final Map<String, State> states = new HashMap<String, State>(deviceStates);
+		states.putAll(delta.getJoinedDevices());
+		states.putAll(delta.getChangedDevices());
+		for(String uniqueDeviceId : delta.getLeftDevices()) {
+			states.remove(uniqueDeviceId);
+		}
+		return new CensusMessage(states, sessionId, delta.getEpoch());
+	}
+
+	/**
+	 * @return the session id of the king that created this census or NO_SESSION
+	 */
+	public int getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * @return the census epoch within the session
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Checks if this census is an older version of the given census of the same session.
+	 *
+	 * @param other the other census
+	 * @return true, iff both belong to the same session and this epoch is lower
+	 */
+	public boolean isOlderThan(CensusMessage other) {
+		return sessionId != NO_SESSION && sessionId == other.sessionId && epoch < other.epoch;
 	}
 
 	public Map<String, State> getDeviceStates() {
@@ -135,7 +187,7 @@ public class CensusMessage extends AbstractAdminMessage {
 
 	@Override
 	public String toString() {
-		return "CensusMessage [deviceStates=" + deviceStates + "]";
+		return "CensusMessage [sessionId=" + sessionId + ", epoch=" + epoch + ", deviceStates=" + deviceStates + "]";
 	}
 
 	@Override
@@ -143,6 +195,8 @@ public class CensusMessage extends AbstractAdminMessage {
 		final int prime = 31;
 		int result = super.hashCode();
 		result = prime * result + ((deviceStates == null) ? 0 : deviceStates.hashCode());
+		result = prime * result + sessionId;
+		result = prime * result + epoch;
 		return result;
 	}
 
@@ -155,6 +209,8 @@ public class CensusMessage extends AbstractAdminMessage {
 		if (getClass() != obj.getClass())
 			return false;
 		CensusMessage other = (CensusMessage) obj;
+		if (sessionId != other.sessionId || epoch != other.epoch)
+			return false;
 		if (deviceStates == null) {
 			if (other.deviceStates != null)
 				return false;
@@ -0,0 +1,72 @@
+package eu.hgross.blaubot.admin;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+
+/**
+ * Sent to the king by a device that missed a {@link CensusDeltaMessage} (or never got a full
+ * census of the current session). The king answers with a full {@link CensusMessage} to the
+ * requesting device.
+ */
+public class CensusResyncRequestAdminMessage extends AbstractAdminMessage {
+    private String uniqueDeviceId;
+
+    /**
+     * @param uniqueDeviceId the requesting device's unique device id
+     */
+    public CensusResyncRequestAdminMessage(String uniqueDeviceId) {
+        super(CLASSIFIER_CENSUS_RESYNC_REQUEST);
+        this.uniqueDeviceId = uniqueDeviceId;
+    }
+
+    public CensusResyncRequestAdminMessage(BlaubotMessage rawMessage) {
+        super(rawMessage);
+    }
+
+    @Override
+    protected byte[] payloadToBytes() {
+        return uniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+    }
+
+    @Override
+    protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
+        byte[] stringBytes = Arrays.copyOfRange(messagePayloadAsBytes.array(), messagePayloadAsBytes.position(), messagePayloadAsBytes.capacity());
+        this.uniqueDeviceId = new String(stringBytes, BlaubotConstants.STRING_CHARSET);
+    }
+
+    /**
+     * @return the requesting device's unique device id
+     */
+    public String getUniqueDeviceId() {
+        return uniqueDeviceId;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("CensusResyncRequestAdminMessage{");
+        sb.append("uniqueDeviceId='").append(uniqueDeviceId).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        CensusResyncRequestAdminMessage that = (CensusResyncRequestAdminMessage) o;
+
+        return !(uniqueDeviceId != null ? !uniqueDeviceId.equals(that.uniqueDeviceId) : that.uniqueDeviceId != null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (uniqueDeviceId != null ? uniqueDeviceId.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+package eu.hgross.blaubot.admin;
+
+import java.nio.ByteBuffer;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.metrics.MetricsSnapshot;
+
+/**
+ * Sent to the king by the peasants and the prince to report their {@link MetricsSnapshot}s periodically.
+ * The king collects them to provide kingdom-wide metrics (see {@link eu.hgross.blaubot.metrics.KingdomMetricsCollector}).
+ */
+public class MetricsAdminMessage extends AbstractAdminMessage {
+    private MetricsSnapshot snapshot;
+
+    /**
+     * @param snapshot the reporting device's snapshot
+     */
+    public MetricsAdminMessage(MetricsSnapshot snapshot) {
+        super(CLASSIFIER_METRICS);
+        this.snapshot = snapshot;
+    }
+
+    public MetricsAdminMessage(BlaubotMessage rawMessage) {
+        super(rawMessage);
+    }
+
+    @Override
+    protected byte[] payloadToBytes() {
+        return snapshot.toBytes();
+    }
+
+    @Override
+    protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
+        messagePayloadAsBytes.order(BlaubotConstants.BYTE_ORDER);
+        this.snapshot = MetricsSnapshot.fromBytes(messagePayloadAsBytes);
+    }
+
+    /**
+     * @return the reporting device's snapshot
+     */
+    public MetricsSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("MetricsAdminMessage{");
+        sb.append("snapshot=").append(snapshot);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        MetricsAdminMessage that = (MetricsAdminMessage) o;
+
+        return !(snapshot != null ? !snapshot.equals(that.snapshot) : that.snapshot != null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (snapshot != null ? snapshot.hashCode() : 0);
+        return result;
+    }
+}
@@ -7,8 +7,14 @@ import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 
 /**
- * Relays a BlaubotMessage to the server.
- * Contains only the BlaubotMessage that has to be sent to the server
+ * Relays a BlaubotMessage to or from the server.
+ * Contains the BlaubotMessage that has to be sent to the server (or was received from it) and optionally
+ * the unique device id of the mediator, which holds the actual server connection. If the mediator is
+ * given, the message is sent with the CLASSIFIER_SERVER_CONNECTION_ROUTED_RELAY_PAYLOAD classifier and
+ * the king routes it to the relay connection of this mediator only.
+ *
+ * Note: The ServerConnectionManager relays the server's messages as BlaubotRelayFrames, which avoid
+ * wrapping the serialized messages into admin messages.
  *
  * @author Henning Gross {@literal (mail.to@henning-gross.de)}
  */
@@ -16,18 +22,32 @@ public class RelayAdminMessage extends AbstractAdminMessage {
     private static final int MAX_PAYLOAD = BlaubotConstants.MAX_PAYLOAD_SIZE + AbstractAdminMessage.HEADER_LENGTH + BlaubotMessage.FULL_HEADER_LENGTH;
 
     private byte[] serializedBlaubotMessage;
+    /**
+     * The mediator's unique device id or null, if not routed
+     */
+    private String mediatorUniqueDeviceId;
 
     /**
      * @param serializedBlaubotMessage the blaubot message to be relayed to the server as byte array (with header)
      * @throws IllegalArgumentException if the payload (serializedBlaubotMessage) exceeds the maximum payload
      */
     public RelayAdminMessage(byte[] serializedBlaubotMessage) {
-        super(CLASSIFIER_SERVER_CONNECTION_RELAY_PAYLOAD);
+        this(null, serializedBlaubotMessage);
+    }
+
+    /**
+     * @param mediatorUniqueDeviceId   the unique device id of the mediator holding the server connection or null
+     * @param serializedBlaubotMessage the blaubot message to be relayed as byte array (with header)
+     * @throws IllegalArgumentException if the payload (serializedBlaubotMessage) exceeds the maximum payload
+     */
+    public RelayAdminMessage(String mediatorUniqueDeviceId, byte[] serializedBlaubotMessage) {
+        super(mediatorUniqueDeviceId == null ? CLASSIFIER_SERVER_CONNECTION_RELAY_PAYLOAD : CLASSIFIER_SERVER_CONNECTION_ROUTED_RELAY_PAYLOAD);
         // assert size
         if (serializedBlaubotMessage.length > MAX_PAYLOAD) {
             throw new IllegalArgumentException("Too big payload for RelayAdminMessage (max " + MAX_PAYLOAD + " but got " + serializedBlaubotMessage.length + ")");
         }
         this.serializedBlaubotMessage = serializedBlaubotMessage;
+        this.mediatorUniqueDeviceId = mediatorUniqueDeviceId;
     }
 
     /**
@@ -41,11 +61,26 @@ public class RelayAdminMessage extends AbstractAdminMessage {
 
     @Override
     protected byte[] payloadToBytes() {
-        return serializedBlaubotMessage;
+        if (mediatorUniqueDeviceId == null) {
+            return serializedBlaubotMessage;
+        }
+        // mediator id length (short) | mediator id | serialized message
+        final byte[] mediatorBytes = mediatorUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        final ByteBuffer bb = ByteBuffer.allocate(2 + mediatorBytes.length + serializedBlaubotMessage.length);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.putShort((short) mediatorBytes.length);
+        bb.put(mediatorBytes);
+        bb.put(serializedBlaubotMessage);
+        return bb.array();
     }
 
     @Override
     protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
+        if (getClassifier() == CLASSIFIER_SERVER_CONNECTION_ROUTED_RELAY_PAYLOAD) {
+            final byte[] mediatorBytes = new byte[messagePayloadAsBytes.getShort() & 0xffff];
+            messagePayloadAsBytes.get(mediatorBytes);
+            mediatorUniqueDeviceId = new String(mediatorBytes, BlaubotConstants.STRING_CHARSET);
+        }
         serializedBlaubotMessage = Arrays.copyOfRange(messagePayloadAsBytes.array(), messagePayloadAsBytes.position(), messagePayloadAsBytes.capacity());
     }
 
@@ -63,6 +98,13 @@ public class RelayAdminMessage extends AbstractAdminMessage {
         return serializedBlaubotMessage;
     }
 
+    /**
+     * @return the unique device id of the mediator holding the server connection or null, if the message is not routed
+     */
+    public String getMediatorUniqueDeviceId() {
+        return mediatorUniqueDeviceId;
+    }
+
     @Override
     public BlaubotMessage toBlaubotMessage() {
         BlaubotMessage blaubotMessage = super.toBlaubotMessage();
@@ -81,6 +123,8 @@ public class RelayAdminMessage extends AbstractAdminMessage {
 
         if (!Arrays.equals(serializedBlaubotMessage, that.serializedBlaubotMessage))
             return false;
+        if (mediatorUniqueDeviceId != null ? !mediatorUniqueDeviceId.equals(that.mediatorUniqueDeviceId) : that.mediatorUniqueDeviceId != null)
+            return false;
 
         return true;
     }
@@ -89,6 +133,7 @@ public class RelayAdminMessage extends AbstractAdminMessage {
     public int hashCode() {
         int result = super.hashCode();
         result = 31 * result + (serializedBlaubotMessage != null ? Arrays.hashCode(serializedBlaubotMessage) : 0);
+        result = 31 * result + (mediatorUniqueDeviceId != null ? mediatorUniqueDeviceId.hashCode() : 0);
         return result;
     }
 
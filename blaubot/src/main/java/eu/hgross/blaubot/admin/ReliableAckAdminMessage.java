@@ -0,0 +1,169 @@
+package eu.hgross.blaubot.admin;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+
+/**
+ * Acknowledges the messages of a reliable channel (see BlaubotChannelConfig#setReliable) received
+ * from a publisher. Sent by the subscribers to the king, which forwards it to the publisher only.
+ *
+ * The cumulative ack covers all sequence numbers up to and including it, the selective acks are
+ * received sequence numbers beyond a gap.
+ */
+public class ReliableAckAdminMessage extends AbstractAdminMessage {
+    private short channelId;
+    private String publisherUniqueDeviceId;
+    private String ackingUniqueDeviceId;
+    private long epoch;
+    private int cumulativeAck;
+    private int[] selectiveAcks;
+
+    /**
+     * @param channelId               the reliable channel
+     * @param publisherUniqueDeviceId the publisher of the acknowledged messages
+     * @param ackingUniqueDeviceId    the subscriber that received the messages
+     * @param epoch                   the publisher's epoch the sequence numbers belong to
+     * @param cumulativeAck           all messages up to this sequence number were received
+     * @param selectiveAcks           further received sequence numbers
+     */
+    public ReliableAckAdminMessage(short channelId, String publisherUniqueDeviceId, String ackingUniqueDeviceId, long epoch, int cumulativeAck, int[] selectiveAcks) {
+        super(CLASSIFIER_RELIABLE_ACK);
+        this.channelId = channelId;
+        this.publisherUniqueDeviceId = publisherUniqueDeviceId;
+        this.ackingUniqueDeviceId = ackingUniqueDeviceId;
+        this.epoch = epoch;
+        this.cumulativeAck = cumulativeAck;
+        this.selectiveAcks = selectiveAcks;
+    }
+
+    public ReliableAckAdminMessage(BlaubotMessage rawMessage) {
+        super(rawMessage);
+    }
+
+    @Override
+    protected byte[] payloadToBytes() {
+        final byte[] publisherBytes = publisherUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        final byte[] ackingBytes = ackingUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        final int capacity = 2 + 8 + 4 + 2 + 4 * selectiveAcks.length + 2 + publisherBytes.length + ackingBytes.length;
+        final ByteBuffer bb = ByteBuffer.allocate(capacity);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.putShort(channelId);
+        bb.putLong(epoch);
+        bb.putInt(cumulativeAck);
+        bb.putShort((short) selectiveAcks.length);
+        for (int selectiveAck : selectiveAcks) {
+            bb.putInt(selectiveAck);
+        }
+        bb.putShort((short) publisherBytes.length);
+        bb.put(publisherBytes);
+        bb.put(ackingBytes);
+        return bb.array();
+    }
+
+    @Override
+    protected void setUpFromBytes(ByteBuffer messagePayloadAsBytes) {
+        messagePayloadAsBytes.order(BlaubotConstants.BYTE_ORDER);
+        this.channelId = messagePayloadAsBytes.getShort();
+        this.epoch = messagePayloadAsBytes.getLong();
+        this.cumulativeAck = messagePayloadAsBytes.getInt();
+        final int selectiveAckCount = messagePayloadAsBytes.getShort() & 0xffff;
+        this.selectiveAcks = new int[selectiveAckCount];
+        for (int i = 0; i < selectiveAckCount; i++) {
+            selectiveAcks[i] = messagePayloadAsBytes.getInt();
+        }
+        final int publisherBytesLength = messagePayloadAsBytes.getShort() & 0xffff;
+        final byte[] payload = messagePayloadAsBytes.array();
+        final int publisherOffset = messagePayloadAsBytes.position();
+        this.publisherUniqueDeviceId = new String(payload, publisherOffset, publisherBytesLength, BlaubotConstants.STRING_CHARSET);
+        final int ackingOffset = publisherOffset + publisherBytesLength;
+        this.ackingUniqueDeviceId = new String(payload, ackingOffset, payload.length - ackingOffset, BlaubotConstants.STRING_CHARSET);
+    }
+
+    /**
+     * @return the reliable channel's id
+     */
+    public short getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * @return the unique device id of the publisher of the acknowledged messages
+     */
+    public String getPublisherUniqueDeviceId() {
+        return publisherUniqueDeviceId;
+    }
+
+    /**
+     * @return the unique device id of the subscriber that received the messages
+     */
+    public String getAckingUniqueDeviceId() {
+        return ackingUniqueDeviceId;
+    }
+
+    /**
+     * @return the publisher's epoch the sequence numbers belong to
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the sequence number up to which (including) all messages were received
+     */
+    public int getCumulativeAck() {
+        return cumulativeAck;
+    }
+
+    /**
+     * @return the sequence numbers received beyond the cumulative ack
+     */
+    public int[] getSelectiveAcks() {
+        return selectiveAcks;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("ReliableAckAdminMessage{");
+        sb.append("channelId=").append(channelId);
+        sb.append(", publisherUniqueDeviceId='").append(publisherUniqueDeviceId).append('\'');
+        sb.append(", ackingUniqueDeviceId='").append(ackingUniqueDeviceId).append('\'');
+        sb.append(", epoch=").append(epoch);
+        sb.append(", cumulativeAck=").append(cumulativeAck);
+        sb.append(", selectiveAcks=").append(Arrays.toString(selectiveAcks));
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+
+        ReliableAckAdminMessage that = (ReliableAckAdminMessage) o;
+
+        if (channelId != that.channelId) return false;
+        if (epoch != that.epoch) return false;
+        if (cumulativeAck != that.cumulativeAck) return false;
+        if (publisherUniqueDeviceId != null ? !publisherUniqueDeviceId.equals(that.publisherUniqueDeviceId) : that.publisherUniqueDeviceId != null)
+            return false;
+        if (ackingUniqueDeviceId != null ? !ackingUniqueDeviceId.equals(that.ackingUniqueDeviceId) : that.ackingUniqueDeviceId != null)
+            return false;
+        return Arrays.equals(selectiveAcks, that.selectiveAcks);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + (int) channelId;
+        result = 31 * result + (publisherUniqueDeviceId != null ? publisherUniqueDeviceId.hashCode() : 0);
+        result = 31 * result + (ackingUniqueDeviceId != null ? ackingUniqueDeviceId.hashCode() : 0);
+        result = 31 * result + (int) (epoch ^ (epoch >>> 32));
+        result = 31 * result + cumulativeAck;
+        result = 31 * result + Arrays.hashCode(selectiveAcks);
+        return result;
+    }
+}
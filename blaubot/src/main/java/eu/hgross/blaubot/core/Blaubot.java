@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -23,8 +24,16 @@ import eu.hgross.blaubot.core.statemachine.states.IBlaubotSubordinatedState;
 import eu.hgross.blaubot.core.statemachine.states.KingState;
 import eu.hgross.blaubot.core.statemachine.states.PeasantState;
 import eu.hgross.blaubot.core.statemachine.states.PeasantState.ConnectionAccomplishmentType;
+import eu.hgross.blaubot.admin.MetricsAdminMessage;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+import eu.hgross.blaubot.messaging.BlaubotChannelScheduler;
 import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.KingdomMetricsCollector;
+import eu.hgross.blaubot.metrics.MetricsSnapshot;
+import eu.hgross.blaubot.util.HashedWheelTimerService;
+import eu.hgross.blaubot.util.ITimeout;
+import eu.hgross.blaubot.util.ITimerService;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -70,6 +79,27 @@ public class Blaubot implements Closeable {
     private BlaubotServerConnector serverConnector;
     private ServerConnectionManager serverConnectionManager;
 
+    /**
+     * Executes the delayed and periodic tasks of all components (keep alives, timeouts, watchdogs).
+     * Shut down on close(), if it was created by this instance.
+     */
+    private final ITimerService timerService;
+    private final boolean ownsTimerService;
+
+    /**
+     * The metrics of all components of this instance.
+     */
+    private final BlaubotMetricsRegistry metricsRegistry;
+    /**
+     * Collects the metrics reported by the kingdom's devices, if we are king.
+     */
+    private final KingdomMetricsCollector kingdomMetricsCollector;
+    /**
+     * The periodic metrics report, if enabled via setMetricsReportInterval().
+     */
+    private ITimeout metricsReportTimeout;
+    private final Object metricsReportLock = new Object();
+
     /**
      * Receives events from the connection state machine and the BlaubotConnectionManager to generate
      * the user api lifecycle events.
@@ -86,6 +116,20 @@ public class Blaubot implements Closeable {
      * @param beacons   the beacons to be used
      */
     public Blaubot(IBlaubotDevice ownDevice, BlaubotUUIDSet uuidSet, List<IBlaubotAdapter> adapters, List<IBlaubotBeacon> beacons) {
+        this(ownDevice, uuidSet, adapters, beacons, null);
+    }
+
+    /**
+     * Creates a blaubot instance upon the given adapters and beacons using the given timer service.
+     * The timer service can be shared by multiple blaubot instances and will not be shut down on close().
+     *
+     * @param ownDevice    the own device with the unique device id for this instance
+     * @param uuidSet      the uuid set containing the beacon and app uuid
+     * @param adapters     the adapters to be used (currently limited to 1)
+     * @param beacons      the beacons to be used
+     * @param timerService the timer service to be used or null, if the instance should create its own
+     */
+    public Blaubot(IBlaubotDevice ownDevice, BlaubotUUIDSet uuidSet, List<IBlaubotAdapter> adapters, List<IBlaubotBeacon> beacons, ITimerService timerService) {
         if (adapters.size() != 1) {
             throw new IllegalArgumentException("No or too much adapters given. Only one adapter supported at the moment.");
         }
@@ -95,6 +139,9 @@ public class Blaubot implements Closeable {
         beacons.add(adminMessageBeacon);
         this.ownDevice = ownDevice;
         this.adapters = adapters;
+        this.ownsTimerService = timerService == null;
+        this.timerService = ownsTimerService ? new HashedWheelTimerService("blaubot-timer-" + ownDevice.getUniqueDeviceID()) : timerService;
+        this.metricsRegistry = new BlaubotMetricsRegistry();
 
         // Dependency injection of blaubot
         for (IBlaubotAdapter adapter : adapters) {
@@ -104,11 +151,11 @@ public class Blaubot implements Closeable {
         this.keepAliveSenders = new ConcurrentHashMap<>();
 
         this.connectionManager = new BlaubotConnectionManager(BlaubotAdapterHelper.getConnectionAcceptors(adapters), BlaubotAdapterHelper.getConnectors(adapters));
-        this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID());
+        this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID(), new BlaubotChannelScheduler(), metricsRegistry);
         this.channelManager.addAdminMessageListener(adminMessageBeacon);
 
         // create and connect the dispatcher for life cycle events
-        this.lifeCycleEventDispatchingListener = new LifeCycleEventDispatcher(ownDevice);
+        this.lifeCycleEventDispatchingListener = new LifeCycleEventDispatcher(ownDevice, channelManager);
 
         // the server connection management
         this.serverConnectionManager = new ServerConnectionManager(channelManager, ownDevice, connectionManager);
@@ -127,6 +174,11 @@ public class Blaubot implements Closeable {
         this.channelManager.addAdminMessageListener(lifeCycleEventDispatchingListener);
         this.connectionStateMachine.addConnectionStateMachineListener(lifeCycleEventDispatchingListener);
 
+        // kingdom wide metrics
+        this.kingdomMetricsCollector = new KingdomMetricsCollector(ownDevice.getUniqueDeviceID());
+        this.channelManager.addAdminMessageListener(MetricsAdminMessage.class, kingdomMetricsCollector);
+        this.addLifecycleListener(kingdomMetricsCollector);
+
 
         // dependency injection of beacon store for connectors, acceptors and beacons
         IBlaubotBeaconStore beaconStore = this.connectionStateMachine.getBeaconService().getBeaconStore();
@@ -215,6 +267,83 @@ public class Blaubot implements Closeable {
         return channelManager;
     }
 
+    /**
+     * @return the timer service executing the delayed and periodic tasks of this instance
+     */
+    public ITimerService getTimerService() {
+        return timerService;
+    }
+
+    /**
+     * @return the registry holding the metrics of all components of this instance
+     */
+    public BlaubotMetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * @return a snapshot of the current metrics of this instance
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metricsRegistry.snapshot(ownDevice.getUniqueDeviceID());
+    }
+
+    /**
+     * The latest metrics snapshots reported by the devices of the kingdom (including our own).
+     * Only the king receives the reports of the other devices and only if they have reporting
+     * enabled (see setMetricsReportInterval()).
+     *
+     * @return the latest snapshot of each device by unique device id
+     */
+    public Map<String, MetricsSnapshot> getKingdomMetrics() {
+        return kingdomMetricsCollector.getSnapshots();
+    }
+
+    /**
+     * @return the aggregation (summed up counters and gauges, merged histograms) of getKingdomMetrics()
+     */
+    public MetricsSnapshot getAggregatedKingdomMetrics() {
+        return kingdomMetricsCollector.getAggregatedSnapshot();
+    }
+
+    /**
+     * Enables or disables the periodic metrics reports.
+     * If enabled, peasants and the prince send their snapshots to the king every interval ms,
+     * the king collects them together with his own (see getKingdomMetrics()).
+     * Disabled by default.
+     *
+     * @param interval the report interval in ms or 0 to disable the reports
+     */
+    public void setMetricsReportInterval(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval has to be positive or 0: " + interval);
+        }
+        synchronized (metricsReportLock) {
+            if (metricsReportTimeout != null) {
+                metricsReportTimeout.cancel();
+                metricsReportTimeout = null;
+            }
+            if (interval > 0) {
+                metricsReportTimeout = timerService.scheduleAtFixedRate(metricsReportTask, interval, interval);
+            }
+        }
+    }
+
+    /**
+     * Reports our snapshot to the king, if we are subordinate and stores it in the collector.
+     */
+    private final Runnable metricsReportTask = new Runnable() {
+        @Override
+        public void run() {
+            final MetricsSnapshot snapshot = getMetricsSnapshot();
+            kingdomMetricsCollector.onSnapshot(snapshot);
+            if (connectionStateMachine.getCurrentState() instanceof IBlaubotSubordinatedState) {
+                // as subordinate, our only connection is the one to the king
+                channelManager.publishToAllConnections(new MetricsAdminMessage(snapshot).toBlaubotMessage());
+            }
+        }
+    };
+
     public List<IBlaubotAdapter> getAdapters() {
         return adapters;
     }
@@ -268,6 +397,10 @@ public class Blaubot implements Closeable {
                 ((Closeable) component).close();
             }
         }
+        setMetricsReportInterval(0);
+        if (ownsTimerService) {
+            timerService.shutdown();
+        }
     }
 
     /**
@@ -309,7 +442,7 @@ public class Blaubot implements Closeable {
             } else {
                 keepAlivePeriod = connectorForDevice.getAdapter().getBlaubotAdapterConfig().getKeepAliveInterval();
             }
-            KeepAliveSender keepAliveSender = new KeepAliveSender(remoteDevice, channelManager, keepAlivePeriod);
+            KeepAliveSender keepAliveSender = new KeepAliveSender(remoteDevice, channelManager, keepAlivePeriod, timerService);
             keepAliveSender.start();
             keepAliveSenders.put(connection, keepAliveSender);
         }
@@ -22,6 +22,7 @@ import eu.hgross.blaubot.ethernet.BlaubotBonjourBeacon;
 import eu.hgross.blaubot.ethernet.BlaubotEthernetAdapter;
 import eu.hgross.blaubot.ethernet.BlaubotEthernetFixedDeviceSetBeacon;
 import eu.hgross.blaubot.ethernet.BlaubotEthernetMulticastBeacon;
+import eu.hgross.blaubot.ethernet.BlaubotEthernetNioAdapter;
 import eu.hgross.blaubot.ethernet.FixedDeviceSetHelper;
 import eu.hgross.blaubot.geobeacon.GeoBeaconConstants;
 import eu.hgross.blaubot.geobeacon.GeoBeaconServer;
@@ -123,6 +124,31 @@ public class BlaubotFactory {
         return createBlaubot(appUUID, ownDevice, ethernetAdapter, multicastBeacon);
     }
 
+    /**
+     * Creates a blaubot instance using an existing network and the non-blocking tcp socket adapter
+     * with the multicast beacon. All sockets are served by the default BlaubotEthernetSelectorPool.
+     * The received messages are handed to the listeners on the pool's dispatch threads. A listener
+     * that can't keep up pauses the reading of its connection only, once
+     * BlaubotEthernetNioConnection.MAX_QUEUED_MESSAGES are waiting.
+     * Note: requires broadcast capable network
+     *
+     * @param appUUID             the app's uuid
+     * @param acceptorPort        the port of the connector's accepting socket
+     * @param beaconPort          the port of the beacon's accepting socket
+     * @param beaconBroadcastPort the broadcast port. Has to be the same for all instances.
+     * @param ownInetAddress      the own {@link InetAddress} of the network to act on
+     * @return the blaubot instance
+     */
+    public static Blaubot createEthernetNioBlaubot(UUID appUUID, int acceptorPort, int beaconPort, int beaconBroadcastPort, InetAddress ownInetAddress) {
+        if (ownInetAddress == null || appUUID == null) {
+            throw new NullPointerException("InetAddress or appUUID was null.");
+        }
+        IBlaubotDevice ownDevice = new BlaubotDevice(UUID.randomUUID().toString());
+        BlaubotEthernetNioAdapter ethernetAdapter = new BlaubotEthernetNioAdapter(ownDevice, acceptorPort, ownInetAddress);
+        BlaubotEthernetMulticastBeacon multicastBeacon = new BlaubotEthernetMulticastBeacon(beaconPort, beaconBroadcastPort);
+        return createBlaubot(appUUID, ownDevice, ethernetAdapter, multicastBeacon);
+    }
+
     /**
      * Creates a blaubot instance using an existing network and the websocket adapter with the multicast beacon.
      * Note: requires broadcast capable network
@@ -7,6 +7,9 @@ import eu.hgross.blaubot.util.KingdomCensusLifecycleListener;
 /**
  * The root object for all BlaubotKingdoms connected to the BlaubotServer.
  * It holds the ChannelManager and all connections to this kingdom in a ConnectionManager.
+ *
+ * If hosted by a BlaubotServerRuntime, the kingdom's channel manager uses the runtime's channel
+ * scheduler and I/O pool and the kingdom may be hibernated while idle.
  */
 public class BlaubotKingdom {
     private static final String LOG_TAG = "BlaubotKingdom";
@@ -40,18 +43,44 @@ public class BlaubotKingdom {
      */
     private KingdomCensusLifecycleListener kingdomCensusLifecycleListener;
 
+    /**
+     * The runtime hosting this kingdom, null if standalone
+     */
+    private final BlaubotServerRuntime runtime;
+
+    /**
+     * The time in ms this kingdom was hibernated, -1 if it was never hibernated.
+     * The kingdom is hibernated as long as there was no activity since then.
+     */
+    private volatile long hibernatedAt = -1;
+
 
     /**
      * @param ownDevice  the own device
      * @param kingDevice the device object for the kingdom's king device
      */
     public BlaubotKingdom(IBlaubotDevice ownDevice, IBlaubotDevice kingDevice) {
+        this(ownDevice, kingDevice, null);
+    }
+
+    /**
+     * @param ownDevice  the own device
+     * @param kingDevice the device object for the kingdom's king device
+     * @param runtime    the runtime providing the shared resources or null to create own resources
+     */
+    public BlaubotKingdom(IBlaubotDevice ownDevice, IBlaubotDevice kingDevice, BlaubotServerRuntime runtime) {
         this.ownDevice = ownDevice;
         this.kingDevice = kingDevice;
+        this.runtime = runtime;
 
         // create components
-        this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID());
-        this.lifeCycleEventDispatcher = new LifeCycleEventDispatcher(ownDevice);
+        if (runtime != null) {
+            this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID(), runtime.getChannelScheduler());
+            this.channelManager.setSenderExecutor(runtime.getIoExecutor());
+        } else {
+            this.channelManager = new BlaubotChannelManager(ownDevice.getUniqueDeviceID());
+        }
+        this.lifeCycleEventDispatcher = new LifeCycleEventDispatcher(ownDevice, channelManager);
         this.kingdomCensusLifecycleListener = new KingdomCensusLifecycleListener(ownDevice);
 
         // wire components
@@ -88,11 +117,43 @@ public class BlaubotKingdom {
                     lifeCycleEventDispatcher.notifyDisconnectedFromNetwork(kingUniqueDeviceID);
                 }
                 disconnectKingdom();
+                if (runtime != null) {
+                    runtime.releaseKingdom(BlaubotKingdom.this);
+                }
             }
         });
         this.managedConnection = connection;
         this.channelManager.addConnection(connection);
         this.lifeCycleEventDispatcher.notifyConnectedToNetwork();
+        if (runtime != null) {
+            runtime.hostKingdom(this);
+        }
+    }
+
+    /**
+     * @return true, iff the kingdom was hibernated and had no activity since then
+     */
+    public boolean isHibernated() {
+        final long hibernatedAt = this.hibernatedAt;
+        return hibernatedAt >= 0 && channelManager.getLastActivityTime() < hibernatedAt;
+    }
+
+    /**
+     * Hibernates the kingdom, if it had no activity for the idle timeout.
+     * Hibernation releases the idle resources of the channel manager, the kingdom stays connected
+     * and wakes up with the next message.
+     *
+     * @param now         the current time in ms
+     * @param idleTimeout the time in ms without activity after which the kingdom is hibernated
+     * @return true, iff the kingdom was hibernated by this call
+     */
+    protected boolean hibernateIfIdle(long now, long idleTimeout) {
+        if (managedConnection == null || isHibernated() || now - channelManager.getLastActivityTime() < idleTimeout) {
+            return false;
+        }
+        channelManager.releaseIdleResources();
+        hibernatedAt = now;
+        return true;
     }
 
     /**
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
@@ -14,10 +15,15 @@ import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionManagerListener;
 import eu.hgross.blaubot.core.connector.IBlaubotConnector;
 import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
+import eu.hgross.blaubot.util.ITimeout;
 import eu.hgross.blaubot.util.Log;
 
 /**
  * The Blaubot server
+ *
+ * The connected kingdoms are hosted by a BlaubotServerRuntime, which provides the threads for the
+ * kingdom handshakes, the message senders and the channels of all kingdoms. A runtime can be
+ * shared between multiple servers.
  */
 public class BlaubotServer {
     private static final String LOG_TAG = "BlaubotServer";
@@ -26,6 +32,15 @@ public class BlaubotServer {
      */
     private static final long KINGDOM_DISCONNECT_TIMEOUT = 5000;
     private final BlaubotConnectionManager connectionManager;
+    private final IBlaubotDevice ownDevice;
+    /**
+     * The runtime hosting the kingdoms
+     */
+    private volatile BlaubotServerRuntime runtime;
+    /**
+     * True, if the runtime was created by this server (and is therefore shut down on stop)
+     */
+    private final boolean ownsRuntime;
     /**
      * UniqueDeviceId -> BlaubotKingdom
      * The connected Kingdoms.
@@ -53,10 +68,29 @@ public class BlaubotServer {
     private CopyOnWriteArrayList<IBlaubotServerLifeCycleListener> blaubotServerLifeCycleListeners;
 
     /**
+     * Creates a server with its own BlaubotServerRuntime, which is shut down when the server is
+     * stopped (and re-created when it is started again).
+     *
      * @param ownDevice the own device containing this server's uniqueDeviceId
      * @param acceptors acceptors
      */
     public BlaubotServer(final IBlaubotDevice ownDevice, IBlaubotConnectionAcceptor... acceptors) {
+        this(new BlaubotServerRuntime(), true, ownDevice, acceptors);
+    }
+
+    /**
+     * @param runtime   the runtime hosting the kingdoms of this server, has to be shut down by the caller
+     * @param ownDevice the own device containing this server's uniqueDeviceId
+     * @param acceptors acceptors
+     */
+    public BlaubotServer(final BlaubotServerRuntime runtime, final IBlaubotDevice ownDevice, IBlaubotConnectionAcceptor... acceptors) {
+        this(runtime, false, ownDevice, acceptors);
+    }
+
+    private BlaubotServer(final BlaubotServerRuntime runtime, boolean ownsRuntime, final IBlaubotDevice ownDevice, IBlaubotConnectionAcceptor... acceptors) {
+        this.runtime = runtime;
+        this.ownsRuntime = ownsRuntime;
+        this.ownDevice = ownDevice;
         this.kingdoms = new ConcurrentHashMap<>();
         this.blaubotServerLifeCycleListeners = new CopyOnWriteArrayList<>();
         this.acceptors = Arrays.asList(acceptors);
@@ -72,82 +106,130 @@ public class BlaubotServer {
 
             @Override
             public void onConnectionEstablished(final IBlaubotConnection connection) {
-                // create a thread waiting for the KngdomConnection to be created.
-                // the thread will terminate either with a successfully created kingdom connection or because the connection was lost
-                // if successfully created, the connection will be used
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            final BlaubotKingdomConnection kingdomConnection = BlaubotKingdomConnection.createFromInboundConnection(connection);
-                            synchronized (connectionLock) {
-                                // check if a connection for this unique id exists
-                                final BlaubotKingdom blaubotKingdom = kingdoms.get(connection.getRemoteDevice().getUniqueDeviceID());
-                                if (blaubotKingdom != null) {
-                                    if (Log.logDebugMessages()) {
-                                        Log.d(LOG_TAG, "There was already a kingdom with king " + connection.getRemoteDevice().getUniqueDeviceID() + ". Disconnecting that kingdom first.");
-                                    }
-                                    final CountDownLatch discLatch = new CountDownLatch(1);
-                                    blaubotKingdom.addDisconnectListener(new IBlaubotConnectionListener() {
-                                        @Override
-                                        public void onConnectionClosed(IBlaubotConnection connection) {
-                                            discLatch.countDown();
-                                        }
-                                    });
-                                    blaubotKingdom.disconnectKingdom();
-                                    try {
-                                        boolean timedOut = !discLatch.await(KINGDOM_DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
-                                        if (timedOut) {
-                                            throw new RuntimeException("Kingdom did not disconnect fast enough (max " + KINGDOM_DISCONNECT_TIMEOUT + " ms)");
-                                        }
-                                    } catch (InterruptedException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
+                onInboundConnection(connection);
+            }
+        });
+    }
 
-                                // create and start management of BlaubotKingdom
+    /**
+     * Reads the handshake of a new connection on the runtime's handshake pool and creates the kingdom.
+     * Connections that do not complete the handshake within the runtime's handshake timeout are closed.
+     *
+     * @param connection the accepted connection
+     */
+    private void onInboundConnection(final IBlaubotConnection connection) {
+        final BlaubotServerRuntime runtime = this.runtime;
+        // closing the connection makes the blocking handshake read fail
+        final ITimeout handshakeTimeout = runtime.getTimerService().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "No handshake from " + connection + " within " + runtime.getHandshakeTimeout() + " ms, closing the connection.");
+                }
+                connection.disconnect();
+            }
+        }, runtime.getHandshakeTimeout());
+        // the task will terminate either with a successfully created kingdom connection or because the connection was lost
+        // if successfully created, the connection will be used
+        final Runnable handshakeTask = new Runnable() {
+            @Override
+            public void run() {
+                final BlaubotKingdomConnection kingdomConnection;
+                try {
+                    kingdomConnection = BlaubotKingdomConnection.createFromInboundConnection(connection);
+                } catch (IOException e) {
+                    if (Log.logDebugMessages()) {
+                        Log.d(LOG_TAG, "A kingdom connection was not created (closed before handshake completion.");
+                    }
+                    return;
+                } finally {
+                    handshakeTimeout.cancel();
+                }
+                createKingdom(kingdomConnection, runtime);
+            }
+        };
+        try {
+            runtime.getHandshakeExecutor().execute(handshakeTask);
+        } catch (RejectedExecutionException e) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "The runtime is shut down or too many handshakes are pending, rejecting connection " + connection);
+            }
+            handshakeTimeout.cancel();
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Creates and starts the kingdom for a kingdom connection after its handshake.
+     * An existing kingdom of the same king is disconnected first (i.e. if the king reconnected).
+     *
+     * @param kingdomConnection the kingdom connection
+     * @param runtime           the runtime to host the kingdom
+     */
+    private void createKingdom(BlaubotKingdomConnection kingdomConnection, BlaubotServerRuntime runtime) {
+        final IBlaubotDevice remoteKingDevice = kingdomConnection.getRemoteDevice();
+        final String kingUniqueDeviceId = remoteKingDevice.getUniqueDeviceID();
+        while (true) {
+            final BlaubotKingdom existingKingdom;
+            synchronized (connectionLock) {
+                // check if a connection for this unique id exists
+                existingKingdom = kingdoms.get(kingUniqueDeviceId);
+                if (existingKingdom == null) {
+                    // create and start management of BlaubotKingdom
+                    if (Log.logDebugMessages()) {
+                        Log.d(LOG_TAG, "Got new connection and creating a new kingdom with king " + kingUniqueDeviceId + " ...");
+                    }
+                    final BlaubotKingdom newKingdom = new BlaubotKingdom(ownDevice, remoteKingDevice, runtime);
+                    kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
+                        @Override
+                        public void onConnectionClosed(IBlaubotConnection connection) {
+                            synchronized (connectionLock) {
+                                notifyKingdomDisconnected(newKingdom);
+                                kingdoms.remove(kingUniqueDeviceId, newKingdom);
                                 if (Log.logDebugMessages()) {
-                                    Log.d(LOG_TAG, "Got new connection and creating a new kingdom with king " + connection.getRemoteDevice().getUniqueDeviceID() + " ...");
-                                }
-                                IBlaubotDevice remoteKingDevice = kingdomConnection.getRemoteDevice();
-                                final String kingUniqueDeviceId = remoteKingDevice.getUniqueDeviceID();
-                                final BlaubotKingdom newKingdom = new BlaubotKingdom(ownDevice, remoteKingDevice);
-                                kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
-                                    @Override
-                                    public void onConnectionClosed(IBlaubotConnection connection) {
-                                        synchronized (connectionLock) {
-                                            notifyKingdomDisconnected(newKingdom);
-                                            BlaubotKingdom curKingdom = kingdoms.get(kingUniqueDeviceId);
-                                            if (curKingdom == newKingdom) {
-                                                kingdoms.remove(kingUniqueDeviceId, newKingdom);
-                                            }
-                                            if (Log.logDebugMessages()) {
-                                                Log.d(LOG_TAG, "There are now " + kingdoms.size() + " kingdoms connected to this server.");
-                                            }
-                                        }
-                                    }
-                                });
-                                BlaubotKingdom previous = kingdoms.put(remoteKingDevice.getUniqueDeviceID(), newKingdom);
-                                if (previous != null) {
-                                    // already a kingdom for this unique device id. Should have been disconnected above...
-                                    throw new IllegalStateException("Inconsistant state. There was already a kingdom for this king.");
+                                    Log.d(LOG_TAG, "There are now " + kingdoms.size() + " kingdoms connected to this server.");
                                 }
-
-                                newKingdom.manageConnection(kingdomConnection);
-                                notifyKingdomConnected(newKingdom);
-
-                            }
-                        } catch (IOException e) {
-                            if (Log.logDebugMessages()) {
-                                Log.d(LOG_TAG, "A kingdom connection was not created (closed before handshake completion.");
                             }
                         }
-                    }
-                }).start();
-
+                    });
+                    kingdoms.put(kingUniqueDeviceId, newKingdom);
+                    newKingdom.manageConnection(kingdomConnection);
+                    notifyKingdomConnected(newKingdom);
+                    return;
+                }
+            }
 
+            // disconnect the existing kingdom without holding the connectionLock, so that other handshakes
+            // and the kingdom's own disconnect handling can proceed
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "There was already a kingdom with king " + kingUniqueDeviceId + ". Disconnecting that kingdom first.");
             }
-        });
+            final CountDownLatch discLatch = new CountDownLatch(1);
+            existingKingdom.addDisconnectListener(new IBlaubotConnectionListener() {
+                @Override
+                public void onConnectionClosed(IBlaubotConnection connection) {
+                    discLatch.countDown();
+                }
+            });
+            existingKingdom.disconnectKingdom();
+            try {
+                if (!discLatch.await(KINGDOM_DISCONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    if (Log.logWarningMessages()) {
+                        Log.w(LOG_TAG, "Kingdom of " + kingUniqueDeviceId + " did not disconnect fast enough (max " + KINGDOM_DISCONNECT_TIMEOUT + " ms), rejecting the new connection.");
+                    }
+                    kingdomConnection.disconnect();
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                kingdomConnection.disconnect();
+                return;
+            }
+            synchronized (connectionLock) {
+                // the kingdom's listener may not have run yet
+                kingdoms.remove(kingUniqueDeviceId, existingKingdom);
+            }
+        }
     }
 
     /**
@@ -159,6 +241,9 @@ public class BlaubotServer {
             if (isStarted()) {
                 return;
             }
+            if (ownsRuntime && runtime.isShutdown()) {
+                runtime = new BlaubotServerRuntime();
+            }
 
             // start all acceptors
             BlaubotAdapterHelper.startAcceptors(acceptors);
@@ -187,6 +272,10 @@ public class BlaubotServer {
             for (BlaubotKingdom kingdom : kingdoms.values()) {
                 kingdom.disconnectKingdom();
             }
+
+            if (ownsRuntime) {
+                runtime.shutdown();
+            }
         }
     }
 
@@ -258,6 +347,13 @@ public class BlaubotServer {
         }
     }
 
+    /**
+     * @return the runtime hosting the kingdoms of this server
+     */
+    public BlaubotServerRuntime getRuntime() {
+        return runtime;
+    }
+
     /**
      * @return the used acceptors
      */
@@ -0,0 +1,370 @@
+package eu.hgross.blaubot.core;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.messaging.BlaubotChannelScheduler;
+import eu.hgross.blaubot.util.HashedWheelTimerService;
+import eu.hgross.blaubot.util.ITimeout;
+import eu.hgross.blaubot.util.ITimerService;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * The resources shared by all kingdoms hosted by one or more BlaubotServers, so that the number of
+ * threads does not grow with the number of connected kingdoms:
+ *
+ * - a bounded I/O pool, which drains the message senders of the kingdom connections (instead of
+ *   a thread per connection and sender)
+ * - a bounded handshake pool, which reads the handshakes of incoming kingdom connections
+ * - a timer wheel for the periodic tasks of the hosted kingdoms
+ * - a channel scheduler processing the channel queues of all kingdoms
+ *
+ * Kingdoms that neither received nor published a message for the idle timeout are hibernated:
+ * their channel manager releases its empty channel queues and expired chunk buffers (see
+ * BlaubotChannelManager.releaseIdleResources()). A hibernated kingdom wakes up with its next
+ * message, there is no need to reconnect.
+ *
+ * Connections that do not complete their handshake within the handshake timeout and connections
+ * whose writes block for longer than the write timeout are closed, so that they can not park the
+ * threads of the pools.
+ *
+ * Note that the receivers of blocking (non ISelectableBlaubotConnection) connections still need a
+ * thread per connection for their blocking reads.
+ */
+public class BlaubotServerRuntime {
+    private static final String LOG_TAG = "BlaubotServerRuntime";
+    /**
+     * Default max number of threads of the I/O pool.
+     */
+    public static final int DEFAULT_IO_POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    /**
+     * Default max number of threads of the handshake pool.
+     */
+    public static final int DEFAULT_HANDSHAKE_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * Default max time in ms from accepting a connection until its handshake was read.
+     */
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT = 10000;
+    /**
+     * Default max time in ms a write of a message sender may block.
+     */
+    public static final long DEFAULT_WRITE_TIMEOUT = 30000;
+    /**
+     * Max number of handshakes waiting for a thread of the handshake pool, further connections are rejected.
+     */
+    private static final int MAX_QUEUED_HANDSHAKES = 1024;
+    /**
+     * Default time in ms without messages after which a kingdom is hibernated.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+    /**
+     * Time in ms after which idle threads of the I/O pool are terminated.
+     */
+    private static final long IDLE_THREAD_KEEP_ALIVE = 30000;
+    private static final AtomicInteger runtimeIdGenerator = new AtomicInteger(0);
+
+    private final ThreadPoolExecutor ioExecutor;
+    private final ThreadPoolExecutor handshakeExecutor;
+    private final HashedWheelTimerService timerService;
+    private final BlaubotChannelScheduler channelScheduler;
+    private final long idleTimeout;
+    private final long handshakeTimeout;
+    private final long writeTimeout;
+
+    /**
+     * The kingdoms hosted by this runtime
+     */
+    private final Set<BlaubotKingdom> kingdoms = Collections.newSetFromMap(new ConcurrentHashMap<BlaubotKingdom, Boolean>());
+
+    /**
+     * The periodic hibernation check, if scheduled (guarded by this)
+     */
+    private ITimeout hibernationCheck;
+    /**
+     * The periodic check for blocked writes, if scheduled (guarded by this)
+     */
+    private ITimeout stalledWriteCheck;
+
+    /**
+     * Creates a runtime with DEFAULT_IO_POOL_SIZE I/O threads and a channel scheduler of the
+     * default size, which hibernates kingdoms after DEFAULT_IDLE_TIMEOUT ms.
+     */
+    public BlaubotServerRuntime() {
+        this(DEFAULT_IO_POOL_SIZE, BlaubotChannelScheduler.DEFAULT_POOL_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a runtime with DEFAULT_HANDSHAKE_POOL_SIZE handshake threads, DEFAULT_HANDSHAKE_TIMEOUT
+     * and DEFAULT_WRITE_TIMEOUT.
+     *
+     * @param ioPoolSize      the max number of threads of the I/O pool
+     * @param channelPoolSize the max number of worker threads of the channel scheduler
+     * @param idleTimeout     the time in ms without messages after which a kingdom is hibernated, 0 to never hibernate
+     */
+    public BlaubotServerRuntime(int ioPoolSize, int channelPoolSize, long idleTimeout) {
+        this(ioPoolSize, DEFAULT_HANDSHAKE_POOL_SIZE, channelPoolSize, idleTimeout, DEFAULT_HANDSHAKE_TIMEOUT, DEFAULT_WRITE_TIMEOUT);
+    }
+
+    /**
+     * @param ioPoolSize        the max number of threads of the I/O pool
+     * @param handshakePoolSize the max number of threads of the handshake pool
+     * @param channelPoolSize   the max number of worker threads of the channel scheduler
+     * @param idleTimeout       the time in ms without messages after which a kingdom is hibernated, 0 to never hibernate
+     * @param handshakeTimeout  the max time in ms from accepting a connection until its handshake was read
+     * @param writeTimeout      the max time in ms a write of a message sender may block before its connection is closed
+     */
+    public BlaubotServerRuntime(int ioPoolSize, int handshakePoolSize, int channelPoolSize, long idleTimeout, long handshakeTimeout, long writeTimeout) {
+        if (ioPoolSize <= 0) {
+            throw new IllegalArgumentException("ioPoolSize has to be positive");
+        }
+        if (handshakePoolSize <= 0) {
+            throw new IllegalArgumentException("handshakePoolSize has to be positive");
+        }
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("idleTimeout must not be negative");
+        }
+        if (handshakeTimeout <= 0) {
+            throw new IllegalArgumentException("handshakeTimeout has to be positive");
+        }
+        if (writeTimeout <= 0) {
+            throw new IllegalArgumentException("writeTimeout has to be positive");
+        }
+        final int runtimeId = runtimeIdGenerator.incrementAndGet();
+        this.ioExecutor = new ThreadPoolExecutor(ioPoolSize, ioPoolSize, IDLE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new NamedDaemonThreadFactory("blaubot-server-io-" + runtimeId + "-"));
+        this.ioExecutor.allowCoreThreadTimeOut(true);
+        this.handshakeExecutor = new ThreadPoolExecutor(handshakePoolSize, handshakePoolSize, IDLE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_HANDSHAKES), new NamedDaemonThreadFactory("blaubot-server-handshake-" + runtimeId + "-"));
+        this.handshakeExecutor.allowCoreThreadTimeOut(true);
+        this.timerService = new HashedWheelTimerService("blaubot-server-timer-" + runtimeId);
+        this.channelScheduler = new BlaubotChannelScheduler(channelPoolSize);
+        this.idleTimeout = idleTimeout;
+        this.handshakeTimeout = handshakeTimeout;
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * The bounded I/O pool draining the message senders of the kingdom connections.
+     * A write blocking for longer than the write timeout gets its connection closed (which makes
+     * the write fail), so a stalled connection parks a thread of this pool for at most the write
+     * timeout.
+     *
+     * @return the executor
+     */
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * The bounded pool reading the handshakes of incoming kingdom connections.
+     * It rejects new handshakes, if too many are waiting for a thread.
+     *
+     * @return the executor
+     */
+    public ExecutorService getHandshakeExecutor() {
+        return handshakeExecutor;
+    }
+
+    /**
+     * @return the max time in ms from accepting a connection until its handshake was read
+     */
+    public long getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * @return the max time in ms a write of a message sender may block before its connection is closed
+     */
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * @return the timer wheel shared by the hosted kingdoms
+     */
+    public ITimerService getTimerService() {
+        return timerService;
+    }
+
+    /**
+     * @return the scheduler processing the channel queues of all hosted kingdoms
+     */
+    public BlaubotChannelScheduler getChannelScheduler() {
+        return channelScheduler;
+    }
+
+    /**
+     * @return the time in ms without messages after which a kingdom is hibernated, 0 if kingdoms are never hibernated
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the number of hosted kingdoms
+     */
+    public int getKingdomCount() {
+        return kingdoms.size();
+    }
+
+    /**
+     * @return the number of hosted kingdoms, that are currently hibernated
+     */
+    public int getHibernatedKingdomCount() {
+        int count = 0;
+        for (BlaubotKingdom kingdom : kingdoms) {
+            if (kingdom.isHibernated()) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts hosting a kingdom, which makes it eligible for hibernation.
+     *
+     * @param kingdom the kingdom
+     */
+    protected void hostKingdom(BlaubotKingdom kingdom) {
+        kingdoms.add(kingdom);
+        synchronized (this) {
+            if (hibernationCheck == null && idleTimeout > 0) {
+                final long period = Math.max(1, idleTimeout / 2);
+                hibernationCheck = timerService.scheduleAtFixedRate(hibernationCheckTask, period, period);
+            }
+            if (stalledWriteCheck == null) {
+                final long period = Math.max(1, writeTimeout / 2);
+                stalledWriteCheck = timerService.scheduleAtFixedRate(stalledWriteCheckTask, period, period);
+            }
+        }
+    }
+
+    /**
+     * Stops hosting a (disconnected) kingdom.
+     *
+     * @param kingdom the kingdom
+     */
+    protected void releaseKingdom(BlaubotKingdom kingdom) {
+        kingdoms.remove(kingdom);
+    }
+
+    /**
+     * Hibernates all hosted kingdoms that are idle for at least the idle timeout.
+     *
+     * @return the number of kingdoms that were hibernated by this call
+     */
+    public int hibernateIdleKingdoms() {
+        if (idleTimeout <= 0) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        int hibernated = 0;
+        for (BlaubotKingdom kingdom : kingdoms) {
+            if (kingdom.hibernateIfIdle(now, idleTimeout)) {
+                hibernated += 1;
+            }
+        }
+        if (hibernated > 0 && Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Hibernated " + hibernated + " idle kingdoms, " + getHibernatedKingdomCount() + " of " + kingdoms.size() + " kingdoms are hibernated.");
+        }
+        return hibernated;
+    }
+
+    /**
+     * Run by the timer wheel, hands the check to the I/O pool to keep the wheel's thread free.
+     */
+    private final Runnable hibernationCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                ioExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        hibernateIdleKingdoms();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down
+            }
+        }
+    };
+
+    /**
+     * Closes the kingdom connections whose writes block for longer than the write timeout.
+     *
+     * @return the number of closed connections
+     */
+    public int closeStalledConnections() {
+        final long now = System.currentTimeMillis();
+        int closed = 0;
+        for (BlaubotKingdom kingdom : kingdoms) {
+            closed += kingdom.getChannelManager().closeStalledConnections(now, writeTimeout);
+        }
+        return closed;
+    }
+
+    /**
+     * Run by the timer wheel directly, since the threads of the I/O pool may all be blocked by
+     * the stalled writes.
+     */
+    private final Runnable stalledWriteCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            closeStalledConnections();
+        }
+    };
+
+    /**
+     * Stops the threads of this runtime.
+     * The hosted kingdoms have to be disconnected before.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (hibernationCheck != null) {
+                hibernationCheck.cancel();
+                hibernationCheck = null;
+            }
+            if (stalledWriteCheck != null) {
+                stalledWriteCheck.cancel();
+                stalledWriteCheck = null;
+            }
+        }
+        timerService.shutdown();
+        channelScheduler.shutdown();
+        handshakeExecutor.shutdown();
+        ioExecutor.shutdown();
+    }
+
+    /**
+     * @return true, iff shutdown() was called
+     */
+    public boolean isShutdown() {
+        return ioExecutor.isShutdown();
+    }
+
+    /**
+     * Creates named daemon threads.
+     */
+    private static class NamedDaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger threadCounter = new AtomicInteger(0);
+
+        NamedDaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, prefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -102,6 +102,9 @@ public interface IBlaubotConnection {
      *  If <code>b</code> is <code>null</code>, a
      * <code>NullPointerException</code> is thrown.
      *
+     *  The caller may reuse the array as soon as this method returns (i.e. pooled
+     * buffers), so implementations that write asynchronously have to copy the bytes.
+     *
      *  If <code>off</code> is negative, or <code>len</code> is negative, or
      * <code>off+len</code> is greater than the length of the array
      * <code>b</code>, then an <tt>IndexOutOfBoundsException</tt> is thrown.
@@ -1,10 +1,9 @@
 package eu.hgross.blaubot.core;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.util.ITimeout;
+import eu.hgross.blaubot.util.ITimerService;
 
 /**
  * Helper object managing the keep alive message delivery at a fixed rate.
@@ -15,12 +14,14 @@ import eu.hgross.blaubot.messaging.BlaubotMessage;
 public class KeepAliveSender {
 	protected static final String LOG_TAG = "KeepAliveSender";
 	private final int keepAliveInterval;
-	private final TimerTask timerTask;
-	private Timer timer;
+	private final Runnable timerTask;
+	private final ITimerService timerService;
+	private ITimeout timeout;
 
-	public KeepAliveSender(final IBlaubotDevice device, final BlaubotChannelManager channelManager, int keepAliveInterval) {
+	public KeepAliveSender(final IBlaubotDevice device, final BlaubotChannelManager channelManager, int keepAliveInterval, ITimerService timerService) {
         this.keepAliveInterval = keepAliveInterval;
-		this.timerTask = new TimerTask() {
+		this.timerService = timerService;
+		this.timerTask = new Runnable() {
 			@Override
 			public void run() {
 				final BlaubotMessage keepAliveMsg = new BlaubotMessage();
@@ -30,19 +31,18 @@ public class KeepAliveSender {
 		};
 	}
 
-	public void stop() {
-		if (this.timer != null) {
-			this.timer.cancel();
-			this.timer = null;
+	public synchronized void stop() {
+		if (this.timeout != null) {
+			this.timeout.cancel();
+			this.timeout = null;
 		}
 	}
 
-	public void start() {
-		if (this.timer != null) {
+	public synchronized void start() {
+		if (this.timeout != null) {
 			stop();
 		}
-		this.timer = new Timer();
-		this.timer.scheduleAtFixedRate(timerTask, keepAliveInterval, keepAliveInterval);
+		this.timeout = timerService.scheduleAtFixedRate(timerTask, keepAliveInterval, keepAliveInterval);
 	}
 
 }
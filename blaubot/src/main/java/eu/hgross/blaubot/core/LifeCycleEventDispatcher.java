@@ -16,7 +16,10 @@ import eu.hgross.blaubot.core.statemachine.states.PeasantState;
 import eu.hgross.blaubot.core.statemachine.states.PrinceState;
 import eu.hgross.blaubot.core.statemachine.states.StoppedState;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
+import eu.hgross.blaubot.admin.CensusResyncRequestAdminMessage;
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
 import eu.hgross.blaubot.util.Log;
 import eu.hgross.blaubot.util.Util;
@@ -24,6 +27,9 @@ import eu.hgross.blaubot.util.Util;
 /**
  * Listens for {@link eu.hgross.blaubot.admin.CensusMessage}s, calculates the diff (left or joined
  * devices and prince changes) and communicates them through the {@link eu.hgross.blaubot.core.ILifecycleListener}s attached to this {@link eu.hgross.blaubot.core.Blaubot} instance.
+ * The {@link eu.hgross.blaubot.admin.CensusDeltaMessage}s sent by the king between the full census
+ * messages are applied to the last census and dispatched without diffing. If a delta does not
+ * follow the last census, a resync is requested from the king.
  *
  * If attached to a {@link eu.hgross.blaubot.core.statemachine.ConnectionStateMachine}, dispatches the corresponding
  * events to it's listeners when a kingdom merge takes place, the king dies, the prince takes over and so on.
@@ -54,18 +60,43 @@ public class LifeCycleEventDispatcher implements IBlaubotAdminMessageListener, I
      * processing.
      */
     private String lastKnownPrinceUniqueDeviceId;
+    /**
+     * Used to request a full census from the king, may be null
+     */
+    private final BlaubotChannelManager channelManager;
+    /**
+     * Min time between two resync requests for the same census session in ms
+     */
+    private static final long RESYNC_REQUEST_INTERVAL = 1000;
+    private volatile int lastResyncRequestSessionId;
+    private volatile long lastResyncRequestTimestamp;
 
     public LifeCycleEventDispatcher(IBlaubotDevice ownDevice) {
+        this(ownDevice, null);
+    }
+
+    /**
+     * @param ownDevice      the own device
+     * @param channelManager the channel manager to request census resyncs from the king with
+     */
+    public LifeCycleEventDispatcher(IBlaubotDevice ownDevice, BlaubotChannelManager channelManager) {
         this.ownDevice = ownDevice;
+        this.channelManager = channelManager;
     }
 
     @Override
     public void onAdminMessage(AbstractAdminMessage adminMessage) {
-        if (adminMessage instanceof CensusMessage) {
+        if (adminMessage instanceof CensusDeltaMessage) {
+            onCensusDelta((CensusDeltaMessage) adminMessage);
+        } else if (adminMessage instanceof CensusMessage) {
             CensusMessage cm = (CensusMessage) adminMessage;
             String currentNetworkKingUniqueId = cm.extractKingUniqueId();
             boolean hasFormerCensusMessage = lastCensusMessages.containsKey(currentNetworkKingUniqueId);
             CensusMessage lastCensusMessage = hasFormerCensusMessage ? lastCensusMessages.get(currentNetworkKingUniqueId) : new CensusMessage(new HashMap<String, State>());
+            if (cm.isOlderThan(lastCensusMessage)) {
+                // we already applied newer deltas
+                return;
+            }
 
             // create a set containing all new uniqueIds in the network
             Set<String> newUniqueIds = new HashSet<>(cm.getDeviceStates().keySet());
@@ -132,6 +163,87 @@ public class LifeCycleEventDispatcher implements IBlaubotAdminMessageListener, I
         }
     }
 
+    /**
+     * Applies a census delta to the last census of the same session and notifies the listeners
+     * about the joined and left devices as well as prince changes.
+     *
+     * @param delta the delta
+     */
+    private void onCensusDelta(CensusDeltaMessage delta) {
+        String kingUniqueId = null;
+        CensusMessage lastCensusMessage = null;
+        for (Map.Entry<String, CensusMessage> entry : lastCensusMessages.entrySet()) {
+            if (entry.getValue().getSessionId() == delta.getSessionId()) {
+                kingUniqueId = entry.getKey();
+                lastCensusMessage = entry.getValue();
+                break;
+            }
+        }
+        if (lastCensusMessage != null && delta.isOutdatedBy(lastCensusMessage)) {
+            return;
+        }
+        final CensusMessage cm = lastCensusMessage == null ? null : lastCensusMessage.applyDelta(delta);
+        if (cm == null) {
+            // a gap or the full census was not received yet
+            requestCensusResync(delta.getSessionId());
+            return;
+        }
+
+        final String ownDeviceId = this.ownDevice.getUniqueDeviceID();
+        final String oldPrince = lastCensusMessage.extractPrinceUniqueId();
+        final String newPrince = cm.extractPrinceUniqueId();
+        final boolean princeChanged = oldPrince == null ? newPrince != null : !oldPrince.equals(newPrince);
+        for (ILifecycleListener listener : lifecycleListeners) {
+            for (String uniqueId : delta.getJoinedDevices().keySet()) {
+                if (!uniqueId.equals(ownDeviceId)) {
+                    listener.onDeviceJoined(new BlaubotDevice(uniqueId));
+                }
+            }
+            if (princeChanged) {
+                listener.onPrinceDeviceChanged(oldPrince == null ? null : new BlaubotDevice(oldPrince), newPrince == null ? null : new BlaubotDevice(newPrince));
+            }
+            for (String uniqueId : delta.getLeftDevices()) {
+                if (!uniqueId.equals(ownDeviceId)) {
+                    listener.onDeviceLeft(new BlaubotDevice(uniqueId));
+                }
+            }
+        }
+        lastCensusMessages.put(kingUniqueId, cm);
+        lastKnownPrinceUniqueDeviceId = newPrince;
+    }
+
+    /**
+     * Requests a full census from the king, if not done recently for the given session.
+     *
+     * @param sessionId the census session id of the received delta
+     */
+    private void requestCensusResync(int sessionId) {
+        if (channelManager == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (sessionId == lastResyncRequestSessionId && now - lastResyncRequestTimestamp < RESYNC_REQUEST_INTERVAL) {
+            return;
+        }
+        lastResyncRequestSessionId = sessionId;
+        lastResyncRequestTimestamp = now;
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Missed a census delta of session " + sessionId + ", requesting the full census from the king.");
+        }
+        sendCensusResyncRequest();
+    }
+
+    /**
+     * Requests the full census from the king.
+     */
+    private void sendCensusResyncRequest() {
+        if (channelManager == null) {
+            return;
+        }
+        // as client, our only connection is the one to the king
+        channelManager.publishToAllConnections(new CensusResyncRequestAdminMessage(ownDevice.getUniqueDeviceID()).toBlaubotMessage());
+    }
+
     @Override
     public void onStateChanged(IBlaubotState oldState, IBlaubotState newState) {
         if (newState instanceof PeasantState) {
@@ -152,6 +264,12 @@ public class LifeCycleEventDispatcher implements IBlaubotAdminMessageListener, I
 //                lastKnownKingUniqueDeviceId = ps.getKingConnection().getRemoteDevice().getUniqueDeviceID();
                 if (oldKingdomMsg != null) {
                     notfiyOnDeviceLeftForKingdom(oldKingdomMsg);
+                    // the new king's census may have been dispatched before this state change, then the devices
+                    // of both kingdoms have to join again
+                    final CensusMessage newKingdomMsg = lastCensusMessages.get(ps.getKingUniqueId());
+                    if (newKingdomMsg != null) {
+                        notifyOnDeviceRejoined(oldKingdomMsg, newKingdomMsg);
+                    }
                 }
             } else if (ps.getConnectionAccomplishmentType().equals(PeasantState.ConnectionAccomplishmentType.FOLLOWED_THE_HEIR_TO_THE_THRONE)) {
                 // we connected to the prince after the king died
@@ -173,6 +291,10 @@ public class LifeCycleEventDispatcher implements IBlaubotAdminMessageListener, I
                 // onDeviceJoined() is not guaranteed at the moment! (the
                 // messaging could be faster)
             }
+            if (!ps.getConnectionAccomplishmentType().equals(PeasantState.ConnectionAccomplishmentType.DEGRADATION) && !lastCensusMessages.containsKey(ps.getKingUniqueId())) {
+                // the king may have sent the full census to us before its channel manager knew our connection
+                sendCensusResyncRequest();
+            }
         } else if (newState instanceof FreeState) {
             // ignore stopped->free transitions for disconnected events
             if (!(oldState instanceof StoppedState)) {
@@ -314,6 +436,23 @@ public class LifeCycleEventDispatcher implements IBlaubotAdminMessageListener, I
 
     }
 
+    /**
+     * Triggers onDeviceJoined for the devices (except our own) that are part of the old and the new kingdom.
+     *
+     * @param oldNetworksLastCensusMessage the last census of the kingdom we left
+     * @param newNetworksCensusMessage     the already received census of the kingdom we joined
+     */
+    private void notifyOnDeviceRejoined(CensusMessage oldNetworksLastCensusMessage, CensusMessage newNetworksCensusMessage) {
+        final Set<String> rejoinedUniqueIds = new HashSet<>(oldNetworksLastCensusMessage.getDeviceStates().keySet());
+        rejoinedUniqueIds.retainAll(newNetworksCensusMessage.getDeviceStates().keySet());
+        rejoinedUniqueIds.remove(this.ownDevice.getUniqueDeviceID());
+        for (ILifecycleListener listener : lifecycleListeners) {
+            for (String uniqueId : rejoinedUniqueIds) {
+                listener.onDeviceJoined(new BlaubotDevice(uniqueId));
+            }
+        }
+    }
+
     @Override
     public void onStateMachineStopped() {
         // handled in onStateChange
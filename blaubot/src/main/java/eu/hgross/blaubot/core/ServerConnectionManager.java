@@ -5,23 +5,31 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
 import eu.hgross.blaubot.admin.CloseRelayConnectionAdminMessage;
-import eu.hgross.blaubot.admin.RelayAdminMessage;
 import eu.hgross.blaubot.admin.ServerConnectionAvailableAdminMessage;
 import eu.hgross.blaubot.admin.ServerConnectionDownAdminMessage;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionManagerListener;
 import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
 import eu.hgross.blaubot.core.connector.IBlaubotConnector;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
+import eu.hgross.blaubot.messaging.BlaubotRelayFrame;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
 import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.IBlaubotRelayFrameListener;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.Counter;
+import eu.hgross.blaubot.metrics.IGauge;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 import eu.hgross.blaubot.util.Log;
 
@@ -34,22 +42,57 @@ import eu.hgross.blaubot.util.Log;
  * 
  * It always sends admin messages if a connection to the server is available or down.
  * 
- * In client mode it listens to RelayAdminMessages and sends them to the available server connection (if any).
+ * In client mode it listens to relay frames and sends their messages to the available server connection (if any).
  * 
  * In server mode it listens to the Available/Down messages and collects possible connections to the
  * server as there could be more than just one.
+ * The connection to use is selected, when connections are established or closed and when the census
+ * changes. The candidates are ranked by the ServerConnectionSelector.
+ *
+ * The messages from and to the server are sent as relay frames (see BlaubotRelayFrame) unicast between
+ * the king and the mediator of the used server connection.
+ * The king routes received relay frames only to the relay connection of the active mediator and
+ * drops relay frames of other mediators (i.e. sent before a failover to another connection).
  */
 public class ServerConnectionManager extends LifecycleListenerAdapter {
     private static final String LOG_TAG = "ServerConnectionManager";
-    /**
-     * The period to check if a connection path to the server exists and needs to be chosen
-     * (master mode only).
-     */
-    private static final long CONNECTION_SELECT_INTERVAL = 1500;
     /**
      * Milliseconds to await termination of the connect scheduler
      */
     private static final long SHUTDOWN_TERMINATION_TIMEOUT = 2500;
+    /**
+     * Gauge of the number of known connection paths to the server (master mode only)
+     */
+    public static final String METRIC_AVAILABLE_CONNECTIONS = "serverconnection.available";
+    /**
+     * Gauge that is 1, iff a server connection is used (master mode only)
+     */
+    public static final String METRIC_CONNECTED = "serverconnection.connected";
+    /**
+     * Counter of the selected server connections
+     */
+    public static final String METRIC_SELECTED = "serverconnection.selected";
+    /**
+     * Counter of the lost (closed) server connections
+     */
+    public static final String METRIC_LOST = "serverconnection.lost";
+    /**
+     * Counter of the used server connections that were replaced by a healthier one
+     */
+    public static final String METRIC_SWITCHED = "serverconnection.switched";
+    /**
+     * Histogram of the time in ms from becoming master or losing the server connection until a new
+     * connection was selected
+     */
+    public static final String METRIC_SELECTION_DELAY = "serverconnection.selectionDelayMillis";
+    /**
+     * Histogram of the lifetime of the used server connections in ms
+     */
+    public static final String METRIC_LIFETIME = "serverconnection.lifetimeMillis";
+    /**
+     * Counter of the relay frames received by the king, that were not sent by the active mediator
+     */
+    public static final String METRIC_RELAY_DROPPED = "serverconnection.relay.dropped";
 
     /**
      * The main blaubot channel manager
@@ -95,12 +138,30 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
      * The current king device set by the LifecycleListener.
      * May be null.
      */
-    private IBlaubotDevice currentKingDevice;
+    private volatile IBlaubotDevice currentKingDevice;
 
     /**
      * Current connection to the server, if in Master mode. May be null.
      */
     private BlaubotKingdomConnection currentServerConnection;
+    /**
+     * The relay connection the currentServerConnection is based on, if in Master mode and the server is
+     * connected through a mediator. May be null.
+     * Written while holding the serverConnectionLock.
+     */
+    private volatile BlaubotServerRelayConnection activeRelayConnection;
+    /**
+     * The connection the currentServerConnection is based on (guarded by serverConnectionLock). May be null.
+     */
+    private IBlaubotConnection selectedConnection;
+    /**
+     * The time the selectedConnection was selected (guarded by serverConnectionLock)
+     */
+    private long selectedAt;
+    /**
+     * The used server connection that is currently replaced by a healthier one (guarded by serverConnectionLock). May be null.
+     */
+    private BlaubotKingdomConnection replacedServerConnection;
     /**
      * synchronizes the creation and shutdowns of the RelayMessageMediator
      */
@@ -120,18 +181,39 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
 
 
     /**
-     * Schedules the connectionSelectionTask.
+     * Executes the connectionSelectionTask.
      * Is created and shut down on setMaster(false/true)
      */
     private volatile ScheduledExecutorService connectionSelectionExecutorService;
+    /**
+     * Coalesces the triggered selections to one execution
+     */
+    private final AtomicBoolean connectionSelectionPending = new AtomicBoolean(false);
+    /**
+     * Ranks the connections to the server
+     */
+    private final ServerConnectionSelector connectionSelector;
+
+    private final Counter selectedCounter;
+    private final Counter lostCounter;
+    private final Counter switchedCounter;
+    private final LatencyHistogram selectionDelayHistogram;
+    private final LatencyHistogram lifetimeHistogram;
+    private final Counter relayDroppedCounter;
+    /**
+     * The time since when we are master without a server connection (guarded by serverConnectionLock)
+     */
+    private long serverConnectionMissingSince;
 
     /**
-     * A TimerTask that checks if a connection exists and if not tries to connect to the
-     * server.
+     * A task that selects the healthiest connection to the server, if no connection is used, and replaces
+     * the used connection, if a much healthier one is available.
+     * Triggered by connection and census changes via triggerConnectionSelection().
      */
     private Runnable connectionSelectionTask = new Runnable() {
         @Override
         public void run() {
+            connectionSelectionPending.set(false);
             try {
                 if(!isMaster) {
                     if (Log.logDebugMessages()) {
@@ -141,53 +223,12 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                 }
 
                 synchronized (serverConnectionLock) {
-                    final boolean connected = currentServerConnection != null;
-                    if (!connected) {
-                        if (Log.logDebugMessages()) {
-//                            Log.d(LOG_TAG, "Currently no connection to the server available. Selecting ...");
-                        }
-                        List<IBlaubotConnection> allConnections = connectionManager.getAllConnections();
-                        if (allConnections.isEmpty()) {
-                            if (Log.logDebugMessages()) {
-//                                Log.d(LOG_TAG, "No connection path to the server known ... could not select a connection.");
-                            }
-                            return;
-                        }
-
-                        // -- we have connections
-                        if (Log.logDebugMessages()) {
-                            Log.d(LOG_TAG, "There are " + allConnections.size() + " connections to the server available, selecting one out of these: " + allConnections);
-                        }
-
-                        // choose and add disconnection handling
-                        /**
-                         * TODO: prioritize a connection from ourselve (king), because it is a direct connection. If we don'T have a direct connection prioritize peasant relay connections over prince relay connections!
-                         */
-                        IBlaubotConnection chosenConnection = allConnections.get(0);
-
-                        if (Log.logDebugMessages()) {
-                            Log.d(LOG_TAG, "Chosen connection: " + chosenConnection);
-                        }
-
-                        // upgrade to KingdomConnection
-                        final BlaubotKingdomConnection kingdomConnection = BlaubotKingdomConnection.createFromOutboundConnection(chosenConnection, ownDevice.getUniqueDeviceID());
-                        currentServerConnection = kingdomConnection;
-                        kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
-                            @Override
-                            public void onConnectionClosed(IBlaubotConnection connection) {
-                                synchronized (serverConnectionLock) {
-                                    if (currentServerConnection == kingdomConnection) {
-                                        currentServerConnection = null;
-                                    }
-                                }
-                            }
-                        });
-
-                        // add to the main blaubot connection manager, it will bobble up from there to the channel manager
-                        if (Log.logDebugMessages()) {
-                            Log.d(LOG_TAG, "Adding the kingdom connection to the Blaubot connection manager");
-                        }
-                        mainBlaubotConnectionManager.addConnection(kingdomConnection);
+                    final long now = System.currentTimeMillis();
+                    if (currentServerConnection != null) {
+                        replaceIfUnhealthy(now);
+                    }
+                    if (currentServerConnection == null) {
+                        selectConnection(now);
                     }
                 }
 
@@ -200,6 +241,152 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         }
     };
 
+    /**
+     * Disconnects the used server connection, if a candidate is healthier by the selector's margin
+     * and the used connection was used long enough.
+     * Must be called with the serverConnectionLock held.
+     *
+     * @param now the current time in ms
+     */
+    private void replaceIfUnhealthy(long now) {
+        final IBlaubotConnection best = findHealthiestConnection(connectionManager.getAllConnections(), now);
+        if (best == null || best == selectedConnection) {
+            return;
+        }
+        final int currentScore = connectionSelector.getScore(getMediatorUniqueDeviceId(selectedConnection), now);
+        final int bestScore = connectionSelector.getScore(getMediatorUniqueDeviceId(best), now);
+        if (!connectionSelector.isWorthSwitching(currentScore, bestScore)) {
+            return;
+        }
+        final long remainingDwellTime = connectionSelector.getRemainingDwellTime(selectedAt, now);
+        if (remainingDwellTime > 0) {
+            // re-check when we are allowed to switch
+            final ScheduledExecutorService executorService = connectionSelectionExecutorService;
+            if (executorService != null) {
+                executorService.schedule(connectionSelectionTask, remainingDwellTime, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Replacing the server connection " + selectedConnection + " (score " + currentScore + ") by " + best + " (score " + bestScore + ")");
+        }
+        switchedCounter.increment();
+        final BlaubotKingdomConnection replaced = currentServerConnection;
+        replacedServerConnection = replaced;
+        currentServerConnection = null;
+        selectedConnection = null;
+        activeRelayConnection = null;
+        serverConnectionMissingSince = now;
+        replaced.disconnect();
+    }
+
+    /**
+     * Selects the healthiest connection to the server (if any) and adds it to the main connection manager.
+     * Must be called with the serverConnectionLock held.
+     *
+     * @param now the current time in ms
+     */
+    private void selectConnection(long now) {
+        final List<IBlaubotConnection> allConnections = connectionManager.getAllConnections();
+        final IBlaubotConnection chosenConnection = findHealthiestConnection(allConnections, now);
+        if (chosenConnection == null) {
+            // we wait for new connections
+            return;
+        }
+
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Chosen connection: " + chosenConnection + " out of " + allConnections);
+        }
+
+        // route the relay messages from the chosen connection's mediator (if any) to it
+        activeRelayConnection = chosenConnection instanceof BlaubotServerRelayConnection ? (BlaubotServerRelayConnection) chosenConnection : null;
+
+        // upgrade to KingdomConnection
+        final BlaubotKingdomConnection kingdomConnection = BlaubotKingdomConnection.createFromOutboundConnection(chosenConnection, ownDevice.getUniqueDeviceID());
+        final String mediatorUniqueDeviceId = getMediatorUniqueDeviceId(chosenConnection);
+        final long connectionSelectedAt = now;
+        currentServerConnection = kingdomConnection;
+        selectedConnection = chosenConnection;
+        selectedAt = connectionSelectedAt;
+        selectedCounter.increment();
+        selectionDelayHistogram.record(connectionSelectedAt - serverConnectionMissingSince);
+        kingdomConnection.addConnectionListener(new IBlaubotConnectionListener() {
+            @Override
+            public void onConnectionClosed(IBlaubotConnection connection) {
+                final long closedAt = System.currentTimeMillis();
+                lostCounter.increment();
+                lifetimeHistogram.record(closedAt - connectionSelectedAt);
+                synchronized (serverConnectionLock) {
+                    if (replacedServerConnection == kingdomConnection) {
+                        replacedServerConnection = null;
+                    } else {
+                        connectionSelector.onPathFailed(mediatorUniqueDeviceId, closedAt);
+                    }
+                    if (currentServerConnection == kingdomConnection) {
+                        currentServerConnection = null;
+                        selectedConnection = null;
+                        activeRelayConnection = null;
+                        serverConnectionMissingSince = closedAt;
+                    }
+                }
+                // fail over
+                triggerConnectionSelection();
+            }
+        });
+
+        // add to the main blaubot connection manager, it will bobble up from there to the channel manager
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Adding the kingdom connection to the Blaubot connection manager");
+        }
+        mainBlaubotConnectionManager.addConnection(kingdomConnection);
+    }
+
+    /**
+     * @param connections the candidates
+     * @param now the current time in ms
+     * @return the connection with the lowest score or null, if connections is empty
+     */
+    private IBlaubotConnection findHealthiestConnection(List<IBlaubotConnection> connections, long now) {
+        IBlaubotConnection best = null;
+        int bestScore = Integer.MAX_VALUE;
+        for (IBlaubotConnection connection : connections) {
+            final int score = connectionSelector.getScore(getMediatorUniqueDeviceId(connection), now);
+            if (score < bestScore) {
+                best = connection;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param connection a connection to the server
+     * @return the mediator's unique device id for relay connections, null for direct connections
+     */
+    private static String getMediatorUniqueDeviceId(IBlaubotConnection connection) {
+        return connection instanceof BlaubotServerRelayConnection ? ((BlaubotServerRelayConnection) connection).getMediatorUniqueDeviceId() : null;
+    }
+
+    /**
+     * Triggers the (re-)selection of the server connection, if in master mode.
+     * Multiple triggers before the selection is executed are coalesced.
+     */
+    private void triggerConnectionSelection() {
+        final ScheduledExecutorService executorService = connectionSelectionExecutorService;
+        if (!isMaster || executorService == null) {
+            return;
+        }
+        if (connectionSelectionPending.compareAndSet(false, true)) {
+            try {
+                executorService.execute(connectionSelectionTask);
+            } catch (RejectedExecutionException e) {
+                // shut down concurrently
+                connectionSelectionPending.set(false);
+            }
+        }
+    }
+
 
     /**
      *
@@ -212,6 +399,37 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         this.mainBlaubotConnectionManager = mainBlaubotConnectionManager;
         this.connectionManager = new BlaubotConnectionManager(new ArrayList<IBlaubotConnectionAcceptor>(), new ArrayList<IBlaubotConnector>());
         this.channelManager = channelManager;
+        final BlaubotMetricsRegistry metricsRegistry = channelManager.getMetricsRegistry();
+        this.selectedCounter = metricsRegistry.counter(METRIC_SELECTED);
+        this.lostCounter = metricsRegistry.counter(METRIC_LOST);
+        this.switchedCounter = metricsRegistry.counter(METRIC_SWITCHED);
+        this.connectionSelector = new ServerConnectionSelector(channelManager);
+        this.connectionManager.addConnectionListener(new IBlaubotConnectionManagerListener() {
+            @Override
+            public void onConnectionEstablished(IBlaubotConnection connection) {
+                triggerConnectionSelection();
+            }
+
+            @Override
+            public void onConnectionClosed(IBlaubotConnection connection) {
+                triggerConnectionSelection();
+            }
+        });
+        this.selectionDelayHistogram = metricsRegistry.histogram(METRIC_SELECTION_DELAY);
+        this.lifetimeHistogram = metricsRegistry.histogram(METRIC_LIFETIME);
+        this.relayDroppedCounter = metricsRegistry.counter(METRIC_RELAY_DROPPED);
+        metricsRegistry.registerGauge(METRIC_AVAILABLE_CONNECTIONS, new IGauge() {
+            @Override
+            public long getValue() {
+                return isMaster ? connectionManager.getAllConnections().size() : 0;
+            }
+        });
+        metricsRegistry.registerGauge(METRIC_CONNECTED, new IGauge() {
+            @Override
+            public long getValue() {
+                return getCurrentlyUsedServerConnection() != null ? 1 : 0;
+            }
+        });
         this.channelManager.addAdminMessageListener(new IBlaubotAdminMessageListener() {
             @Override
             public void onAdminMessage(AbstractAdminMessage adminMessage) {
@@ -237,65 +455,106 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                     // all this is handled through the usual blaubot connection manager (this.connectionManager) and the wrapping connection
                     // BlaubotServerRelayConnection, which is also listening to this admin message to trigger te onDisconnect listeners.
                     // so nothing to do here
-                } else if (adminMessage instanceof RelayAdminMessage || adminMessage instanceof CloseRelayConnectionAdminMessage) {
+                } else if (adminMessage instanceof CloseRelayConnectionAdminMessage) {
                     if(!isMaster) {
-
-                        /**
-                         * If we are not master, we have the mediator role.
-                         *  important here:
-                         *  Do we already have a mediator?
-                         *      if yes -> do nothing, the mediator should do the rest
-                         *      if no -> Get a serverconnection from the ConnectionManager. There has to be a connection because RelayAdminMessages and CloseRelayConnectionAdminMessage
-                         *               are only send after we sent ServerConnectionAvailable but of course there could be some timing problems and the connection is not there.
-                         *               Then create the mediator.
-                         */
-                        synchronized (relayMessageMediatorLock) {
-                            if(relayMessageMediator == null) {
-                                if (Log.logDebugMessages()) {
-                                    Log.d(LOG_TAG, "Got a RelayAdminMessage and had no relayMessageMediator. Creating one.");
-                                }
-
-                                List<IBlaubotConnection> allServerConnections = ServerConnectionManager.this.connectionManager.getAllConnections();
-                                if(!allServerConnections.isEmpty()) {
-                                    IBlaubotConnection connection = allServerConnections.get(0);
-                                    if(connection instanceof BlaubotServerRelayConnection) {
-                                        // TODO: concurreny problem here on change to master mode (got a websocket connection here)
-                                        // TODO sync isMaster flag and setMaster()
-                                        throw new RuntimeException(""+allServerConnections);
-                                    }
-                                    final RelayMessageMediator mediator = new RelayMessageMediator(connection);
-
-                                    // maintain reference
-                                    connection.addConnectionListener(new IBlaubotConnectionListener() {
-                                        @Override
-                                        public void onConnectionClosed(IBlaubotConnection connection) {
-                                            if(relayMessageMediator == mediator) {
-                                                relayMessageMediator = null;
-                                            }
-                                        }
-                                    });
-
-                                    relayMessageMediator = mediator;
-                                    mediator.activate();
-                                    // kick the current admin message in
-                                    mediator.onAdminMessage(adminMessage);
-                                    if (Log.logDebugMessages()) {
-                                        Log.d(LOG_TAG, "Created a RelayMessageMediator for connection " + connection);
-                                    }
-                                } else {
-                                    if (Log.logErrorMessages()) {
-                                        Log.e(LOG_TAG, "No mediator to resend the received RelayAdminMessage.");
-                                    }
-                                }
-                            }
+                        final RelayMessageMediator mediator = getOrCreateRelayMessageMediator();
+                        if (mediator != null) {
+                            mediator.onAdminMessage(adminMessage);
                         }
                     }
                 }
             }
         });
+        this.channelManager.addRelayFrameListener(new IBlaubotRelayFrameListener() {
+            @Override
+            public void onRelayFrame(BlaubotRelayFrame relayFrame) {
+                if (isMaster) {
+                    // a message from the server relayed by a mediator
+                    routeRelayFrame(relayFrame);
+                } else {
+                    // a message for the server, if we are the mediator
+                    final RelayMessageMediator mediator = getOrCreateRelayMessageMediator();
+                    if (mediator != null) {
+                        mediator.onRelayFrame(relayFrame);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * If we are not master, we have the mediator role.
+     *  important here:
+     *  Do we already have a mediator?
+     *      if yes -> use it
+     *      if no -> Get a serverconnection from the ConnectionManager. There has to be a connection because relay frames and CloseRelayConnectionAdminMessage
+     *               are only send after we sent ServerConnectionAvailable but of course there could be some timing problems and the connection is not there.
+     *               Then create the mediator.
+     *
+     * @return the mediator or null, if we have no connection to the server
+     */
+    private RelayMessageMediator getOrCreateRelayMessageMediator() {
+        synchronized (relayMessageMediatorLock) {
+            if(relayMessageMediator != null) {
+                return relayMessageMediator;
+            }
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Got a relay message and had no relayMessageMediator. Creating one.");
+            }
+
+            List<IBlaubotConnection> allServerConnections = ServerConnectionManager.this.connectionManager.getAllConnections();
+            if(allServerConnections.isEmpty()) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "No mediator to resend the received relay message.");
+                }
+                return null;
+            }
+            IBlaubotConnection connection = allServerConnections.get(0);
+            if(connection instanceof BlaubotServerRelayConnection) {
+                // TODO: concurreny problem here on change to master mode (got a websocket connection here)
+                // TODO sync isMaster flag and setMaster()
+                throw new RuntimeException(""+allServerConnections);
+            }
+            final RelayMessageMediator mediator = new RelayMessageMediator(connection);
+
+            // maintain reference
+            connection.addConnectionListener(new IBlaubotConnectionListener() {
+                @Override
+                public void onConnectionClosed(IBlaubotConnection connection) {
+                    if(relayMessageMediator == mediator) {
+                        relayMessageMediator = null;
+                    }
+                }
+            });
+
+            relayMessageMediator = mediator;
+            mediator.activate();
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Created a RelayMessageMediator for connection " + connection);
+            }
+            return mediator;
+        }
     }
 
 
+    /**
+     * Hands a relay frame received by the king to the relay connection of the active mediator.
+     *
+     * @param relayFrame the relay frame
+     */
+    private void routeRelayFrame(BlaubotRelayFrame relayFrame) {
+        final BlaubotServerRelayConnection relayConnection = activeRelayConnection;
+        final String mediatorUniqueDeviceId = relayFrame.getMediatorUniqueDeviceId();
+        if (relayConnection == null || !mediatorUniqueDeviceId.equals(relayConnection.getMediatorUniqueDeviceId())) {
+            relayDroppedCounter.increment();
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Dropping a relay frame of mediator " + mediatorUniqueDeviceId + ", the active relay connection is " + relayConnection);
+            }
+            return;
+        }
+        relayConnection.onRelayFrame(relayFrame);
+    }
+
     /**
      * Handles everything if we get aware of a available connection
      * @param connection the newly available connection
@@ -396,9 +655,15 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             // send an on connection down for this device to myself to be sure, that it is handled properly
             ServerConnectionDownAdminMessage downAdminMessage = new ServerConnectionDownAdminMessage(blaubotDevice.getUniqueDeviceID());
             channelManager.publishToSingleDevice(downAdminMessage.toBlaubotMessage(), ownDevice.getUniqueDeviceID());
+            triggerConnectionSelection();
         }
     }
 
+    @Override
+    public void onDeviceJoined(IBlaubotDevice blaubotDevice) {
+        triggerConnectionSelection();
+    }
+
     @Override
     public void onKingDeviceChanged(IBlaubotDevice oldKing, IBlaubotDevice newKing) {
         if (Log.logDebugMessages()) {
@@ -437,7 +702,10 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                 this.currentServerConnection.disconnect();
                 this.currentServerConnection = null;
             }
+            this.activeRelayConnection = null;
+            this.selectedConnection = null;
         }
+        connectionSelector.clear();
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "State cleared.");
         }
@@ -456,6 +724,9 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             }
             clear();
             if(isMaster) {
+                synchronized (serverConnectionLock) {
+                    serverConnectionMissingSince = System.currentTimeMillis();
+                }
                 // if there was a mediator from a former peasant/prince state, shut it down
                 synchronized (relayMessageMediatorLock) {
                     if(relayMessageMediator != null) {
@@ -475,7 +746,6 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                     Log.d(LOG_TAG, "Starting up the server connection selection task scheduler.");
                 }
                 this.connectionSelectionExecutorService = Executors.newSingleThreadScheduledExecutor();
-                this.connectionSelectionExecutorService.scheduleAtFixedRate(connectionSelectionTask, 0, CONNECTION_SELECT_INTERVAL, TimeUnit.MILLISECONDS);
             } else {
                 // deactivate scheduler
                 if (this.connectionSelectionExecutorService != null) {
@@ -505,6 +775,10 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             }
         }
         this.isMaster = isMaster;
+        if (changed && isMaster) {
+            // select from the connections that are already known
+            triggerConnectionSelection();
+        }
     }
 
 
@@ -517,6 +791,14 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         }
     }
 
+    /**
+     * @return the unique device id of the mediator of the used server connection or null, if no server connection or a direct connection is used (master mode only)
+     */
+    public String getActiveMediatorUniqueDeviceId() {
+        final BlaubotServerRelayConnection relayConnection = activeRelayConnection;
+        return relayConnection == null ? null : relayConnection.getMediatorUniqueDeviceId();
+    }
+
     /**
      *
      * @return list of blaubotconnections the server collected by the manager
@@ -548,7 +830,7 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
          */
         public RelayMessageMediator(final IBlaubotConnection serverConnection) {
             this.serverConnection = serverConnection;
-            this.messageReceiver = new BlaubotMessageReceiver(serverConnection);
+            this.messageReceiver = new BlaubotMessageReceiver(serverConnection, channelManager.getMetricsRegistry());
             this.messageReceiver.setForwardChunks(true); // forward chunked messages (don't inspect them)
             // handles broken connections
             serverConnection.addConnectionListener(new IBlaubotConnectionListener() {
@@ -570,13 +852,19 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
 //                        Log.d(LOG_TAG, "Got a message from the server connection, dispatching it via RelayMessage");
 //                    }
                     // got a message from the server, relay to the king
-                    RelayAdminMessage relayAdminMessage = new RelayAdminMessage(blaubotMessage.toBytes());
-                    channelManager.publishToAllConnections(relayAdminMessage.toBlaubotMessage());
+                    final BlaubotMessage relayFrameMessage = BlaubotRelayFrame.createMessage(ownDevice.getUniqueDeviceID(), blaubotMessage);
+                    final IBlaubotDevice kingDevice = currentKingDevice;
+                    if (kingDevice != null) {
+                        channelManager.publishToSingleDevice(relayFrameMessage, kingDevice.getUniqueDeviceID());
+                    } else {
+                        // as client, our only connection is the one to the king
+                        channelManager.publishToAllConnections(relayFrameMessage);
+                    }
                 }
             });
 
-            // listens to messages from the king
-            channelManager.addAdminMessageListener(this);
+            // listens to close messages from the king, the relay frames are handed in by the manager
+            channelManager.addAdminMessageListener(CloseRelayConnectionAdminMessage.class, this);
         }
 
 
@@ -588,23 +876,26 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             messageReceiver.deactivate(null);
         }
 
+        /**
+         * Writes the relayed message of a relay frame from the king to the server connection.
+         *
+         * @param relayFrame the relay frame
+         */
+        public void onRelayFrame(BlaubotRelayFrame relayFrame) {
+            if (!relayFrame.getMediatorUniqueDeviceId().equals(ownDevice.getUniqueDeviceID())) {
+                // meant for another mediator
+                return;
+            }
+            try {
+                relayFrame.writeRelayedMessageTo(serverConnection);
+            } catch (IOException e) {
+                // handled by the connection manager
+            }
+        }
+
         @Override
         public void onAdminMessage(AbstractAdminMessage adminMessage) {
-            if (adminMessage instanceof RelayAdminMessage) {
-                if(Log.logDebugMessages()) {
-                    BlaubotMessage unwrappedMessage = ((RelayAdminMessage) adminMessage).getAsBlaubotMessage();
-                    //if (!unwrappedMessage.getMessageType().isKeepAliveMessage()) {
-                    //    Log.d(LOG_TAG, "Dispatching a relay message to the server connection: " + unwrappedMessage);
-                    //}
-                }
-
-                byte[] messageBytes = ((RelayAdminMessage) adminMessage).getMessageBytes();
-                try {
-                    serverConnection.write(messageBytes);
-                } catch (IOException e) {
-                    // handled by the connection manager
-                }
-            } else if(adminMessage instanceof CloseRelayConnectionAdminMessage) {
+            if(adminMessage instanceof CloseRelayConnectionAdminMessage) {
                 String mediatorUniqueDeviceId = ((CloseRelayConnectionAdminMessage) adminMessage).getMediatorUniqueDeviceId();
                 if (mediatorUniqueDeviceId.equals(ownDevice.getUniqueDeviceID())) {
                     if(Log.logDebugMessages()) {
@@ -646,8 +937,8 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
         private final String recipientUniqueDeviceId;
         /**
          * Everything thaht is written to this connection via it's write(*) methods will be received
-         * by this receiver locally and then be wrapped into a RelayMessage to be send as admin
-         * message via the ChannelManager.
+         * by this receiver locally and then be wrapped into a relay frame to be sent via the
+         * ChannelManager.
          */
         private final BlaubotMessageReceiver messageReceiver;
 
@@ -669,13 +960,8 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             this.messageReceiver.addMessageListener(new IBlaubotMessageListener() {
                 @Override
                 public void onMessage(BlaubotMessage blaubotMessage) {
-                    // wrap the message into a relay admin message
-                    final RelayAdminMessage relayAdminMessage = new RelayAdminMessage(blaubotMessage.toBytes());
-                    // create a blaubot mesasge from the relay admin message (= blaubot message containing which is a relay admin message, which contains a blaubotmessage ;-))
-                    final BlaubotMessage msg = relayAdminMessage.toBlaubotMessage();
-//                    if (!blaubotMessage.getMessageType().isKeepAliveMessage()) {
-//                        Log.d(LOG_TAG, "Dispatching ... Sending RelayAdminMessage to mediator: " + msg);
-//                    }
+                    // serialize the message into a relay frame
+                    final BlaubotMessage msg = BlaubotRelayFrame.createMessage(mediatorUniqueDeviceId, blaubotMessage);
                     // send it to the mediator
                     channelManager.publishToSingleDevice(msg, mediatorUniqueDeviceId);
                 }
@@ -684,7 +970,7 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
             this.mediatorUniqueDeviceId = mediatorUniqueDeviceId;
 
             // listener handling (cleanup and wiring)
-            channelManager.addAdminMessageListener(this);
+            channelManager.addAdminMessageListener(ServerConnectionDownAdminMessage.class, this);
             this.addConnectionListener(new IBlaubotConnectionListener() {
                 @Override
                 public void onConnectionClosed(IBlaubotConnection connection) {
@@ -714,16 +1000,20 @@ public class ServerConnectionManager extends LifecycleListenerAdapter {
                     // note that this message will also be received if an onDeviceLeft() for this device occurs.
                     _disconnect(); // triggers its own listeners
                 }
-            } else if (adminMessage instanceof RelayAdminMessage) {
-//                if(Log.logDebugMessages()) {
-//                    Log.d(LOG_TAG, "Dispatching relay admin message of " + ((RelayAdminMessage) adminMessage).getMessageBytes().length + " bytes to input stream of the relay connection");
-//                }
-                // put data to the queue. This bytes can then be read via the read(*) methods.
-                byte[] messageBytes = ((RelayAdminMessage) adminMessage).getMessageBytes();
-                writeMockDataToInputStream(messageBytes);
             }
         }
 
+        /**
+         * Called by the ServerConnectionManager for relay frames of this connection's mediator, if this
+         * connection is used.
+         *
+         * @param relayFrame the relay frame containing a message from the server
+         */
+        void onRelayFrame(BlaubotRelayFrame relayFrame) {
+            // put data to the queue. This bytes can then be read via the read(*) methods.
+            writeMockDataToInputStream(relayFrame.getBuffer(), relayFrame.getRelayedMessageOffset(), relayFrame.getRelayedMessageLength());
+        }
+
         private volatile boolean notifiedDisconnect = false;
         @Override
         protected void notifyDisconnected() {
@@ -0,0 +1,155 @@
+package eu.hgross.blaubot.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import eu.hgross.blaubot.messaging.BlaubotChannelManager;
+
+/**
+ * Ranks the connection paths to the server for the ServerConnectionManager by a health score.
+ * A path is identified by the unique device id of its mediator or null for a direct connection
+ * of the king.
+ *
+ * The score is a sum of penalties (lower is better):
+ * - the round trip: a relay path adds a hop through the mediator
+ * - the queue depth: the bytes queued in the senders to the mediator
+ * - recent errors: each loss of a used connection of the path within the last ERROR_WINDOW ms
+ *
+ * A used path is only replaced, if it was used for at least MIN_DWELL_TIME ms and the other
+ * path's score is lower by at least SWITCH_MARGIN (hysteresis), so the choice does not flap.
+ */
+public class ServerConnectionSelector {
+    /**
+     * Penalty for the additional hop of a relay path
+     */
+    public static final int RELAY_HOP_PENALTY = 10;
+    /**
+     * Number of bytes queued to the mediator for one penalty point
+     */
+    public static final long QUEUED_BYTES_PER_PENALTY_POINT = 16 * 1024;
+    /**
+     * Upper bound of the queue depth penalty
+     */
+    public static final int MAX_QUEUE_PENALTY = 50;
+    /**
+     * Penalty for each recent error of a path
+     */
+    public static final int ERROR_PENALTY = 25;
+    /**
+     * Errors older than this (ms) are forgotten
+     */
+    public static final long ERROR_WINDOW = 60000;
+    /**
+     * The score difference needed to replace a used path
+     */
+    public static final int SWITCH_MARGIN = 10;
+    /**
+     * Min time in ms a path is used, before it is replaced by a healthier one
+     */
+    public static final long MIN_DWELL_TIME = 10000;
+
+    /**
+     * Key of the direct path in the errors map
+     */
+    private static final String DIRECT_PATH = "";
+
+    private final BlaubotChannelManager channelManager;
+    /**
+     * path -> timestamps of the recent errors (guarded by this)
+     */
+    private final Map<String, List<Long>> errors;
+
+    /**
+     * @param channelManager the main blaubot channel manager to look up the queue depths
+     */
+    public ServerConnectionSelector(BlaubotChannelManager channelManager) {
+        this.channelManager = channelManager;
+        this.errors = new HashMap<>();
+    }
+
+    /**
+     * @param mediatorUniqueDeviceId the path's mediator or null for a direct connection
+     * @param now the current time in ms
+     * @return the health score of the path, lower is better
+     */
+    public synchronized int getScore(String mediatorUniqueDeviceId, long now) {
+        int score = 0;
+        if (mediatorUniqueDeviceId != null) {
+            score += RELAY_HOP_PENALTY;
+            final long queuedBytes = channelManager.getQueuedBytes(mediatorUniqueDeviceId);
+            score += (int) Math.min(MAX_QUEUE_PENALTY, queuedBytes / QUEUED_BYTES_PER_PENALTY_POINT);
+        }
+        score += ERROR_PENALTY * countRecentErrors(mediatorUniqueDeviceId, now);
+        return score;
+    }
+
+    /**
+     * Remembers an error (the loss of the used connection) of a path.
+     *
+     * @param mediatorUniqueDeviceId the path's mediator or null for a direct connection
+     * @param now the current time in ms
+     */
+    public synchronized void onPathFailed(String mediatorUniqueDeviceId, long now) {
+        final String key = mediatorUniqueDeviceId == null ? DIRECT_PATH : mediatorUniqueDeviceId;
+        List<Long> pathErrors = errors.get(key);
+        if (pathErrors == null) {
+            pathErrors = new ArrayList<>();
+            errors.put(key, pathErrors);
+        }
+        pathErrors.add(now);
+    }
+
+    /**
+     * Checks whether a used path should be replaced by a candidate.
+     *
+     * @param currentScore the score of the used path
+     * @param candidateScore the score of the candidate path
+     * @return true, iff the candidate is healthier by at least the SWITCH_MARGIN
+     */
+    public boolean isWorthSwitching(int currentScore, int candidateScore) {
+        return candidateScore + SWITCH_MARGIN <= currentScore;
+    }
+
+    /**
+     * @param selectedAt the time in ms the used path was selected
+     * @param now the current time in ms
+     * @return the time in ms until the used path may be replaced
+     */
+    public long getRemainingDwellTime(long selectedAt, long now) {
+        return Math.max(0, selectedAt + MIN_DWELL_TIME - now);
+    }
+
+    /**
+     * Forgets all recorded errors.
+     */
+    public synchronized void clear() {
+        errors.clear();
+    }
+
+    /**
+     * Counts the errors within the ERROR_WINDOW and forgets the older ones.
+     *
+     * @param mediatorUniqueDeviceId the path's mediator or null for a direct connection
+     * @param now the current time in ms
+     * @return the number of recent errors
+     */
+    private int countRecentErrors(String mediatorUniqueDeviceId, long now) {
+        final String key = mediatorUniqueDeviceId == null ? DIRECT_PATH : mediatorUniqueDeviceId;
+        final List<Long> pathErrors = errors.get(key);
+        if (pathErrors == null) {
+            return 0;
+        }
+        for (Iterator<Long> it = pathErrors.iterator(); it.hasNext(); ) {
+            if (now - it.next() > ERROR_WINDOW) {
+                it.remove();
+            }
+        }
+        if (pathErrors.isEmpty()) {
+            errors.remove(key);
+        }
+        return pathErrors.size();
+    }
+}
@@ -77,4 +77,17 @@ public class ConnectionMetaDataDTO {
     public String toString() {
         return metaData.toString();
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || !(o instanceof ConnectionMetaDataDTO)) return false;
+        // subclasses are only views on the meta data map, deserialized instances are plain ConnectionMetaDataDTOs
+        return metaData.equals(((ConnectionMetaDataDTO) o).metaData);
+    }
+
+    @Override
+    public int hashCode() {
+        return metaData.hashCode();
+    }
 }
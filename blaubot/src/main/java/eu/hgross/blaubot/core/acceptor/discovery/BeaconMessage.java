@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
@@ -20,12 +22,51 @@ import eu.hgross.blaubot.util.Log;
 /**
  * Represents a message exchanged when two devices connect via the beacon interface.
  * 
+ * The message is sent in a compact binary form:
+ * 		magic (int) | version (byte) | body length (int) | uniqueDeviceId | state ordinal (byte) | own meta data list |
+ * 		king's uniqueDeviceId | king's meta data list
+ * where strings are encoded as length (short) followed by the string bytes and a meta data list as
+ * dto count (short) followed by [entry count (short) | [key | value]*]* for each dto. Well known meta data keys
+ * are interned as a one byte index into INTERNED_META_DATA_KEYS, other keys are encoded as 0 followed by the string.
+ * 
+ * The legacy (string and json based) form is still understood. As older peers only understand the legacy form,
+ * it can be enforced with {@link #setLegacyEncoding(boolean)} while such peers are around. Answers to received
+ * messages should use the form of the received message (see {@link #isLegacyEncoded()}).
+ * 
  * @author Henning Gross {@literal (mail.to@henning-gross.de)}
  * 
  */
 public class BeaconMessage implements Serializable {
 	private static final String LOG_TAG = "BeaconMessage";
 	private static final long serialVersionUID = 7447451131850355749L;
+    /**
+     * Marks the binary form. Read as the unique device id's length by the legacy decoder, it is negative and
+     * therefore never the start of a legacy message.
+     */
+    private static final int BINARY_FORMAT_MAGIC = 0xB1A0BEAC;
+    /**
+     * The version of the binary form
+     */
+    public static final byte BINARY_FORMAT_VERSION = 1;
+    /**
+     * Meta data keys encoded by their index (+1). Only append new keys, the indices are part of the wire format.
+     */
+    private static final String[] INTERNED_META_DATA_KEYS = {"CONTYPE", "IP_ADDR", "ACCEPTOR_PORT", "MacAddr", "SSID", "PSK", "MACADDR"};
+    private static final Map<String, Byte> INTERNED_META_DATA_KEY_INDICES = new HashMap<>();
+    static {
+        for (int i = 0; i < INTERNED_META_DATA_KEYS.length; i++) {
+            INTERNED_META_DATA_KEY_INDICES.put(INTERNED_META_DATA_KEYS[i], (byte) (i + 1));
+        }
+    }
+    /**
+     * If true, toBytes() creates the legacy form
+     */
+    private static volatile boolean legacyEncoding = false;
+
+    /**
+     * true, iff this message was deserialized from the legacy form
+     */
+    private transient boolean legacyEncoded = false;
     private String ownUniqueDeviceId = "";
 
     private State currentState;
@@ -85,11 +126,127 @@ public class BeaconMessage implements Serializable {
 	}
 
     /**
-     * Get the byte representation of this message
+     * Get the byte representation of this message in the binary form or the legacy form, if the
+     * legacy encoding is enforced via {@link #setLegacyEncoding(boolean)}.
      *
-     * @return the byte array containing the message in the byte order of BlaubotConstants.STRING_CHARSET
+     * @return the byte array containing the message in the byte order of BlaubotConstants.BYTE_ORDER
      */
 	public byte[] toBytes() {
+        return toBytes(legacyEncoding);
+    }
+
+    /**
+     * Get the byte representation of this message
+     *
+     * @param legacy if true, the legacy form understood by older peers is created
+     * @return the byte array containing the message in the byte order of BlaubotConstants.BYTE_ORDER
+     */
+    public byte[] toBytes(boolean legacy) {
+        return legacy ? toLegacyBytes() : toBinaryBytes();
+    }
+
+    private byte[] toBinaryBytes() {
+        final byte[] uniqueDeviceIdBytes = ownUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        final byte[] kingDeviceIdBytes = kingDeviceUniqueId.getBytes(BlaubotConstants.STRING_CHARSET);
+        final int bodyLength = 2 + uniqueDeviceIdBytes.length + 1 + metaDataListLength(ownConnectionMetaDataList) + 2 + kingDeviceIdBytes.length + metaDataListLength(kingsConnectionMetaDataList);
+
+        final ByteBuffer bb = ByteBuffer.allocate(9 + bodyLength);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.putInt(BINARY_FORMAT_MAGIC);
+        bb.put(BINARY_FORMAT_VERSION);
+        bb.putInt(bodyLength);
+        bb.putShort((short) uniqueDeviceIdBytes.length);
+        bb.put(uniqueDeviceIdBytes);
+        bb.put((byte) currentState.ordinal());
+        putMetaDataList(bb, ownConnectionMetaDataList);
+        bb.putShort((short) kingDeviceIdBytes.length);
+        bb.put(kingDeviceIdBytes);
+        putMetaDataList(bb, kingsConnectionMetaDataList);
+        return bb.array();
+    }
+
+    private static int metaDataListLength(List<ConnectionMetaDataDTO> metaDataList) {
+        int length = 2;
+        for (ConnectionMetaDataDTO dto : metaDataList) {
+            length += 2;
+            for (Map.Entry<String, String> entry : dto.getMetaData().entrySet()) {
+                length += INTERNED_META_DATA_KEY_INDICES.containsKey(entry.getKey()) ? 1 : 3 + entry.getKey().getBytes(BlaubotConstants.STRING_CHARSET).length;
+                length += 2 + entry.getValue().getBytes(BlaubotConstants.STRING_CHARSET).length;
+            }
+        }
+        return length;
+    }
+
+    private static void putMetaDataList(ByteBuffer bb, List<ConnectionMetaDataDTO> metaDataList) {
+        bb.putShort((short) metaDataList.size());
+        for (ConnectionMetaDataDTO dto : metaDataList) {
+            final Map<String, String> metaData = dto.getMetaData();
+            bb.putShort((short) metaData.size());
+            for (Map.Entry<String, String> entry : metaData.entrySet()) {
+                final Byte keyIndex = INTERNED_META_DATA_KEY_INDICES.get(entry.getKey());
+                if (keyIndex != null) {
+                    bb.put(keyIndex);
+                } else {
+                    bb.put((byte) 0);
+                    putString(bb, entry.getKey());
+                }
+                putString(bb, entry.getValue());
+            }
+        }
+    }
+
+    private static List<ConnectionMetaDataDTO> getMetaDataList(ByteBuffer bb) {
+        final int count = bb.getShort() & 0xffff;
+        final List<ConnectionMetaDataDTO> metaDataList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final ConnectionMetaDataDTO dto = new ConnectionMetaDataDTO();
+            final int entries = bb.getShort() & 0xffff;
+            for (int j = 0; j < entries; j++) {
+                final int keyIndex = bb.get() & 0xff;
+                final String key;
+                if (keyIndex == 0) {
+                    key = getString(bb);
+                } else if (keyIndex <= INTERNED_META_DATA_KEYS.length) {
+                    key = INTERNED_META_DATA_KEYS[keyIndex - 1];
+                } else {
+                    throw new IllegalArgumentException("Unknown meta data key index: " + keyIndex);
+                }
+                dto.getMetaData().put(key, getString(bb));
+            }
+            metaDataList.add(dto);
+        }
+        return metaDataList;
+    }
+
+    private static void putString(ByteBuffer bb, String str) {
+        final byte[] bytes = str.getBytes(BlaubotConstants.STRING_CHARSET);
+        bb.putShort((short) bytes.length);
+        bb.put(bytes);
+    }
+
+    private static String getString(ByteBuffer bb) {
+        final byte[] bytes = new byte[bb.getShort() & 0xffff];
+        bb.get(bytes);
+        return new String(bytes, BlaubotConstants.STRING_CHARSET);
+    }
+
+    /**
+     * Decodes the body of the binary form (everything after the body length).
+     *
+     * @param body the body
+     * @return the message
+     */
+    private static BeaconMessage fromBinaryBody(ByteBuffer body) {
+        final BeaconMessage out = new BeaconMessage();
+        out.ownUniqueDeviceId = getString(body);
+        out.currentState = State.values()[body.get()];
+        out.ownConnectionMetaDataList = getMetaDataList(body);
+        out.kingDeviceUniqueId = getString(body);
+        out.kingsConnectionMetaDataList = getMetaDataList(body);
+        return out;
+    }
+
+	private byte[] toLegacyBytes() {
         byte[] uniqueDeviceIdBytes = ownUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
 		byte[] strBytes = currentState.name().getBytes(BlaubotConstants.STRING_CHARSET);
         byte[] connectionMetaDataListBytes = ConnectionMetaDataDTO.toJson(ownConnectionMetaDataList).getBytes(BlaubotConstants.STRING_CHARSET);
@@ -129,10 +286,26 @@ public class BeaconMessage implements Serializable {
 		
 	}
 
+    /**
+     * Deserializes a message in the binary or the legacy form.
+     *
+     * @param bytes the serialized message
+     * @return the message
+     */
 	public static BeaconMessage fromBytes(byte[] bytes) {
 		ByteBuffer bb = ByteBuffer.wrap(bytes);
 		bb.order(BlaubotConstants.BYTE_ORDER);
 
+        if (bb.getInt(0) == BINARY_FORMAT_MAGIC) {
+            bb.position(4);
+            final byte version = bb.get();
+            if (version != BINARY_FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported beacon message version: " + version);
+            }
+            bb.getInt(); // body length
+            return fromBinaryBody(bb);
+        }
+
         int uniqueDeviceIdLength = bb.getInt();
         byte[] uniqueDeviceIdBytes = new byte[uniqueDeviceIdLength];
         bb.get(uniqueDeviceIdBytes, 0, uniqueDeviceIdLength);
@@ -159,6 +332,7 @@ public class BeaconMessage implements Serializable {
         out.ownConnectionMetaDataList = ConnectionMetaDataDTO.fromJson(new String(metaDataListBytes, BlaubotConstants.STRING_CHARSET));
 		out.kingDeviceUniqueId = new String(deviceIdBytes, BlaubotConstants.STRING_CHARSET);
         out.kingsConnectionMetaDataList = ConnectionMetaDataDTO.fromJson(new String(king_metaDataListBytes, BlaubotConstants.STRING_CHARSET));
+        out.legacyEncoded = true;
 		return out;
 	}
 	
@@ -184,6 +358,9 @@ public class BeaconMessage implements Serializable {
             return null;
         }
         int uniqueDeviceIdLength = bbUniqueDeviceIdLength.getInt();
+        if (uniqueDeviceIdLength == BINARY_FORMAT_MAGIC) {
+            return fromBinaryBlaubotConnection(connection);
+        }
 
         // state bytes
         ByteBuffer bbUniqueDeviceId = ByteBuffer.allocate(uniqueDeviceIdLength);
@@ -340,6 +517,66 @@ public class BeaconMessage implements Serializable {
 		return BeaconMessage.fromBytes(together.array());
 	}
 
+    /**
+     * Reads the rest of a message in binary form from the connection (after the magic).
+     * Note: The connection will be closed via disconnect() on IO errors.
+     *
+     * @param connection the connection to receive the message from
+     * @return message or null, if smthg went wrong
+     */
+    private static BeaconMessage fromBinaryBlaubotConnection(IBlaubotConnection connection) {
+        final ByteBuffer header = ByteBuffer.allocate(5);
+        header.order(BlaubotConstants.BYTE_ORDER);
+        final BeaconMessage message;
+        try {
+            connection.readFully(header.array(), 0, 5);
+            final byte version = header.get();
+            final int bodyLength = header.getInt();
+            if (version != BINARY_FORMAT_VERSION || bodyLength < 0) {
+                Log.e(LOG_TAG, "Unsupported beacon message version " + version + " or invalid length " + bodyLength + ". Closing connection");
+                connection.disconnect();
+                return null;
+            }
+            final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            body.order(BlaubotConstants.BYTE_ORDER);
+            connection.readFully(body.array(), 0, bodyLength);
+            message = fromBinaryBody(body);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read beacon message. Closing connection", e);
+            connection.disconnect();
+            return null;
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to decode beacon message. Closing connection", e);
+            connection.disconnect();
+            return null;
+        }
+
+        final IBlaubotDevice remoteDevice = connection.getRemoteDevice();
+        if(remoteDevice instanceof IUnidentifiedBlaubotDevice) {
+            // we need to inject the unique id, because the beacon had no chance to get onto it
+            // see IUnidentifiedBlaubotDevice JavaDoc.
+            ((IUnidentifiedBlaubotDevice) remoteDevice).setUniqueDeviceId(message.ownUniqueDeviceId);
+        }
+        return message;
+    }
+
+    /**
+     * Enforces the legacy form for all messages serialized via toBytes(), so that peers running older
+     * versions can decode them. Defaults to false.
+     *
+     * @param legacy true, if the legacy form should be used
+     */
+    public static void setLegacyEncoding(boolean legacy) {
+        legacyEncoding = legacy;
+    }
+
+    /**
+     * @return true, iff this message was deserialized from the legacy form (the sender is possibly an older peer)
+     */
+    public boolean isLegacyEncoded() {
+        return legacyEncoded;
+    }
+
     /**
      * Getter for the unique device id of the sending side
      * @return the unique id
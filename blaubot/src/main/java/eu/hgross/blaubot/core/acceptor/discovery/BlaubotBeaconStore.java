@@ -21,9 +21,14 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
      */
     private final ConcurrentHashMap<String, AbstractBlaubotDeviceDiscoveryEvent> lastBeaconEvents;
     private final ConcurrentHashMap<String, List<ConnectionMetaDataDTO>> lastConnectiontMetaData;
+    /**
+     * The timestamps of the lastBeaconEvents
+     */
+    private final ConcurrentHashMap<String, Long> lastBeaconEventTimestamps;
 
     public BlaubotBeaconStore() {
         this.lastBeaconEvents = new ConcurrentHashMap<>();
+        this.lastBeaconEventTimestamps = new ConcurrentHashMap<>();
         this.lastConnectiontMetaData = new ConcurrentHashMap<>();
     }
 
@@ -46,6 +51,12 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
         return this.lastBeaconEvents.get(uniqueDeviceID);
     }
 
+    @Override
+    public long getLastDiscoveryTimestamp(String uniqueDeviceID) {
+        final Long timestamp = this.lastBeaconEventTimestamps.get(uniqueDeviceID);
+        return timestamp == null ? -1 : timestamp;
+    }
+
     @Override
     public void putDiscoveryEvent(BeaconMessage theirBeaconMessage, IBlaubotDevice remoteDevice) {
         // create event and put it to the store (no populating!)
@@ -69,6 +80,7 @@ public class BlaubotBeaconStore implements IBlaubotBeaconStore, IBlaubotDiscover
     public void onDeviceDiscoveryEvent(AbstractBlaubotDeviceDiscoveryEvent discoveryEvent) {
         final String uniqueDeviceID = discoveryEvent.getRemoteDevice().getUniqueDeviceID();
         this.lastBeaconEvents.put(uniqueDeviceID, discoveryEvent);
+        this.lastBeaconEventTimestamps.put(uniqueDeviceID, System.currentTimeMillis());
         putConnectionMetaData(uniqueDeviceID, discoveryEvent.getConnectionMetaData());
     }
 
@@ -117,7 +117,8 @@ public class ExchangeStatesTask implements Runnable {
                 Log.d(LOG_TAG, "Sending our state to " + connection.getRemoteDevice() + "'s beacon: " + ourStateMessage);
             }
 			try {
-				connection.write(ourStateMessage.toBytes());
+				// answer in the form we received, older peers only understand the legacy form
+				connection.write(ourStateMessage.toBytes(beaconMessage.isLegacyEncoded()));
 			} catch (IOException e) {
 				if(Log.logErrorMessages()) {
 					Log.e(LOG_TAG, "Failed to send our state to beacon of " + connection.getRemoteDevice(), e);
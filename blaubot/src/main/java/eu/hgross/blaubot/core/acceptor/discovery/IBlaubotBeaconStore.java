@@ -35,6 +35,15 @@ public interface IBlaubotBeaconStore {
      */
     public AbstractBlaubotDeviceDiscoveryEvent getLastDiscoveryEvent(String uniqueDeviceID);
 
+    /**
+     * Get the time at which the last discovery event for a given uniqueDeviceId was received.
+     * Beacons can use this to avoid probing devices whose state is already known.
+     *
+     * @param uniqueDeviceID the device id
+     * @return the timestamp (System.currentTimeMillis()) of the last event or -1, if no event received so far
+     */
+    public long getLastDiscoveryTimestamp(String uniqueDeviceID);
+
     /**
      * Adds a discovery event by beacon message to the store.
      *
@@ -1,8 +1,6 @@
 package eu.hgross.blaubot.core.statemachine;
 
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -33,6 +31,11 @@ import eu.hgross.blaubot.core.statemachine.states.FreeState;
 import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
 import eu.hgross.blaubot.core.statemachine.states.StoppedState;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.Counter;
+import eu.hgross.blaubot.metrics.IGauge;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
+import eu.hgross.blaubot.util.ITimeout;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -45,6 +48,26 @@ import eu.hgross.blaubot.util.Log;
  */
 public class ConnectionStateMachine {
 	private static final String LOG_TAG = "ConnectionStateMachine";
+	/**
+	 * Counter of the state changes
+	 */
+	public static final String METRIC_TRANSITIONS = "statemachine.transitions";
+	/**
+	 * Prefix of the counters of the changes to a state, followed by the State's name (i.e. statemachine.transitions.King)
+	 */
+	public static final String METRIC_TRANSITIONS_TO_PREFIX = METRIC_TRANSITIONS + ".";
+	/**
+	 * Prefix of the histograms of the time in ms spent in a state, followed by the State's name (i.e. statemachine.stateMillis.King)
+	 */
+	public static final String METRIC_STATE_DURATION_PREFIX = "statemachine.stateMillis.";
+	/**
+	 * Histogram of the time in ms the processing of an event took
+	 */
+	public static final String METRIC_EVENT_PROCESSING_DURATION = "statemachine.eventProcessingMillis";
+	/**
+	 * Gauge of the number of queued events
+	 */
+	public static final String METRIC_EVENT_QUEUE_SIZE = "statemachine.eventQueueSize";
 	protected final Blaubot blaubot;
 	private final List<IBlaubotConnectionStateMachineListener> connectionStateMachineListeners;
 	private final List<IBlaubotBeacon> beacons;
@@ -56,6 +79,13 @@ public class ConnectionStateMachine {
 	private final StateMachineSession stateMachineSession;
 	private StateMachineEventDispatcher stateMachineEventDispatcher;
 	protected IBlaubotState currentState;
+	/**
+	 * The time the current state was entered
+	 */
+	private long currentStateSince = System.currentTimeMillis();
+	private final BlaubotMetricsRegistry metricsRegistry;
+	private final Counter transitionsCounter;
+	private final LatencyHistogram eventProcessingHistogram;
 
     /**
      * Create the connection state machine for a blaubot instance.
@@ -71,6 +101,15 @@ public class ConnectionStateMachine {
 		this.blaubot = blaubot;
 		this.adapters = adapters;
 		this.stateMachineEventQueue = new LinkedBlockingQueue<AbstractBlaubotStateMachineEvent>();
+		this.metricsRegistry = blaubot.getMetricsRegistry();
+		this.transitionsCounter = metricsRegistry.counter(METRIC_TRANSITIONS);
+		this.eventProcessingHistogram = metricsRegistry.histogram(METRIC_EVENT_PROCESSING_DURATION);
+		this.metricsRegistry.registerGauge(METRIC_EVENT_QUEUE_SIZE, new IGauge() {
+			@Override
+			public long getValue() {
+				return stateMachineEventQueue.size();
+			}
+		});
 		this.beacons = beacons;
 		this.acceptors = BlaubotAdapterHelper.getConnectionAcceptors(adapters);
 		
@@ -171,6 +210,7 @@ public class ConnectionStateMachine {
 			sendStopped = true;
 		}
 		currentState = newState;
+		recordStateChange(oldState, newState);
 
         // let the beacons signal the new state, if not a StoppedState, which would make no sense at all
         // inform the beacon service
@@ -211,6 +251,25 @@ public class ConnectionStateMachine {
 		}
 	}
 	
+	/**
+	 * Maintains the state machine's metrics after a state change.
+	 *
+	 * @param oldState the left state
+	 * @param newState the entered state
+	 */
+	private void recordStateChange(IBlaubotState oldState, IBlaubotState newState) {
+		final long now = System.currentTimeMillis();
+		metricsRegistry.histogram(METRIC_STATE_DURATION_PREFIX + stateName(oldState)).record(now - currentStateSince);
+		metricsRegistry.counter(METRIC_TRANSITIONS_TO_PREFIX + stateName(newState)).increment();
+		transitionsCounter.increment();
+		currentStateSince = now;
+	}
+
+	private static String stateName(IBlaubotState state) {
+		final State s = State.getStateByStatemachineClass(state.getClass());
+		return s != null ? s.name() : state.getClass().getSimpleName();
+	}
+
 	/**
 	 * @param currentState
 	 * @param nextState
@@ -312,7 +371,7 @@ public class ConnectionStateMachine {
 		 * an exception will be thrown.
 		 */
 		private static final int MAX_EVENT_PROCESSING_TIME = 60000; // ms
-		private Timer processingTimeoutTimer;
+		private ITimeout processingTimeout;
 
 		public StateMachineEventDispatcher() {
 			setName("csm-event-dispatcher");
@@ -327,8 +386,7 @@ public class ConnectionStateMachine {
          * @param event the event that took too long to be processed
 		 */
 		private void startTimer(final AbstractBlaubotStateMachineEvent event) {
-			processingTimeoutTimer = new Timer();
-			final TimerTask timerTask = new TimerTask() {
+			final Runnable timerTask = new Runnable() {
 				@Override
 				public void run() {
                     final String message = " [curState: " + currentState + "] The processing of " + event + " took longer than " + MAX_EVENT_PROCESSING_TIME + " ms";
@@ -338,16 +396,16 @@ public class ConnectionStateMachine {
 //                    throw new RuntimeException(new TimeoutException(message));
 				}
 			};
-			processingTimeoutTimer.schedule(timerTask, MAX_EVENT_PROCESSING_TIME);
+			processingTimeout = blaubot.getTimerService().schedule(timerTask, MAX_EVENT_PROCESSING_TIME);
 		}
 
 		/**
 		 * cancels the timer
 		 */
 		private void cancelTimer() {
-			if (processingTimeoutTimer != null) {
-				processingTimeoutTimer.cancel();
-				processingTimeoutTimer = null;
+			if (processingTimeout != null) {
+				processingTimeout.cancel();
+				processingTimeout = null;
 			}
 		}
 
@@ -396,8 +454,10 @@ public class ConnectionStateMachine {
                     // stop timeout timer
                     cancelTimer();
                     
+                    final long processingTime = System.currentTimeMillis() - startTime;
+                    eventProcessingHistogram.record(processingTime);
                     if(Log.logDebugMessages()) {
-                        Log.d(LOG_TAG, "Event processing took " + (System.currentTimeMillis() - startTime) + " ms");
+                        Log.d(LOG_TAG, "Event processing took " + processingTime + " ms");
                     }
 				} catch (InterruptedException e) {
 					break;
@@ -16,10 +16,12 @@ import eu.hgross.blaubot.core.statemachine.states.FreeState;
 import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
 import eu.hgross.blaubot.core.statemachine.states.StoppedState;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.admin.PronouncePrinceAdminMessage;
 import eu.hgross.blaubot.messaging.BlaubotChannelManager;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
+import eu.hgross.blaubot.util.ITimerService;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -36,7 +38,7 @@ public class StateMachineSession {
 	private final BlaubotBeaconService beaconService;
     private final IBlaubotDevice ownDevice;
 
-    private CensusMessage lastCensusMessage;
+    private volatile CensusMessage lastCensusMessage;
 	private PronouncePrinceAdminMessage lastPronouncePrinceAdminMessage;
     private ServerConnectionManager serverConnectionManager;
 
@@ -54,7 +56,18 @@ public class StateMachineSession {
                     if (Log.logDebugMessages()) {
                         Log.d(LOG_TAG, "Got a CencusMessage containing " + ((CensusMessage) adminMessage).getDeviceStates().size() + " devices.");
                     }
-                    lastCensusMessage = (CensusMessage) adminMessage;
+                    final CensusMessage census = (CensusMessage) adminMessage;
+                    final CensusMessage last = lastCensusMessage;
+                    if (last == null || !census.isOlderThan(last)) {
+                        lastCensusMessage = census;
+                    }
+                } else if (adminMessage instanceof CensusDeltaMessage) {
+                    // a missing delta is re-requested by the LifeCycleEventDispatcher, the full census will follow
+                    final CensusMessage last = lastCensusMessage;
+                    final CensusMessage updated = last == null ? null : last.applyDelta((CensusDeltaMessage) adminMessage);
+                    if (updated != null) {
+                        lastCensusMessage = updated;
+                    }
                 } else if (adminMessage instanceof PronouncePrinceAdminMessage) {
                     lastPronouncePrinceAdminMessage = (PronouncePrinceAdminMessage) adminMessage;
                 }
@@ -104,6 +117,13 @@ public class StateMachineSession {
         return channelManager;
     }
 
+    /**
+     * @return the blaubot instance's timer service for the states' timeouts
+     */
+    public ITimerService getTimerService() {
+        return connectionStateMachine.blaubot.getTimerService();
+    }
+
     public BlaubotConnectionManager getConnectionManager() {
 		return connectionManager;
 	}
@@ -5,8 +5,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Random;
 
 import eu.hgross.blaubot.core.BlaubotConnectionManager;
 import eu.hgross.blaubot.core.BlaubotKingdomConnection;
@@ -28,9 +28,12 @@ import eu.hgross.blaubot.core.statemachine.states.PeasantState.ConnectionAccompl
 import eu.hgross.blaubot.admin.ACKPronouncePrinceAdminMessage;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
 import eu.hgross.blaubot.admin.BowDownToNewKingAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
+import eu.hgross.blaubot.admin.CensusResyncRequestAdminMessage;
 import eu.hgross.blaubot.admin.PronouncePrinceAdminMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.util.ITimeout;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -40,7 +43,7 @@ import eu.hgross.blaubot.util.Log;
  */
 public class KingState implements IBlaubotState {
 	private static final String LOG_TAG = "KingState";
-	private Timer noConnectionsTimer;
+	private ITimeout noConnectionsTimeout;
 	private boolean connectingToAnotherKing = false; // TODO: i think this is
 														// now usesless ->
 														// validate
@@ -49,6 +52,15 @@ public class KingState implements IBlaubotState {
 	private String currentPrinceUniqueId = null;
 	private PrinceWatcher princeWatcher;
 
+	/**
+	 * The census session of this king: a random id, the epoch of the last sent census and the
+	 * device states of the last sent census.
+	 */
+	private final int censusSessionId = new Random().nextInt(Integer.MAX_VALUE - 1) + 1;
+	private int censusEpoch = 0;
+	private Map<String, State> lastCensusStates;
+	private final Object censusLock = new Object();
+
 	/**
 	 * This listener will be called whenever we get a {@link IBlaubotConnection}
 	 * in THIS {@link KingState}.
@@ -72,7 +84,7 @@ public class KingState implements IBlaubotState {
 	class PrinceWatcher {
 		private static final String LOG_TAG = "PrinceWatcher";
 		private PronouncePrinceAdminMessage lastPronouncedPrinceMessage;
-		private Timer currentTimer;
+		private volatile ITimeout currentTimeout;
 
 		/**
 		 * needs to be called if an {@link ACKPronouncePrinceAdminMessage}
@@ -96,9 +108,9 @@ public class KingState implements IBlaubotState {
 			if (Log.logDebugMessages()) {
 				Log.d(LOG_TAG, "Prince ACK is valid - intalling prince and sending CensusMessage.");
 			}
-			if (currentTimer != null) {
-				currentTimer.cancel();
-				currentTimer = null;
+			if (currentTimeout != null) {
+				currentTimeout.cancel();
+				currentTimeout = null;
 			}
 			currentPrinceUniqueId = ackMessage.getUniqueDeviceId();
 			sendCencusMessage();
@@ -118,16 +130,18 @@ public class KingState implements IBlaubotState {
 		 */
 		synchronized void onPronouncedMessageSent(final PronouncePrinceAdminMessage pronounceMessage, final int ack_timeout) {
 			this.lastPronouncedPrinceMessage = pronounceMessage;
-			final Timer t = new Timer();
-			TimerTask task = new TimerTask() {
+			if (currentTimeout != null) {
+				currentTimeout.cancel();
+			}
+			Runnable task = new Runnable() {
 				@Override
 				public void run() {
 					// if another prince was pronounced in the meantime, we do
 					// nothing
 					if (lastPronouncedPrinceMessage != pronounceMessage)
 						return;
-					// if the timer got canceled do nothing
-					if (currentTimer != t)
+					// if the timeout got canceled by an ACK do nothing
+					if (currentTimeout == null)
 						return;
 					if (Log.logWarningMessages()) {
 						Log.w(LOG_TAG, "Got no ACK from desired prince " + pronounceMessage.getUniqueDeviceId() + " for " + ack_timeout + " ms. Pushing TimeoutEvent to Queue.");
@@ -137,8 +151,7 @@ public class KingState implements IBlaubotState {
 					session.getConnectionStateMachine().pushStateMachineEvent(ev);
 				}
 			};
-			t.schedule(task, ack_timeout);
-			this.currentTimer = t;
+			this.currentTimeout = session.getTimerService().schedule(task, ack_timeout);
 		}
 
 		/**
@@ -163,6 +176,8 @@ public class KingState implements IBlaubotState {
 
 	/**
 	 * Builds and sends the cencus message to all connected devices.
+	 * The full census is only broadcasted once per session, afterwards the joined devices get the
+	 * full census and all devices get the changes as CensusDeltaMessage.
 	 */
 	private void sendCencusMessage() {
 		if (Log.logDebugMessages()) {
@@ -183,12 +198,53 @@ public class KingState implements IBlaubotState {
 			connectedDevicesStates.put(uniqueDeviceID, state);
 		}
 
-		// create and send the message
-		final CensusMessage censusMessage = new CensusMessage(connectedDevicesStates);
-		if (Log.logDebugMessages()) {
-			Log.d(LOG_TAG, "CensusMessage: " + censusMessage);
+		synchronized (censusLock) {
+			if (lastCensusStates == null) {
+				// create and send the message
+				final CensusMessage censusMessage = new CensusMessage(connectedDevicesStates, censusSessionId, censusEpoch + 1);
+				if (Log.logDebugMessages()) {
+					Log.d(LOG_TAG, "CensusMessage: " + censusMessage);
+				}
+				if (session.getChannelManager().broadcastAdminMessage(censusMessage.toBlaubotMessage()) <= 0) {
+					// the channel manager is not yet in master mode (handleState() is called before), the next call sends the full census again
+					return;
+				}
+				censusEpoch += 1;
+			} else {
+				final CensusDeltaMessage deltaMessage = CensusDeltaMessage.diff(censusSessionId, censusEpoch + 1, lastCensusStates, connectedDevicesStates);
+				if (deltaMessage.isEmpty()) {
+					return;
+				}
+				censusEpoch += 1;
+				if (Log.logDebugMessages()) {
+					Log.d(LOG_TAG, "CensusDeltaMessage: " + deltaMessage);
+				}
+				// the joined devices get the full census first
+				if (!deltaMessage.getJoinedDevices().isEmpty()) {
+					final BlaubotMessage censusMessage = new CensusMessage(connectedDevicesStates, censusSessionId, censusEpoch).toBlaubotMessage();
+					for (String uniqueDeviceId : deltaMessage.getJoinedDevices().keySet()) {
+						session.getChannelManager().publishToSingleDevice(censusMessage, uniqueDeviceId);
+					}
+				}
+				session.getChannelManager().broadcastAdminMessage(deltaMessage.toBlaubotMessage());
+			}
+			lastCensusStates = connectedDevicesStates;
+		}
+	}
+
+	/**
+	 * Sends the last census to a device, that missed a census delta.
+	 *
+	 * @param uniqueDeviceId the device's unique id
+	 */
+	private void sendCensusResync(String uniqueDeviceId) {
+		synchronized (censusLock) {
+			if (lastCensusStates == null) {
+				return;
+			}
+			final CensusMessage censusMessage = new CensusMessage(lastCensusStates, censusSessionId, censusEpoch);
+			session.getChannelManager().publishToSingleDevice(censusMessage.toBlaubotMessage(), uniqueDeviceId);
 		}
-		session.getChannelManager().broadcastAdminMessage(censusMessage.toBlaubotMessage());
 	}
 
 	/**
@@ -256,12 +312,16 @@ public class KingState implements IBlaubotState {
 
 	@Override
 	public IBlaubotState onConnectionEstablished(IBlaubotConnection connection) {
-		this.noConnectionsTimer.cancel();
-		pronouncePrince();
+		synchronized (timerTaskMonitor) {
+			if (this.noConnectionsTimeout != null)
+				this.noConnectionsTimeout.cancel();
+		}
+		// the channel manager has to know the connection before the census is sent to the new peasant
 		synchronized (listenerLock) {
 			if (this.peasantConnectionsListener != null)
 				this.peasantConnectionsListener.onConnectionEstablished(connection);
 		}
+		pronouncePrince();
 		return this;
 	}
 
@@ -307,7 +367,7 @@ public class KingState implements IBlaubotState {
 		// use multiple adapters in the future
 		ConnectionStateMachineConfig config = session.getAdapters().get(0).getConnectionStateMachineConfig();
 		final int TIMEOUT_INTERVAL = config.getKingWithoutPeasantsTimeout();
-		TimerTask task = new TimerTask() {
+		Runnable task = new Runnable() {
 			@Override
 			public void run() {
                 if (session.getConnectionStateMachine().getCurrentState() != KingState.this) {
@@ -332,10 +392,9 @@ public class KingState implements IBlaubotState {
         };
 		// start new timer
 		synchronized (timerTaskMonitor) {
-			if (this.noConnectionsTimer != null)
-				this.noConnectionsTimer.cancel();
-			this.noConnectionsTimer = new Timer();
-			this.noConnectionsTimer.schedule(task, TIMEOUT_INTERVAL);
+			if (this.noConnectionsTimeout != null)
+				this.noConnectionsTimeout.cancel();
+			this.noConnectionsTimeout = session.getTimerService().schedule(task, TIMEOUT_INTERVAL);
 		}
 	}
 
@@ -513,6 +572,8 @@ public class KingState implements IBlaubotState {
 
         if (adminMessage instanceof ACKPronouncePrinceAdminMessage) {
 			this.princeWatcher.onAck((ACKPronouncePrinceAdminMessage) adminMessage);
+		} else if (adminMessage instanceof CensusResyncRequestAdminMessage) {
+			sendCensusResync(((CensusResyncRequestAdminMessage) adminMessage).getUniqueDeviceId());
 		}
 		return this;
 	}
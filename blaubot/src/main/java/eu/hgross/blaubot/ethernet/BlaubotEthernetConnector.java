@@ -101,18 +101,13 @@ public class BlaubotEthernetConnector implements IBlaubotConnector {
 
 
         // connect - other side is EthernetAcceptor, see there
-        Socket remoteSocket = null;
+        IBlaubotConnection connection = null;
         final int connectionTimeout = adapter.getBlaubotAdapterConfig().getConnectionTimeout();
         long start = System.currentTimeMillis();
         try {
             try {
                 InetAddress remoteAddress = InetAddress.getByName(ipAddress);
-                remoteSocket = new Socket();
-                remoteSocket.connect(new InetSocketAddress(remoteAddress, remoteAcceptorPort), connectionTimeout);
-
-                BlaubotEthernetUtils.sendOwnUniqueIdThroughSocket(ownDevice, remoteSocket);
-
-                BlaubotEthernetConnection connection = new BlaubotEthernetConnection(blaubotDevice, remoteSocket);
+                connection = openConnection(blaubotDevice, new InetSocketAddress(remoteAddress, remoteAcceptorPort), connectionTimeout);
 
                 // send our message
                 final BeaconMessage currentBeaconMessage = adapter.getBlaubot().getConnectionStateMachine().getBeaconService().getCurrentBeaconMessage();
@@ -141,11 +136,8 @@ public class BlaubotEthernetConnector implements IBlaubotConnector {
             if(Log.logWarningMessages()) {
                 Log.w(LOG_TAG, "Could not connect or write to " + ipAddress + ":" + remoteAcceptorPort + " (" + e.getMessage() + ")");
             }
-            if(remoteSocket != null) {
-                try {
-                    remoteSocket.close();
-                } catch (IOException e1) {
-                }
+            if(connection != null) {
+                connection.disconnect();
             }
         }
         if(Log.logWarningMessages()) {
@@ -155,6 +147,30 @@ public class BlaubotEthernetConnector implements IBlaubotConnector {
         return null;
     }
 
+    /**
+     * Connects a socket to the remote acceptor, sends our unique device id and creates the connection object.
+     *
+     * @param blaubotDevice     the remote device
+     * @param address           the remote acceptor's address
+     * @param connectionTimeout the connect timeout in ms
+     * @return the connection
+     * @throws IOException if the connect or the unique id transmission failed (the socket is closed then)
+     */
+    protected IBlaubotConnection openConnection(IBlaubotDevice blaubotDevice, InetSocketAddress address, int connectionTimeout) throws IOException {
+        final Socket remoteSocket = new Socket();
+        try {
+            remoteSocket.connect(address, connectionTimeout);
+            BlaubotEthernetUtils.sendOwnUniqueIdThroughSocket(ownDevice, remoteSocket);
+        } catch (IOException e) {
+            try {
+                remoteSocket.close();
+            } catch (IOException e1) {
+            }
+            throw e;
+        }
+        return new BlaubotEthernetConnection(blaubotDevice, remoteSocket);
+    }
+
     @Override
     public List<String> getSupportedAcceptorTypes() {
         return SUPPORTED_ACCEPTOR_TYPES;
@@ -13,9 +13,23 @@ import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.hgross.blaubot.core.Blaubot;
 import eu.hgross.blaubot.core.BlaubotConstants;
@@ -67,6 +81,10 @@ public class BlaubotEthernetMulticastBeacon implements IBlaubotBeacon, IEthernet
 	 * PROBE-INTERVAL if not in FreeState
 	 */
 	private static final long BEACON_PROBE_INTERVAL_DECENT = 5000;
+	/**
+	 * Max probe interval for devices whose beacon failed repeatedly (the interval doubles with each failure)
+	 */
+	static final long BEACON_PROBE_MAX_BACKOFF = 60000;
 
     /**
      * The alive interval for the TimeoutList of known active devices.
@@ -293,11 +311,11 @@ public class BlaubotEthernetMulticastBeacon implements IBlaubotBeacon, IEthernet
     /**
      * Used to store some beacon related data for the discoverer and scanner.
      */
-    private class MulticastBeaconBlaubotDevice extends BlaubotDevice {
+    class MulticastBeaconBlaubotDevice extends BlaubotDevice {
         private final InetAddress inetAddress;
         private final int beaconPort;
 
-        private MulticastBeaconBlaubotDevice(String uniqueId, InetAddress inetAddress, int beaconPort) {
+        MulticastBeaconBlaubotDevice(String uniqueId, InetAddress inetAddress, int beaconPort) {
             super(uniqueId);
             this.inetAddress = inetAddress;
             this.beaconPort = beaconPort;
@@ -483,68 +501,190 @@ public class BlaubotEthernetMulticastBeacon implements IBlaubotBeacon, IEthernet
 	/**
 	 * Periodically checks the beacon of all devices known as alive (except devices connected to our network) (added to the {@link TimeoutList})
 	 * 
+	 * The probes are executed concurrently (up to BEACON_PROBE_PARALLELISM at a time), each bounded by a connect and
+	 * read timeout, so an unresponsive host does not delay the discovery of the others.
+	 * Hosts are probed again after the probe interval, failing hosts with an exponential backoff. Hosts for which the
+	 * beacon store received a discovery event within the probe interval (i.e. they probed us) are skipped.
+	 * 
 	 * @author Henning Gross {@literal (mail.to@henning-gross.de)}
 	 *
 	 */
 	class EthernetBeaconScanner extends Thread {
-		private static final int BEACON_SCANNER_CONNECT_TIMEOUT = 10000;
+		static final int BEACON_PROBE_PARALLELISM = 8;
+		private static final int BEACON_PROBE_CONNECT_TIMEOUT = 2000;
+		private static final int BEACON_PROBE_READ_TIMEOUT = 3000;
+		/**
+		 * The interval in which the scanner checks for due probes
+		 */
+		private static final long SCAN_INTERVAL = 100;
 		private String LOG_TAG = "EthernetBeaconScanner";
+		/**
+		 * Probe bookkeeping by unique device id. Only modified by the scanner thread, except for the
+		 * ProbeState's fields which are set by the probing threads.
+		 */
+		private final Map<String, ProbeState> probeStates = new HashMap<>();
+		private final AtomicInteger runningProbes = new AtomicInteger();
+		private final ExecutorService probeExecutor;
+
+		EthernetBeaconScanner() {
+			setName("ethernet-beacon-scanner");
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(BEACON_PROBE_PARALLELISM, BEACON_PROBE_PARALLELISM, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "ethernet-beacon-prober-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			this.probeExecutor = executor;
+		}
 
-		private List<IBlaubotDevice> getAliveDevices() {
+		List<IBlaubotDevice> getAliveDevices() {
 			ArrayList<IBlaubotDevice> devices = new ArrayList<IBlaubotDevice>(knownActiveDevices.getItems());
 			// do not check the devices connected to the blaubot network
             devices.removeAll(kingdomCensusLifecycleListener.getDevices());
-			// note: we do not sort the collection since ethernet connection creation is beaming fast.
             return devices;
 		}
+
+		/**
+		 * @return the interval after which a successfully probed device is probed again
+		 */
+		private long getProbeInterval() {
+			// if we are not in free state, be a little more decent with the interval
+			return currentState != null && !(currentState instanceof FreeState) ? BEACON_PROBE_INTERVAL_DECENT : BEACON_PROBE_INTERVAL_AGGRESSIVE;
+		}
 		
 		@Override
 		public void run() {
-			boolean exit = false;
-			while(!isInterrupted() && Thread.currentThread() == beaconScanner && !exit) {
-				if (isDiscoveryDisabled()) {
-                    // Discovery is not active - not connecting to discovered beacon.
+			try {
+				while (!isInterrupted() && Thread.currentThread() == beaconScanner) {
+					if (!isDiscoveryDisabled()) {
+						startDueProbes();
+					}
 					try {
-						Thread.sleep(200);
+						Thread.sleep(SCAN_INTERVAL);
 					} catch (InterruptedException e) {
-						exit = true;
+						break;
 					}
-					// we don't want to connect if discovery is deactivated.
+				}
+			} finally {
+				probeExecutor.shutdownNow();
+			}
+		}
+
+		/**
+		 * Starts the probes of all alive devices that are due, most overdue first, as long as
+		 * the parallelism limit allows.
+		 */
+		void startDueProbes() {
+			final long now = System.currentTimeMillis();
+			final long probeInterval = getProbeInterval();
+			final List<IBlaubotDevice> aliveDevices = getAliveDevices();
+
+			// forget devices that are no longer alive
+			final Set<String> aliveIds = new HashSet<>();
+			for (IBlaubotDevice device : aliveDevices) {
+				aliveIds.add(device.getUniqueDeviceID());
+			}
+			final Iterator<Map.Entry<String, ProbeState>> it = probeStates.entrySet().iterator();
+			while (it.hasNext()) {
+				final ProbeState probeState = it.next().getValue();
+				if (!probeState.running && !aliveIds.contains(probeState.device.getUniqueDeviceID())) {
+					it.remove();
+				}
+			}
+
+			final List<ProbeState> dueProbes = new ArrayList<>();
+			for (IBlaubotDevice d : aliveDevices) {
+				final MulticastBeaconBlaubotDevice device = (MulticastBeaconBlaubotDevice) d;
+				ProbeState probeState = probeStates.get(device.getUniqueDeviceID());
+				if (probeState == null) {
+					probeState = new ProbeState(device);
+					probeStates.put(device.getUniqueDeviceID(), probeState);
+				}
+				// the address may have changed since the last broadcast
+				probeState.device = device;
+				if (probeState.running) {
 					continue;
 				}
-				for(IBlaubotDevice d : getAliveDevices()) {
-                    if (isDiscoveryDisabled()) {
-                        break;
-                    }
-                    MulticastBeaconBlaubotDevice device = (MulticastBeaconBlaubotDevice) d;
-                    InetAddress remoteDeviceAddr = device.getInetAddress();
-                    int remoteBeaconPort = device.getBeaconPort();
-                    // -- we know that remoteDeviceAddr had a running beacon in the recent past as it is in the knownActiveDevices TimeoutList
-                    // try to connect, then exchange states via tcp/ip
-                    Socket clientSocket;
-                    try {
-                        clientSocket = new Socket();
-                        clientSocket.connect(new InetSocketAddress(remoteDeviceAddr, remoteBeaconPort), BEACON_SCANNER_CONNECT_TIMEOUT);
-                        BlaubotEthernetUtils.sendOwnUniqueIdThroughSocket(ownDevice, clientSocket);
-                        BlaubotEthernetConnection connection = new BlaubotEthernetConnection(device, clientSocket);
-                        final List<ConnectionMetaDataDTO> ownAcceptorsMetaDataList = BlaubotAdapterHelper.getConnectionMetaDataList(BlaubotAdapterHelper.getConnectionAcceptors(blaubot.getAdapters()));
-                        ExchangeStatesTask exchangeStatesTask = new ExchangeStatesTask(ownDevice, connection, currentState, ownAcceptorsMetaDataList, beaconStore, discoveryEventListener);
-                        exchangeStatesTask.run();
-                    } catch (IOException e) {
-                        if (Log.logWarningMessages()) {
-                            Log.w(LOG_TAG, "Connection to " + device + "'s beacon (" + remoteDeviceAddr + ":" + remoteBeaconPort + ") failed: " + e.getMessage());
-                        }
-                    }
-                    try {
-                        // if we are in free state, be a little more decent with the interval
-                        final long sleepTime = currentState != null && !(currentState instanceof FreeState) ? BEACON_PROBE_INTERVAL_DECENT : BEACON_PROBE_INTERVAL_AGGRESSIVE;
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e) {
-                        exit = true;
-                        break;
-                    }
-                }
-            }
+				// the beacon store may know the device's state already (i.e. the device probed us)
+				final long lastDiscovery = beaconStore != null ? beaconStore.getLastDiscoveryTimestamp(device.getUniqueDeviceID()) : -1;
+				final long dueTime = Math.max(probeState.getNextProbeTime(probeInterval), lastDiscovery >= 0 ? lastDiscovery + probeInterval : 0);
+				if (dueTime <= now) {
+					probeState.dueTime = dueTime;
+					dueProbes.add(probeState);
+				}
+			}
+			Collections.sort(dueProbes, new Comparator<ProbeState>() {
+				@Override
+				public int compare(ProbeState o1, ProbeState o2) {
+					return o1.dueTime < o2.dueTime ? -1 : (o1.dueTime == o2.dueTime ? 0 : 1);
+				}
+			});
+
+			for (final ProbeState probeState : dueProbes) {
+				if (runningProbes.get() >= BEACON_PROBE_PARALLELISM) {
+					break;
+				}
+				probeState.running = true;
+				runningProbes.incrementAndGet();
+				try {
+					probeExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								final boolean success = probe(probeState.device);
+								probeState.onProbeFinished(success, System.currentTimeMillis());
+							} finally {
+								runningProbes.decrementAndGet();
+								probeState.running = false;
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// shutting down
+					runningProbes.decrementAndGet();
+					probeState.running = false;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Connects to the device's beacon and exchanges the states.
+		 *
+		 * @param device the device to probe
+		 * @return true, iff the connection to the beacon could be established
+		 */
+		boolean probe(MulticastBeaconBlaubotDevice device) {
+			InetAddress remoteDeviceAddr = device.getInetAddress();
+			int remoteBeaconPort = device.getBeaconPort();
+			// -- we know that remoteDeviceAddr had a running beacon in the recent past as it is in the knownActiveDevices TimeoutList
+			// try to connect, then exchange states via tcp/ip
+			Socket clientSocket = new Socket();
+			try {
+				clientSocket.connect(new InetSocketAddress(remoteDeviceAddr, remoteBeaconPort), BEACON_PROBE_CONNECT_TIMEOUT);
+				clientSocket.setSoTimeout(BEACON_PROBE_READ_TIMEOUT);
+				BlaubotEthernetUtils.sendOwnUniqueIdThroughSocket(ownDevice, clientSocket);
+				BlaubotEthernetConnection connection = new BlaubotEthernetConnection(device, clientSocket);
+				final List<ConnectionMetaDataDTO> ownAcceptorsMetaDataList = BlaubotAdapterHelper.getConnectionMetaDataList(BlaubotAdapterHelper.getConnectionAcceptors(blaubot.getAdapters()));
+				ExchangeStatesTask exchangeStatesTask = new ExchangeStatesTask(ownDevice, connection, currentState, ownAcceptorsMetaDataList, beaconStore, discoveryEventListener);
+				exchangeStatesTask.run();
+				return true;
+			} catch (IOException e) {
+				if (Log.logWarningMessages()) {
+					Log.w(LOG_TAG, "Connection to " + device + "'s beacon (" + remoteDeviceAddr + ":" + remoteBeaconPort + ") failed: " + e.getMessage());
+				}
+				try {
+					clientSocket.close();
+				} catch (IOException e1) {
+					// ignore
+				}
+				return false;
+			}
 		}
 
 		/**
@@ -554,6 +694,41 @@ public class BlaubotEthernetMulticastBeacon implements IBlaubotBeacon, IEthernet
 			return !discoveryActive;
 		}
 	}
+
+	/**
+	 * The probe bookkeeping for one device.
+	 */
+	static class ProbeState {
+		private volatile MulticastBeaconBlaubotDevice device;
+		private volatile boolean running = false;
+		private volatile long lastProbeTime = -1;
+		private volatile int failures = 0;
+		private long dueTime;
+
+		ProbeState(MulticastBeaconBlaubotDevice device) {
+			this.device = device;
+		}
+
+		void onProbeFinished(boolean success, long time) {
+			this.failures = success ? 0 : failures + 1;
+			this.lastProbeTime = time;
+		}
+
+		/**
+		 * @param probeInterval the interval between two successful probes
+		 * @return the time at which the device should be probed next
+		 */
+		long getNextProbeTime(long probeInterval) {
+			if (lastProbeTime < 0) {
+				return 0;
+			}
+			long delay = probeInterval;
+			for (int i = 0; i < failures && delay < BEACON_PROBE_MAX_BACKOFF; i++) {
+				delay *= 2;
+			}
+			return lastProbeTime + Math.min(delay, BEACON_PROBE_MAX_BACKOFF);
+		}
+	}
 	
 
     @Override
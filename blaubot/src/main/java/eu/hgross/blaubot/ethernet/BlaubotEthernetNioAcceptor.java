@@ -0,0 +1,241 @@
+package eu.hgross.blaubot.ethernet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotListeningStateListener;
+import eu.hgross.blaubot.core.acceptor.UniqueDeviceIdHelper;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Non-blocking acceptor for ethernet.
+ *
+ * The server socket is served by a selector thread of a BlaubotEthernetSelectorPool instead of
+ * an own accept thread. The short handshake of each accepted connection (unique device id and
+ * beacon message) is done on a cached handshake thread, afterwards the connection is handed to
+ * the incoming connection listener as BlaubotEthernetNioConnection.
+ *
+ * Accepts connections from BlaubotEthernetConnectors as well as BlaubotEthernetNioConnectors.
+ */
+public class BlaubotEthernetNioAcceptor implements IBlaubotConnectionAcceptor {
+    private static final String LOG_TAG = "BlaubotEthernetNioAcceptor";
+    private final IBlaubotDevice ownDevice;
+    private final int acceptorPort;
+    private final IBlaubotAdapter adapter;
+    private final InetAddress ipAddress;
+    private final BlaubotEthernetSelectorPool selectorPool;
+    private final ExecutorService handshakeExecutor;
+    private volatile ServerSocketChannel serverSocketChannel;
+    private volatile IBlaubotListeningStateListener listeningStateListener;
+    private volatile IBlaubotIncomingConnectionListener incomingConnectionListener;
+    private final Object startStopMonitor;
+    private IBlaubotBeaconStore beaconStore;
+
+    public BlaubotEthernetNioAcceptor(IBlaubotAdapter adapter, IBlaubotDevice ownDevice, InetAddress ipAddress, int acceptorPort, BlaubotEthernetSelectorPool selectorPool) {
+        this.adapter = adapter;
+        this.ownDevice = ownDevice;
+        this.ipAddress = ipAddress;
+        this.acceptorPort = acceptorPort;
+        this.selectorPool = selectorPool;
+        this.handshakeExecutor = Executors.newCachedThreadPool();
+        this.startStopMonitor = new Object();
+    }
+
+    @Override
+    public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+        this.beaconStore = beaconStore;
+    }
+
+    @Override
+    public IBlaubotAdapter getAdapter() {
+        return adapter;
+    }
+
+    @Override
+    public void startListening() {
+        synchronized (startStopMonitor) {
+            if (serverSocketChannel != null) {
+                // close and create new
+                closeServerSocketChannel();
+            }
+            try {
+                final ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.socket().setReuseAddress(true);
+                channel.socket().bind(new InetSocketAddress(acceptorPort));
+                channel.configureBlocking(false);
+                this.serverSocketChannel = channel;
+                selectorPool.nextSelectorLoop().register(channel, SelectionKey.OP_ACCEPT, new AcceptHandler(channel), null);
+            } catch (IOException e) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "Could not bind server socket (" + e.getMessage() + ")", e);
+                }
+                closeServerSocketChannel();
+                notify_listening_stopped();
+                return;
+            }
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Listening for incoming connections on port " + acceptorPort);
+            }
+            notify_listening_started();
+        }
+    }
+
+    @Override
+    public void stopListening() {
+        synchronized (startStopMonitor) {
+            if (serverSocketChannel == null) {
+                return;
+            }
+            closeServerSocketChannel();
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Stopped listening for incoming connections.");
+            }
+            notify_listening_stopped();
+        }
+    }
+
+    /**
+     * Closes the server socket channel, which also cancels its selection key.
+     */
+    private void closeServerSocketChannel() {
+        final ServerSocketChannel channel = serverSocketChannel;
+        serverSocketChannel = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing interesting
+            }
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        synchronized (startStopMonitor) {
+            return serverSocketChannel != null;
+        }
+    }
+
+    @Override
+    public void setListeningStateListener(IBlaubotListeningStateListener stateListener) {
+        this.listeningStateListener = stateListener;
+    }
+
+    @Override
+    public void setAcceptorListener(IBlaubotIncomingConnectionListener acceptorListener) {
+        this.incomingConnectionListener = acceptorListener;
+    }
+
+    @Override
+    public ConnectionMetaDataDTO getConnectionMetaData() {
+        String ipStr = ipAddress.getHostAddress();
+        final ConnectionMetaDataDTO connectionMetaDataDTO = new EthernetConnectionMetaDataDTO(ipStr, acceptorPort);
+        return connectionMetaDataDTO;
+    }
+
+    /**
+     * Accepts the incoming connections on the selector thread.
+     */
+    private class AcceptHandler implements BlaubotEthernetSelectorPool.ISelectionHandler {
+        private final ServerSocketChannel channel;
+
+        private AcceptHandler(ServerSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) throws IOException {
+            SocketChannel socketChannel;
+            while ((socketChannel = channel.accept()) != null) {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Got new client connection from " + socketChannel.socket().getInetAddress());
+                }
+                handshakeExecutor.execute(new HandshakeTask(socketChannel));
+            }
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            if (serverSocketChannel == channel) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "Accept failed (" + e.getMessage() + ")", e);
+                }
+                stopListening();
+            }
+        }
+    }
+
+    /**
+     * Receives the unique device id and beacon message from the connector and notifies the
+     * incoming connection listener.
+     */
+    private class HandshakeTask implements Runnable {
+        private final SocketChannel socketChannel;
+
+        private HandshakeTask(SocketChannel socketChannel) {
+            this.socketChannel = socketChannel;
+        }
+
+        @Override
+        public void run() {
+            final int connectionTimeout = adapter.getBlaubotAdapterConfig().getConnectionTimeout();
+            final String uniqueDeviceId;
+            try {
+                // we await the connector to send us it's unique id (see BlaubotEthernetUtils.sendOwnUniqueIdThroughSocket())
+                socketChannel.socket().setSoTimeout(connectionTimeout);
+                uniqueDeviceId = UniqueDeviceIdHelper.readUniqueDeviceId(new DataInputStream(socketChannel.socket().getInputStream()));
+                socketChannel.configureBlocking(false);
+            } catch (IOException e) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Failed to read unique id from incoming connection (" + e.getMessage() + "). Closing connection.");
+                }
+                try {
+                    socketChannel.close();
+                } catch (IOException e1) {
+                    // ignore
+                }
+                return;
+            }
+
+            final BlaubotEthernetNioConnection connection = new BlaubotEthernetNioConnection(new BlaubotDevice(uniqueDeviceId), socketChannel, selectorPool, connectionTimeout);
+
+            // retrieve their beacon message with their state and most importantly their acceptor meta data
+            final BeaconMessage theirBeaconMessage = BeaconMessage.fromBlaubotConnection(connection);
+            if (theirBeaconMessage == null) {
+                // the connection was closed already
+                return;
+            }
+            beaconStore.putDiscoveryEvent(theirBeaconMessage, connection.getRemoteDevice());
+
+            if (incomingConnectionListener != null) {
+                incomingConnectionListener.onConnectionEstablished(connection);
+            }
+        }
+    }
+
+    private void notify_listening_stopped() {
+        if (listeningStateListener != null)
+            listeningStateListener.onListeningStopped(this);
+    }
+
+    private void notify_listening_started() {
+        if (listeningStateListener != null)
+            listeningStateListener.onListeningStarted(this);
+    }
+
+}
@@ -0,0 +1,117 @@
+package eu.hgross.blaubot.ethernet;
+
+import java.net.InetAddress;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotAdapterConfig;
+import eu.hgross.blaubot.core.ConnectionStateMachineConfig;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
+import eu.hgross.blaubot.core.connector.IBlaubotConnector;
+
+/**
+ * Non-blocking ethernet implementation for Blaubot.
+ *
+ * Uses the same wire format and acceptor meta data as the BlaubotEthernetAdapter, but all sockets
+ * are served by the few threads of a BlaubotEthernetSelectorPool. The message receivers and
+ * senders of the created connections don't need own threads, so a king (or server) is no longer
+ * limited to a few hundred peasants by its thread count.
+ *
+ * Devices using this adapter can connect to devices using the BlaubotEthernetAdapter and vice versa.
+ */
+public class BlaubotEthernetNioAdapter implements IBlaubotAdapter {
+	private static final int KING_TIMEOUT_WITHOUT_PEASANTS = 2500;
+	private static final int CROWNING_PREPARATION_TIME_FACTOR = 3;
+	private final BlaubotEthernetNioConnector connector;
+	private final BlaubotEthernetNioAcceptor acceptor;
+	private final int acceptorPort;
+	private InetAddress ownInetAddress;
+	private Blaubot blaubot;
+	private ConnectionStateMachineConfig connectionStateMachineConfig;
+	private BlaubotAdapterConfig adapterConfig;
+
+	/**
+	 * Sets up the Adapter using the default selector pool.
+	 *
+	 * @param ownDevice the own blaubot device
+	 * @param acceptorPort the acceptor port
+	 * @param ownInetAddr the inet addr to listen on
+	 */
+	public BlaubotEthernetNioAdapter(IBlaubotDevice ownDevice, int acceptorPort, InetAddress ownInetAddr) {
+		this(ownDevice, acceptorPort, ownInetAddr, BlaubotEthernetSelectorPool.getDefault());
+	}
+
+	/**
+	 * Sets up the Adapter.
+	 *
+	 * @param ownDevice the own blaubot device
+	 * @param acceptorPort the acceptor port
+	 * @param ownInetAddr the inet addr to listen on
+	 * @param selectorPool the selector threads serving the sockets
+	 */
+	public BlaubotEthernetNioAdapter(IBlaubotDevice ownDevice, int acceptorPort, InetAddress ownInetAddr, BlaubotEthernetSelectorPool selectorPool) {
+		this.acceptorPort = acceptorPort;
+		this.ownInetAddress = ownInetAddr;
+		this.connector = new BlaubotEthernetNioConnector(this, ownDevice, selectorPool);
+		this.acceptor = new BlaubotEthernetNioAcceptor(this, ownDevice, ownInetAddress, acceptorPort, selectorPool);
+		this.adapterConfig = new BlaubotAdapterConfig();
+		this.connectionStateMachineConfig = new ConnectionStateMachineConfig();
+		this.connectionStateMachineConfig.setCrowningPreparationTimeout(CROWNING_PREPARATION_TIME_FACTOR * adapterConfig.getKeepAliveInterval());
+		this.connectionStateMachineConfig.setKingWithoutPeasantsTimeout(KING_TIMEOUT_WITHOUT_PEASANTS);
+		ConnectionStateMachineConfig.validateTimeouts(connectionStateMachineConfig, adapterConfig);
+	}
+
+	@Override
+	public IBlaubotConnector getConnector() {
+		return connector;
+	}
+
+	@Override
+	public IBlaubotConnectionAcceptor getConnectionAcceptor() {
+		return acceptor;
+	}
+
+	protected int getAcceptorPort() {
+		return this.acceptorPort;
+	}
+
+	@Override
+	public void setBlaubot(Blaubot blaubotInstance) {
+		this.blaubot = blaubotInstance;
+	}
+
+	@Override
+	public Blaubot getBlaubot() {
+		return blaubot;
+	}
+
+	@Override
+	public ConnectionStateMachineConfig getConnectionStateMachineConfig() {
+		return connectionStateMachineConfig;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		BlaubotEthernetNioAdapter that = (BlaubotEthernetNioAdapter) o;
+
+		if (acceptorPort != that.acceptorPort) return false;
+		return !(ownInetAddress != null ? !ownInetAddress.equals(that.ownInetAddress) : that.ownInetAddress != null);
+
+	}
+
+	@Override
+	public int hashCode() {
+		int result = acceptorPort;
+		result = 31 * result + (ownInetAddress != null ? ownInetAddress.hashCode() : 0);
+		return result;
+	}
+
+	@Override
+	public BlaubotAdapterConfig getBlaubotAdapterConfig() {
+		return adapterConfig;
+	}
+}
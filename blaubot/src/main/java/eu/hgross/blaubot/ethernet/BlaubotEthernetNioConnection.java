@@ -0,0 +1,569 @@
+package eu.hgross.blaubot.ethernet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eu.hgross.blaubot.core.AbstractBlaubotConnection;
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.BlaubotMessageBufferPool;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.messaging.IBlaubotOutboundSource;
+import eu.hgross.blaubot.messaging.ISelectableBlaubotConnection;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Non-blocking connection implementation for Ethernet, served by a selector thread of a
+ * BlaubotEthernetSelectorPool.
+ *
+ * The selector thread reads into the connection's input buffer. As long as no message listener
+ * is set, the buffered bytes are consumed by the (emulated) blocking read methods. Once the
+ * BlaubotMessageReceiver sets its listener, the selector thread decodes the messages itself and
+ * queues them for the listener, which is called on a dispatch thread of the selector pool.
+ * If MAX_QUEUED_MESSAGES are waiting for the listener, the connection stops reading from the socket.
+ * Outgoing bytes written by the write methods are queued and sent before any data of the
+ * outbound source (the BlaubotMessageSender). Writers block while MAX_PENDING_WRITE_BYTES are queued.
+ *
+ * The wire format is the same as the one of the BlaubotEthernetConnection, so both connection
+ * types can talk to each other.
+ */
+public class BlaubotEthernetNioConnection extends AbstractBlaubotConnection implements ISelectableBlaubotConnection {
+    private static final String LOG_TAG = "BlaubotEthernetNioConnection";
+    /**
+     * The size of the input and output buffer. Has to hold at least one message of max size.
+     */
+    private static final int BUFFER_SIZE = BlaubotMessageBufferPool.DEFAULT_BUFFER_CAPACITY;
+    /**
+     * Max number of times the outbound buffer is refilled in one writability event, to not let
+     * one busy connection starve the others of the selector.
+     */
+    private static final int MAX_REFILLS_PER_SELECT = 16;
+    /**
+     * Max number of decoded messages waiting to be handed to the message listener.
+     */
+    public static final int MAX_QUEUED_MESSAGES = 1024;
+    /**
+     * Max number of messages a dispatch task hands to the listener before it queues up again.
+     */
+    private static final int MAX_MESSAGES_PER_DISPATCH = 64;
+    /**
+     * Max number of bytes of the raw writes waiting to be sent.
+     */
+    public static final int MAX_PENDING_WRITE_BYTES = 4 * BUFFER_SIZE;
+
+    private final SocketChannel socketChannel;
+    private final IBlaubotDevice device;
+    private final BlaubotEthernetSelectorPool.SelectorLoop selectorLoop;
+    private final int readTimeout;
+    private volatile SelectionKey selectionKey;
+    private volatile boolean closed = false;
+
+    /**
+     * Guards the inputBuffer, which is filled by the selector thread and consumed by the readers.
+     */
+    private final Object inputLock = new Object();
+    /**
+     * Received, not yet consumed bytes (in write mode: the position is the number of bytes)
+     */
+    private final ByteBuffer inputBuffer;
+    private volatile IBlaubotMessageListener messageListener;
+    /**
+     * Decoded messages waiting to be handed to the message listener.
+     */
+    private final ArrayBlockingQueue<BlaubotMessage> receivedMessages;
+    private final Executor dispatchExecutor;
+    /**
+     * True, iff the dispatchTask is submitted to the dispatchExecutor (or running).
+     */
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+    /**
+     * True, iff the reading is paused, because receivedMessages is full. Only used by the selector thread.
+     */
+    private boolean readPaused = false;
+
+    /**
+     * Raw writes to be sent before the outbound source's data.
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> pendingWrites;
+    /**
+     * Guards pendingWriteBytes. Notified when pending writes were sent.
+     */
+    private final Object pendingWritesLock = new Object();
+    /**
+     * The number of bytes in pendingWrites. Guarded by pendingWritesLock.
+     */
+    private int pendingWriteBytes = 0;
+    /**
+     * The outbound source's data currently being sent (in read mode). Only used by the selector thread.
+     */
+    private final ByteBuffer outputBuffer;
+    private volatile IBlaubotOutboundSource outboundSource;
+
+    /**
+     * @param device        the remote device abstraction
+     * @param socketChannel a connected socket channel in non-blocking mode
+     * @param selectorPool  the pool of which a selector thread will serve this connection
+     * @param readTimeout   the timeout in ms for the blocking read methods, 0 for no timeout
+     */
+    public BlaubotEthernetNioConnection(IBlaubotDevice device, SocketChannel socketChannel, BlaubotEthernetSelectorPool selectorPool, int readTimeout) {
+        this.device = device;
+        this.socketChannel = socketChannel;
+        this.selectorLoop = selectorPool.nextSelectorLoop();
+        this.readTimeout = readTimeout;
+        this.inputBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(BlaubotConstants.BYTE_ORDER);
+        this.outputBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(BlaubotConstants.BYTE_ORDER);
+        this.outputBuffer.flip(); // nothing to send
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.receivedMessages = new ArrayBlockingQueue<>(MAX_QUEUED_MESSAGES);
+        this.dispatchExecutor = selectorPool.getDispatchExecutor();
+        selectorLoop.register(socketChannel, SelectionKey.OP_READ, selectionHandler, new BlaubotEthernetSelectorPool.IRegistrationListener() {
+            @Override
+            public void onRegistered(SelectionKey key) {
+                selectionKey = key;
+                if (closed) {
+                    key.cancel();
+                }
+            }
+        });
+    }
+
+    private final BlaubotEthernetSelectorPool.ISelectionHandler selectionHandler = new BlaubotEthernetSelectorPool.ISelectionHandler() {
+        @Override
+        public void onSelected(SelectionKey key) throws IOException {
+            if (key.isReadable()) {
+                onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                onWritable();
+            }
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Got socket exception (" + e.getMessage() + "), disconnecting " + BlaubotEthernetNioConnection.this);
+            }
+            disconnect();
+        }
+    };
+
+    /**
+     * Reads from the socket into the input buffer and dispatches complete messages, if a
+     * listener is set. Called on the selector thread.
+     *
+     * @throws IOException if the read failed
+     */
+    private void onReadable() throws IOException {
+        final int read;
+        synchronized (inputLock) {
+            read = socketChannel.read(inputBuffer);
+            if (read > 0) {
+                inputLock.notifyAll();
+            }
+            if (!inputBuffer.hasRemaining() && messageListener == null) {
+                // -- nobody consumes, wait for the readers
+                updateInterest(SelectionKey.OP_READ, false);
+            }
+        }
+        if (read < 0) {
+            disconnect();
+            return;
+        }
+        dispatchMessages();
+    }
+
+    /**
+     * Decodes all complete messages in the input buffer and queues them for the message listener,
+     * if any. Pauses the reading, if the queue is full. Called on the selector thread.
+     *
+     * @throws IOException if the stream does not contain valid messages
+     */
+    private void dispatchMessages() throws IOException {
+        try {
+            while (messageListener != null) {
+                if (receivedMessages.remainingCapacity() == 0) {
+                    // -- the listener can't keep up, stop reading until the dispatchTask made room
+                    readPaused = true;
+                    updateInterest(SelectionKey.OP_READ, false);
+                    return;
+                }
+                final BlaubotMessage message;
+                synchronized (inputLock) {
+                    inputBuffer.flip();
+                    try {
+                        message = BlaubotMessage.readFromBuffer(inputBuffer, this);
+                    } finally {
+                        inputBuffer.compact();
+                    }
+                }
+                if (message == null) {
+                    return;
+                }
+                receivedMessages.add(message);
+            }
+        } finally {
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Submits the dispatchTask, if there are queued messages and it is not submitted yet.
+     */
+    private void scheduleDispatch() {
+        if (receivedMessages.isEmpty() || messageListener == null || !dispatchScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            dispatchExecutor.execute(dispatchTask);
+        } catch (RejectedExecutionException e) {
+            dispatchScheduled.set(false);
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Dispatch executor rejected the dispatch task of " + this);
+            }
+        }
+    }
+
+    /**
+     * Hands up to MAX_MESSAGES_PER_DISPATCH queued messages to the listener, resumes a paused
+     * reading and re-submits itself, if there is more to dispatch.
+     */
+    private final Runnable dispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_MESSAGES_PER_DISPATCH; i++) {
+                final IBlaubotMessageListener listener = messageListener;
+                if (listener == null) {
+                    break;
+                }
+                final BlaubotMessage message = receivedMessages.poll();
+                if (message == null) {
+                    break;
+                }
+                try {
+                    listener.onMessage(message);
+                } catch (RuntimeException e) {
+                    if (Log.logErrorMessages()) {
+                        Log.e(LOG_TAG, "Message listener failed on " + BlaubotEthernetNioConnection.this, e);
+                    }
+                }
+            }
+            dispatchScheduled.set(false);
+            selectorLoop.execute(resumeReadingTask);
+            scheduleDispatch();
+        }
+    };
+
+    /**
+     * Resumes the reading paused by dispatchMessages(). Executed on the selector thread.
+     */
+    private final Runnable resumeReadingTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!readPaused || receivedMessages.remainingCapacity() == 0) {
+                return;
+            }
+            readPaused = false;
+            try {
+                // messages may still be buffered
+                dispatchMessages();
+            } catch (IOException e) {
+                selectionHandler.onFailure(e);
+                return;
+            }
+            if (!readPaused) {
+                updateInterest(SelectionKey.OP_READ, true);
+            }
+        }
+    };
+
+    /**
+     * Sends the pending raw writes and the outbound source's data until the socket's send buffer
+     * is full or there is nothing left. Called on the selector thread.
+     *
+     * @throws IOException if the write failed
+     */
+    private void onWritable() throws IOException {
+        int refills = 0;
+        while (true) {
+            if (!outputBuffer.hasRemaining()) {
+                // raw writes first
+                final ByteBuffer pendingWrite = pendingWrites.peek();
+                if (pendingWrite != null) {
+                    socketChannel.write(pendingWrite);
+                    if (pendingWrite.hasRemaining()) {
+                        return; // socket is full, we stay interested in OP_WRITE
+                    }
+                    pendingWrites.poll();
+                    synchronized (pendingWritesLock) {
+                        pendingWriteBytes -= pendingWrite.limit();
+                        pendingWritesLock.notifyAll();
+                    }
+                    continue;
+                }
+
+                if (refills >= MAX_REFILLS_PER_SELECT) {
+                    return; // come back on the next select
+                }
+                final IBlaubotOutboundSource source = outboundSource;
+                outputBuffer.clear();
+                final int filled = source == null ? 0 : source.fillOutboundBuffer(outputBuffer);
+                outputBuffer.flip();
+                refills += 1;
+                if (filled <= 0) {
+                    // -- nothing to send, requestWrite() re-enables the interest
+                    selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            socketChannel.write(outputBuffer);
+            if (outputBuffer.hasRemaining()) {
+                return; // socket is full, we stay interested in OP_WRITE
+            }
+        }
+    }
+
+    /**
+     * Adds or removes an operation to/from the interest set on the selector thread.
+     *
+     * @param op      the operation (SelectionKey.OP_*)
+     * @param enabled true to add, false to remove the operation
+     */
+    private void updateInterest(final int op, final boolean enabled) {
+        selectorLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SelectionKey key = selectionKey;
+                if (key == null || !key.isValid()) {
+                    return;
+                }
+                final int ops = key.interestOps();
+                final int newOps = enabled ? ops | op : ops & ~op;
+                if (newOps != ops) {
+                    key.interestOps(newOps);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setMessageListener(IBlaubotMessageListener messageListener) {
+        this.messageListener = messageListener;
+        if (messageListener != null) {
+            // consume what is already buffered and continue reading
+            selectorLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        dispatchMessages();
+                    } catch (IOException e) {
+                        selectionHandler.onFailure(e);
+                        return;
+                    }
+                    if (!readPaused) {
+                        updateInterest(SelectionKey.OP_READ, true);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setOutboundSource(IBlaubotOutboundSource outboundSource) {
+        this.outboundSource = outboundSource;
+        if (outboundSource != null) {
+            requestWrite();
+        }
+    }
+
+    @Override
+    public void requestWrite() {
+        if (closed) {
+            return;
+        }
+        updateInterest(SelectionKey.OP_WRITE, true);
+    }
+
+    private volatile boolean notifiedDisconnect = false;
+
+    @Override
+    protected void notifyDisconnected() {
+        synchronized (this) {
+            if (notifiedDisconnect) {
+                return;
+            }
+            notifiedDisconnect = true;
+        }
+        super.notifyDisconnected();
+    }
+
+    @Override
+    public void disconnect() {
+        closed = true;
+        final SelectionKey key = selectionKey;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to close socket channel", e);
+        }
+        synchronized (inputLock) {
+            inputLock.notifyAll();
+        }
+        synchronized (pendingWritesLock) {
+            pendingWritesLock.notifyAll();
+        }
+        this.notifyDisconnected();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && socketChannel.isConnected() && socketChannel.isOpen();
+    }
+
+    @Override
+    public IBlaubotDevice getRemoteDevice() {
+        return device;
+    }
+
+    /**
+     * Takes up to byteCount buffered bytes, blocking until at least one byte is available.
+     *
+     * @return the number of bytes read or -1, if the connection is closed
+     */
+    private int readBuffered(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+        if (byteOffset < 0 || byteCount < 0 || byteOffset + byteCount > buffer.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (byteCount == 0) {
+            return 0;
+        }
+        final int read;
+        synchronized (inputLock) {
+            final long deadline = System.currentTimeMillis() + readTimeout;
+            while (inputBuffer.position() == 0) {
+                if (closed) {
+                    return -1;
+                }
+                long waitTime = 0;
+                if (readTimeout > 0) {
+                    waitTime = deadline - System.currentTimeMillis();
+                    if (waitTime <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                }
+                try {
+                    inputLock.wait(waitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for data");
+                }
+            }
+            inputBuffer.flip();
+            read = Math.min(byteCount, inputBuffer.remaining());
+            inputBuffer.get(buffer, byteOffset, read);
+            inputBuffer.compact();
+        }
+        // there is room again
+        updateInterest(SelectionKey.OP_READ, true);
+        return read;
+    }
+
+    @Override
+    public int read() throws SocketTimeoutException, IOException {
+        final byte[] b = new byte[1];
+        final int read = readBuffered(b, 0, 1);
+        return read < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b) throws SocketTimeoutException, IOException {
+        return readBuffered(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        return readBuffered(buffer, byteOffset, byteCount);
+    }
+
+    @Override
+    public void readFully(byte[] buffer) throws SocketTimeoutException, IOException {
+        readFully(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void readFully(byte[] buffer, int offset, int byteCount) throws SocketTimeoutException, IOException {
+        int read = 0;
+        while (read < byteCount) {
+            final int count = readBuffered(buffer, offset + read, byteCount - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+
+    @Override
+    public void write(int b) throws SocketTimeoutException, IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes) throws SocketTimeoutException, IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Queues the bytes to be sent by the selector thread.
+     * Blocks while MAX_PENDING_WRITE_BYTES are queued, at most for the read timeout (if any).
+     */
+    @Override
+    public void write(byte[] bytes, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        if (closed) {
+            throw new IOException("Connection is closed");
+        }
+        synchronized (pendingWritesLock) {
+            final long deadline = System.currentTimeMillis() + readTimeout;
+            // a single write exceeding the limit is accepted, if nothing else is pending; the selector thread never waits
+            while (pendingWriteBytes > 0 && pendingWriteBytes + byteCount > MAX_PENDING_WRITE_BYTES && Thread.currentThread() != selectorLoop) {
+                if (closed) {
+                    throw new IOException("Connection is closed");
+                }
+                long waitTime = 0;
+                if (readTimeout > 0) {
+                    waitTime = deadline - System.currentTimeMillis();
+                    if (waitTime <= 0) {
+                        throw new SocketTimeoutException("Write timed out");
+                    }
+                }
+                try {
+                    pendingWritesLock.wait(waitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for pending writes");
+                }
+            }
+            pendingWriteBytes += byteCount;
+            pendingWrites.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, byteOffset, byteOffset + byteCount)));
+        }
+        requestWrite();
+    }
+
+    @Override
+    public String toString() {
+        return "BlaubotEthernetNioConnection [socketChannel=" + socketChannel + ", device=" + device + "]";
+    }
+}
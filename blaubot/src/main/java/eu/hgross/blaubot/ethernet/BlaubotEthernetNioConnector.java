@@ -0,0 +1,45 @@
+package eu.hgross.blaubot.ethernet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.UniqueDeviceIdHelper;
+
+/**
+ * Non-blocking connector for ethernet.
+ *
+ * Connects and sends the unique device id in blocking mode like the BlaubotEthernetConnector,
+ * then hands the socket to a selector thread of a BlaubotEthernetSelectorPool as
+ * BlaubotEthernetNioConnection.
+ */
+public class BlaubotEthernetNioConnector extends BlaubotEthernetConnector {
+    private final IBlaubotDevice ownDevice;
+    private final BlaubotEthernetSelectorPool selectorPool;
+
+    public BlaubotEthernetNioConnector(IBlaubotAdapter blaubotEthernetAdapter, IBlaubotDevice ownDevice, BlaubotEthernetSelectorPool selectorPool) {
+        super(blaubotEthernetAdapter, ownDevice);
+        this.ownDevice = ownDevice;
+        this.selectorPool = selectorPool;
+    }
+
+    @Override
+    protected IBlaubotConnection openConnection(IBlaubotDevice blaubotDevice, InetSocketAddress address, int connectionTimeout) throws IOException {
+        final SocketChannel socketChannel = SocketChannel.open();
+        try {
+            socketChannel.socket().connect(address, connectionTimeout);
+            UniqueDeviceIdHelper.sendUniqueDeviceIdThroughOutputStream(ownDevice, socketChannel.socket().getOutputStream());
+            socketChannel.configureBlocking(false);
+        } catch (IOException e) {
+            try {
+                socketChannel.close();
+            } catch (IOException e1) {
+            }
+            throw e;
+        }
+        return new BlaubotEthernetNioConnection(blaubotDevice, socketChannel, selectorPool, connectionTimeout);
+    }
+}
@@ -0,0 +1,258 @@
+package eu.hgross.blaubot.ethernet;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * A fixed number of selector threads serving the sockets of the NIO ethernet acceptors and
+ * connections.
+ *
+ * Channels are assigned to the selector loops round robin. Everything concerning a registered
+ * channel (reading, writing, changing the interest set) is done by the loop's thread; other
+ * threads hand their work to the loop via execute(..).
+ *
+ * Received messages are not handed to the message listeners on the selector threads, but on the
+ * pool's dispatch threads (see getDispatchExecutor()), so a slow listener can't stall the other
+ * sockets of its selector.
+ *
+ * The threads are daemon threads. The selector threads are started on creation, the dispatch
+ * threads on demand.
+ */
+public class BlaubotEthernetSelectorPool {
+    private static final String LOG_TAG = "BlaubotEthernetSelectorPool";
+    /**
+     * The default number of selector threads.
+     */
+    public static final int DEFAULT_SELECTOR_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    /**
+     * The number of threads dispatching the received messages to the listeners.
+     */
+    public static final int DEFAULT_DISPATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * Time in ms after which idle dispatch threads are terminated.
+     */
+    private static final long IDLE_DISPATCH_THREAD_KEEP_ALIVE = 30000;
+    private static final AtomicInteger poolIdGenerator = new AtomicInteger(0);
+    private static volatile BlaubotEthernetSelectorPool defaultPool;
+
+    private final SelectorLoop[] selectorLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+    /**
+     * Runs the dispatch tasks of the connections. Each connection submits at most one task at a
+     * time, so the queue is bounded by the number of connections.
+     */
+    private final ThreadPoolExecutor dispatchExecutor;
+
+    /**
+     * @param selectorThreads the number of selector threads
+     * @throws IOException if a selector could not be opened
+     */
+    public BlaubotEthernetSelectorPool(int selectorThreads) throws IOException {
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("selectorThreads has to be positive");
+        }
+        final int poolId = poolIdGenerator.incrementAndGet();
+        this.selectorLoops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            selectorLoops[i] = new SelectorLoop(Selector.open(), "blaubot-ethernet-selector-" + poolId + "-" + i);
+            selectorLoops[i].start();
+        }
+        final AtomicInteger dispatchThreadCounter = new AtomicInteger(0);
+        this.dispatchExecutor = new ThreadPoolExecutor(DEFAULT_DISPATCH_THREADS, DEFAULT_DISPATCH_THREADS, IDLE_DISPATCH_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "blaubot-ethernet-dispatch-" + poolId + "-" + dispatchThreadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.dispatchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The pool shared by all NIO ethernet adapters, that were not given a pool explicitly.
+     * Created on first use with DEFAULT_SELECTOR_THREADS threads.
+     *
+     * @return the default pool
+     */
+    public static BlaubotEthernetSelectorPool getDefault() {
+        if (defaultPool == null) {
+            synchronized (BlaubotEthernetSelectorPool.class) {
+                if (defaultPool == null) {
+                    try {
+                        defaultPool = new BlaubotEthernetSelectorPool(DEFAULT_SELECTOR_THREADS);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Could not open selectors", e);
+                    }
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @return the number of selector threads
+     */
+    public int getSelectorThreadCount() {
+        return selectorLoops.length;
+    }
+
+    /**
+     * @return the executor on which the connections hand the received messages to their listeners
+     */
+    protected Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * @return the selector loop to be used for the next channel
+     */
+    protected SelectorLoop nextSelectorLoop() {
+        final int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % selectorLoops.length;
+        return selectorLoops[index];
+    }
+
+    /**
+     * Gets called by a SelectorLoop for each selected key.
+     */
+    protected interface ISelectionHandler {
+        /**
+         * Called on the selector thread if the handler's channel is ready for one of its interest ops.
+         *
+         * @param key the selected key
+         * @throws IOException if an I/O operation on the channel failed
+         */
+        void onSelected(SelectionKey key) throws IOException;
+
+        /**
+         * Called on the selector thread, if onSelected threw an IOException.
+         *
+         * @param e the exception
+         */
+        void onFailure(IOException e);
+    }
+
+    /**
+     * A selector with its thread.
+     */
+    protected static class SelectorLoop extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks;
+
+        private SelectorLoop(Selector selector, String name) {
+            this.selector = selector;
+            this.tasks = new ConcurrentLinkedQueue<>();
+            setName(name);
+            setDaemon(true);
+        }
+
+        /**
+         * Executes the task on the loop's thread.
+         * If called from the loop's thread, the task is executed immediately.
+         *
+         * @param task the task
+         */
+        public void execute(Runnable task) {
+            if (Thread.currentThread() == this) {
+                task.run();
+                return;
+            }
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a channel (in non-blocking mode) with this loop's selector.
+         *
+         * @param channel      the channel
+         * @param interestOps  the initial interest set
+         * @param handler      the handler to be called for the selected keys
+         * @param registrationListener called on the loop thread with the key, once registered, can be null
+         */
+        public void register(final SelectableChannel channel, final int interestOps, final ISelectionHandler handler, final IRegistrationListener registrationListener) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final SelectionKey key = channel.register(selector, interestOps, handler);
+                        if (registrationListener != null) {
+                            registrationListener.onRegistered(key);
+                        }
+                    } catch (ClosedChannelException e) {
+                        handler.onFailure(e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    if (Log.logErrorMessages()) {
+                        Log.e(LOG_TAG, "Select failed", e);
+                    }
+                    continue;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        if (Log.logErrorMessages()) {
+                            Log.e(LOG_TAG, "Selector task failed", e);
+                        }
+                    }
+                }
+
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    final ISelectionHandler handler = (ISelectionHandler) key.attachment();
+                    try {
+                        handler.onSelected(key);
+                    } catch (IOException e) {
+                        handler.onFailure(e);
+                    } catch (RuntimeException e) {
+                        // i.e. a failing message listener, we don't want to lose the other channels
+                        if (Log.logErrorMessages()) {
+                            Log.e(LOG_TAG, "Selection handler failed", e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Informed when a channel got registered with a SelectorLoop.
+     */
+    protected interface IRegistrationListener {
+        /**
+         * Called on the selector thread.
+         *
+         * @param key the selection key of the registered channel
+         */
+        void onRegistered(SelectionKey key);
+    }
+}
@@ -0,0 +1,258 @@
+package eu.hgross.blaubot.geobeacon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index of the latest GeoBeaconMessage of each device, used by the {@link GeoBeaconServer} to find
+ * the devices near to a device without looking at all known devices.
+ *
+ * The messages are kept in a uniform grid of latitude/longitude cells (per beacon uuid) with a cell size
+ * of the search radius, so a lookup only visits the cells around the center. Messages without geo data are
+ * kept aside and are nearby to every device of the same beacon uuid.
+ * Messages expire after maxAge ms without an update.
+ *
+ * All methods are synchronized.
+ */
+public class GeoBeaconIndex {
+    /**
+     * Length of one degree of latitude in KM
+     */
+    private static final double KM_PER_DEGREE = 2d * Math.PI * 6371d / 360d;
+
+    private final double radius;
+    private final long maxAge;
+    private final double cellSize;
+    private final int longitudeCellCount;
+    /**
+     * beaconUuid + uniqueDeviceId -> entry, ordered by the time of the last update (oldest first)
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    /**
+     * beaconUuid -> cell -> entries
+     */
+    private final Map<String, Map<Long, Set<Entry>>> cells = new HashMap<>();
+    /**
+     * beaconUuid -> entries without geo data
+     */
+    private final Map<String, Set<Entry>> unlocated = new HashMap<>();
+
+    /**
+     * @param radius the radius in KM in which devices are considered as nearby
+     * @param maxAge the time in ms after which a message without update is removed
+     */
+    public GeoBeaconIndex(double radius, long maxAge) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius has to be positive: " + radius);
+        }
+        this.radius = radius;
+        this.maxAge = maxAge;
+        this.longitudeCellCount = (int) Math.min(Math.ceil(360d / (radius / KM_PER_DEGREE)), Integer.MAX_VALUE / 2);
+        // cells fit exactly around the globe
+        this.cellSize = 360d / longitudeCellCount;
+    }
+
+    /**
+     * Adds or replaces the device's message.
+     *
+     * @param message the latest message of a device
+     * @param now     the current time in ms
+     */
+    public synchronized void update(GeoBeaconMessage message, long now) {
+        purgeExpired(now);
+        final String key = keyOf(message);
+        final Entry old = entries.remove(key);
+        if (old != null) {
+            removeFromCells(old);
+        }
+        final Entry entry = new Entry(message, now);
+        entries.put(key, entry);
+        if (entry.cell == null) {
+            getOrCreate(unlocated, message.getBeaconUuid()).add(entry);
+        } else {
+            Map<Long, Set<Entry>> uuidCells = cells.get(message.getBeaconUuid());
+            if (uuidCells == null) {
+                uuidCells = new HashMap<>();
+                cells.put(message.getBeaconUuid(), uuidCells);
+            }
+            getOrCreate(uuidCells, entry.cell).add(entry);
+        }
+    }
+
+    /**
+     * Gathers all messages of the same beacon uuid within the radius around the given message (including the
+     * given message's device itself, if indexed).
+     * If the center has no geo data, all messages of the beacon uuid are returned.
+     *
+     * @param center the center
+     * @param now    the current time in ms
+     * @return the nearby messages
+     */
+    public synchronized List<GeoBeaconMessage> findNearby(GeoBeaconMessage center, long now) {
+        purgeExpired(now);
+        final List<GeoBeaconMessage> result = new ArrayList<>();
+        final String beaconUuid = center.getBeaconUuid();
+        final Set<Entry> unlocatedEntries = unlocated.get(beaconUuid);
+        if (unlocatedEntries != null) {
+            for (Entry entry : unlocatedEntries) {
+                result.add(entry.message);
+            }
+        }
+        final Map<Long, Set<Entry>> uuidCells = cells.get(beaconUuid);
+        if (uuidCells == null) {
+            return result;
+        }
+        final GeoData centerGeoData = center.getGeoData();
+        if (centerGeoData == null) {
+            for (Set<Entry> cellEntries : uuidCells.values()) {
+                for (Entry entry : cellEntries) {
+                    result.add(entry.message);
+                }
+            }
+            return result;
+        }
+
+        final double latitude = centerGeoData.getLatitude();
+        final int latitudeCell = latitudeCell(latitude);
+        // the longitude span of the radius grows towards the poles
+        final double radiusDegrees = radius / KM_PER_DEGREE;
+        final double maxAbsLatitude = Math.min(90d, Math.abs(latitude) + radiusDegrees);
+        final double cos = Math.cos(Math.toRadians(maxAbsLatitude));
+        final double longitudeCells = Math.ceil(radiusDegrees / cos / cellSize);
+        // at the poles the span covers the whole circle (and the division may be huge or infinite)
+        final int longitudeSpan = cos <= 0 || longitudeCells >= longitudeCellCount ? longitudeCellCount : (int) longitudeCells;
+        final int latitudeSpan = (int) Math.ceil(radiusDegrees / cellSize);
+        final int longitudeCell = longitudeCell(centerGeoData.getLongitude());
+
+        if ((2L * latitudeSpan + 1) * Math.min(2L * longitudeSpan + 1, longitudeCellCount) > uuidCells.size()) {
+            // visiting the cells would be more expensive than visiting the occupied cells
+            for (Set<Entry> cellEntries : uuidCells.values()) {
+                addNearby(result, cellEntries, centerGeoData);
+            }
+            return result;
+        }
+        final Set<Long> visited = new HashSet<>();
+        for (int lat = latitudeCell - latitudeSpan; lat <= latitudeCell + latitudeSpan; lat++) {
+            for (int lon = longitudeCell - longitudeSpan; lon <= longitudeCell + longitudeSpan; lon++) {
+                final Long cell = cellKey(lat, lon);
+                if (!visited.add(cell)) {
+                    continue; // wrapped around
+                }
+                final Set<Entry> cellEntries = uuidCells.get(cell);
+                if (cellEntries != null) {
+                    addNearby(result, cellEntries, centerGeoData);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param now the current time in ms
+     * @return all unexpired messages
+     */
+    public synchronized List<GeoBeaconMessage> getAll(long now) {
+        purgeExpired(now);
+        final List<GeoBeaconMessage> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(entry.message);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of indexed (not necessarily unexpired) messages
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void addNearby(List<GeoBeaconMessage> result, Set<Entry> cellEntries, GeoData center) {
+        for (Entry entry : cellEntries) {
+            if (GeoBeaconUtil.distanceBetweenGeoBeaconMessages(entry.message.getGeoData(), center) <= radius) {
+                result.add(entry.message);
+            }
+        }
+    }
+
+    /**
+     * Removes the messages that were not updated for maxAge ms (the oldest entries come first).
+     */
+    private void purgeExpired(long now) {
+        final Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (now - entry.updated < maxAge) {
+                break;
+            }
+            it.remove();
+            removeFromCells(entry);
+        }
+    }
+
+    private void removeFromCells(Entry entry) {
+        final String beaconUuid = entry.message.getBeaconUuid();
+        if (entry.cell == null) {
+            final Set<Entry> unlocatedEntries = unlocated.get(beaconUuid);
+            unlocatedEntries.remove(entry);
+            if (unlocatedEntries.isEmpty()) {
+                unlocated.remove(beaconUuid);
+            }
+            return;
+        }
+        final Map<Long, Set<Entry>> uuidCells = cells.get(beaconUuid);
+        final Set<Entry> cellEntries = uuidCells.get(entry.cell);
+        cellEntries.remove(entry);
+        if (cellEntries.isEmpty()) {
+            uuidCells.remove(entry.cell);
+            if (uuidCells.isEmpty()) {
+                cells.remove(beaconUuid);
+            }
+        }
+    }
+
+    private int latitudeCell(double latitude) {
+        return (int) Math.floor((latitude + 90d) / cellSize);
+    }
+
+    private int longitudeCell(double longitude) {
+        return (int) Math.floor((longitude + 180d) / cellSize);
+    }
+
+    private Long cellKey(int latitudeCell, int longitudeCell) {
+        final int wrappedLongitudeCell = ((longitudeCell % longitudeCellCount) + longitudeCellCount) % longitudeCellCount;
+        return ((long) latitudeCell << 32) | (wrappedLongitudeCell & 0xffffffffL);
+    }
+
+    private static String keyOf(GeoBeaconMessage message) {
+        return message.getBeaconUuid() + "/" + message.getBeaconMessage().getUniqueDeviceId();
+    }
+
+    private static <K> Set<Entry> getOrCreate(Map<K, Set<Entry>> map, K key) {
+        Set<Entry> set = map.get(key);
+        if (set == null) {
+            set = new HashSet<>();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    private class Entry {
+        private final GeoBeaconMessage message;
+        private final long updated;
+        private final Long cell;
+
+        private Entry(GeoBeaconMessage message, long updated) {
+            this.message = message;
+            this.updated = updated;
+            final GeoData geoData = message.getGeoData();
+            this.cell = geoData == null ? null : cellKey(latitudeCell(geoData.getLatitude()), longitudeCell(geoData.getLongitude()));
+        }
+    }
+}
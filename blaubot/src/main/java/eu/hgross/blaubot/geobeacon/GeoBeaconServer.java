@@ -1,6 +1,5 @@
 package eu.hgross.blaubot.geobeacon;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -13,7 +12,6 @@ import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
 import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
-import eu.hgross.blaubot.core.acceptor.discovery.TimeoutList;
 import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessageReceiver;
@@ -35,17 +33,17 @@ public class GeoBeaconServer {
      */
     private final List<IBlaubotConnectionAcceptor> acceptors;
     /**
-     * UniqueDeviceId -> Last GeoBeaconMessage
+     * The last GeoBeaconMessage of each device by location
      */
-    private TimeoutList<GeoBeaconMessage> geoBeaconMessages;
+    private final GeoBeaconIndex geoBeaconMessages;
     /**
      * the radius in KM in which devices are notified about "nearby" devices
      */
     private final double geoRadius;
     /**
-     * by uniquedeviceid and beaconUuid
+     * The connected clients by their uniqueDeviceId
      */
-    private Set<GeoBeaconServerClient> clients;
+    private final ConcurrentHashMap<String, GeoBeaconServerClient> clients;
     /**
      * This set contains all clients, for which an "initial message set" was sent.
      * This means if a client connects for the first time, it is not in this set.
@@ -66,8 +64,8 @@ public class GeoBeaconServer {
     public GeoBeaconServer(double geoRadius, IBlaubotConnectionAcceptor... acceptors) {
         this.geoRadius = geoRadius;
         this.acceptors = Arrays.asList(acceptors);
-        this.geoBeaconMessages = new TimeoutList(GeoBeaconConstants.MAX_AGE_BEACON_MESSAGES);
-        this.clients = Collections.newSetFromMap(new ConcurrentHashMap<GeoBeaconServerClient, Boolean>());
+        this.geoBeaconMessages = new GeoBeaconIndex(geoRadius, GeoBeaconConstants.MAX_AGE_BEACON_MESSAGES);
+        this.clients = new ConcurrentHashMap<>();
         this.sentInitialMessageSet = Collections.newSetFromMap(new ConcurrentHashMap<GeoBeaconServerClient, Boolean>());
         for (IBlaubotConnectionAcceptor acceptor : acceptors) {
             acceptor.setAcceptorListener(acceptorListener);
@@ -81,7 +79,7 @@ public class GeoBeaconServer {
         @Override
         public void onMessage(BlaubotMessage blaubotMessage) {
             final GeoBeaconMessage geoBeaconMessage = GeoBeaconUtil.blaubotMessageToGeoBeaconMessage(blaubotMessage);
-            geoBeaconMessages.report(geoBeaconMessage);
+            geoBeaconMessages.update(geoBeaconMessage, System.currentTimeMillis());
             if (Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "Got GeoBeaconMessage from " + geoBeaconMessage.getBeaconMessage().getUniqueDeviceId() + ": " + geoBeaconMessage);
             }
@@ -99,16 +97,11 @@ public class GeoBeaconServer {
                 Log.d(LOG_TAG, "GeoBeaconClient disconnected: " + connection.getRemoteDevice().getUniqueDeviceID());
             }
 
-            GeoBeaconServerClient toRemove = null;
-            // find our client and remove from set on disconnect
-            for (GeoBeaconServerClient curCl : clients) {
-                if (curCl.getConnection().getRemoteDevice().getUniqueDeviceID().equals(connection.getRemoteDevice().getUniqueDeviceID())) {
-                    curCl.getMessageReceiver().removeMessageListener(messageListener);
-                    toRemove = curCl;
-                }
-            }
+            // find our client and remove it on disconnect
+            final GeoBeaconServerClient toRemove = clients.get(connection.getRemoteDevice().getUniqueDeviceID());
             if (toRemove != null) {
-                clients.remove(toRemove);
+                toRemove.getMessageReceiver().removeMessageListener(messageListener);
+                clients.remove(connection.getRemoteDevice().getUniqueDeviceID(), toRemove);
                 sentInitialMessageSet.remove(toRemove);
             }
         }
@@ -123,11 +116,11 @@ public class GeoBeaconServer {
             connection.addConnectionListener(disconnectListener);
             GeoBeaconServerClient client = new GeoBeaconServerClient(connection);
             client.getMessageReceiver().addMessageListener(messageListener);
-            clients.add(client);
+            clients.put(connection.getRemoteDevice().getUniqueDeviceID(), client);
             client.activate();
             if (Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "New GeoBeaconClient: " + client);
-                Log.d(LOG_TAG, "Items: " + geoBeaconMessages.getItems());
+                Log.d(LOG_TAG, "Indexed messages: " + geoBeaconMessages.size());
             }
 //            notifyOneBeacon(client);
         }
@@ -188,23 +181,19 @@ public class GeoBeaconServer {
         Collection<GeoBeaconServerClient> nearbyClients = getClientsByBeaconMessageCollection(nearbyBeaconMessages);
 
         // send the just received message to all nearby clients
+        final byte[] payload = GeoBeaconUtil.geoBeaconMessageToBlaubotMessage(message).getPayload();
         for (GeoBeaconServerClient client : nearbyClients) {
             String uniqueDeviceID = client.getConnection().getRemoteDevice().getUniqueDeviceID();
             if (uniqueDeviceID.equals(message.getBeaconMessage().getUniqueDeviceId())) {
                 continue; // don't echo
             }
-            BlaubotMessage msg = GeoBeaconUtil.geoBeaconMessageToBlaubotMessage(message);
+            BlaubotMessage msg = new BlaubotMessage();
+            msg.setPayload(payload);
             client.getMessageSender().sendMessage(msg);
         }
 
         // get the client that send the message
-        GeoBeaconServerClient sender = null;
-        for (GeoBeaconServerClient client : clients) {
-            if (client.getConnection().getRemoteDevice().equals(message.getBeaconMessage().getUniqueDeviceId())) {
-                sender = client;
-                break;
-            }
-        }
+        final GeoBeaconServerClient sender = clients.get(message.getBeaconMessage().getUniqueDeviceId());
         if (sender != null && !sentInitialMessageSet.contains(sender)) {
             // the sender never got a full update of all nearby messages, so we will send them to him
             for (GeoBeaconMessage geoBeaconMessage : nearbyBeaconMessages) {
@@ -216,6 +205,7 @@ public class GeoBeaconServer {
                 BlaubotMessage msg = GeoBeaconUtil.geoBeaconMessageToBlaubotMessage(geoBeaconMessage);
                 sender.getMessageSender().sendMessage(msg);
             }
+            sentInitialMessageSet.add(sender);
         }
     }
 
@@ -227,19 +217,13 @@ public class GeoBeaconServer {
      * @return the client collection
      */
     private Collection<GeoBeaconServerClient> getClientsByBeaconMessageCollection(Collection<GeoBeaconMessage> beaconMessages) {
-        final Set<String> uniqueDeviceIdSet = new HashSet<>();
-        for (GeoBeaconMessage message : beaconMessages) {
-            uniqueDeviceIdSet.add(message.getBeaconMessage().getUniqueDeviceId());
-        }
-
         final Set<GeoBeaconServerClient> clientSet = new HashSet<>();
-        for (GeoBeaconServerClient geoBeaconServerClient : clients) {
-            String uniqueDeviceID = geoBeaconServerClient.getConnection().getRemoteDevice().getUniqueDeviceID();
-            if (uniqueDeviceIdSet.contains(uniqueDeviceID)) {
-                clientSet.add(geoBeaconServerClient);
+        for (GeoBeaconMessage message : beaconMessages) {
+            final GeoBeaconServerClient client = clients.get(message.getBeaconMessage().getUniqueDeviceId());
+            if (client != null) {
+                clientSet.add(client);
             }
         }
-
         return clientSet;
     }
 
@@ -251,24 +235,8 @@ public class GeoBeaconServer {
      * @return the list of messages surrounding message by the defined radius
      */
     private Collection<GeoBeaconMessage> gatherNearbyBeaconMessages(GeoBeaconMessage message) {
-        ArrayList<GeoBeaconMessage> list = new ArrayList<>();
-        for (GeoBeaconMessage geoBeaconMessage : geoBeaconMessages.getItems()) {
-            if (!geoBeaconMessage.getBeaconUuid().equals(message.getBeaconUuid())) {
-                continue; // wrong uuid
-            }
-            GeoData geoData = geoBeaconMessage.getGeoData();
-            if (geoData != null && message.getGeoData() != null) {
-                double distance = GeoBeaconUtil.distanceBetweenGeoBeaconMessages(geoData, message.getGeoData());
-                if (distance <= geoRadius) {
-                    // if it is nearby, add
-                    list.add(geoBeaconMessage);
-                }
-            } else {
-                Log.w(LOG_TAG, "No geodata available. Ignoring GEO_RADIUS and putting it into the list");
-                list.add(geoBeaconMessage);
-            }
-        }
-        return list;
+        // messages without geodata are always considered nearby
+        return geoBeaconMessages.findNearby(message, System.currentTimeMillis());
     }
 
     /**
@@ -282,8 +250,7 @@ public class GeoBeaconServer {
         }
         final BlaubotMessageSender messageSender = geoBeaconServerClient.getMessageSender();
         // TODO filter by nearby beacons (geodata) and beaconUUID
-        // send all messages for now
-        for (GeoBeaconMessage geoBeaconMessage : geoBeaconMessages.getItems()) {
+        for (GeoBeaconMessage geoBeaconMessage : geoBeaconMessages.getAll(System.currentTimeMillis())) {
             final BlaubotMessage blaubotMessage = GeoBeaconUtil.geoBeaconMessageToBlaubotMessage(geoBeaconMessage);
             messageSender.sendMessage(blaubotMessage);
         }
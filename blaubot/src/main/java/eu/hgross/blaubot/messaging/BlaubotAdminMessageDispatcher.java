@@ -0,0 +1,146 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import eu.hgross.blaubot.admin.AbstractAdminMessage;
+
+/**
+ * Dispatches parsed admin messages to the admin message listeners of the BlaubotChannelManager.
+ *
+ * Listeners can be registered for all admin messages or for a type of admin messages (including
+ * its subclasses). The listeners are looked up by the message's class in a dispatch table,
+ * which is rebuilt on registration changes, so a dispatch does no instanceof checks and only
+ * calls the interested listeners (in registration order).
+ */
+public class BlaubotAdminMessageDispatcher {
+    private static final IBlaubotAdminMessageListener[] NO_LISTENERS = new IBlaubotAdminMessageListener[0];
+
+    /**
+     * A listener and the type it is registered for (null for all types)
+     */
+    private static class Registration {
+        private final Class<? extends AbstractAdminMessage> type;
+        private final IBlaubotAdminMessageListener listener;
+
+        private Registration(Class<? extends AbstractAdminMessage> type, IBlaubotAdminMessageListener listener) {
+            this.type = type;
+            this.listener = listener;
+        }
+
+        private boolean matches(Class<?> messageClass) {
+            return type == null || type.isAssignableFrom(messageClass);
+        }
+    }
+
+    /**
+     * The registrations in registration order (guarded by this)
+     */
+    private final List<Registration> registrations = new ArrayList<>();
+
+    /**
+     * message class -> listeners to call
+     * Replaced as a whole on changes, never modified after publication.
+     */
+    private volatile Map<Class<?>, IBlaubotAdminMessageListener[]> dispatchTable = new HashMap<>();
+
+    /**
+     * Adds a listener for all admin messages.
+     *
+     * @param listener the listener
+     */
+    public void addListener(IBlaubotAdminMessageListener listener) {
+        addListener(null, listener);
+    }
+
+    /**
+     * Adds a listener for admin messages of the given type.
+     * A listener registered for multiple types is called once for each matching registration.
+     *
+     * @param type the admin message type or null for all admin messages
+     * @param listener the listener
+     */
+    public synchronized void addListener(Class<? extends AbstractAdminMessage> type, IBlaubotAdminMessageListener listener) {
+        registrations.add(new Registration(type, listener));
+        rebuildDispatchTable();
+    }
+
+    /**
+     * Removes all registrations of the listener.
+     *
+     * @param listener the listener
+     */
+    public synchronized void removeListener(IBlaubotAdminMessageListener listener) {
+        boolean removed = false;
+        for (Iterator<Registration> it = registrations.iterator(); it.hasNext(); ) {
+            if (it.next().listener == listener) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            rebuildDispatchTable();
+        }
+    }
+
+    /**
+     * Calls the listeners interested in the given admin message.
+     *
+     * @param adminMessage the admin message
+     */
+    public void dispatch(AbstractAdminMessage adminMessage) {
+        final Class<?> messageClass = adminMessage.getClass();
+        IBlaubotAdminMessageListener[] listeners = dispatchTable.get(messageClass);
+        if (listeners == null) {
+            listeners = addToDispatchTable(messageClass);
+        }
+        for (IBlaubotAdminMessageListener listener : listeners) {
+            listener.onAdminMessage(adminMessage);
+        }
+    }
+
+    /**
+     * Adds a message class seen for the first time to the dispatch table.
+     *
+     * @param messageClass the class
+     * @return the listeners for messageClass
+     */
+    private synchronized IBlaubotAdminMessageListener[] addToDispatchTable(Class<?> messageClass) {
+        final Map<Class<?>, IBlaubotAdminMessageListener[]> table = new HashMap<>(dispatchTable);
+        final IBlaubotAdminMessageListener[] listeners = collectListeners(messageClass);
+        table.put(messageClass, listeners);
+        dispatchTable = table;
+        return listeners;
+    }
+
+    /**
+     * Recomputes the listeners of all known message classes.
+     * Must be called while holding the monitor.
+     */
+    private void rebuildDispatchTable() {
+        final Map<Class<?>, IBlaubotAdminMessageListener[]> table = new HashMap<>();
+        for (Class<?> messageClass : dispatchTable.keySet()) {
+            table.put(messageClass, collectListeners(messageClass));
+        }
+        dispatchTable = table;
+    }
+
+    /**
+     * Must be called while holding the monitor.
+     *
+     * @param messageClass the message class
+     * @return the listeners of the registrations matching messageClass in registration order
+     */
+    private IBlaubotAdminMessageListener[] collectListeners(Class<?> messageClass) {
+        final List<IBlaubotAdminMessageListener> listeners = new ArrayList<>();
+        for (Registration registration : registrations) {
+            if (registration.matches(messageClass)) {
+                listeners.add(registration.listener);
+            }
+        }
+        return listeners.isEmpty() ? NO_LISTENERS : listeners.toArray(new IBlaubotAdminMessageListener[listeners.size()]);
+    }
+}
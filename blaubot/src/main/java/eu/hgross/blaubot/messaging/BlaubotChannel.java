@@ -1,20 +1,25 @@
 package eu.hgross.blaubot.messaging;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import eu.hgross.blaubot.admin.AddSubscriptionAdminMessage;
+import eu.hgross.blaubot.admin.ReliableAckAdminMessage;
 import eu.hgross.blaubot.admin.RemoveSubscriptionAdminMessage;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.Counter;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
 import eu.hgross.blaubot.util.Log;
 
 
@@ -32,8 +37,20 @@ import eu.hgross.blaubot.util.Log;
  * Messages send via {BlaubotChannel#publish} are added to a bounded queue, which is processed due to
  * a defined message picking strategy (@see {IBlaubotMessagePickerStrategy}).
  * The processing is activated/deactivated by the activate/deactivate methods.
- * If activated, a processing thread uses the specified picker strategy to get messages from the
- * queue and hands this messages to the BlaubotChannelManager.
+ * If activated, the channel's queue is processed on the BlaubotChannelScheduler shared by all channels
+ * of the BlaubotChannelManager, which uses the specified picker strategy to get messages from the
+ * queue and hands this messages to the BlaubotChannelManager. The channel only occupies a scheduler
+ * thread while there are messages to pick.
+ *  
+ * While the message senders to the channel's subscribers are congested (see MessageSenderOverflowPolicy#BLOCK),
+ * the processing pauses and publish calls are refused or block until the congestion is resolved.
+ *  
+ * A conflating channel (see BlaubotChannelConfig#setConflating) holds one slot per conflation key
+ * in its queue instead, so that only the most recent message per key is picked.
+ *  
+ * A reliable channel (see BlaubotChannelConfig#setReliable) holds the picked messages in a bounded
+ * retransmit window until the subscribers acknowledged them and delivers the received messages of
+ * each publisher exactly once and in order.
  *  
  * To influence the MessagePicking and message rates, @see {BlaubotChannel#getChannelConfig}.
  * The picking and rates can be changed at runtime.
@@ -41,12 +58,44 @@ import eu.hgross.blaubot.util.Log;
 public class BlaubotChannel implements IBlaubotChannel {
     private static final String LOG_TAG = "BlaubotChannel";
     /**
-     * Some configurations like "do not transmit reflexive messages", "do not transmit if no subscribers",
-     * internal pause modes, ... leads to skipping the message processing queue.
-     * To avoid infinite loop like load in these cases, we throw in some sleep time in between.
-     * This specific sleep time and threshold is defined by this constant.
+     * Time in ms after which the processing is retried, if the senders to the subscribers are congested.
+     */
+    private static final long CONGESTION_RETRY_DELAY = 20;
+    /**
+     * Time in ms the acks of a reliable channel are collected before they are sent.
+     */
+    private static final long ACK_DELAY = 10;
+    /**
+     * Number of retransmit timeouts after which unsubscribed devices are not waited for anymore.
+     * Covers the subscription handshake after a king change.
+     */
+    private static final int UNSUBSCRIBED_GRACE_TIMEOUTS = 5;
+    /**
+     * Counter of the messages discarded by the picker strategies of all channels
+     */
+    public static final String METRIC_PICKER_DROPS = "channel.pickerDrops";
+    /**
+     * Counter of the publish calls of all channels that were refused (full queue or congestion)
+     */
+    public static final String METRIC_PUBLISH_REJECTED = "channel.publishRejected";
+    /**
+     * Histogram of the time in microseconds from the publish call until the message was handed to the senders
+     * (or the local listeners)
+     */
+    public static final String METRIC_PUBLISH_TO_DELIVER_LATENCY = "channel.publishToDeliverMicros";
+    /**
+     * Counter of the messages of all conflating channels that were overwritten in the queue by a
+     * more recent message before they were picked
      */
-    private static final int LOAD_AVOIDANCE_SLEEPTIME = 50;
+    public static final String METRIC_CONFLATED = "channel.conflated";
+    /**
+     * Counter of the messages of all reliable channels that were retransmitted
+     */
+    public static final String METRIC_RETRANSMISSIONS = "channel.retransmissions";
+    /**
+     * Counter of the received messages of all reliable channels that were already delivered
+     */
+    public static final String METRIC_DUPLICATES = "channel.duplicates";
     /**
      * The channel config used for this channel.
      * Defines the picking strategy and channel id.
@@ -56,6 +105,10 @@ public class BlaubotChannel implements IBlaubotChannel {
      * The channel manager that created this instance (BlaubotChannelManager#createOrGetChannel}
      */
     private final BlaubotChannelManager channelManager;
+    /**
+     * The scheduler shared by all channels of the channel manager, which runs the processingTask.
+     */
+    private final BlaubotChannelScheduler scheduler;
     /**
      * Set of UniqueDeviceIds that subscribed to this channel
      */
@@ -72,9 +125,14 @@ public class BlaubotChannel implements IBlaubotChannel {
 
     /**
      * The bounded queue where all messages go to on {BlaubotChannel#publish} calls.
-     * See the queueProcessor doc.
+     * See the processQueue doc.
+     * Created on the first publish and released by releaseMessageQueue(), null in between.
+     */
+    private volatile BlockingQueue<BlaubotMessage> messageQueue;
+    /**
+     * Guards the creation, replacement and release of the messageQueue.
      */
-    private BlockingQueue<BlaubotMessage> messageQueue;
+    private final Object queueLock = new Object();
 
     /**
      * A boolean that is maintained through creation and removal of subscription and indicates, if
@@ -84,12 +142,6 @@ public class BlaubotChannel implements IBlaubotChannel {
      */
     private volatile boolean ownDeviceIsSubscribed = false;
 
-    /**
-     * ExecutorService used to notify listeners about messages if the transmitReflexiveMessages option
-     * is set to false to not use the same thread for notifications and to send messages.
-     */
-    private ExecutorService notificationExecutorService;
-
     private long sentMessages = 0;
     private long sentBytes = 0;
     private long receivedMessages = 0;
@@ -103,152 +155,116 @@ public class BlaubotChannel implements IBlaubotChannel {
     private AtomicBoolean doNotTransmit = new AtomicBoolean(false);
 
     /**
-     * The queueProcessor is a Runnable, that uses the channel's config to retrieve
-     * the message picker strategy to empty the channel's message queue.
-     * It picks messages and hands them to th channel manager.
+     * True, iff the channel is activated and therefore allowed to process its queue.
      */
-    private final Runnable queueProcessor = new Runnable() {
-        @Override
-        public void run() {
-            try {
-                // suicide if no connections
-                if (!channelManager.hasConnections()) {
-                    if (Log.logWarningMessages()) {
-                        Log.w(LOG_TAG, "The ChannelManager has no connections but the channel is activated. Not picking and will deactivate the channel. ");
-                    }
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            deactivate();
-                        }
-                    }).start();
-                    return;
-                }
-
-                // check if we are allowed to pick
-                if (doNotTransmit.get()) {
-                    // we are not allowed to send, sleep a while if we have a low message rate and come back later
-                    if (channelConfig.getMinMessageRateDelay() < LOAD_AVOIDANCE_SLEEPTIME) {
-                        try {
-                            Thread.sleep(LOAD_AVOIDANCE_SLEEPTIME);
-                        } catch (InterruptedException e) {
-                            return;
-                        }
-                    }
-                    return;
-                }
-
-                /**
-                 * True, iff we are the only subscriber
-                 */
-                boolean weAreOnlySubscriber = false;
-
-                // check if there are subscribers and do nothing, if not told otherwise
-                if (!channelConfig.isTransmitIfNoSubscribers()) {
-                    final int subscribers = subscriptions.size();
-                    if (subscribers == 0) {
-                        // we don't send anything, no subscribers at all
-                        if (channelConfig.getMinMessageRateDelay() < LOAD_AVOIDANCE_SLEEPTIME) {
-                            try {
-                                // sleep some time to avoid useless load generation.
-                                Thread.sleep(LOAD_AVOIDANCE_SLEEPTIME);
-                                return;
-                            } catch (InterruptedException e) {
-                                return;
-                            }
-                        }
-                    } else if (subscribers == 1 && ownDeviceIsSubscribed) {
-                        weAreOnlySubscriber = true;
-                    }
-                }
+    private volatile boolean active = false;
+    /**
+     * True, iff the processingTask is submitted to the scheduler (or delayed or running).
+     * Guarantees that a channel occupies at most one worker at a time.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    /**
+     * Guards the passThread. Notified when a pass finished.
+     */
+    private final Object processingLock = new Object();
+    /**
+     * The thread running a processing or retransmission pass, null if none is running.
+     * Passes are mutually exclusive and deactivate() waits for a running pass to finish.
+     * Guarded by processingLock.
+     */
+    private Thread passThread = null;
+    /**
+     * Locks the activation state changes.
+     */
+    private final Object activateDeactivateMonitor = new Object();
 
-                final IBlaubotMessagePickerStrategy picker = channelConfig.getMessagePicker();
-                final BlaubotMessage blaubotMessage = picker.pickNextMessage(messageQueue);
-                if (blaubotMessage != null) {
-                    final boolean transmitReflexiveMessages = channelConfig.isTransmitReflexiveMessages();
-                    boolean excludeSenderFlagWasSet = blaubotMessage.getMessageType().isSenderExcluded();
-                    if (!transmitReflexiveMessages) {
-                        // we don't want to get this mesage from the master
-                        // we have to make sure to set the exclude flag on the message
-                        blaubotMessage.getMessageType().setExcludeSender(true);
-                    }
-                    final boolean publishToConnections = !(weAreOnlySubscriber && !transmitReflexiveMessages);
-                    boolean wasNotSendToAnyConnection = true;
-                    // only publish to master, if needed (respect transmitReflexiveMssages option) 
-                    if (publishToConnections) {
-                        final int connectionCount = channelManager.publishChannelMessage(blaubotMessage);
-                        wasNotSendToAnyConnection = connectionCount <= 0;
-                        if (wasNotSendToAnyConnection) {
-                            if (Log.logWarningMessages()) {
-                                Log.w(LOG_TAG, "A picked message was not committed to any MessageSender.");
-                            }
-                        }
-                    }
+    /**
+     * The unacknowledged messages published by us, if reliable.
+     * Created on the first reliable pick.
+     */
+    private volatile BlaubotRetransmitWindow retransmitWindow;
+    /**
+     * The reception state of the publishers, if reliable.
+     */
+    private final BlaubotReorderBuffer reorderBuffer = new BlaubotReorderBuffer();
+    /**
+     * True, iff the ackTask is scheduled.
+     */
+    private final AtomicBoolean ackScheduled = new AtomicBoolean(false);
+    /**
+     * True, iff the retransmitTask is scheduled.
+     */
+    private final AtomicBoolean retransmitScheduled = new AtomicBoolean(false);
+    /**
+     * True, iff the held messages have to be replayed to the master, as soon as the channel
+     * may transmit (see activate()).
+     */
+    private final AtomicBoolean replayPending = new AtomicBoolean(false);
 
-                    // messages to our own device shall not be received through the master device but 
-                    // have to be dispatched by the channel directly to save network traffic (1 hop, back from the mater to us)
-                    final boolean notifyLocalListeners = !transmitReflexiveMessages && ownDeviceIsSubscribed;
-                    if (notifyLocalListeners) {
-                        // -- notify in new thread (to not mix up send and notification threads)
-                        // we will not receive it again from the master device because the excludeSender flag will be set on the message,
-                        // if isTransmitReflexiveMessages is false (see above).
-
-                        // we finally check the prior state of the flag to know, if we have to dispatch it locally
-                        if (!excludeSenderFlagWasSet) {
-                            notificationExecutorService.execute(new Runnable() {
-                                @Override
-                                public void run() {
-                                    BlaubotChannel.this.notify(blaubotMessage);
-                                }
-                            });
-                        }
-                    }
+    private final Counter pickerDropsCounter;
+    private final Counter publishRejectedCounter;
+    private final Counter conflatedCounter;
+    private final Counter retransmissionsCounter;
+    private final Counter duplicatesCounter;
+    private final LatencyHistogram publishToDeliverHistogram;
 
-                    if (!wasNotSendToAnyConnection || notifyLocalListeners) {
-                        sentBytes += blaubotMessage.getPayload().length;
-                        sentMessages += 1;
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw e;
-            }
+    /**
+     * The task handed to the scheduler to process the queue.
+     */
+    private final Runnable processingTask = new Runnable() {
+        @Override
+        public void run() {
+            processQueue();
         }
     };
 
     /**
-     * A runnable that just loops over the queue looper over and over again by adding it to the executor
-     * after one run again
+     * The task handed to the scheduler to send the collected acks.
      */
-    private final Runnable queueLooperTask = new Runnable() {
+    private final Runnable ackTask = new Runnable() {
         @Override
         public void run() {
-            queueProcessor.run();
-
-            final ExecutorService service = BlaubotChannel.this.queueProcessorExecutorService;
-            if (service != null) {
-                try {
-                    service.execute(queueLooperTask);
-                } catch (RejectedExecutionException e) {
-                    // executor is shutting dow
-                }
-            } // else: we are done (probably deactivated)
+            ackScheduled.set(false);
+            final List<ReliableAckAdminMessage> acks = reorderBuffer.collectAcks(channelConfig.getChannelId(), channelManager.getOwnUniqueDeviceId());
+            for (ReliableAckAdminMessage ack : acks) {
+                channelManager.sendReliableAck(ack);
+            }
         }
     };
 
     /**
-     * The ExecutorService that is used to run the queueProcessor.
-     * It is created/shut down by the activate/deactivate methods.
+     * The task handed to the scheduler to retransmit the unacknowledged messages.
      */
-    private volatile ExecutorService queueProcessorExecutorService;
+    private final Runnable retransmitTask = new Runnable() {
+        @Override
+        public void run() {
+            retransmitScheduled.set(false);
+            retransmit();
+        }
+    };
+
     /**
-     * The max time for the queueProcessorExecutorService to shut down on deactivate()
+     * The task handed to the scheduler to replay the held messages, once the transmission is
+     * unblocked. The periodic retransmitTask stays scheduled.
      */
-    private static final long TERMINATION_TIMEOUT = 5000;
+    private final Runnable replayTask = new Runnable() {
+        @Override
+        public void run() {
+            if (replayPending.get()) {
+                retransmit();
+            }
+        }
+    };
+
     /**
-     * Locks access to the queueProcessorExecutorService variable.
+     * The listener the reorder buffer delivers the in-order messages to.
      */
-    private final Object activateDeactivateMonitor = new Object();
+    private final BlaubotReorderBuffer.IDeliveryListener deliveryListener = new BlaubotReorderBuffer.IDeliveryListener() {
+        @Override
+        public void deliver(BlaubotMessage message) {
+            notifyListeners(message);
+        }
+    };
 
 
     /**
@@ -262,8 +278,14 @@ public class BlaubotChannel implements IBlaubotChannel {
         this.channelManager = channelManager;
         this.channelConfig = new BlaubotChannelConfig(channelId);
         this.channelConfig.addObserver(channelConfigObserver);
-        this.notificationExecutorService = Executors.newCachedThreadPool();
-        this.setUpMessageQueue();
+        this.scheduler = channelManager.getChannelScheduler();
+        final BlaubotMetricsRegistry metricsRegistry = channelManager.getMetricsRegistry();
+        this.pickerDropsCounter = metricsRegistry.counter(METRIC_PICKER_DROPS);
+        this.publishRejectedCounter = metricsRegistry.counter(METRIC_PUBLISH_REJECTED);
+        this.conflatedCounter = metricsRegistry.counter(METRIC_CONFLATED);
+        this.retransmissionsCounter = metricsRegistry.counter(METRIC_RETRANSMISSIONS);
+        this.duplicatesCounter = metricsRegistry.counter(METRIC_DUPLICATES);
+        this.publishToDeliverHistogram = metricsRegistry.histogram(METRIC_PUBLISH_TO_DELIVER_LATENCY);
     }
 
     /**
@@ -272,7 +294,14 @@ public class BlaubotChannel implements IBlaubotChannel {
      * are appended to the new one.
      */
     private void setUpMessageQueue() {
-        final ArrayBlockingQueue<BlaubotMessage> newMessageQueue = new ArrayBlockingQueue<>(channelConfig.getQueueCapacity());
+        synchronized (queueLock) {
+            _setUpMessageQueue();
+        }
+    }
+
+    private void _setUpMessageQueue() {
+        final int capacity = channelConfig.getQueueCapacity();
+        final BlockingQueue<BlaubotMessage> newMessageQueue = isConflating() ? new BlaubotConflatingMessageQueue(capacity, conflatedCounter) : new ArrayBlockingQueue<BlaubotMessage>(capacity);
         int sizeBefore = 0;
         boolean allTransferred = true;
         if (this.messageQueue != null) {
@@ -298,6 +327,75 @@ public class BlaubotChannel implements IBlaubotChannel {
         }
     }
 
+    /**
+     * @param queue the message queue
+     * @return true, iff the queue's capacity and kind (conflating or not) match the channel config
+     */
+    private boolean isQueueConfigured(BlockingQueue<BlaubotMessage> queue) {
+        return queue.size() + queue.remainingCapacity() == channelConfig.getQueueCapacity() && (queue instanceof BlaubotConflatingMessageQueue) == channelConfig.isConflating();
+    }
+
+    /**
+     * @return the message queue, created if needed
+     */
+    private BlockingQueue<BlaubotMessage> getOrCreateMessageQueue() {
+        BlockingQueue<BlaubotMessage> queue = messageQueue;
+        if (queue == null) {
+            synchronized (queueLock) {
+                if (messageQueue == null) {
+                    _setUpMessageQueue();
+                }
+                queue = messageQueue;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Adds a message to the message queue.
+     *
+     * @param blaubotMessage the message
+     * @param timeout        the max time in ms to wait for space in the queue, a negative value to not wait at all
+     * @return true, iff the message was added
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    private boolean offerToQueue(BlaubotMessage blaubotMessage, long timeout) throws InterruptedException {
+        while (true) {
+            final BlockingQueue<BlaubotMessage> queue = getOrCreateMessageQueue();
+            final boolean added = timeout < 0 ? queue.offer(blaubotMessage) : queue.offer(blaubotMessage, timeout, TimeUnit.MILLISECONDS);
+            if (!added || messageQueue == queue || !queue.remove(blaubotMessage)) {
+                // -- not added, or added to the current queue or moved from a replaced queue to the current one
+                return added;
+            }
+            // -- the queue was released meanwhile, retry with a new one
+        }
+    }
+
+    /**
+     * Releases the message queue, if it is empty.
+     * A new queue is created on the next publish.
+     *
+     * @return true, iff the queue was released
+     */
+    protected boolean releaseMessageQueue() {
+        synchronized (queueLock) {
+            final BlockingQueue<BlaubotMessage> queue = messageQueue;
+            if (queue == null || !queue.isEmpty()) {
+                return false;
+            }
+            messageQueue = null;
+            return true;
+        }
+    }
+
+    /**
+     * @return true, iff there are no messages in the queue
+     */
+    private boolean isQueueEmpty() {
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        return queue == null || queue.isEmpty();
+    }
+
     /**
      * Listens to changes of the channel config at runtime and restarts
      * the channel if needed.
@@ -313,6 +411,9 @@ public class BlaubotChannel implements IBlaubotChannel {
                     // restart channel, if the config notified that this is necessary, which is
                     // told us by the second arg - yeah we could introduce a new listener, but why.
                     restart();
+                } else {
+                    // rates or picking changed, make sure a waiting queue is processed
+                    scheduleProcessing();
                 }
             }
         }
@@ -333,6 +434,11 @@ public class BlaubotChannel implements IBlaubotChannel {
             if (Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " was not activated before the restart. Not activating the channel.");
             }
+            synchronized (queueLock) {
+                if (messageQueue != null && !isQueueConfigured(messageQueue)) {
+                    _setUpMessageQueue();
+                }
+            }
         }
     }
 
@@ -344,7 +450,23 @@ public class BlaubotChannel implements IBlaubotChannel {
     @Override
     public boolean publish(BlaubotMessage blaubotMessage, boolean excludeSender) {
         setUpChannelMessage(blaubotMessage, excludeSender);
-        final boolean addedToQueue = messageQueue.offer(blaubotMessage);
+        if (channelManager.isCongested(this)) {
+            publishRejectedCounter.increment();
+            return false;
+        }
+        final boolean addedToQueue;
+        try {
+            addedToQueue = offerToQueue(blaubotMessage, -1);
+        } catch (InterruptedException e) {
+            // does not happen without a timeout
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (addedToQueue) {
+            scheduleProcessing();
+        } else {
+            publishRejectedCounter.increment();
+        }
         return addedToQueue;
     }
 
@@ -356,8 +478,20 @@ public class BlaubotChannel implements IBlaubotChannel {
     @Override
     public boolean publish(BlaubotMessage blaubotMessage, long timeout, boolean excludeSender) {
         setUpChannelMessage(blaubotMessage, excludeSender);
+        final long deadline = System.currentTimeMillis() + timeout;
+        if (!channelManager.awaitUncongested(this, timeout)) {
+            publishRejectedCounter.increment();
+            return false;
+        }
         try {
-            return messageQueue.offer(blaubotMessage, timeout, TimeUnit.MILLISECONDS);
+            final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            final boolean addedToQueue = offerToQueue(blaubotMessage, remaining);
+            if (addedToQueue) {
+                scheduleProcessing();
+            } else {
+                publishRejectedCounter.increment();
+            }
+            return addedToQueue;
         } catch (InterruptedException e) {
             if (Log.logWarningMessages()) {
                 Log.w(LOG_TAG, "Got interrupted trying to offer a message to the queue. Message was not added: " + blaubotMessage);
@@ -401,6 +535,29 @@ public class BlaubotChannel implements IBlaubotChannel {
         blaubotMessage.getMessageType().setIsFirstHop(true);
         blaubotMessage.setPriority(channelConfig.getPriority());
         blaubotMessage.getMessageType().setExcludeSender(excludeSender);
+        blaubotMessage.publishTime = System.nanoTime();
+        blaubotMessage.conflationKey = isConflating() ? createConflationKey(blaubotMessage, channelManager.getOwnUniqueDeviceId()) : null;
+    }
+
+    /**
+     * @return true, iff the messages of this channel are conflated (reliable channels are never conflated)
+     */
+    private boolean isConflating() {
+        return channelConfig.isConflating() && !channelConfig.isReliable();
+    }
+
+    /**
+     * Creates the key of the conflation slot for a message of this (conflating) channel.
+     *
+     * @param blaubotMessage       the message
+     * @param senderUniqueDeviceId the unique device id of the device that published the message
+     * @return the key
+     */
+    protected BlaubotConflationKey createConflationKey(BlaubotMessage blaubotMessage, String senderUniqueDeviceId) {
+        final IBlaubotConflationKeyExtractor extractor = channelConfig.getConflationKeyExtractor();
+        // the payload of a compressed message is not readable for the extractor
+        final Object applicationKey = extractor != null && !blaubotMessage.getMessageType().isCompressed() ? extractor.getConflationKey(blaubotMessage) : null;
+        return new BlaubotConflationKey(channelConfig.getChannelId(), senderUniqueDeviceId, applicationKey);
     }
 
 
@@ -484,6 +641,8 @@ public class BlaubotChannel implements IBlaubotChannel {
             }
         }
         notifySubscriptionAdded(uniqueDeviceID, channelConfig.getChannelId());
+        // messages may have been held back due to missing subscribers
+        scheduleProcessing();
     }
 
     /**
@@ -513,6 +672,42 @@ public class BlaubotChannel implements IBlaubotChannel {
      * @param message the message posted to this channel
      */
     protected void notify(BlaubotMessage message) {
+        if (message.getMessageType().isCompressed()) {
+            try {
+                // decompress into a copy, the master may still have queued the received message for other subscribers
+                final BlaubotMessage compressedMessage = message;
+                message = BlaubotMessage.copyHeaderWithPayload(compressedMessage, BlaubotPayloadCodecs.decompress(compressedMessage.getPayload()));
+                message.getMessageType().setIsCompressed(false);
+            } catch (IOException e) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "Dropping message on channel #" + channelConfig.getChannelId() + ", failed to decompress the payload: " + e.getMessage());
+                }
+                return;
+            }
+        }
+        if (!channelConfig.isReliable()) {
+            notifyListeners(message);
+            return;
+        }
+        try {
+            if (!reorderBuffer.receive(message, channelConfig.getRetransmitWindowSize(), deliveryListener)) {
+                duplicatesCounter.increment();
+            }
+        } catch (IllegalArgumentException e) {
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Dropping message on reliable channel #" + channelConfig.getChannelId() + ": " + e.getMessage());
+            }
+            return;
+        }
+        scheduleAck();
+    }
+
+    /**
+     * Hands a received message to the attached listeners.
+     *
+     * @param message the (uncompressed) message with the application payload
+     */
+    private void notifyListeners(BlaubotMessage message) {
         receivedBytes += message.getPayload().length;
         receivedMessages += 1;
         for (IBlaubotMessageListener listener : messageListeners) {
@@ -520,6 +715,117 @@ public class BlaubotChannel implements IBlaubotChannel {
         }
     }
 
+    /**
+     * Schedules the sending of the acks for the received messages of this reliable channel, if not
+     * already scheduled.
+     */
+    private void scheduleAck() {
+        if (!ackScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.scheduleDelayed(ackTask, ACK_DELAY);
+        } catch (RejectedExecutionException e) {
+            // scheduler is shut down
+            ackScheduled.set(false);
+        }
+    }
+
+    /**
+     * Processes an ack for messages published by us on this reliable channel.
+     * Gets called from the outside (BlaubotChannelManager.messageDispatcher).
+     *
+     * @param ack the ack
+     */
+    protected void onReliableAck(ReliableAckAdminMessage ack) {
+        final BlaubotRetransmitWindow window = retransmitWindow;
+        if (window == null) {
+            return;
+        }
+        final int released = window.onAck(ack.getEpoch(), ack.getAckingUniqueDeviceId(), ack.getCumulativeAck(), ack.getSelectiveAcks());
+        if (released > 0) {
+            // the window may have been full
+            scheduleProcessing();
+        }
+    }
+
+    /**
+     * @return the retransmit window of this channel
+     */
+    private BlaubotRetransmitWindow getOrCreateRetransmitWindow() {
+        BlaubotRetransmitWindow window = retransmitWindow;
+        if (window == null) {
+            synchronized (queueLock) {
+                window = retransmitWindow;
+                if (window == null) {
+                    window = new BlaubotRetransmitWindow(channelManager.getOwnUniqueDeviceId(), channelConfig.getRetransmitWindowSize());
+                    retransmitWindow = window;
+                }
+            }
+        }
+        window.setCapacity(channelConfig.getRetransmitWindowSize());
+        return window;
+    }
+
+    /**
+     * Schedules the check for unacknowledged messages of this reliable channel, if not already scheduled.
+     *
+     * @param delay the delay in ms
+     */
+    private void scheduleRetransmit(long delay) {
+        if (!retransmitScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.scheduleDelayed(retransmitTask, delay);
+        } catch (RejectedExecutionException e) {
+            // scheduler is shut down
+            retransmitScheduled.set(false);
+        }
+    }
+
+    /**
+     * Retransmits the messages that were not acknowledged within the retransmit timeout and
+     * re-schedules itself as long as there are unacknowledged messages.
+     */
+    private void retransmit() {
+        final BlaubotRetransmitWindow window = retransmitWindow;
+        if (window == null || window.isEmpty()) {
+            return;
+        }
+        final long retransmitTimeout = channelConfig.getRetransmitTimeout();
+        try {
+            if (beginPass()) {
+                try {
+                    final boolean connected = !doNotTransmit.get() && channelManager.hasConnections();
+                    if (connected && !channelManager.isCongested(this)) {
+                        final List<BlaubotMessage> retransmissions = window.collectRetransmissions(System.currentTimeMillis(), retransmitTimeout, subscriptions, true, UNSUBSCRIBED_GRACE_TIMEOUTS * retransmitTimeout);
+                        for (BlaubotMessage retransmission : retransmissions) {
+                            channelManager.publishChannelMessage(compressIfConfigured(retransmission));
+                        }
+                        retransmissionsCounter.add(retransmissions.size());
+                        replayPending.set(false);
+                        if (!retransmissions.isEmpty() && Log.logDebugMessages()) {
+                            Log.d(LOG_TAG, "Retransmitted " + retransmissions.size() + " messages on BlaubotChannel #" + channelConfig.getChannelId());
+                        }
+                    }
+                } finally {
+                    endPass();
+                }
+            }
+        } catch (RuntimeException e) {
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Failed to retransmit the messages of BlaubotChannel #" + channelConfig.getChannelId(), e);
+            }
+        }
+        if (!window.isEmpty()) {
+            scheduleRetransmit(retransmitTimeout);
+        } else {
+            // released unsubscribed devices may have freed the window
+            scheduleProcessing();
+        }
+    }
+
     /**
      * The channel config specifying the message picking strategy and message rates as well
      * as the id.
@@ -535,7 +841,10 @@ public class BlaubotChannel implements IBlaubotChannel {
 
     @Override
     public void clearMessageQueue() {
-        messageQueue.clear();
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        if (queue != null) {
+            queue.clear();
+        }
     }
 
     /**
@@ -588,28 +897,28 @@ public class BlaubotChannel implements IBlaubotChannel {
             Log.d(LOG_TAG, "Activating BlaubotChannel #" + channelConfig.getChannelId() + " ...");
         }
         synchronized (activateDeactivateMonitor) {
-            if (queueProcessorExecutorService != null) {
-                if (Log.logWarningMessages()) {
-                    // TODO actually not a warning and might happen -> debug when evaluated
-                    Log.w(LOG_TAG, "activate() called but channel was already activated. Doing nothing!");
+            if (active) {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "activate() called but channel was already activated.");
                 }
+                // a connection may have been added, so we could be able to transmit again
+                scheduleProcessing();
                 return;
             }
-            // check if we have to adjust the queue size
-            if (messageQueue.size() != channelConfig.getQueueCapacity()) {
+            // check if we have to adjust the queue size or kind
+            final BlockingQueue<BlaubotMessage> queue = messageQueue;
+            if (queue != null && !isQueueConfigured(queue)) {
                 setUpMessageQueue();
             }
-
-            // TODO: there is a 1 ms delay for the pick all strategy but we want minMessageRateDelay = 0 to be possible. We just have to use a while loop instead of the fixed delay scheduler here 
-            final int minMessageRateDelay = channelConfig.getMinMessageRateDelay();
-            if (minMessageRateDelay <= 0) {
-                queueProcessorExecutorService = Executors.newSingleThreadExecutor();
-                queueProcessorExecutorService.submit(queueLooperTask);
-            } else {
-                // -- minMessageRateDelay > 0
-                queueProcessorExecutorService = Executors.newSingleThreadScheduledExecutor();
-                ((ScheduledExecutorService) queueProcessorExecutorService).scheduleWithFixedDelay(queueProcessor, 0, minMessageRateDelay, TimeUnit.MILLISECONDS);
-            }
+            active = true;
+        }
+        scheduleProcessing();
+        final BlaubotRetransmitWindow window = retransmitWindow;
+        if (window != null && !window.isEmpty()) {
+            // replay the unacknowledged messages to the (possibly new) master
+            window.requestReplay();
+            replayPending.set(true);
+            scheduleRetransmit(0);
         }
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " activated.");
@@ -618,7 +927,7 @@ public class BlaubotChannel implements IBlaubotChannel {
 
     /**
      * Deactivates the channel and therefore the message picking.
-     * Blocks until the channel has shut down!
+     * Blocks until a currently running processing pass has finished!
      *
      * @return true, iff the channel was activated before
      */
@@ -626,33 +935,275 @@ public class BlaubotChannel implements IBlaubotChannel {
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "Deactivating BlaubotChannel #" + channelConfig.getChannelId() + " ...");
         }
-        boolean wasActivated = false;
+        final boolean wasActivated;
         synchronized (activateDeactivateMonitor) {
-            if (queueProcessorExecutorService != null) {
-                queueProcessorExecutorService.shutdownNow();
+            wasActivated = active;
+            active = false;
+            // wait for a running pass, following passes won't pick anything
+            awaitRunningPass();
+        }
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " deactivated.");
+        }
+        return wasActivated;
+    }
+
+    /**
+     * @return true, iff active
+     */
+    protected boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Hands the processingTask to the scheduler, if it is not already scheduled.
+     * Called whenever the queue may be processable again: a message was published, the channel
+     * was activated, a subscription was added or the transmission was unblocked.
+     */
+    private void scheduleProcessing() {
+        if (!active || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.schedule(processingTask);
+        } catch (RejectedExecutionException e) {
+            // scheduler is shut down
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Processes the queue in one pass on a scheduler thread.
+     * Picks up to BlaubotChannelScheduler.MAX_MESSAGES_PER_RUN messages (one, if a minMessageRateDelay
+     * is configured) and then either re-schedules itself, if there is more to do, or goes idle until
+     * the next scheduleProcessing() call.
+     */
+    private void processQueue() {
+        final int minMessageRateDelay = channelConfig.getMinMessageRateDelay();
+        final boolean rateLimited = minMessageRateDelay > 0;
+        int picked = 0;
+        boolean congested = false;
+        try {
+            if (beginPass()) {
                 try {
-                    final boolean timedOut = !queueProcessorExecutorService.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS);
-                    if (timedOut) {
-                        throw new RuntimeException("Could not stop channel");
+                    final int budget = rateLimited ? 1 : BlaubotChannelScheduler.MAX_MESSAGES_PER_RUN;
+                    while (picked < budget && canTransmit()) {
+                        congested = channelManager.isCongested(this);
+                        if (congested || !pickAndPublish()) {
+                            break;
+                        }
+                        picked += 1;
                     }
+                } finally {
+                    endPass();
+                }
+            }
+        } catch (RuntimeException e) {
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Failed to process the queue of BlaubotChannel #" + channelConfig.getChannelId(), e);
+            }
+        }
+
+        if (((rateLimited && picked > 0) || congested) && active) {
+            // keep the scheduled flag, we come back after the delay
+            try {
+                scheduler.scheduleDelayed(processingTask, congested ? CONGESTION_RETRY_DELAY : minMessageRateDelay);
+                return;
+            } catch (RejectedExecutionException e) {
+                // scheduler is shut down
+            }
+        }
+        scheduled.set(false);
+        // a message could have been published after our last pick but before the flag was reset
+        if (active && !isQueueEmpty() && canTransmit()) {
+            scheduleProcessing();
+        }
+    }
+
+    /**
+     * Starts a processing or retransmission pass on the current thread, waiting for a running
+     * pass to finish first.
+     *
+     * @return true, iff the pass was started, false if the channel is not active
+     */
+    private boolean beginPass() {
+        synchronized (processingLock) {
+            while (passThread != null) {
+                try {
+                    processingLock.wait();
                 } catch (InterruptedException e) {
-                    // ignore
+                    Thread.currentThread().interrupt();
+                    return false;
                 }
-                wasActivated = true;
             }
-            queueProcessorExecutorService = null;
+            if (!active) {
+                return false;
+            }
+            passThread = Thread.currentThread();
+            return true;
         }
-        if (Log.logDebugMessages()) {
-            Log.d(LOG_TAG, "BlaubotChannel #" + channelConfig.getChannelId() + " deactivated.");
+    }
+
+    /**
+     * Finishes the pass started by beginPass().
+     */
+    private void endPass() {
+        synchronized (processingLock) {
+            passThread = null;
+            processingLock.notifyAll();
         }
-        return wasActivated;
     }
 
     /**
-     * @return true, iff active (= executor started)
+     * Blocks until a running pass has finished, unless it is run by the calling thread.
      */
-    protected boolean isActive() {
-        return queueProcessorExecutorService != null;
+    private void awaitRunningPass() {
+        synchronized (processingLock) {
+            while (passThread != null && passThread != Thread.currentThread()) {
+                try {
+                    processingLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether messages may be picked from the queue right now.
+     *
+     * @return false, if there are no connections, transmission is blocked or there are no subscribers (and we should not transmit without)
+     */
+    private boolean canTransmit() {
+        if (doNotTransmit.get() || !channelManager.hasConnections()) {
+            return false;
+        }
+        if (channelConfig.isReliable()) {
+            final BlaubotRetransmitWindow window = retransmitWindow;
+            if (window != null && window.isFull()) {
+                // wait for acks
+                return false;
+            }
+        }
+        return channelConfig.isTransmitIfNoSubscribers() || !subscriptions.isEmpty();
+    }
+
+    /**
+     * Uses the channel's picker strategy to pick the next message from the queue and hands it to the
+     * channel manager (and to the local listeners, if needed).
+     *
+     * @return true, iff a message was picked
+     */
+    private boolean pickAndPublish() {
+        final boolean reliable = channelConfig.isReliable();
+        /**
+         * True, iff we are the only subscriber
+         */
+        boolean weAreOnlySubscriber = false;
+        if (!channelConfig.isTransmitIfNoSubscribers()) {
+            weAreOnlySubscriber = subscriptions.size() == 1 && ownDeviceIsSubscribed;
+        }
+
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        if (queue == null) {
+            return false;
+        }
+        final IBlaubotMessagePickerStrategy picker = channelConfig.getMessagePicker();
+        final int queueSizeBefore = queue.size();
+        final BlaubotMessage pickedMessage = picker.pickNextMessage(queue);
+        if (pickedMessage == null) {
+            return false;
+        }
+        // messages the picker discarded besides the picked one (concurrent publishes may hide some)
+        final int discarded = queueSizeBefore - queue.size() - 1;
+        if (discarded > 0) {
+            pickerDropsCounter.add(discarded);
+        }
+        final boolean transmitReflexiveMessages = channelConfig.isTransmitReflexiveMessages();
+        boolean excludeSenderFlagWasSet = pickedMessage.getMessageType().isSenderExcluded();
+        if (!transmitReflexiveMessages) {
+            // we don't want to get this mesage from the master
+            // we have to make sure to set the exclude flag on the message
+            pickedMessage.getMessageType().setExcludeSender(true);
+        }
+        final BlaubotMessage blaubotMessage;
+        if (reliable) {
+            // all current subscribers have to acknowledge the message, including us, if we deliver it to ourselves
+            final Set<String> pendingDevices = new HashSet<>(subscriptions);
+            if (excludeSenderFlagWasSet) {
+                pendingDevices.remove(channelManager.getOwnUniqueDeviceId());
+            }
+            final BlaubotRetransmitWindow window = getOrCreateRetransmitWindow();
+            blaubotMessage = window.add(pickedMessage, pendingDevices, System.currentTimeMillis());
+            if (!window.isEmpty()) {
+                scheduleRetransmit(channelConfig.getRetransmitTimeout());
+            }
+        } else {
+            blaubotMessage = pickedMessage;
+        }
+        final boolean publishToConnections = !(weAreOnlySubscriber && !transmitReflexiveMessages);
+        boolean wasNotSendToAnyConnection = true;
+        // only publish to master, if needed (respect transmitReflexiveMssages option)
+        if (publishToConnections) {
+            final int connectionCount = channelManager.publishChannelMessage(compressIfConfigured(blaubotMessage));
+            wasNotSendToAnyConnection = connectionCount <= 0;
+            if (wasNotSendToAnyConnection) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "A picked message was not committed to any MessageSender.");
+                }
+            }
+        }
+
+        // messages to our own device shall not be received through the master device but
+        // have to be dispatched by the channel directly to save network traffic (1 hop, back from the mater to us)
+        final boolean notifyLocalListeners = !transmitReflexiveMessages && ownDeviceIsSubscribed;
+        if (notifyLocalListeners) {
+            // -- notify in another thread (to not mix up send and notification threads)
+            // we will not receive it again from the master device because the excludeSender flag will be set on the message,
+            // if isTransmitReflexiveMessages is false (see above).
+
+            // we finally check the prior state of the flag to know, if we have to dispatch it locally
+            if (!excludeSenderFlagWasSet) {
+                scheduler.executeNotification(new Runnable() {
+                    @Override
+                    public void run() {
+                        BlaubotChannel.this.notify(blaubotMessage);
+                    }
+                });
+            }
+        }
+
+        if (!wasNotSendToAnyConnection || notifyLocalListeners) {
+            sentBytes += blaubotMessage.getPayload().length;
+            sentMessages += 1;
+            publishToDeliverHistogram.record((System.nanoTime() - blaubotMessage.publishTime) / 1000);
+        }
+        return true;
+    }
+
+    /**
+     * Creates the message to be transmitted with a compressed payload, if a codec is configured
+     * and the compression is worth it.
+     * The message itself is not altered, since it may also be dispatched locally.
+     *
+     * @param blaubotMessage the picked message
+     * @return the message with the compressed payload or blaubotMessage, if not compressed
+     */
+    private BlaubotMessage compressIfConfigured(BlaubotMessage blaubotMessage) {
+        final IBlaubotPayloadCodec codec = channelConfig.getPayloadCodec();
+        final byte[] payload = blaubotMessage.getPayload();
+        if (codec == null || payload.length < channelConfig.getCompressionThreshold() || blaubotMessage.getMessageType().isCompressed()) {
+            return blaubotMessage;
+        }
+        final byte[] compressed = BlaubotPayloadCodecs.compress(codec, payload);
+        if (compressed == null) {
+            return blaubotMessage;
+        }
+        final BlaubotMessage compressedMessage = BlaubotMessage.copyHeaderWithPayload(blaubotMessage, compressed);
+        compressedMessage.getMessageType().setIsCompressed(true);
+        compressedMessage.conflationKey = blaubotMessage.conflationKey;
+        return compressedMessage;
     }
 
     /**
@@ -670,7 +1221,8 @@ public class BlaubotChannel implements IBlaubotChannel {
      * @return current amount of messages in the queue
      */
     protected int getQueueSize() {
-        return messageQueue.size();
+        final BlockingQueue<BlaubotMessage> queue = messageQueue;
+        return queue == null ? 0 : queue.size();
     }
 
     /**
@@ -718,5 +1270,16 @@ public class BlaubotChannel implements IBlaubotChannel {
      */
     protected void setDoNotTransmit(boolean doNotTransmit) {
         this.doNotTransmit.set(doNotTransmit);
+        if (!doNotTransmit) {
+            scheduleProcessing();
+            if (replayPending.get()) {
+                // the replay requested on activation was blocked by the handshake
+                try {
+                    scheduler.schedule(replayTask);
+                } catch (RejectedExecutionException e) {
+                    // scheduler is shut down
+                }
+            }
+        }
     }
 }
@@ -20,6 +20,18 @@ public class BlaubotChannelConfig extends Observable {
      * Default maximum size of the message queue
      */
     private static final int DEFAULT_QUEUE_CAPACITY = 200;
+    /**
+     * Default min payload size in bytes for messages to be compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 128;
+    /**
+     * Default max number of unacknowledged messages of a reliable channel.
+     */
+    public static final int DEFAULT_RETRANSMIT_WINDOW_SIZE = 64;
+    /**
+     * Default time in ms after which unacknowledged messages of a reliable channel are retransmitted.
+     */
+    public static final long DEFAULT_RETRANSMIT_TIMEOUT = 1000;
     /**
      * The channel id for this channel.
      */
@@ -55,6 +67,42 @@ public class BlaubotChannelConfig extends Observable {
      * If set to true, messages are sent even if there are no (yet known) subscribers to this channel.
      */
     private volatile boolean transmitIfNoSubscribers = false;
+
+    /**
+     * The codec used to compress the payloads of published messages, null if not compressed.
+     */
+    private volatile IBlaubotPayloadCodec payloadCodec = null;
+
+    /**
+     * Messages with smaller payloads are not compressed.
+     */
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * If set to true, only the most recent message per sender (and conflation key) is kept in the
+     * queues instead of all messages.
+     */
+    private volatile boolean conflating = false;
+
+    /**
+     * Extracts the application defined conflation keys, null to conflate per sender only.
+     */
+    private volatile IBlaubotConflationKeyExtractor conflationKeyExtractor = null;
+
+    /**
+     * If set to true, messages are acknowledged by the subscribers and retransmitted if needed.
+     */
+    private volatile boolean reliable = false;
+
+    /**
+     * The max number of unacknowledged messages of a reliable channel.
+     */
+    private volatile int retransmitWindowSize = DEFAULT_RETRANSMIT_WINDOW_SIZE;
+
+    /**
+     * The time in ms after which unacknowledged messages of a reliable channel are retransmitted.
+     */
+    private volatile long retransmitTimeout = DEFAULT_RETRANSMIT_TIMEOUT;
     
     /**
      * Constructs a channel config for a channel id using the default
@@ -284,6 +332,192 @@ public class BlaubotChannelConfig extends Observable {
     }
 
 
+    /**
+     * Sets the codec used to compress the payloads of messages published to this channel.
+     * The receiving devices decompress the payloads before they are handed to the listeners.
+     * Payloads smaller than the compression threshold or that do not get smaller are sent uncompressed.
+     *
+     * The codec has to be known to all devices (see BlaubotPayloadCodecs#register), the built in
+     * BlaubotPayloadCodecs.DEFLATE and BlaubotPayloadCodecs.LZ always are.
+     *
+     * @param payloadCodec the codec or null to disable compression
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setPayloadCodec(IBlaubotPayloadCodec payloadCodec) {
+        if (payloadCodec != null && BlaubotPayloadCodecs.getCodec(payloadCodec.getCodecId()) != payloadCodec) {
+            throw new IllegalArgumentException("The codec is not registered. Use BlaubotPayloadCodecs.register() on all devices first.");
+        }
+        this.payloadCodec = payloadCodec;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * @return the codec used to compress the payloads of messages published to this channel or null
+     */
+    public IBlaubotPayloadCodec getPayloadCodec() {
+        return payloadCodec;
+    }
+
+    /**
+     * Sets the min payload size for messages to be compressed.
+     * Very small payloads are rarely worth the effort.
+     *
+     * @param compressionThreshold the min payload size in bytes
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * @return the min payload size in bytes for messages to be compressed
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Turns the channel into a latest-value channel for streams of state updates (positions, sensor
+     * values, ...), where only the freshest value matters.
+     *
+     * Instead of queueing all published messages, the channel's queue and the message senders
+     * keep one slot per sender (and application defined key, see setConflationKeyExtractor) and a
+     * newer message overwrites the queued one in constant time. If a connection is slow,
+     * intermediate values are therefore skipped rather than delivered late and in bursts.
+     * The queue capacity limits the number of slots.
+     *
+     * The master conflates the messages it dispatches to the subscribers, so the channel should be
+     * configured the same way on all devices. Messages exceeding BlaubotConstants.MAX_PAYLOAD_SIZE
+     * are never conflated by the senders. Has no effect on reliable channels (see setReliable).
+     *
+     * @param conflating true to keep only the most recent message per sender and key
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setConflating(boolean conflating) {
+        this.conflating = conflating;
+        // the queue has to be re-created
+        setChanged();
+        notifyObservers(Boolean.TRUE);
+        return this;
+    }
+
+    /**
+     * @return true, iff only the most recent message per sender and key is delivered
+     */
+    public boolean isConflating() {
+        return conflating;
+    }
+
+    /**
+     * Sets the extractor for application defined conflation keys, so that a conflating channel
+     * keeps the most recent message per sender and key instead of per sender only (i.e. one
+     * message per tracked finger).
+     *
+     * If a payload codec is set, the master can not extract the keys of compressed messages and
+     * conflates them per sender only.
+     *
+     * @param conflationKeyExtractor the extractor or null to conflate per sender only
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setConflationKeyExtractor(IBlaubotConflationKeyExtractor conflationKeyExtractor) {
+        this.conflationKeyExtractor = conflationKeyExtractor;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * @return the extractor for application defined conflation keys or null
+     */
+    public IBlaubotConflationKeyExtractor getConflationKeyExtractor() {
+        return conflationKeyExtractor;
+    }
+
+    /**
+     * Turns the channel into a reliable channel for messages that must not get lost (i.e. commands).
+     *
+     * Each picked message gets a sequence number of its publisher and is held in a bounded
+     * retransmit window until all devices that were subscribed at that time acknowledged it.
+     * The subscribers acknowledge cumulatively and selectively via the king, suppress duplicates
+     * and deliver the messages of each publisher in publishing order. Unacknowledged messages are
+     * retransmitted after the retransmit timeout and replayed as soon as the device is connected
+     * to a (new) master, so they survive a king change or broken connections.
+     *
+     * While the retransmit window is full, no messages are picked, so the queue fills up and
+     * publish calls are eventually refused (or block). Messages discarded by the picker strategy
+     * are never transmitted. Reliable channels are not conflated.
+     *
+     * Has to be configured the same way on all devices, since the reliable header is part of the payload.
+     *
+     * @param reliable true to acknowledge and retransmit the messages
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setReliable(boolean reliable) {
+        this.reliable = reliable;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * @return true, iff the messages are acknowledged and retransmitted if needed
+     */
+    public boolean isReliable() {
+        return reliable;
+    }
+
+    /**
+     * Sets the max number of unacknowledged messages of a reliable channel.
+     * Subscribers hold back at most this number of messages per publisher, if messages are missing.
+     *
+     * @param retransmitWindowSize the max number of unacknowledged messages
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setRetransmitWindowSize(int retransmitWindowSize) {
+        if (retransmitWindowSize <= 0) {
+            throw new IllegalArgumentException("retransmitWindowSize has to be positive");
+        }
+        this.retransmitWindowSize = retransmitWindowSize;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * @return the max number of unacknowledged messages of a reliable channel
+     */
+    public int getRetransmitWindowSize() {
+        return retransmitWindowSize;
+    }
+
+    /**
+     * Sets the time after which unacknowledged messages of a reliable channel are retransmitted.
+     *
+     * @param retransmitTimeout the timeout in ms
+     * @return this channel config instance
+     */
+    public BlaubotChannelConfig setRetransmitTimeout(long retransmitTimeout) {
+        if (retransmitTimeout <= 0) {
+            throw new IllegalArgumentException("retransmitTimeout has to be positive");
+        }
+        this.retransmitTimeout = retransmitTimeout;
+        setChanged();
+        notifyObservers(Boolean.FALSE);
+        return this;
+    }
+
+    /**
+     * @return the time in ms after which unacknowledged messages of a reliable channel are retransmitted
+     */
+    public long getRetransmitTimeout() {
+        return retransmitTimeout;
+    }
+
     /**
      * Unique identifier for PickingStrategy-Implementations.
      */
@@ -3,6 +3,7 @@ package eu.hgross.blaubot.messaging;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -10,11 +11,20 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
 import eu.hgross.blaubot.admin.AddSubscriptionAdminMessage;
 import eu.hgross.blaubot.admin.AdminMessageFactory;
 import eu.hgross.blaubot.admin.FinishedHandshakeAdminMessage;
+import eu.hgross.blaubot.admin.ReliableAckAdminMessage;
 import eu.hgross.blaubot.admin.RemoveSubscriptionAdminMessage;
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.BlaubotDevice;
@@ -22,6 +32,10 @@ import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionListener;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.Counter;
+import eu.hgross.blaubot.metrics.IGauge;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
 import eu.hgross.blaubot.mock.BlaubotConnectionQueueMock;
 import eu.hgross.blaubot.util.Log;
 
@@ -33,9 +47,67 @@ import eu.hgross.blaubot.util.Log;
  */
 public class BlaubotChannelManager {
     private static final String LOG_TAG = "BlaubotChannelManager";
+    /**
+     * Max time in ms to wait for the messages still queued for the local delivery, when the
+     * master role changes.
+     */
+    private static final long LOCAL_DELIVERY_DRAIN_TIMEOUT = 5000;
+    /**
+     * Gauge of the number of managed connections
+     */
+    public static final String METRIC_CONNECTIONS = "channelmanager.connections";
+    /**
+     * Counter of the connections added to the manager
+     */
+    public static final String METRIC_CONNECTIONS_ADDED = "channelmanager.connectionsAdded";
+    /**
+     * Counter of the connections removed from the manager
+     */
+    public static final String METRIC_CONNECTIONS_REMOVED = "channelmanager.connectionsRemoved";
+    /**
+     * Counter of the changes between master and client mode
+     */
+    public static final String METRIC_ROLE_CHANGES = "channelmanager.roleChanges";
+    /**
+     * Histogram of the time in ms a change between master and client mode took
+     */
+    public static final String METRIC_ROLE_CHANGE_DURATION = "channelmanager.roleChangeMillis";
+    /**
+     * Counter of the received admin messages
+     */
+    public static final String METRIC_ADMIN_MESSAGES = "channelmanager.adminMessages";
+    /**
+     * Gauge of the number of messages queued in the senders of all managed connections
+     */
+    public static final String METRIC_SENDER_QUEUED_MESSAGES = "sender.queuedMessages";
+    /**
+     * Gauge of the number of payload bytes queued in the senders of all managed connections
+     */
+    public static final String METRIC_SENDER_QUEUED_BYTES = "sender.queuedBytes";
     private ConcurrentHashMap<Short, BlaubotChannel> channels;
     private ConcurrentHashMap<IBlaubotConnection, BlaubotMessageManager> messageManagers;
-    private CopyOnWriteArrayList<IBlaubotAdminMessageListener> adminMessageListeners;
+    /**
+     * Index of the managed message managers by the unique device id of their connection's remote
+     * device. Used to look up the subscribers' senders without scanning all connections.
+     * Maintained alongside messageManagers.
+     */
+    private ConcurrentHashMap<String, CopyOnWriteArrayList<BlaubotMessageManager>> messageManagersByUniqueDeviceId;
+    /**
+     * Pool for the buffers of shared (fan-out) message frames.
+     */
+    private final BlaubotMessageBufferPool bufferPool = BlaubotMessageBufferPool.getDefault();
+    /**
+     * Processes the message queues of all channels of this manager.
+     */
+    private final BlaubotChannelScheduler channelScheduler;
+    /**
+     * Dispatches the received (and once parsed) admin messages to the admin message listeners
+     */
+    private final BlaubotAdminMessageDispatcher adminMessageDispatcher = new BlaubotAdminMessageDispatcher();
+    /**
+     * Listeners for the received relay frames
+     */
+    private final CopyOnWriteArrayList<IBlaubotRelayFrameListener> relayFrameListeners = new CopyOnWriteArrayList<>();
     private CopyOnWriteArrayList<IBlaubotSubscriptionChangeListener> subscriptionChangeListeners;
     private volatile boolean isMaster = false;
     private String ownUniqueDeviceId;
@@ -47,18 +119,130 @@ public class BlaubotChannelManager {
     /**
      * The message manager that represents the Master device's own connection (since it also acts
      * as a client to itself).
+     * Messages for this connection are not sent over it, but dispatched in-process by the
+     * localDelivery.
      */
     private volatile BlaubotMessageManager ownMessageManager;
 
+    /**
+     * Dispatches the messages addressed to the master's own connection in-process (in order and
+     * one at a time), instead of serializing them through the reflexive loopback connection.
+     * Only present in master mode.
+     */
+    private volatile LocalDelivery localDelivery;
+
+    /**
+     * Queue budget and overflow policy applied to the senders of all managed connections.
+     */
+    private volatile long senderMaxQueuedBytes = BlaubotMessageSender.DEFAULT_MAX_QUEUED_BYTES;
+    private volatile int senderMaxQueuedMessages = BlaubotMessageSender.DEFAULT_MAX_QUEUED_MESSAGES;
+    private volatile MessageSenderOverflowPolicy senderOverflowPolicy = BlaubotMessageSender.DEFAULT_OVERFLOW_POLICY;
+
+    /**
+     * The executor draining the queues of the senders of newly managed connections.
+     * Null to use a sending thread per connection.
+     */
+    private volatile Executor senderExecutor;
+
+    /**
+     * Time in ms of the last message received or published through a channel.
+     */
+    private volatile long lastActivityTime = System.currentTimeMillis();
+
+    /**
+     * The managed senders, that are currently congested (only senders with the BLOCK policy).
+     */
+    private final Set<BlaubotMessageSender> congestedSenders = Collections.newSetFromMap(new ConcurrentHashMap<BlaubotMessageSender, Boolean>());
+
+    /**
+     * Notified whenever a sender is no longer congested.
+     */
+    private final Object congestionMonitor = new Object();
+
+    /**
+     * The registry, the metrics of this manager, its channels and the senders and receivers of the
+     * managed connections are recorded to.
+     */
+    private final BlaubotMetricsRegistry metricsRegistry;
+    private final Counter connectionsAddedCounter;
+    private final Counter connectionsRemovedCounter;
+    private final Counter roleChangesCounter;
+    private final Counter adminMessagesCounter;
+    private final LatencyHistogram roleChangeDurationHistogram;
+
     /**
      * @param ownUniqueDeviceId the own unique device id
      */
     public BlaubotChannelManager(String ownUniqueDeviceId) {
+        this(ownUniqueDeviceId, new BlaubotChannelScheduler());
+    }
+
+    /**
+     * @param ownUniqueDeviceId the own unique device id
+     * @param channelScheduler  the scheduler processing the channels' queues, may be shared between multiple channel managers
+     */
+    public BlaubotChannelManager(String ownUniqueDeviceId, BlaubotChannelScheduler channelScheduler) {
+        this(ownUniqueDeviceId, channelScheduler, new BlaubotMetricsRegistry());
+    }
+
+    /**
+     * @param ownUniqueDeviceId the own unique device id
+     * @param channelScheduler  the scheduler processing the channels' queues, may be shared between multiple channel managers
+     * @param metricsRegistry   the registry to record the metrics to
+     */
+    public BlaubotChannelManager(String ownUniqueDeviceId, BlaubotChannelScheduler channelScheduler, BlaubotMetricsRegistry metricsRegistry) {
         this.ownUniqueDeviceId = ownUniqueDeviceId;
+        this.metricsRegistry = metricsRegistry;
+        this.connectionsAddedCounter = metricsRegistry.counter(METRIC_CONNECTIONS_ADDED);
+        this.connectionsRemovedCounter = metricsRegistry.counter(METRIC_CONNECTIONS_REMOVED);
+        this.roleChangesCounter = metricsRegistry.counter(METRIC_ROLE_CHANGES);
+        this.adminMessagesCounter = metricsRegistry.counter(METRIC_ADMIN_MESSAGES);
+        this.roleChangeDurationHistogram = metricsRegistry.histogram(METRIC_ROLE_CHANGE_DURATION);
+        this.channelScheduler = channelScheduler;
         this.channels = new ConcurrentHashMap<>();
         this.messageManagers = new ConcurrentHashMap<>();
-        this.adminMessageListeners = new CopyOnWriteArrayList<>();
+        this.messageManagersByUniqueDeviceId = new ConcurrentHashMap<>();
         this.subscriptionChangeListeners = new CopyOnWriteArrayList<>();
+        registerGauges();
+    }
+
+    /**
+     * Registers the gauges sampling the connections and the senders' queues.
+     */
+    private void registerGauges() {
+        metricsRegistry.registerGauge(METRIC_CONNECTIONS, new IGauge() {
+            @Override
+            public long getValue() {
+                return messageManagers.size();
+            }
+        });
+        metricsRegistry.registerGauge(METRIC_SENDER_QUEUED_MESSAGES, new IGauge() {
+            @Override
+            public long getValue() {
+                long queued = 0;
+                for (BlaubotMessageManager messageManager : messageManagers.values()) {
+                    queued += messageManager.getMessageSender().getQueueSize();
+                }
+                return queued;
+            }
+        });
+        metricsRegistry.registerGauge(METRIC_SENDER_QUEUED_BYTES, new IGauge() {
+            @Override
+            public long getValue() {
+                long queued = 0;
+                for (BlaubotMessageManager messageManager : messageManagers.values()) {
+                    queued += messageManager.getMessageSender().getQueuedBytes();
+                }
+                return queued;
+            }
+        });
+    }
+
+    /**
+     * @return the registry, the metrics of this manager, its channels and the managed connections are recorded to
+     */
+    public BlaubotMetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
     }
 
     /**
@@ -146,6 +330,7 @@ public class BlaubotChannelManager {
      * @param isMaster notify if the channel manager is now in master role
      */
     public void setMaster(final boolean isMaster) {
+        final LocalDelivery prevLocalDelivery;
         synchronized (setMasterLock) {
             final boolean prevState = this.isMaster;
             if (isMaster == prevState) {
@@ -153,6 +338,11 @@ public class BlaubotChannelManager {
                 return;
             }
             this.isMaster = isMaster;
+            final long roleChangeStart = System.currentTimeMillis();
+
+            // messages already committed to the local delivery are still dispatched (see below)
+            prevLocalDelivery = localDelivery;
+            localDelivery = null;
 
             if (Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "setMaster(" + isMaster + ") -> Deactivating all MessageManagers");
@@ -186,7 +376,11 @@ public class BlaubotChannelManager {
             }
 
             // then forget about them
+            for (BlaubotMessageManager mm : messageManagers.values()) {
+                forgetSender(mm.getMessageSender());
+            }
             messageManagers.clear();
+            messageManagersByUniqueDeviceId.clear();
 
             if (Log.logDebugMessages()) {
                 Log.d(LOG_TAG, "All " + latches.size() + " MessageManagers shut down properly.");
@@ -197,14 +391,16 @@ public class BlaubotChannelManager {
                 final IBlaubotDevice masterDummyDevice = new BlaubotDevice(ownUniqueDeviceId);
                 final BlaubotConnectionQueueMock sendingConnection = new BlaubotConnectionQueueMock(masterDummyDevice);
                 final IBlaubotConnection receivingConnection = sendingConnection.getOtherEndpointConnection(masterDummyDevice);
-                final BlaubotMessageReceiver receiver = new BlaubotMessageReceiver(receivingConnection);
-                final BlaubotMessageSender sender = new BlaubotMessageSender(sendingConnection);
+                final BlaubotMessageReceiver receiver = new BlaubotMessageReceiver(receivingConnection, metricsRegistry);
+                final BlaubotMessageSender sender = new BlaubotMessageSender(sendingConnection, metricsRegistry);
                 final BlaubotMessageManager ownMm = new BlaubotMessageManager(sender, receiver);
                 final boolean added = messageManagers.putIfAbsent(receivingConnection, ownMm) == null;
                 if (added) {
+                    // The manager is only kept for the bookkeeping (subscriptions, exclusion, hasConnections).
+                    // It is never activated, messages for it are handed to the local delivery (see sendTo()).
+                    addToIndex(receivingConnection, ownMm);
+                    localDelivery = new LocalDelivery();
                     ownMessageManager = ownMm;
-                    ownMm.getMessageReceiver().addMessageListener(messageDispatcher);
-                    ownMm.activate();
                 } else {
                     throw new RuntimeException("Could not add reflexive connection to ChannelManager");
                 }
@@ -216,11 +412,192 @@ public class BlaubotChannelManager {
                 // forget all connections
                 // -- all managers should be deactivated
                 messageManagers.clear();
+                messageManagersByUniqueDeviceId.clear();
                 ownMessageManager = null;
             }
+            roleChangesCounter.increment();
+            roleChangeDurationHistogram.record(System.currentTimeMillis() - roleChangeStart);
+        }
+
+        // drained without the lock, the dispatched listeners may add or remove connections
+        if (prevLocalDelivery != null) {
+            prevLocalDelivery.drain();
         }
     }
 
+    /**
+     * The in-process delivery of the master's own messages.
+     * Its queue is subject to the same budget and overflow policy as the senders of the managed
+     * connections: using BLOCK, it reports the channels subscribed by the master as congested while
+     * it is over budget and rejects channel messages beyond twice the budget. Using the other
+     * policies, channel messages exceeding the budget are rejected.
+     */
+    private class LocalDelivery {
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong queuedBytes = new AtomicLong(0);
+        private final AtomicInteger queuedMessages = new AtomicInteger(0);
+        private volatile boolean congested = false;
+        private volatile Thread deliveryThread;
+
+        LocalDelivery() {
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "local-delivery-" + ownUniqueDeviceId);
+                    thread.setDaemon(true);
+                    deliveryThread = thread;
+                    return thread;
+                }
+            });
+        }
+
+        /**
+         * Queues the message for the dispatching, if it fits into the budget.
+         *
+         * @param message the message
+         * @return true, iff the message was committed
+         */
+        boolean deliver(final BlaubotMessage message) {
+            final int length = message.getPayload().length;
+            final boolean block = senderOverflowPolicy == MessageSenderOverflowPolicy.BLOCK;
+            // like the senders, admin messages are never rejected and a single message is always accepted
+            if (message.getMessageType().isChannelMessage() && queuedMessages.get() > 0 && exceedsBudget(length, block ? 2 : 1)) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Local delivery is over budget, rejecting " + message);
+                }
+                return false;
+            }
+            queuedBytes.addAndGet(length);
+            queuedMessages.incrementAndGet();
+            if (block && isOverBudget()) {
+                setCongested(true);
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            messageDispatcher.onMessage(message);
+                        } catch (RuntimeException e) {
+                            if (Log.logErrorMessages()) {
+                                Log.e(LOG_TAG, "Failed to dispatch local message " + message + ": " + e.getMessage(), e);
+                            }
+                        } finally {
+                            onDispatched(length);
+                        }
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                // shut down concurrently by setMaster(false)
+                onDispatched(length);
+                return false;
+            }
+        }
+
+        private void onDispatched(int length) {
+            queuedBytes.addAndGet(-length);
+            queuedMessages.decrementAndGet();
+            if (congested && !isOverBudget()) {
+                setCongested(false);
+            }
+        }
+
+        /**
+         * @param payloadLength the payload length of the message to add
+         * @param factor        multiplied with the budget
+         * @return true, iff adding the message exceeds the budget times factor
+         */
+        private boolean exceedsBudget(int payloadLength, int factor) {
+            return queuedBytes.get() + payloadLength > senderMaxQueuedBytes * factor || queuedMessages.get() + 1 > (long) senderMaxQueuedMessages * factor;
+        }
+
+        /**
+         * @return true, iff the queued messages use up the budget
+         */
+        private boolean isOverBudget() {
+            final int count = queuedMessages.get();
+            return count > 0 && (queuedBytes.get() >= senderMaxQueuedBytes || count >= senderMaxQueuedMessages);
+        }
+
+        private void setCongested(boolean congested) {
+            this.congested = congested;
+            if (!congested) {
+                synchronized (congestionMonitor) {
+                    congestionMonitor.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return true, iff the channels subscribed by the master have to be throttled
+         */
+        boolean isCongested() {
+            return congested;
+        }
+
+        /**
+         * Dispatches the queued messages and stops the delivery thread.
+         * Messages still queued after LOCAL_DELIVERY_DRAIN_TIMEOUT are discarded.
+         * If called by a listener on the delivery thread, the queued messages are dispatched
+         * after the listener returned, without waiting for them.
+         */
+        void drain() {
+            executor.shutdown();
+            if (Thread.currentThread() == deliveryThread) {
+                setCongested(false);
+                return;
+            }
+            try {
+                if (!executor.awaitTermination(LOCAL_DELIVERY_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    final int discarded = executor.shutdownNow().size();
+                    if (Log.logWarningMessages()) {
+                        Log.w(LOG_TAG, "Local delivery did not finish in time, discarded " + discarded + " messages");
+                    }
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            setCongested(false);
+        }
+    }
+
+    /**
+     * Queues the message to the given message manager's sender.
+     * Messages for the master's own (reflexive) connection are not serialized, but handed to the
+     * local delivery as they are.
+     *
+     * @param messageManager the message manager
+     * @param message        the message to send
+     * @return true, iff the message was committed
+     */
+    private boolean sendTo(BlaubotMessageManager messageManager, BlaubotMessage message) {
+        if (messageManager == ownMessageManager) {
+            return deliverLocally(messageManager, message);
+        }
+        return messageManager.getMessageSender().sendMessage(message);
+    }
+
+    /**
+     * Dispatches a message on the master as if it was received through the own reflexive connection.
+     * The dispatching is done on the local delivery thread to retain the order of the messages and
+     * to not run the listeners on the publishing thread.
+     *
+     * @param ownMm   the master's own message manager
+     * @param message the message
+     * @return true, iff the message was committed to the local delivery
+     */
+    private boolean deliverLocally(BlaubotMessageManager ownMm, final BlaubotMessage message) {
+        final LocalDelivery delivery = localDelivery;
+        final IBlaubotConnection ownConnection = ownMm.getMessageReceiver().getBlaubotConnection();
+        if (delivery == null || messageManagers.get(ownConnection) != ownMm) {
+            // not master anymore or the own connection was removed
+            return false;
+        }
+        return delivery.deliver(message);
+    }
+
     /**
      * Locks access to the isMaster flag
      */
@@ -260,11 +637,13 @@ public class BlaubotChannelManager {
         if (Log.logDebugMessages()) {
             Log.d(LOG_TAG, "Adding connection: " + connection);
         }
-        BlaubotMessageManager mm = new BlaubotMessageManager(connection);
+        BlaubotMessageManager mm = new BlaubotMessageManager(connection, metricsRegistry);
         boolean added = messageManagers.putIfAbsent(connection, mm) == null;
         if (added) {
+            connectionsAddedCounter.increment();
             connection.addConnectionListener(disconnectionListener);
             mm = messageManagers.get(connection);
+            addToIndex(connection, mm);
             // regenerate the AddSubscriptionAdminMessages for each subscription of each
             // channel and add them to the queue before activating the message manager
             synchronized (setMasterLock) {
@@ -305,7 +684,7 @@ public class BlaubotChannelManager {
                         mm.getMessageReceiver().addMessageListener(new IBlaubotMessageListener() {
                             @Override
                             public void onMessage(BlaubotMessage blaubotMessage) {
-                                if (blaubotMessage.getMessageType().isAdminMessage()) {
+                                if (isFinishedHandshakeMessage(blaubotMessage)) {
                                     AbstractAdminMessage adminMessage = AdminMessageFactory.createAdminMessageFromRawMessage(blaubotMessage);
                                     if (adminMessage instanceof FinishedHandshakeAdminMessage) {
                                         if (((FinishedHandshakeAdminMessage) adminMessage).getIsAck() && ((FinishedHandshakeAdminMessage) adminMessage).getMessageUuid().equals(finishedHandshakeAdminMessage.getMessageUuid())) {
@@ -328,7 +707,7 @@ public class BlaubotChannelManager {
                         mm.getMessageReceiver().addMessageListener(new IBlaubotMessageListener() {
                             @Override
                             public void onMessage(BlaubotMessage blaubotMessage) {
-                                if (blaubotMessage.getMessageType().isAdminMessage()) {
+                                if (isFinishedHandshakeMessage(blaubotMessage)) {
                                     AbstractAdminMessage adminMessage = AdminMessageFactory.createAdminMessageFromRawMessage(blaubotMessage);
                                     if (adminMessage instanceof FinishedHandshakeAdminMessage) {
                                         ((FinishedHandshakeAdminMessage) adminMessage).setIsAck(true);
@@ -359,6 +738,306 @@ public class BlaubotChannelManager {
         maintainChannelActivation();
     }
 
+    /**
+     * Adds a message manager to the unique device id index.
+     *
+     * @param connection the managed connection
+     * @param mm         the message manager of the connection
+     */
+    private void addToIndex(IBlaubotConnection connection, BlaubotMessageManager mm) {
+        final String uniqueDeviceId = connection.getRemoteDevice().getUniqueDeviceID();
+        CopyOnWriteArrayList<BlaubotMessageManager> managers = messageManagersByUniqueDeviceId.get(uniqueDeviceId);
+        if (managers == null) {
+            final CopyOnWriteArrayList<BlaubotMessageManager> newList = new CopyOnWriteArrayList<>();
+            managers = messageManagersByUniqueDeviceId.putIfAbsent(uniqueDeviceId, newList);
+            if (managers == null) {
+                managers = newList;
+            }
+        }
+        managers.addIfAbsent(mm);
+        configureSender(mm.getMessageSender());
+    }
+
+    /**
+     * Removes a message manager from the unique device id index.
+     *
+     * @param connection the formerly managed connection
+     * @param mm         the message manager of the connection
+     */
+    private void removeFromIndex(IBlaubotConnection connection, BlaubotMessageManager mm) {
+        final String uniqueDeviceId = connection.getRemoteDevice().getUniqueDeviceID();
+        final CopyOnWriteArrayList<BlaubotMessageManager> managers = messageManagersByUniqueDeviceId.get(uniqueDeviceId);
+        if (managers != null) {
+            managers.remove(mm);
+            // note: empty lists are kept, devices usually reconnect
+        }
+        forgetSender(mm.getMessageSender());
+    }
+
+    /**
+     * Applies the queue budget and overflow policy to a sender and tracks its congestion.
+     *
+     * @param sender the sender of a newly managed connection
+     */
+    private void configureSender(BlaubotMessageSender sender) {
+        sender.setMaxQueuedBytes(senderMaxQueuedBytes);
+        sender.setMaxQueuedMessages(senderMaxQueuedMessages);
+        sender.setOverflowPolicy(senderOverflowPolicy);
+        sender.setExecutor(senderExecutor);
+        sender.addCongestionListener(congestionListener);
+    }
+
+    /**
+     * Stops tracking the congestion of a sender, whose connection is not managed anymore.
+     *
+     * @param sender the sender
+     */
+    private void forgetSender(BlaubotMessageSender sender) {
+        sender.removeCongestionListener(congestionListener);
+        if (congestedSenders.remove(sender)) {
+            synchronized (congestionMonitor) {
+                congestionMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the congested senders.
+     */
+    private final IBlaubotSenderCongestionListener congestionListener = new IBlaubotSenderCongestionListener() {
+        @Override
+        public void onCongestionChanged(BlaubotMessageSender sender, boolean congested) {
+            // the calls may race, so we trust the current state
+            if (sender.isCongested()) {
+                congestedSenders.add(sender);
+            } else if (congestedSenders.remove(sender)) {
+                synchronized (congestionMonitor) {
+                    congestionMonitor.notifyAll();
+                }
+            }
+        }
+    };
+
+    /**
+     * Closes the managed connections whose senders are blocked in a write for longer than the
+     * write timeout. Only senders draining on the sender executor are watched (see setSenderExecutor()).
+     *
+     * @param now          the current time in ms
+     * @param writeTimeout the max time in ms a write may block
+     * @return the number of closed connections
+     */
+    public int closeStalledConnections(long now, long writeTimeout) {
+        int closed = 0;
+        for (BlaubotMessageManager mm : messageManagers.values()) {
+            if (mm.getMessageSender().closeIfWriteStalled(now, writeTimeout)) {
+                closed += 1;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Checks whether messages published to the given channel would currently end up in a
+     * congested sender.
+     * On the master these are the senders to the channel's subscribers (and our own reflexive
+     * sender), on clients the sender to the master.
+     *
+     * @param channel the channel
+     * @return true, iff a relevant sender is congested
+     */
+    protected boolean isCongested(BlaubotChannel channel) {
+        final LocalDelivery delivery = localDelivery;
+        final boolean localDeliveryCongested = delivery != null && delivery.isCongested();
+        if (congestedSenders.isEmpty() && !localDeliveryCongested) {
+            return false;
+        }
+        if (!isMaster) {
+            return true;
+        }
+        for (String subscriber : channel.getSubscriptions()) {
+            if (localDeliveryCongested && subscriber.equals(ownUniqueDeviceId)) {
+                return true;
+            }
+            final CopyOnWriteArrayList<BlaubotMessageManager> managers = messageManagersByUniqueDeviceId.get(subscriber);
+            if (managers == null) {
+                continue;
+            }
+            for (BlaubotMessageManager mm : managers) {
+                if (congestedSenders.contains(mm.getMessageSender())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until the senders relevant for the given channel are no longer congested.
+     *
+     * @param channel the channel
+     * @param timeout max time to wait in ms
+     * @return true, iff not congested (anymore), false if the timeout elapsed or the thread got interrupted
+     */
+    protected boolean awaitUncongested(BlaubotChannel channel, long timeout) {
+        final long deadline = System.currentTimeMillis() + timeout;
+        synchronized (congestionMonitor) {
+            while (isCongested(channel)) {
+                final long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    return false;
+                }
+                try {
+                    congestionMonitor.wait(waitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the queue budget of the senders of all managed connections.
+     * If a message exceeds the budget, the overflow policy is applied.
+     * Defaults to {@link BlaubotMessageSender#DEFAULT_MAX_QUEUED_BYTES} and {@link BlaubotMessageSender#DEFAULT_MAX_QUEUED_MESSAGES}.
+     *
+     * @param maxQueuedBytes    max number of payload bytes queued per connection
+     * @param maxQueuedMessages max number of messages queued per connection
+     */
+    public void setSenderQueueLimits(long maxQueuedBytes, int maxQueuedMessages) {
+        this.senderMaxQueuedBytes = maxQueuedBytes;
+        this.senderMaxQueuedMessages = maxQueuedMessages;
+        for (BlaubotMessageManager mm : messageManagers.values()) {
+            mm.getMessageSender().setMaxQueuedBytes(maxQueuedBytes);
+            mm.getMessageSender().setMaxQueuedMessages(maxQueuedMessages);
+        }
+    }
+
+    /**
+     * Sets the policy applied by the senders of all managed connections, if their queue budget
+     * is exceeded.
+     * Using BLOCK, the channels refuse (or block, if published with a timeout) new messages
+     * while the senders to their subscribers are congested.
+     * The default is BLOCK, which does not drop queued messages. Note that even with BLOCK,
+     * messages relayed by the master to a connection that has more than twice the budget queued
+     * are rejected. The DROP_* policies keep the publishers going at the cost of losing messages
+     * to slow connections.
+     *
+     * @param overflowPolicy the policy
+     */
+    public void setSenderOverflowPolicy(MessageSenderOverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        this.senderOverflowPolicy = overflowPolicy;
+        for (BlaubotMessageManager mm : messageManagers.values()) {
+            mm.getMessageSender().setOverflowPolicy(overflowPolicy);
+        }
+    }
+
+    /**
+     * @return the policy applied by the senders, if their queue budget is exceeded
+     */
+    public MessageSenderOverflowPolicy getSenderOverflowPolicy() {
+        return senderOverflowPolicy;
+    }
+
+    /**
+     * Sets the executor that drains the queues of the senders instead of a sending thread per
+     * connection (see BlaubotMessageSender.setExecutor()).
+     * Applies to connections added afterwards.
+     *
+     * @param senderExecutor the (shared) executor or null to use a sending thread per connection
+     */
+    public void setSenderExecutor(Executor senderExecutor) {
+        this.senderExecutor = senderExecutor;
+    }
+
+    /**
+     * @return the executor draining the queues of the senders or null, if sending threads are used
+     */
+    public Executor getSenderExecutor() {
+        return senderExecutor;
+    }
+
+    /**
+     * @return the time in ms of the last message received or published through a channel
+     */
+    public long getLastActivityTime() {
+        return lastActivityTime;
+    }
+
+    /**
+     * Releases the memory held for an idle manager: the message queues of channels without
+     * pending messages and the expired partial chunked messages.
+     * The queues are re-created on the next publish, so the manager stays fully usable.
+     *
+     * @return the number of released channel queues
+     */
+    public int releaseIdleResources() {
+        int released = 0;
+        for (BlaubotChannel channel : channels.values()) {
+            if (channel.releaseMessageQueue()) {
+                released += 1;
+            }
+        }
+        for (BlaubotMessageManager messageManager : messageManagers.values()) {
+            messageManager.getMessageReceiver().getChunkReassembler().evictExpired();
+        }
+        return released;
+    }
+
+    /**
+     * @param uniqueDeviceId the device
+     * @return the number of payload bytes currently queued in the senders to the given device
+     */
+    public long getQueuedBytes(String uniqueDeviceId) {
+        final CopyOnWriteArrayList<BlaubotMessageManager> managers = messageManagersByUniqueDeviceId.get(uniqueDeviceId);
+        if (managers == null) {
+            return 0;
+        }
+        long queued = 0;
+        for (BlaubotMessageManager messageManager : managers) {
+            queued += messageManager.getMessageSender().getQueuedBytes();
+        }
+        return queued;
+    }
+
+    /**
+     * Queues the message to all given message managers' senders (except the excluded ones).
+     * If the message goes to more than one sender, it is serialized only once into a shared
+     * frame that all senders write as is.
+     *
+     * @param message  the message to send
+     * @param managers the message managers to send it to
+     * @return the number of senders to which the message was committed
+     */
+    private int fanOut(BlaubotMessage message, Collection<BlaubotMessageManager> managers) {
+        // chunks get their chunk ids re-mapped per sender and too big messages are chunked by
+        // the senders, so only plain messages can share one serialization
+        final boolean shareable = managers.size() > 1 && !message.getMessageType().isChunk() && message.getPayload().length <= BlaubotConstants.MAX_PAYLOAD_SIZE;
+        final BlaubotMessageFrame frame = shareable ? BlaubotMessageFrame.encode(message, bufferPool) : null;
+        int cnt = 0;
+        try {
+            for (BlaubotMessageManager messageManager : managers) {
+                if (checkExclude(message, messageManager)) {
+                    continue;
+                }
+                // the local delivery needs no serialization
+                final BlaubotMessage toSend = frame != null && messageManager != ownMessageManager ? BlaubotMessage.createFrameCarrier(message, frame) : message;
+                if (sendTo(messageManager, toSend)) {
+                    cnt += 1;
+                }
+            }
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+        return cnt;
+    }
+
     /**
      * Simply removes subscriptions from the channels that are not ours
      */
@@ -391,6 +1070,8 @@ public class BlaubotChannelManager {
         connection.removeConnectionListener(disconnectionListener);
         BlaubotMessageManager mm = messageManagers.remove(connection);
         if (mm != null) {
+            connectionsRemovedCounter.increment();
+            removeFromIndex(connection, mm);
             final String remoteDeviceUniqueDeviceId = connection.getRemoteDevice().getUniqueDeviceID();
             synchronized (setMasterLock) {
                 if (isMaster && !remoteDeviceUniqueDeviceId.equals(ownUniqueDeviceId)) {
@@ -480,6 +1161,13 @@ public class BlaubotChannelManager {
         @Override
         public void onMessage(BlaubotMessage message) {
             final BlaubotMessageType messageType = message.getMessageType();
+            lastActivityTime = System.currentTimeMillis();
+
+            // relay frames are sent point to point and never re-dispatched
+            if (messageType.isRelayFrame()) {
+                handleRelayFrame(message);
+                return;
+            }
 
             // simple dispatcher logic: if the firstHop bit is set and we are master, we unset the flag
             // and re-send this message to all our connections (including ourselve).
@@ -523,9 +1211,13 @@ public class BlaubotChannelManager {
                 return;
             } else {
                 // -- obviously meant to be dispatched to a channel.
-                // get the channel
+                // get the channel, channels are only materialized on use, so a message for a
+                // channel that was never created has no listeners
                 short channelId = message.getChannelId();
-                BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
+                BlaubotChannel channel = channels.get(channelId);
+                if (channel == null) {
+                    return;
+                }
 
                 // notify listeners, if any
                 channel.notify(message);
@@ -546,21 +1238,25 @@ public class BlaubotChannelManager {
                 throw new IllegalArgumentException("The message does not contain a valid channel id to be dispatched.");
             }
 
-            BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
-            final ConcurrentSkipListSet<String> subscriptions = channel.getSubscriptions();
-            for (BlaubotMessageManager messageManager : messageManagers.values()) {
-                final BlaubotMessageSender messageSender = messageManager.getMessageSender();
-                final String uniqueDeviceID = messageSender.getBlaubotConnection().getRemoteDevice().getUniqueDeviceID();
-                if (subscriptions.contains(uniqueDeviceID)) {
-                    // -- the device is subscribed to the channel
-                    // check if we have to exclude it
-                    if (checkExclude(message, messageManager)) {
-                        // this device has to be excluded
-                        continue;
-                    }
-                    messageSender.sendMessage(message);
+            // a channel that was never created has no subscriptions
+            final BlaubotChannel channel = channels.get(channelId);
+            final Set<String> subscriptions = channel != null ? channel.getSubscriptions() : Collections.<String>emptySet();
+            // collect the subscribed devices' managers via the index
+            final List<BlaubotMessageManager> receivers = new ArrayList<>(subscriptions.size());
+            for (String uniqueDeviceId : subscriptions) {
+                final CopyOnWriteArrayList<BlaubotMessageManager> managers = messageManagersByUniqueDeviceId.get(uniqueDeviceId);
+                if (managers != null) {
+                    receivers.addAll(managers);
                 }
             }
+            if (channel != null && channel.getChannelConfig().isConflating() && !channel.getChannelConfig().isReliable()) {
+                // the senders to slow subscribers keep only the most recent message per origin (and key)
+                final IBlaubotConnection origin = message.getLastOriginatorConnection();
+                final String originUniqueDeviceId = origin != null ? origin.getRemoteDevice().getUniqueDeviceID() : null;
+                message.conflationKey = channel.createConflationKey(message, originUniqueDeviceId);
+            }
+            // the exclusion (if any) is checked by fanOut
+            fanOut(message, receivers);
         }
 
         /**
@@ -572,6 +1268,18 @@ public class BlaubotChannelManager {
             // nothing to do
         }
 
+        /**
+         * Hands incoming relay frames to the relay frame listeners.
+         *
+         * @param message the received relay frame message
+         */
+        private void handleRelayFrame(BlaubotMessage message) {
+            final BlaubotRelayFrame relayFrame = BlaubotRelayFrame.fromMessage(message);
+            for (IBlaubotRelayFrameListener listener : relayFrameListeners) {
+                listener.onRelayFrame(relayFrame);
+            }
+        }
+
         /**
          * Handles incoming AdminMessages for the messaging layer.
          * Note that other interested parties can listen to admin messages by adding listeners via addAdminMessageListener()
@@ -580,6 +1288,7 @@ public class BlaubotChannelManager {
          */
         private void handleAdminMessage(BlaubotMessage message) {
             AbstractAdminMessage adminMessage = AdminMessageFactory.createAdminMessageFromRawMessage(message);
+            adminMessagesCounter.increment();
             //Log.d(LOG_TAG, "Got admin message: " + adminMessage);
             if (adminMessage instanceof AddSubscriptionAdminMessage) {
                 short channelId = ((AddSubscriptionAdminMessage) adminMessage).getChannelId();
@@ -591,14 +1300,27 @@ public class BlaubotChannelManager {
                 String uniqueId = ((RemoveSubscriptionAdminMessage) adminMessage).getUniqueDeviceId();
                 BlaubotChannel channel = (BlaubotChannel) createOrGetChannel(channelId);
                 channel.removeSubscription(uniqueId);
+            } else if (adminMessage instanceof ReliableAckAdminMessage) {
+                // to the publisher, forwarded by the master
+                sendReliableAck((ReliableAckAdminMessage) adminMessage);
             }
             // finally notify all other listeners
-            for (IBlaubotAdminMessageListener listener : adminMessageListeners) {
-                listener.onAdminMessage(adminMessage);
-            }
+            adminMessageDispatcher.dispatch(adminMessage);
         }
     };
 
+    /**
+     * Checks the classifier of an admin message without parsing it.
+     * The handshake listeners use this to leave all other admin messages to the messageDispatcher,
+     * which parses each admin message only once.
+     *
+     * @param blaubotMessage a received message
+     * @return true, iff blaubotMessage is a FinishedHandshakeAdminMessage
+     */
+    private static boolean isFinishedHandshakeMessage(BlaubotMessage blaubotMessage) {
+        return blaubotMessage.getMessageType().isAdminMessage() && AdminMessageFactory.getClassifier(blaubotMessage) == AbstractAdminMessage.CLASSIFIER_FINISHED_HANDSHAKE;
+    }
+
 
     /**
      * The uniqueDevice Id
@@ -621,15 +1343,7 @@ public class BlaubotChannelManager {
      * @return the number of message senders to which the message was committed
      */
     public int publishToAllConnections(BlaubotMessage message) {
-        int cnt = 0;
-        for (BlaubotMessageManager messageManager : messageManagers.values()) {
-            if (checkExclude(message, messageManager)) {
-                continue;
-            }
-            messageManager.getMessageSender().sendMessage(message);
-            cnt += 1;
-        }
-        return cnt;
+        return fanOut(message, messageManagers.values());
     }
 
 
@@ -651,8 +1365,9 @@ public class BlaubotChannelManager {
             if (excludeConnections.contains(messageManager.getMessageReceiver().getBlaubotConnection())) {
                 continue;
             }
-            messageManager.getMessageSender().sendMessage(message);
-            cnt += 1;
+            if (sendTo(messageManager, message)) {
+                cnt += 1;
+            }
         }
         return cnt;
     }
@@ -691,16 +1406,10 @@ public class BlaubotChannelManager {
      * @return true iff at least one message sender for this unqiueDeviceId was found
      */
     public boolean publishToSingleDevice(BlaubotMessage message, String uniqueDeviceId) {
-        final Set<BlaubotMessageManager> managers = new HashSet<BlaubotMessageManager>();
-        // TODO this implementation is probably horribly slow and produces many overhead
-        for (BlaubotMessageManager messageManager : messageManagers.values()) {
-            final BlaubotMessageSender messageSender = messageManager.getMessageSender();
-            if (messageSender.getBlaubotConnection().getRemoteDevice().getUniqueDeviceID().equals(uniqueDeviceId)) {
-                managers.add(messageManager);
-            }
-        }
+        final CopyOnWriteArrayList<BlaubotMessageManager> indexedManagers = messageManagersByUniqueDeviceId.get(uniqueDeviceId);
+        final List<BlaubotMessageManager> managers = indexedManagers == null ? Collections.<BlaubotMessageManager>emptyList() : indexedManagers;
         for (BlaubotMessageManager messageManager : managers) {
-            messageManager.getMessageSender().sendMessage(message);
+            sendTo(messageManager, message);
         }
         if (Log.logWarningMessages()) {
             if (managers.isEmpty()) {
@@ -711,6 +1420,27 @@ public class BlaubotChannelManager {
     }
 
 
+    /**
+     * Routes an ack of a reliable channel to the publisher of the acknowledged messages.
+     * Acks for our own messages are handed to the channel directly, the master sends them to the
+     * publisher's connection and all other devices send them to the master.
+     *
+     * @param ack the ack message
+     */
+    protected void sendReliableAck(ReliableAckAdminMessage ack) {
+        if (ack.getPublisherUniqueDeviceId().equals(getOwnUniqueDeviceId())) {
+            final BlaubotChannel channel = channels.get(ack.getChannelId());
+            if (channel != null) {
+                channel.onReliableAck(ack);
+            }
+        } else if (isMaster) {
+            publishToSingleDevice(ack.toBlaubotMessage(), ack.getPublisherUniqueDeviceId());
+        } else {
+            // not a first hop message, so it is only handled by the master
+            publishToAllConnections(ack.toBlaubotMessage());
+        }
+    }
+
     /**
      * Publishes a message posted to a channel to the master, where it is then dispatched further.
      * This method is called by the message pickers from the channels and only represents the first
@@ -720,17 +1450,37 @@ public class BlaubotChannelManager {
      * @return the number of message senders that got our message (sendMessage() calls).
      */
     public int publishChannelMessage(BlaubotMessage channelMessage) {
+        lastActivityTime = System.currentTimeMillis();
         if (isMaster) {
-            // we send it to our own connection with the firstHop bit set
+            // we dispatch it locally with the firstHop bit set, as if received through our own connection
             channelMessage.getMessageType().setIsFirstHop(true);
-            ownMessageManager.getMessageSender().sendMessage(channelMessage);
-            return 1;
+            return publishToOwnConnection(channelMessage) ? 1 : 0;
         } else {
             // we send it to the master
             return publishToAllConnections(channelMessage);
         }
     }
 
+    /**
+     * Hands a message published on the master to the local delivery, as if it was received through
+     * the master's own connection.
+     *
+     * @param message the message
+     * @return true, iff the message was committed
+     */
+    private boolean publishToOwnConnection(BlaubotMessage message) {
+        final BlaubotMessageManager ownMm = ownMessageManager;
+        if (ownMm == null) {
+            return false;
+        }
+        // The dispatcher modifies the header, so we hand over a copy like the receiver would do.
+        // The payload is not copied.
+        final BlaubotMessage localMessage = BlaubotMessage.copyHeaderWithPayload(message, message.getPayload());
+        // the exclusion of the sender relies on the connection the message was received from
+        localMessage.setLastOriginatorConnection(ownMm.getMessageReceiver().getBlaubotConnection());
+        return deliverLocally(ownMm, localMessage);
+    }
+
     /**
      * Sends a BlaubotMessage as admin message to the master, from where it is dispatched to all clients (including the master).
      *
@@ -741,10 +1491,10 @@ public class BlaubotChannelManager {
         final BlaubotMessageType messageType = adminMessage.getMessageType();
         messageType.setIsFirstHop(true);
         if (isMaster) {
-            // we send it to our own connection with the firstHop bit set
+            // we dispatch it locally with the firstHop bit set
             // this causes the master's channelManager to dispatch the msg
             // to all clients
-            ownMessageManager.getMessageSender().sendMessage(adminMessage);
+            publishToOwnConnection(adminMessage);
             return 1;
         } else {
             // we send it to the master via the connection
@@ -752,6 +1502,13 @@ public class BlaubotChannelManager {
         }
     }
 
+    /**
+     * @return the scheduler processing the message queues of this manager's channels
+     */
+    public BlaubotChannelScheduler getChannelScheduler() {
+        return channelScheduler;
+    }
+
     /**
      * @return true, iff the channel manager has at least one connection
      */
@@ -765,16 +1522,45 @@ public class BlaubotChannelManager {
      * @param adminMessageListener the listener to add
      */
     public void addAdminMessageListener(IBlaubotAdminMessageListener adminMessageListener) {
-        this.adminMessageListeners.add(adminMessageListener);
+        this.adminMessageDispatcher.addListener(adminMessageListener);
     }
 
     /**
-     * Removes a listener for admin messages.
+     * Adds a listener for admin messages of the given type (including subclasses).
+     * A listener interested in multiple types can be added once per type.
+     *
+     * @param type the admin message type
+     * @param adminMessageListener the listener to add
+     */
+    public void addAdminMessageListener(Class<? extends AbstractAdminMessage> type, IBlaubotAdminMessageListener adminMessageListener) {
+        this.adminMessageDispatcher.addListener(type, adminMessageListener);
+    }
+
+    /**
+     * Adds a listener for relay frames.
+     *
+     * @param relayFrameListener the listener to add
+     */
+    public void addRelayFrameListener(IBlaubotRelayFrameListener relayFrameListener) {
+        this.relayFrameListeners.add(relayFrameListener);
+    }
+
+    /**
+     * Removes a listener for relay frames.
+     *
+     * @param relayFrameListener the listener to be removed
+     */
+    public void removeRelayFrameListener(IBlaubotRelayFrameListener relayFrameListener) {
+        this.relayFrameListeners.remove(relayFrameListener);
+    }
+
+    /**
+     * Removes a listener for admin messages (all of its registrations).
      *
      * @param adminMessageListener the listener to be removed
      */
     public void removeAdminMessageListener(IBlaubotAdminMessageListener adminMessageListener) {
-        this.adminMessageListeners.remove(adminMessageListener);
+        this.adminMessageDispatcher.removeListener(adminMessageListener);
     }
 
     /**
@@ -800,6 +1586,10 @@ public class BlaubotChannelManager {
      */
     public void activate() {
         for (BlaubotMessageManager messageManager : messageManagers.values()) {
+            if (messageManager == ownMessageManager) {
+                // served by the local delivery
+                continue;
+            }
             messageManager.activate();
         }
 
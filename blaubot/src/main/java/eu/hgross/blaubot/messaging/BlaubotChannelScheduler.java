@@ -0,0 +1,135 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared, size-bounded scheduler that processes the message queues of BlaubotChannels.
+ *
+ * Channels don't own threads. A channel hands its processing task to the scheduler when its
+ * queue goes non-empty (or when it becomes able to transmit again, i.e. a subscriber arrives).
+ * A processing run picks at most MAX_MESSAGES_PER_RUN messages and then re-submits the channel
+ * to the end of the scheduler's queue, if there is more to do, so that busy channels can't starve
+ * others. Rate limited channels are re-submitted with their configured delay.
+ *
+ * Local listener notifications run on a separate pool of the same size. If its bounded queue is
+ * full, the notification is run by the submitting thread, which throttles the publishing channel.
+ *
+ * Worker threads are daemon threads and time out when idle, so an unused scheduler holds no threads.
+ */
+public class BlaubotChannelScheduler {
+    /**
+     * Default number of worker threads.
+     */
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /**
+     * Max number of messages a channel may pick in one run before it has to queue up again.
+     */
+    public static final int MAX_MESSAGES_PER_RUN = 32;
+    /**
+     * Max number of local notifications waiting for a notification thread.
+     */
+    public static final int MAX_QUEUED_NOTIFICATIONS = 1024;
+    /**
+     * Time in ms after which idle threads are terminated.
+     */
+    private static final long IDLE_THREAD_KEEP_ALIVE = 30000;
+    private static final AtomicInteger schedulerIdGenerator = new AtomicInteger(0);
+
+    private final ScheduledThreadPoolExecutor workerExecutor;
+    private final ThreadPoolExecutor notificationExecutor;
+
+    /**
+     * Creates a scheduler with DEFAULT_POOL_SIZE worker threads.
+     */
+    public BlaubotChannelScheduler() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize the max number of worker threads
+     */
+    public BlaubotChannelScheduler(int poolSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("poolSize has to be positive");
+        }
+        final int schedulerId = schedulerIdGenerator.incrementAndGet();
+        this.workerExecutor = new ScheduledThreadPoolExecutor(poolSize, new NamedDaemonThreadFactory("blaubot-channel-worker-" + schedulerId + "-"));
+        this.workerExecutor.setKeepAliveTime(IDLE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        this.workerExecutor.allowCoreThreadTimeOut(true);
+        this.workerExecutor.setRemoveOnCancelPolicy(true);
+        this.notificationExecutor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_NOTIFICATIONS), new NamedDaemonThreadFactory("blaubot-channel-notify-" + schedulerId + "-"), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.notificationExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits a channel processing task to be executed as soon as a worker is free.
+     *
+     * @param task the task
+     * @throws RejectedExecutionException if the scheduler was shut down
+     */
+    protected void schedule(Runnable task) {
+        workerExecutor.execute(task);
+    }
+
+    /**
+     * Submits a channel processing task to be executed after the given delay.
+     *
+     * @param task    the task
+     * @param delayMs the delay in ms
+     * @throws RejectedExecutionException if the scheduler was shut down
+     */
+    protected void scheduleDelayed(Runnable task, long delayMs) {
+        workerExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a local listener notification outside of the worker threads, so that slow
+     * listeners don't stall the channel processing. If MAX_QUEUED_NOTIFICATIONS are waiting,
+     * the notification is executed by the calling thread.
+     *
+     * @param notification the notification task
+     */
+    protected void executeNotification(Runnable notification) {
+        notificationExecutor.execute(notification);
+    }
+
+    /**
+     * @return the max number of worker threads
+     */
+    public int getPoolSize() {
+        return workerExecutor.getCorePoolSize();
+    }
+
+    /**
+     * Shuts the scheduler down. Channels using it can not be activated afterwards.
+     */
+    public void shutdown() {
+        workerExecutor.shutdownNow();
+        notificationExecutor.shutdown();
+    }
+
+    /**
+     * Creates named daemon threads.
+     */
+    private static class NamedDaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger threadCounter = new AtomicInteger(0);
+
+        NamedDaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, prefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
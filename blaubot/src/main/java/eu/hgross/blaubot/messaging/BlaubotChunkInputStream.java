@@ -0,0 +1,100 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * An InputStream over the payload of a streamed chunked message.
+ * Return it from an IBlaubotChunkStreamHandler and read it from another thread than the
+ * receiving one. The parts are queued until read, so a consumer that is slower than the
+ * connection accumulates them in memory.
+ *
+ * If the message is aborted, reading throws an IOException after the already received parts
+ * were consumed.
+ */
+public class BlaubotChunkInputStream extends InputStream implements IBlaubotChunkStreamListener {
+    private static final byte[] END_MARKER = new byte[0];
+    private static final byte[] ABORT_MARKER = new byte[0];
+    private final LinkedBlockingQueue<byte[]> parts = new LinkedBlockingQueue<>();
+    private byte[] current = null;
+    private int position = 0;
+    private boolean ended = false;
+    private boolean aborted = false;
+
+    @Override
+    public void onChunkPayload(byte[] payload) {
+        if (payload.length > 0) {
+            parts.add(payload);
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        parts.add(END_MARKER);
+    }
+
+    @Override
+    public void onAborted() {
+        parts.add(ABORT_MARKER);
+    }
+
+    /**
+     * Ensures that current has bytes left to read.
+     *
+     * @return false, if the end of the stream was reached
+     * @throws IOException if the message was aborted or the thread got interrupted
+     */
+    private boolean nextPart() throws IOException {
+        if (aborted) {
+            throw new IOException("The chunked message was aborted before it was completely received");
+        }
+        while (!ended && (current == null || position >= current.length)) {
+            final byte[] part;
+            try {
+                part = parts.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the next chunk");
+            }
+            if (part == END_MARKER) {
+                ended = true;
+            } else if (part == ABORT_MARKER) {
+                ended = true;
+                aborted = true;
+                throw new IOException("The chunked message was aborted before it was completely received");
+            } else {
+                current = part;
+                position = 0;
+            }
+        }
+        return !ended;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextPart()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextPart()) {
+            return -1;
+        }
+        final int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null || ended ? 0 : current.length - position;
+    }
+}
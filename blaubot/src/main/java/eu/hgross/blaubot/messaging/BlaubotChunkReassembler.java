@@ -0,0 +1,421 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Reassembles the chunked messages received over one connection (and therefore sent by one
+ * BlaubotMessageSender, which is the scope of the chunk ids).
+ *
+ * The caps apply per connection, not per publishing device: the chunk header does not carry the
+ * originating device and a peasant receives the chunks of all publishers over its connection to
+ * the master, which re-maps the chunk ids. To keep one large publisher from evicting the partial
+ * messages of the others, the memory cap evicts the pending message buffering the most bytes,
+ * which is the growing message itself, if it is the largest.
+ *
+ * Chunks may arrive in any order. A message is complete, once the terminating chunk (the one with
+ * less than BlaubotConstants.MAX_PAYLOAD_SIZE bytes of payload) and all chunks before it arrived.
+ *
+ * The pending messages are bounded:
+ *  - by the sum of their buffered payload bytes (maxPendingBytes)
+ *  - by their number (maxPendingMessages)
+ *  - by time: messages that did not receive a chunk for expiryTime ms are evicted
+ * If the number of messages is exceeded, the least recently active messages are evicted, if the
+ * bytes are exceeded, the largest messages are evicted. The remaining chunks of an evicted
+ * message are ignored.
+ *
+ * If an IBlaubotChunkStreamHandler is set, it may choose to consume a chunked message as a stream
+ * of payloads. The payloads of such messages are handed over in order as soon as possible, only
+ * chunks arriving out of order are buffered.
+ */
+public class BlaubotChunkReassembler {
+    private static final String LOG_TAG = "BlaubotChunkReassembler";
+    /**
+     * Default max number of buffered payload bytes of all pending messages.
+     */
+    public static final long DEFAULT_MAX_PENDING_BYTES = 32 * 1024 * 1024;
+    /**
+     * Default max number of pending messages.
+     */
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 256;
+    /**
+     * Default time in ms after which a pending message without new chunks is evicted.
+     */
+    public static final long DEFAULT_EXPIRY_TIME = 30000;
+
+    /**
+     * The pending messages by chunk id, in access order (least recently active first).
+     */
+    private final LinkedHashMap<Short, PendingMessage> pendingMessages = new LinkedHashMap<>(16, 0.75f, true);
+    private long pendingBytes = 0;
+    private long evictedMessages = 0;
+    private long lastExpiryCheck = 0;
+
+    private volatile long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+    private volatile int maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+    private volatile long expiryTime = DEFAULT_EXPIRY_TIME;
+    private volatile IBlaubotChunkStreamHandler chunkStreamHandler;
+
+    /**
+     * Adds a received chunk.
+     * If the stream listener of the message is called, this happens on the calling thread.
+     *
+     * @param chunk the chunk message
+     * @return the reassembled message, if the chunk completed a (not streamed) message, null otherwise
+     */
+    public synchronized BlaubotMessage onChunk(BlaubotMessage chunk) {
+        final long now = System.currentTimeMillis();
+        if (now - lastExpiryCheck >= expiryTime / 4) {
+            evictExpired(now);
+        }
+
+        final short chunkId = chunk.getChunkId();
+        final int chunkNo = chunk.getChunkNo() & 0xffff; // unsigned shorts
+        if (chunkNo == 0) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Ignoring chunk with invalid chunk number 0 (chunk id " + chunkId + ")");
+            }
+            return null;
+        }
+        PendingMessage pendingMessage = pendingMessages.get(chunkId);
+        if (pendingMessage == null) {
+            pendingMessage = new PendingMessage(chunk);
+            final IBlaubotChunkStreamHandler handler = chunkStreamHandler;
+            if (handler != null) {
+                pendingMessage.streamListener = handler.onChunkedMessageStarted(chunk);
+            }
+            pendingMessages.put(chunkId, pendingMessage);
+            while (pendingMessages.size() > maxPendingMessages && evictLeastRecentlyActive(pendingMessage)) {
+                // evicting
+            }
+        }
+        pendingMessage.lastActivity = now;
+
+        if (pendingMessage.receivedChunkNumbers.get(chunkNo)) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Ignoring duplicate chunk " + chunkNo + " of chunk id " + chunkId);
+            }
+            return null;
+        }
+        pendingMessage.receivedChunkNumbers.set(chunkNo);
+        final byte[] payload = chunk.getPayload();
+        if (payload.length < BlaubotConstants.MAX_PAYLOAD_SIZE) {
+            pendingMessage.lastChunkNo = chunkNo;
+        }
+
+        if (!pendingMessage.discarded) {
+            if (pendingMessage.streamListener != null && chunkNo == pendingMessage.nextStreamedChunkNo) {
+                pendingMessage.streamListener.onChunkPayload(payload);
+                pendingMessage.nextStreamedChunkNo += 1;
+                streamBufferedParts(pendingMessage);
+            } else {
+                bufferPart(pendingMessage, chunkNo, payload);
+            }
+        }
+
+        if (!pendingMessage.isComplete()) {
+            return null;
+        }
+        pendingMessages.remove(chunkId);
+        if (pendingMessage.discarded) {
+            return null;
+        }
+        if (pendingMessage.streamListener != null) {
+            pendingMessage.streamListener.onCompleted();
+            return null;
+        }
+        return assemble(pendingMessage);
+    }
+
+    /**
+     * Buffers the payload of a chunk. If the memory cap would be exceeded, the larger pending
+     * messages are evicted or, if this message is the largest, this message is discarded.
+     *
+     * @param pendingMessage the message the chunk belongs to
+     * @param chunkNo        the chunk number
+     * @param payload        the chunk's payload
+     */
+    private void bufferPart(PendingMessage pendingMessage, int chunkNo, byte[] payload) {
+        while (pendingBytes + payload.length > maxPendingBytes) {
+            final PendingMessage largest = findLargest(pendingMessage);
+            if (largest == null || largest.bufferedBytes <= pendingMessage.bufferedBytes + payload.length) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Discarding chunked message with chunk id " + pendingMessage.chunkId + ", because it is the largest pending message and exceeds the max pending bytes (" + maxPendingBytes + ")");
+                }
+                discard(pendingMessage);
+                return;
+            }
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Evicting chunked message with chunk id " + largest.chunkId + " due to the max pending bytes cap");
+            }
+            discard(largest);
+        }
+        final ArrayList<byte[]> parts = pendingMessage.parts;
+        while (parts.size() < chunkNo) {
+            parts.add(null);
+        }
+        parts.set(chunkNo - 1, payload);
+        pendingMessage.bufferedBytes += payload.length;
+        pendingBytes += payload.length;
+    }
+
+    /**
+     * Hands the buffered parts following the last streamed part to the stream listener.
+     *
+     * @param pendingMessage the streamed message
+     */
+    private void streamBufferedParts(PendingMessage pendingMessage) {
+        final ArrayList<byte[]> parts = pendingMessage.parts;
+        while (pendingMessage.nextStreamedChunkNo <= parts.size()) {
+            final int index = pendingMessage.nextStreamedChunkNo - 1;
+            final byte[] part = parts.get(index);
+            if (part == null) {
+                return;
+            }
+            parts.set(index, null);
+            pendingMessage.bufferedBytes -= part.length;
+            pendingBytes -= part.length;
+            pendingMessage.streamListener.onChunkPayload(part);
+            pendingMessage.nextStreamedChunkNo += 1;
+        }
+    }
+
+    /**
+     * Builds the message from the buffered parts with a single copy.
+     *
+     * @param pendingMessage the complete message
+     * @return the message
+     */
+    private BlaubotMessage assemble(PendingMessage pendingMessage) {
+        final ArrayList<byte[]> parts = pendingMessage.parts;
+        final byte[] payload = new byte[(int) pendingMessage.bufferedBytes];
+        int offset = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            final byte[] part = parts.get(i);
+            System.arraycopy(part, 0, payload, offset, part.length);
+            offset += part.length;
+            // let the parts go as early as possible
+            parts.set(i, null);
+        }
+        pendingBytes -= pendingMessage.bufferedBytes;
+        return BlaubotMessage.copyHeaderWithPayload(pendingMessage.header, payload);
+    }
+
+    /**
+     * Releases the buffered parts of a message and informs the stream listener.
+     * The message stays known (if still in pendingMessages) to ignore its remaining chunks.
+     *
+     * @param pendingMessage the message
+     */
+    private void discard(PendingMessage pendingMessage) {
+        if (pendingMessage.discarded) {
+            return;
+        }
+        pendingMessage.discarded = true;
+        pendingMessage.parts.clear();
+        pendingBytes -= pendingMessage.bufferedBytes;
+        pendingMessage.bufferedBytes = 0;
+        evictedMessages += 1;
+        if (pendingMessage.streamListener != null) {
+            pendingMessage.streamListener.onAborted();
+        }
+    }
+
+    /**
+     * @param except a message that is not considered
+     * @return the not yet discarded pending message buffering the most bytes or null, if there is none
+     */
+    private PendingMessage findLargest(PendingMessage except) {
+        PendingMessage largest = null;
+        for (PendingMessage candidate : pendingMessages.values()) {
+            if (candidate != except && !candidate.discarded && (largest == null || candidate.bufferedBytes > largest.bufferedBytes)) {
+                largest = candidate;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Discards the least recently active pending message, that is not yet discarded.
+     * Messages that were discarded before are forgotten on the way.
+     *
+     * @param except a message that must not be evicted
+     * @return true, iff a message was discarded or forgotten
+     */
+    private boolean evictLeastRecentlyActive(PendingMessage except) {
+        final Iterator<PendingMessage> iterator = pendingMessages.values().iterator();
+        while (iterator.hasNext()) {
+            final PendingMessage candidate = iterator.next();
+            if (candidate == except) {
+                continue;
+            }
+            if (candidate.discarded) {
+                iterator.remove();
+                return true;
+            }
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Evicting chunked message with chunk id " + candidate.chunkId + " due to the max pending messages cap");
+            }
+            discard(candidate);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evicts all pending messages that did not receive a chunk for expiryTime ms.
+     * Called on the arrival of chunks, but may be called periodically to free memory earlier.
+     *
+     * @return the number of evicted messages
+     */
+    public synchronized int evictExpired() {
+        return evictExpired(System.currentTimeMillis());
+    }
+
+    private int evictExpired(long now) {
+        lastExpiryCheck = now;
+        int count = 0;
+        final Iterator<PendingMessage> iterator = pendingMessages.values().iterator();
+        while (iterator.hasNext()) {
+            final PendingMessage pendingMessage = iterator.next();
+            if (now - pendingMessage.lastActivity < expiryTime) {
+                // access ordered, the rest is younger
+                break;
+            }
+            if (!pendingMessage.discarded) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Chunked message with chunk id " + pendingMessage.chunkId + " expired");
+                }
+                discard(pendingMessage);
+                count += 1;
+            }
+            iterator.remove();
+        }
+        return count;
+    }
+
+    /**
+     * Discards all pending messages, i.e. if the connection is gone.
+     */
+    public synchronized void clear() {
+        for (PendingMessage pendingMessage : pendingMessages.values()) {
+            discard(pendingMessage);
+        }
+        pendingMessages.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * @return the number of buffered payload bytes of all pending messages
+     */
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return the number of pending (incomplete) messages
+     */
+    public synchronized int getPendingMessageCount() {
+        return pendingMessages.size();
+    }
+
+    /**
+     * @return the number of messages that were evicted (expired or due to the caps) so far
+     */
+    public synchronized long getEvictedMessages() {
+        return evictedMessages;
+    }
+
+    /**
+     * @param maxPendingBytes the max number of buffered payload bytes of all pending messages
+     */
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * @return the max number of buffered payload bytes of all pending messages
+     */
+    public long getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * @param maxPendingMessages the max number of concurrently pending messages
+     */
+    public void setMaxPendingMessages(int maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * @return the max number of concurrently pending messages
+     */
+    public int getMaxPendingMessages() {
+        return maxPendingMessages;
+    }
+
+    /**
+     * @param expiryTime time in ms after which a pending message without new chunks is evicted
+     */
+    public void setExpiryTime(long expiryTime) {
+        this.expiryTime = expiryTime;
+    }
+
+    /**
+     * @return time in ms after which a pending message without new chunks is evicted
+     */
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    /**
+     * Sets the handler deciding which chunked messages are streamed instead of reassembled.
+     *
+     * @param chunkStreamHandler the handler or null to reassemble all messages
+     */
+    public void setChunkStreamHandler(IBlaubotChunkStreamHandler chunkStreamHandler) {
+        this.chunkStreamHandler = chunkStreamHandler;
+    }
+
+    /**
+     * A chunked message that is not yet complete.
+     */
+    private static class PendingMessage {
+        private final short chunkId;
+        /**
+         * A payload-less copy of the first received chunk, providing the header fields of the reassembled message.
+         */
+        private final BlaubotMessage header;
+        /**
+         * The buffered payloads, indexed by chunkNo - 1, null if not (yet) received or already streamed.
+         */
+        private final ArrayList<byte[]> parts = new ArrayList<>();
+        private final BitSet receivedChunkNumbers = new BitSet();
+        private long bufferedBytes = 0;
+        /**
+         * The number of the terminating chunk, -1 if not yet received.
+         */
+        private int lastChunkNo = -1;
+        private long lastActivity;
+        private boolean discarded = false;
+        private IBlaubotChunkStreamListener streamListener;
+        private int nextStreamedChunkNo = 1;
+
+        private PendingMessage(BlaubotMessage firstChunk) {
+            this.chunkId = firstChunk.getChunkId();
+            this.header = BlaubotMessage.copyHeaderWithPayload(firstChunk, new byte[0]);
+        }
+
+        /**
+         * @return true, iff the terminating chunk and all chunks before were received
+         */
+        private boolean isComplete() {
+            return lastChunkNo > 0 && receivedChunkNumbers.nextClearBit(1) > lastChunkNo;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.hgross.blaubot.metrics.Counter;
+
+/**
+ * The message queue of a conflating channel (see BlaubotChannelConfig#setConflating).
+ *
+ * Instead of a FIFO of all published messages, the queue holds one slot per conflation key
+ * (BlaubotMessage.conflationKey). Offering a message whose key already has a slot overwrites the
+ * slot's message in constant time, the slot keeps its position. Therefore only the most recent
+ * message of each key is picked and the messages are picked in the order their keys were
+ * first published since the last pick.
+ *
+ * The capacity limits the number of slots. Messages without a conflation key occupy a slot of
+ * their own.
+ */
+class BlaubotConflatingMessageQueue extends AbstractQueue<BlaubotMessage> implements BlockingQueue<BlaubotMessage> {
+    private final int capacity;
+    /**
+     * conflation key (or the message itself, if it has no key) -> most recent message
+     * Guarded by lock.
+     */
+    private final LinkedHashMap<Object, BlaubotMessage> slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /**
+     * Counts the messages that were overwritten without being picked.
+     */
+    private final Counter conflatedCounter;
+
+    /**
+     * @param capacity         the max number of slots
+     * @param conflatedCounter counts the overwritten messages
+     */
+    BlaubotConflatingMessageQueue(int capacity, Counter conflatedCounter) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity has to be positive");
+        }
+        this.capacity = capacity;
+        this.conflatedCounter = conflatedCounter;
+        this.slots = new LinkedHashMap<>();
+    }
+
+    private static Object keyOf(BlaubotMessage message) {
+        return message.conflationKey != null ? message.conflationKey : message;
+    }
+
+    /**
+     * Overwrites the slot of the message's key or adds a new slot, if there is room.
+     * Must be called with the lock held.
+     *
+     * @param message the message
+     * @return true, iff the message was stored
+     */
+    private boolean store(BlaubotMessage message) {
+        final Object key = keyOf(message);
+        final BlaubotMessage replaced = slots.get(key);
+        if (replaced != null) {
+            // keeps the slot's position
+            slots.put(key, message);
+            conflatedCounter.increment();
+            return true;
+        }
+        if (slots.size() >= capacity) {
+            return false;
+        }
+        slots.put(key, message);
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Removes the oldest slot.
+     * Must be called with the lock held.
+     *
+     * @return the message of the oldest slot or null, if empty
+     */
+    private BlaubotMessage removeFirst() {
+        final Iterator<BlaubotMessage> it = slots.values().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        final BlaubotMessage message = it.next();
+        it.remove();
+        notFull.signal();
+        return message;
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            return store(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(BlaubotMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!store(message)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(BlaubotMessage message) throws InterruptedException {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (!store(message)) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty()) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BlaubotMessage peek() {
+        lock.lock();
+        try {
+            final Iterator<BlaubotMessage> it = slots.values().iterator();
+            return it.hasNext() ? it.next() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof BlaubotMessage)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            final Object key = keyOf((BlaubotMessage) o);
+            if (slots.get(key) != o) {
+                return false;
+            }
+            slots.remove(key);
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            slots.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super BlaubotMessage> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements) {
+                final BlaubotMessage message = removeFirst();
+                if (message == null) {
+                    break;
+                }
+                c.add(message);
+                drained += 1;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The iterator works on a snapshot of the queued messages and does not support remove().
+     */
+    @Override
+    public Iterator<BlaubotMessage> iterator() {
+        final List<BlaubotMessage> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(slots.values());
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<BlaubotMessage> it = snapshot.iterator();
+        return new Iterator<BlaubotMessage>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public BlaubotMessage next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
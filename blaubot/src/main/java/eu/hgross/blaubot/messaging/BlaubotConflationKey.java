@@ -0,0 +1,55 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Identifies the conflation slot of a message published to a conflating channel:
+ * the channel, the device that published the message and the application defined key (if any).
+ */
+final class BlaubotConflationKey {
+    private final short channelId;
+    private final String senderUniqueDeviceId;
+    private final Object applicationKey;
+    private final int hashCode;
+
+    /**
+     * @param channelId            the channel id
+     * @param senderUniqueDeviceId the unique device id of the publishing device, can be null
+     * @param applicationKey       the key extracted by the channel's IBlaubotConflationKeyExtractor, can be null
+     */
+    BlaubotConflationKey(short channelId, String senderUniqueDeviceId, Object applicationKey) {
+        this.channelId = channelId;
+        this.senderUniqueDeviceId = senderUniqueDeviceId;
+        this.applicationKey = applicationKey;
+        int result = (int) channelId;
+        result = 31 * result + (senderUniqueDeviceId != null ? senderUniqueDeviceId.hashCode() : 0);
+        result = 31 * result + (applicationKey != null ? applicationKey.hashCode() : 0);
+        this.hashCode = result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BlaubotConflationKey that = (BlaubotConflationKey) o;
+
+        if (channelId != that.channelId) return false;
+        if (senderUniqueDeviceId != null ? !senderUniqueDeviceId.equals(that.senderUniqueDeviceId) : that.senderUniqueDeviceId != null)
+            return false;
+        return applicationKey != null ? applicationKey.equals(that.applicationKey) : that.applicationKey == null;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("BlaubotConflationKey{");
+        sb.append("channelId=").append(channelId);
+        sb.append(", senderUniqueDeviceId='").append(senderUniqueDeviceId).append('\'');
+        sb.append(", applicationKey=").append(applicationKey);
+        sb.append('}');
+        return sb.toString();
+    }
+}
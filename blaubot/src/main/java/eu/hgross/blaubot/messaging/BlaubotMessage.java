@@ -101,29 +101,21 @@ public class BlaubotMessage {
      * @return the message
      */
     public static BlaubotMessage fromChunks(List<BlaubotMessage> chunks) {
-        // sort by chunkNo
+        // sort by chunkNo (unsigned)
         Collections.sort(chunks, new Comparator<BlaubotMessage>() {
             @Override
             public int compare(BlaubotMessage o1, BlaubotMessage o2) {
-                return Short.valueOf(o1.chunkNo).compareTo(Short.valueOf(o2.chunkNo));
+                return Integer.compare(o1.chunkNo & 0xffff, o2.chunkNo & 0xffff);
             }
         });
 
-
         int chunkId = -1;
         int totalSize = 0;
         int i = 0;
-        Priority p = null;
-        short channelId = -1;
-        IBlaubotConnection originator = null;
         for (BlaubotMessage chunk : chunks) {
             // validate id on the run
             if (i++ == 0) {
-                // initially set up some vars
                 chunkId = chunk.getChunkId();
-                channelId = chunk.getChannelId();
-                p = chunk.getPriority();
-                originator = chunk.getLastOriginatorConnection();
             } else if (chunkId != chunk.getChunkId()) {
                 throw new IllegalArgumentException("The list contained chunk messages of multiple chunkIds. ");
             }
@@ -133,22 +125,33 @@ public class BlaubotMessage {
         }
 
         // create the combined payload byte array
-        final ByteBuffer byteBuffer = ByteBuffer.allocate(totalSize).order(BlaubotConstants.BYTE_ORDER);
+        final byte[] payload = new byte[totalSize];
+        int offset = 0;
         for (BlaubotMessage chunk : chunks) {
             if (chunk.getMessageType().containsPayload()) {
-                byteBuffer.put(chunk.getPayload());
+                final byte[] chunkPayload = chunk.getPayload();
+                System.arraycopy(chunkPayload, 0, payload, offset, chunkPayload.length);
+                offset += chunkPayload.length;
             }
         }
-        byteBuffer.flip();
-        final byte[] payload = byteBuffer.array();
+        return copyHeaderWithPayload(chunks.get(0), payload);
+    }
 
-        // build the message
+    /**
+     * Creates a (not chunked) message with the header fields of the given message (i.e. one of the
+     * chunks of the message) and the given payload.
+     *
+     * @param chunk   the message to copy the header fields from
+     * @param payload the payload
+     * @return the message
+     */
+    static BlaubotMessage copyHeaderWithPayload(BlaubotMessage chunk, byte[] payload) {
         BlaubotMessage out = new BlaubotMessage();
-        out.setMessageType(BlaubotMessageType.copy(chunks.get(0).messageType));
+        out.setMessageType(BlaubotMessageType.copy(chunk.messageType));
         out.getMessageType().setIsChunk(false);
-        out.setPriority(p);
-        out.setChannelId(channelId);
-        out.setLastOriginatorConnection(originator);
+        out.setPriority(chunk.getPriority());
+        out.channelId = chunk.channelId;
+        out.setLastOriginatorConnection(chunk.getLastOriginatorConnection());
         out.setPayload(payload);
         return out;
     }
@@ -193,9 +196,29 @@ public class BlaubotMessage {
      * queued.
      */
     protected int sequenceNumber;
+    /**
+     * An attribute that is not sent via the connection
+     * The System.nanoTime() at which the message was published to a channel, used to measure
+     * the time until it is handed to the senders.
+     */
+    protected long publishTime;
+    /**
+     * An attribute that is not sent via the connection
+     * The key of the conflation slot this message occupies, if published to a conflating channel
+     * (see BlaubotChannelConfig#setConflating). A queued message with the same key is overwritten
+     * by this message instead of being sent.
+     */
+    BlaubotConflationKey conflationKey;
 
     private IBlaubotConnection lastOriginatorConnection;
 
+    /**
+     * If set, this message is a carrier for an already serialized (shared) frame and is written
+     * by copying the frame's bytes instead of encoding the header and payload.
+     * Not sent via the connection.
+     */
+    BlaubotMessageFrame frame;
+
     /**
      * Constructs a default message, which sends data on a default channel
      */
@@ -264,6 +287,8 @@ public class BlaubotMessage {
             throw new IllegalArgumentException("You are trying something weird. Message is an admin message but you tried to set a channelId ("+channelId+"). AdminMessages don't involve any channels.");
         } else if(messageType.isKeepAliveMessage() && channelId >= 0) {
             throw new IllegalArgumentException("You are trying something weird. Message is a keep alive message but you tried to set a channelId  ("+channelId+"). Keep alives don't involve any channels.");
+        } else if(messageType.isRelayFrame() && channelId >= 0) {
+            throw new IllegalArgumentException("You are trying something weird. Message is a relay frame but you tried to set a channelId  ("+channelId+"). Relay frames don't involve any channels.");
         }
         this.channelId = channelId;
     }
@@ -304,8 +329,19 @@ public class BlaubotMessage {
      * @return the payloads length in bytes - 0 if no payload at all.
      */
     public int applyBytes(byte[] headerBytes) {
+        return applyBytes(ByteBuffer.wrap(headerBytes).order(BlaubotConstants.BYTE_ORDER));
+    }
+
+    /**
+     * Applies all data from the message schema except the payload, reading the header fields
+     * from the given buffer's current position on.
+     * After the call the buffer's position is right behind the header.
+     *
+     * @param byteBuffer the buffer positioned at the first header byte (version field)
+     * @return the payloads length in bytes - 0 if no payload at all.
+     */
+    public int applyBytes(ByteBuffer byteBuffer) {
         // VERSION
-        ByteBuffer byteBuffer = ByteBuffer.wrap(headerBytes).order(BlaubotConstants.BYTE_ORDER);
         byte version = byteBuffer.get();
         setProtocolVersion(version);
 
@@ -319,7 +355,7 @@ public class BlaubotMessage {
         setPriority(Priority.fromByte(priority));
 
         // Now we check if we have to deal with channels
-        if (messageType.isAdminMessage() || messageType.isKeepAliveMessage()) {
+        if (!messageType.isChannelMessage()) {
             // -- no channel needed
             setChannelId((byte) -1);
         } else {
@@ -359,7 +395,7 @@ public class BlaubotMessage {
      * @return the length of all header fields excluding the payload bytes.
      */
     protected static int calculateHeaderLength(BlaubotMessageType messageType) {
-        boolean isChannelFieldRelevant = !messageType.isAdminMessage() && !messageType.isKeepAliveMessage();
+        boolean isChannelFieldRelevant = messageType.isChannelMessage();
         boolean containsPayload = messageType.containsPayload();
         boolean isChunkMessage = messageType.isChunk();
 
@@ -384,11 +420,38 @@ public class BlaubotMessage {
      * @return byte array containing the message's header as well as payload (if any)
      */
     public byte[] toBytes() {
-        int headerLength = calculateHeaderLength(messageType);
-        int totalLength = headerLength + (messageType.containsPayload() ? payload.length : 0);
+        final byte[] bytes = new byte[getEncodedLength()];
+        writeTo(ByteBuffer.wrap(bytes).order(BlaubotConstants.BYTE_ORDER));
+        return bytes;
+    }
 
-        // allocate and encode attributes
-        ByteBuffer bb = ByteBuffer.allocate(totalLength).order(BlaubotConstants.BYTE_ORDER);
+    /**
+     * The number of bytes this message occupies when serialized (header and payload).
+     *
+     * @return the length of the serialized message in bytes
+     */
+    public int getEncodedLength() {
+        if (frame != null) {
+            return frame.getLength();
+        }
+        return calculateHeaderLength(messageType) + (messageType.containsPayload() ? payload.length : 0);
+    }
+
+    /**
+     * Serializes the message (header and payload, if any) into the given buffer starting at the
+     * buffer's current position.
+     * The buffer has to have at least getEncodedLength() bytes remaining and has to use
+     * BlaubotConstants.BYTE_ORDER.
+     *
+     * @param bb the buffer to write to
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the buffer has not enough space left
+     */
+    public int writeTo(ByteBuffer bb) {
+        if (frame != null) {
+            return frame.writeTo(bb);
+        }
+        final int startPosition = bb.position();
 
         // encode version, type and priority
         bb.put(protocolVersion);
@@ -396,7 +459,7 @@ public class BlaubotMessage {
         bb.put(priority.value);
 
         // encode channel, if relevant
-        final boolean isChannelRelevant = !messageType.isAdminMessage() && !messageType.isKeepAliveMessage();
+        final boolean isChannelRelevant = messageType.isChannelMessage();
         if (isChannelRelevant) {
             bb.putShort(channelId);
         }
@@ -415,12 +478,57 @@ public class BlaubotMessage {
             bb.putShort((short) payload.length);
             bb.put(payload);
         }
+        return bb.position() - startPosition;
+    }
 
-        // retrieve byte array from buffer
-        byte[] bytes = new byte[totalLength];
-        bb.clear();
-        bb.get(bytes);
-        return bytes;
+    /**
+     * Creates a message that carries the given, already serialized frame of the original message.
+     * The carrier shares the original's header values and payload array (for accounting) but
+     * has its own sequence number, so the same frame can be queued to multiple senders.
+     * The carrier retains a reference on the frame, which is released by releaseFrame().
+     *
+     * @param original the message the frame was created from
+     * @param frame    the serialized original
+     * @return the carrier message
+     */
+    static BlaubotMessage createFrameCarrier(BlaubotMessage original, BlaubotMessageFrame frame) {
+        final BlaubotMessage carrier = new BlaubotMessage();
+        carrier.protocolVersion = original.protocolVersion;
+        carrier.messageType = original.messageType;
+        carrier.priority = original.priority;
+        carrier.channelId = original.channelId;
+        carrier.payload = original.payload;
+        carrier.lastOriginatorConnection = original.lastOriginatorConnection;
+        carrier.conflationKey = original.conflationKey;
+        carrier.frame = frame.retain();
+        return carrier;
+    }
+
+    /**
+     * Releases the frame reference held by this message, if it is a frame carrier.
+     * Called by the sender after the message was written.
+     */
+    void releaseFrame() {
+        final BlaubotMessageFrame f = frame;
+        if (f != null) {
+            frame = null;
+            f.release();
+        }
+    }
+
+    /**
+     * Serializes the message into a buffer acquired from the given pool.
+     * The returned buffer is flipped (ready to be read from position 0 up to its limit) and
+     * has to be given back to the pool via BlaubotMessageBufferPool#release(..) after use.
+     *
+     * @param pool the pool to acquire the buffer from
+     * @return the flipped buffer containing the serialized message
+     */
+    public ByteBuffer toPooledBuffer(BlaubotMessageBufferPool pool) {
+        final ByteBuffer buffer = pool.acquire(getEncodedLength());
+        writeTo(buffer);
+        buffer.flip();
+        return buffer;
     }
 
     /**
@@ -431,44 +539,24 @@ public class BlaubotMessage {
      * @return the deserialized blaubot message
      */
     public static BlaubotMessage fromByteArray(byte[] messageBytes) {
-        int headerLength = BlaubotMessage.FULL_HEADER_LENGTH;
-        byte[] headerBuffer = new byte[headerLength];
-        ByteBuffer headerByteBuffer = ByteBuffer.wrap(headerBuffer).order(BlaubotConstants.BYTE_ORDER);
-        ByteBuffer messageByteBuffer = ByteBuffer.wrap(messageBytes).order(BlaubotConstants.BYTE_ORDER);
-
-        // Partially read version, type and type, then decide how much bytes we need to read
-        int partialHeaderLength = BlaubotMessage.VERSION_FIELD_LENGTH + BlaubotMessage.TYPE_FIELD_LENGTH;
-        messageByteBuffer.get(headerBuffer, 0, partialHeaderLength);
+        final ByteBuffer messageByteBuffer = ByteBuffer.wrap(messageBytes).order(BlaubotConstants.BYTE_ORDER);
 
         // assert a compatible message schema
-        byte messageSchemaVersion = headerByteBuffer.get();
+        byte messageSchemaVersion = messageByteBuffer.get(0);
         if (messageSchemaVersion != BlaubotConstants.MESSAGE_SCHEMA_VERSION) {
             // TODO: maybe close connection, see TODO at methods begin
             throw new RuntimeException("Incompatible Blaubot message schema version: " + messageSchemaVersion);
         }
 
-        // pre-create the MessageType to determine, how much header length is left to be read
-        byte typeInfo = headerByteBuffer.get();
-        BlaubotMessageType messageType = BlaubotMessageType.fromByte(typeInfo);
-
-        // we are now able to calculate, how many bytes of this message's header we need to read.
-        // we already read some header bytes, now get the rest needed for this message
-        int totalHeaderLength = BlaubotMessage.calculateHeaderLength(messageType);
-        int outstandingHeaderBytes = totalHeaderLength - partialHeaderLength;
-        messageByteBuffer.get(headerBuffer, partialHeaderLength, outstandingHeaderBytes);
-
-        // construct the message with all header informations
+        // construct the message with all header informations (read directly from the array)
         BlaubotMessage message = new BlaubotMessage();
-        int payloadLength = message.applyBytes(headerBuffer);
+        int payloadLength = message.applyBytes(messageByteBuffer);
 
         // check if there is any payload to retrieve
         if (message.getMessageType().containsPayload()) {
             if (payloadLength > 0) {
-                // create buffer - Note: intentionally no reuse of buffers - faster because of javas memory management
                 byte[] payloadBuffer = new byte[payloadLength];
                 messageByteBuffer.get(payloadBuffer, 0, payloadLength);
-                byte[] orderedPayload = new byte[payloadLength]; // byte ordered
-                ByteBuffer.wrap(payloadBuffer).order(BlaubotConstants.BYTE_ORDER).get(orderedPayload);
                 message.setPayload(payloadBuffer);
             }
         }
@@ -565,7 +653,7 @@ public class BlaubotMessage {
      * @throws java.io.IOException if something goes wrong
      */
     public static BlaubotMessage readFromBlaubotConnection(IBlaubotConnection connection) throws IOException {
-        byte[] headerBuffer, payloadBuffer;
+        byte[] headerBuffer;
         headerBuffer = new byte[BlaubotMessage.FULL_HEADER_LENGTH];
         ByteBuffer headerByteBuffer = ByteBuffer.wrap(headerBuffer).order(BlaubotConstants.BYTE_ORDER);
         return readFromBlaubotConnection(connection, headerByteBuffer, headerBuffer);
@@ -619,11 +707,10 @@ public class BlaubotMessage {
         // check if there is any payload to retrieve
         if (message.getMessageType().containsPayload()) {
             if (payloadLength > 0) {
-                // create buffer - Note: intentionally no reuse of buffers - faster because of javas memory management
+                // create buffer - Note: intentionally no reuse of payload buffers, because the payload
+                // array is handed to the listeners, which may keep (or re-dispatch) the message.
                 payloadBuffer = new byte[payloadLength];
                 blaubotConnection.readFully(payloadBuffer, 0, payloadLength);
-                byte[] orderedPayload = new byte[payloadLength]; // byte ordered
-                ByteBuffer.wrap(payloadBuffer).order(BlaubotConstants.BYTE_ORDER).get(orderedPayload);
                 message.setPayload(payloadBuffer);
             }
         }
@@ -634,6 +721,60 @@ public class BlaubotMessage {
         return message;
     }
 
+    /**
+     * Reads a message from a buffer that may contain an incomplete message.
+     * If the buffer holds a complete message, it is consumed (the buffer's position is moved behind it).
+     * Otherwise the buffer's position is left untouched and null is returned.
+     *
+     * @param buffer the buffer in read mode, positioned at the first header byte (version field)
+     * @param blaubotConnection the connection the bytes were received from
+     * @return the message or null, if the buffer does not contain a complete message yet
+     * @throws IOException if the bytes are not a valid message (incompatible version)
+     */
+    public static BlaubotMessage readFromBuffer(ByteBuffer buffer, IBlaubotConnection blaubotConnection) throws IOException {
+        final int start = buffer.position();
+        final int available = buffer.remaining();
+        final int partialHeaderLength = BlaubotMessage.VERSION_FIELD_LENGTH + BlaubotMessage.TYPE_FIELD_LENGTH;
+        if (available < partialHeaderLength) {
+            return null;
+        }
+
+        // assert a compatible message schema
+        byte messageSchemaVersion = buffer.get(start);
+        if (messageSchemaVersion != BlaubotConstants.MESSAGE_SCHEMA_VERSION) {
+            final String errorMsg = "Error reading BlaubotMessage from connection " + blaubotConnection + ". Either the remote device is using a different Blaubot message schema version (" + messageSchemaVersion + ") or the byte stream got corrupted.";
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, errorMsg);
+            }
+            throw new IOException(errorMsg);
+        }
+
+        // check if the header and payload are complete
+        BlaubotMessageType messageType = BlaubotMessageType.fromByte(buffer.get(start + VERSION_FIELD_LENGTH));
+        int totalHeaderLength = BlaubotMessage.calculateHeaderLength(messageType);
+        if (available < totalHeaderLength) {
+            return null;
+        }
+        int payloadLength = 0;
+        if (messageType.containsPayload()) {
+            payloadLength = buffer.getShort(start + totalHeaderLength - PAYLOAD_LENGTH_FIELD_LENGTH) & 0xffff;
+        }
+        if (available < totalHeaderLength + payloadLength) {
+            return null;
+        }
+
+        // complete, consume it
+        BlaubotMessage message = new BlaubotMessage();
+        message.applyBytes(buffer);
+        if (message.getMessageType().containsPayload() && payloadLength > 0) {
+            byte[] payloadBuffer = new byte[payloadLength];
+            buffer.get(payloadBuffer, 0, payloadLength);
+            message.setPayload(payloadBuffer);
+        }
+        message.setLastOriginatorConnection(blaubotConnection);
+        return message;
+    }
+
     public static void main(String[] args) {
         BlaubotMessage msg = new BlaubotMessage();
         msg.setPayload("blabla".getBytes());
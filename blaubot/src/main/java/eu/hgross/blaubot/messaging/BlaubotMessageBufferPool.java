@@ -0,0 +1,113 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * A bounded pool of reusable ByteBuffers used to serialize BlaubotMessages without allocating
+ * a new byte array for each message.
+ *
+ * All pooled buffers are heap buffers of the same capacity, which is big enough to hold any
+ * (non-chunked) BlaubotMessage including its header, so that the backing array can be handed
+ * directly to IBlaubotConnection#write(byte[], int, int).
+ *
+ * Buffers have to be returned via release(..) after use. Buffers that are acquired while the pool
+ * is empty are allocated on the fly and are taken into the pool on release, if the pool is not full.
+ * Buffers exceeding the pool's buffer capacity are never pooled.
+ */
+public class BlaubotMessageBufferPool {
+    /**
+     * Capacity of the pooled buffers: the max payload size plus a full header.
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = BlaubotMessage.FULL_HEADER_LENGTH + BlaubotConstants.MAX_PAYLOAD_SIZE;
+    /**
+     * The default max number of idle buffers kept by the pool.
+     */
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+    private static final BlaubotMessageBufferPool DEFAULT_POOL = new BlaubotMessageBufferPool(DEFAULT_BUFFER_CAPACITY, DEFAULT_MAX_POOLED_BUFFERS);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> idleBuffers;
+    private final AtomicInteger idleBufferCount;
+    private final int bufferCapacity;
+    private final int maxPooledBuffers;
+
+    /**
+     * @param bufferCapacity   the capacity in bytes of each pooled buffer
+     * @param maxPooledBuffers the max number of idle buffers to keep
+     */
+    public BlaubotMessageBufferPool(int bufferCapacity, int maxPooledBuffers) {
+        if (bufferCapacity <= 0 || maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("bufferCapacity has to be positive and maxPooledBuffers must not be negative");
+        }
+        this.bufferCapacity = bufferCapacity;
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.idleBuffers = new ConcurrentLinkedQueue<>();
+        this.idleBufferCount = new AtomicInteger(0);
+    }
+
+    /**
+     * The pool shared by all message senders.
+     *
+     * @return the default pool instance
+     */
+    public static BlaubotMessageBufferPool getDefault() {
+        return DEFAULT_POOL;
+    }
+
+    /**
+     * Acquires a cleared buffer with at least minCapacity bytes capacity.
+     * The buffer's byte order is set to BlaubotConstants.BYTE_ORDER.
+     *
+     * @param minCapacity the minimum number of bytes the buffer has to hold
+     * @return the buffer, which has to be given back by release(..)
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > bufferCapacity) {
+            // -- too big to be pooled
+            return ByteBuffer.allocate(minCapacity).order(BlaubotConstants.BYTE_ORDER);
+        }
+        final ByteBuffer buffer = idleBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(bufferCapacity).order(BlaubotConstants.BYTE_ORDER);
+        }
+        idleBufferCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool.
+     * The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer the buffer previously acquired by acquire(..)
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferCapacity || !buffer.hasArray()) {
+            return;
+        }
+        if (idleBufferCount.incrementAndGet() > maxPooledBuffers) {
+            // -- pool is full, let the gc have it
+            idleBufferCount.decrementAndGet();
+            return;
+        }
+        idleBuffers.offer(buffer);
+    }
+
+    /**
+     * @return the capacity of the pooled buffers in bytes
+     */
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    /**
+     * @return the number of currently idle buffers in the pool
+     */
+    public int getIdleBufferCount() {
+        return idleBufferCount.get();
+    }
+}
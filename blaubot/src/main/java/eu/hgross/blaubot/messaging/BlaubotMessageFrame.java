@@ -0,0 +1,103 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable, reference-counted serialization of a BlaubotMessage.
+ *
+ * Used by the BlaubotChannelManager to serialize a message once and hand the same bytes to
+ * multiple BlaubotMessageSenders (fan-out to subscribers) instead of re-encoding the message for
+ * each receiver.
+ *
+ * The creator holds the initial reference. Each party that keeps the frame has to retain() it
+ * and release() it when done. Frames big enough to make pooling worthwhile are backed by a buffer
+ * of the BlaubotMessageBufferPool, which is given back when the last reference is released.
+ * If a reference is never released (i.e. a sender is discarded with queued messages), the buffer
+ * is simply left to the garbage collector.
+ */
+class BlaubotMessageFrame {
+    /**
+     * Frames with at least this many bytes are backed by a pooled buffer, smaller ones by an
+     * exactly sized array.
+     */
+    static final int POOLING_THRESHOLD = 8192;
+
+    private final ByteBuffer buffer;
+    private final int length;
+    private final BlaubotMessageBufferPool pool;
+    private final AtomicInteger referenceCount;
+
+    private BlaubotMessageFrame(ByteBuffer buffer, int length, BlaubotMessageBufferPool pool) {
+        this.buffer = buffer;
+        this.length = length;
+        this.pool = pool;
+        this.referenceCount = new AtomicInteger(1);
+    }
+
+    /**
+     * Serializes the message into a new frame holding one reference (the caller's).
+     *
+     * @param message the message to serialize, must not be modified afterwards if used as frame carrier
+     * @param pool    the pool to take large buffers from
+     * @return the frame
+     */
+    static BlaubotMessageFrame encode(BlaubotMessage message, BlaubotMessageBufferPool pool) {
+        final int encodedLength = message.getEncodedLength();
+        if (encodedLength >= POOLING_THRESHOLD && encodedLength <= pool.getBufferCapacity()) {
+            final ByteBuffer pooledBuffer = pool.acquire(encodedLength);
+            message.writeTo(pooledBuffer);
+            return new BlaubotMessageFrame(pooledBuffer, encodedLength, pool);
+        }
+        final byte[] bytes = message.toBytes();
+        return new BlaubotMessageFrame(ByteBuffer.wrap(bytes), encodedLength, null);
+    }
+
+    /**
+     * @return the length of the serialized message in bytes
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Copies the frame's bytes into the given buffer at its current position.
+     *
+     * @param destination the buffer to write to
+     * @return the number of bytes written
+     */
+    int writeTo(ByteBuffer destination) {
+        destination.put(buffer.array(), buffer.arrayOffset(), length);
+        return length;
+    }
+
+    /**
+     * Adds a reference.
+     *
+     * @return this frame
+     * @throws IllegalStateException if the frame was already released completely
+     */
+    BlaubotMessageFrame retain() {
+        for (;;) {
+            final int current = referenceCount.get();
+            if (current <= 0) {
+                throw new IllegalStateException("The frame was already released.");
+            }
+            if (referenceCount.compareAndSet(current, current + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Removes a reference and gives the backing buffer back to the pool, if it was the last one.
+     */
+    void release() {
+        final int remaining = referenceCount.decrementAndGet();
+        if (remaining == 0 && pool != null) {
+            pool.release(buffer);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("The frame was released more often than retained.");
+        }
+    }
+}
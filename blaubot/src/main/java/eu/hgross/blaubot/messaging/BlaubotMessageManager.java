@@ -5,6 +5,7 @@ import java.util.concurrent.TimeUnit;
 
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -42,8 +43,19 @@ public class BlaubotMessageManager {
      * @param blaubotConnection the connection to be managed 
      */
     public BlaubotMessageManager(IBlaubotConnection blaubotConnection) {
-        this.messageReceiver = new BlaubotMessageReceiver(blaubotConnection);
-        this.messageSender = new BlaubotMessageSender(blaubotConnection);
+        this(blaubotConnection, BlaubotMetricsRegistry.getDefault());
+    }
+
+    /**
+     * Constructs the MessageManager based on a IBlaubotConnection. Creates the needed Receiver
+     * and Sender objects by itself, recording their metrics to the given registry.
+     *
+     * @param blaubotConnection the connection to be managed
+     * @param metricsRegistry   the registry to record the metrics to
+     */
+    public BlaubotMessageManager(IBlaubotConnection blaubotConnection, BlaubotMetricsRegistry metricsRegistry) {
+        this.messageReceiver = new BlaubotMessageReceiver(blaubotConnection, metricsRegistry);
+        this.messageSender = new BlaubotMessageSender(blaubotConnection, metricsRegistry);
     }
 
     /**
@@ -2,21 +2,21 @@ package eu.hgross.blaubot.messaging;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.Counter;
 import eu.hgross.blaubot.util.Log;
 
 /**
  * A message receiver handles incoming data streams from an IBlaubotConnection.
  * It converts the byte stream into BlaubotMessage instances and notifies it's
  * listeners when a message was completely read.
+ * For ISelectableBlaubotConnections no reading thread is used, the connection hands the
+ * decoded messages to the receiver from its selector thread.
  * 
  * Message listeners can be activated and deactivated.
  */
@@ -29,11 +29,25 @@ public class BlaubotMessageReceiver {
     
     private static final String LOG_TAG = "BlaubotMessageReceiver";
     /**
-     * Locks the access to the chunked message mappings
+     * Counter of the received messages (including chunks)
      */
-    private final Object chunkLock = new Object();
-    private final Map<Short, Boolean> receivedLastChunkMapping;
-    private final Map<Short, List<BlaubotMessage>> receivedChunks;
+    public static final String METRIC_MESSAGES = "receiver.messages";
+    /**
+     * Counter of the received payload bytes (including chunks)
+     */
+    public static final String METRIC_BYTES = "receiver.bytes";
+    /**
+     * Counter of the received chunks
+     */
+    public static final String METRIC_CHUNKS = "receiver.chunks";
+    /**
+     * Counter of the messages reassembled from chunks
+     */
+    public static final String METRIC_REASSEMBLED_MESSAGES = "receiver.reassembledMessages";
+    /**
+     * Pieces the received chunks together
+     */
+    private final BlaubotChunkReassembler chunkReassembler;
 
     private final IBlaubotConnection blaubotConnection;
     private final CopyOnWriteArrayList<IBlaubotMessageListener> messageListeners;
@@ -47,12 +61,32 @@ public class BlaubotMessageReceiver {
     private long receivedMessages = 0;
     private long receivedPayloadBytes = 0;
     private long receivedChunkMessages = 0;
+    private final Counter messagesCounter;
+    private final Counter bytesCounter;
+    private final Counter chunksCounter;
+    private final Counter reassembledMessagesCounter;
 
+    /**
+     * Creates a receiver recording its metrics to the default registry.
+     *
+     * @param blaubotConnection the connection to receive the messages from
+     */
     public BlaubotMessageReceiver(IBlaubotConnection blaubotConnection) {
+        this(blaubotConnection, BlaubotMetricsRegistry.getDefault());
+    }
+
+    /**
+     * @param blaubotConnection the connection to receive the messages from
+     * @param metricsRegistry   the registry to record the metrics to
+     */
+    public BlaubotMessageReceiver(IBlaubotConnection blaubotConnection, BlaubotMetricsRegistry metricsRegistry) {
+        this.messagesCounter = metricsRegistry.counter(METRIC_MESSAGES);
+        this.bytesCounter = metricsRegistry.counter(METRIC_BYTES);
+        this.chunksCounter = metricsRegistry.counter(METRIC_CHUNKS);
+        this.reassembledMessagesCounter = metricsRegistry.counter(METRIC_REASSEMBLED_MESSAGES);
         this.blaubotConnection = blaubotConnection;
         this.messageListeners = new CopyOnWriteArrayList<>();
-        this.receivedLastChunkMapping = new HashMap<>();
-        this.receivedChunks = new HashMap<>();
+        this.chunkReassembler = new BlaubotChunkReassembler();
     }
 
     public void addMessageListener(IBlaubotMessageListener messageListener) {
@@ -78,6 +112,13 @@ public class BlaubotMessageReceiver {
      * take over the work from the previous thread.
      */
     public void activate() {
+        if (blaubotConnection instanceof ISelectableBlaubotConnection) {
+            // -- the connection decodes the messages on its selector thread, no thread needed
+            synchronized (activationLock) {
+                ((ISelectableBlaubotConnection) blaubotConnection).setMessageListener(selectorMessageListener);
+            }
+            return;
+        }
         MessageReceivingThread mrt = new MessageReceivingThread();
         mrt.setName("msg-receiver-" + blaubotConnection.getRemoteDevice().getUniqueDeviceID() + ", " + mrt.getId());
         synchronized (activationLock) {
@@ -98,6 +139,9 @@ public class BlaubotMessageReceiver {
         synchronized (activationLock) {
             mrt = messageReceivingThread;
             messageReceivingThread = null;
+            if (blaubotConnection instanceof ISelectableBlaubotConnection) {
+                ((ISelectableBlaubotConnection) blaubotConnection).setMessageListener(null);
+            }
 
             // replacing the consumer thread is sufficient, we call the listener
             if (actionListener != null) actionListener.onFinished();
@@ -105,10 +149,8 @@ public class BlaubotMessageReceiver {
         if (mrt != null) {
             //mrt.interrupt(); // we don't interrupt the thread, because we could end up in a out of sync bytestream this way
         }
-        // clear chunk mappings
-        synchronized (chunkLock) {
-            receivedLastChunkMapping.clear();
-        }
+        // forget incomplete chunked messages
+        chunkReassembler.clear();
     }
 
     /**
@@ -155,61 +197,61 @@ public class BlaubotMessageReceiver {
      * @param chunkMessage the message
      */
     private void onChunkMessageReceived(BlaubotMessage chunkMessage) {
-        /*
-         * Chunked messages are processed as follows:
-         *  - we store a mapping chunkId -> List of received messages regarding this chunk id
-         *  - additionally we store a mapping chunkId -> Boolean which indicates, that we received the last chunk, which is determined by receiving a chunked message with the chunkId, that has less than BlaubotConstants.MAX_PAYLOAD_SIZE bytes as payload
-         *  - if we receive a chunked message, we check if the last message was received.
-         *      - if no: do nothing
-         *      - if yes: check if we have all the chunks (all numbers from 0 to chunkNo of the last message)
-         *          - if no: do nothin
-         *          - if yes:
-         *              - built the resulting message from the chunked messages and notify our listeners
-         *              - clear the mapping
-         */
-        final short chunkId = chunkMessage.getChunkId();
-        List<BlaubotMessage> completeListOfChunks = null;
-        synchronized (chunkLock) {
-            final boolean contained = receivedChunks.containsKey(chunkId);
-            if (!contained) {
-                receivedChunks.put(chunkId, new ArrayList<BlaubotMessage>());
-            }
-            final List<BlaubotMessage> messageList = receivedChunks.get(chunkId);
-            messageList.add(chunkMessage);
-
-            boolean isLastChunkMessage = chunkMessage.getPayload().length < BlaubotConstants.MAX_PAYLOAD_SIZE;
-            if (isLastChunkMessage) {
-                receivedLastChunkMapping.put(chunkId, true);
-            }
-
-            if (isLastChunkMessage || receivedLastChunkMapping.get(chunkId) != null) {
-                int sum = 0;
-                int maxChunkNo = -1;
-                for (BlaubotMessage chunk : messageList) {
-                    final int chunkNo = chunk.getChunkNo() & 0xffff; // unsigned shorts
-                    sum += chunkNo;
-                    if (chunkNo > maxChunkNo) {
-                        maxChunkNo = chunkNo;
-                    }
-                }
+        final BlaubotMessage msg = chunkReassembler.onChunk(chunkMessage);
+        if (msg != null) {
+            reassembledMessagesCounter.increment();
+            notifyListeners(msg);
+        }
+    }
 
-                // check if we have all chunkNo n * (n+1)/2 == sum (Gauss)
-                boolean weHaveAllChunks = (maxChunkNo * (maxChunkNo + 1) / 2) == sum;
-                if (weHaveAllChunks) {
-                    // fill the completeListOfChunks variable and forget about everything
-                    completeListOfChunks = messageList;
+    /**
+     * The reassembler for chunked messages of this receiver, which can be used to configure the
+     * memory caps, expiry and streaming of chunked messages.
+     * Not used if chunks are forwarded (see setForwardChunks()).
+     *
+     * @return the chunk reassembler
+     */
+    public BlaubotChunkReassembler getChunkReassembler() {
+        return chunkReassembler;
+    }
 
-                    receivedLastChunkMapping.remove(chunkId);
-                    receivedChunks.remove(chunkId);
-                }
-            }
+    /**
+     * Handles a message read from the connection, either by the MessageReceivingThread or by the
+     * selector thread of an ISelectableBlaubotConnection.
+     *
+     * @param message the message
+     */
+    private void onMessageRead(BlaubotMessage message) {
+        // maintain stats
+        receivedMessages += 1;
+        receivedPayloadBytes += message.getPayload().length;
+        messagesCounter.increment();
+        bytesCounter.add(message.getPayload().length);
+
+        // check if we need to process a chunked message
+        boolean isChunk = message.getMessageType().isChunk();
+        if (isChunk) {
+            receivedChunkMessages += 1;
+            chunksCounter.increment();
         }
-        if (completeListOfChunks != null) {
-            BlaubotMessage msg = BlaubotMessage.fromChunks(completeListOfChunks);
-            notifyListeners(msg);
+        if (!forwardChunks && isChunk) {
+            onChunkMessageReceived(message);
+        } else {
+            // notify all listeners
+            notifyListeners(message);
         }
     }
 
+    /**
+     * Registered at ISelectableBlaubotConnections while activated.
+     */
+    private final IBlaubotMessageListener selectorMessageListener = new IBlaubotMessageListener() {
+        @Override
+        public void onMessage(BlaubotMessage message) {
+            onMessageRead(message);
+        }
+    };
+
     /**
      * Consumes the connection's byte stream and deserializes BlaubotMessages from it.
      */
@@ -237,23 +279,7 @@ public class BlaubotMessageReceiver {
                     // Read from the InputStream
                     try {
                         BlaubotMessage message = BlaubotMessage.readFromBlaubotConnection(blaubotConnection, headerByteBuffer, headerBuffer);
-                        
-                        // maintain stats
-                        receivedMessages += 1;
-                        receivedPayloadBytes += message.getPayload().length;
-
-                        // check if we need to process a chunked message
-                        boolean isChunk = message.getMessageType().isChunk();
-                        if (isChunk) {
-                            receivedChunkMessages += 1;
-                        }
-                        if (!forwardChunks && isChunk) {
-                            onChunkMessageReceived(message);
-                        } else {
-                            // notify all listeners
-                            notifyListeners(message);
-                        }
-
+                        onMessageRead(message);
 
                     } catch (IOException e) {
                         // on connection failure the message receiver will transition to an inactive state
@@ -1,18 +1,29 @@
 package eu.hgross.blaubot.messaging;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import eu.hgross.blaubot.core.BlaubotConstants;
 import eu.hgross.blaubot.core.IActionListener;
 import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.metrics.BlaubotMetricsRegistry;
+import eu.hgross.blaubot.metrics.Counter;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
 import eu.hgross.blaubot.util.Log;
 
 /**
@@ -21,11 +32,57 @@ import eu.hgross.blaubot.util.Log;
  * 
  * The sender can be activated/deactivated, meaning stopping and starting a queue consuming thread
  * that serializes and sends the queued messages (if any) over the given IBlaubotConnection.
+ * All messages that are ready to be sent are coalesced into one buffer and written with a single
+ * write call, bounded by maxBatchBytes and maxLingerTime.
+ *
+ * For ISelectableBlaubotConnections no sending thread is used. The sender acts as the connection's
+ * IBlaubotOutboundSource instead and the connection's selector thread pulls the batches whenever
+ * the connection is writable. The maxLingerTime is not applied in this mode.
+ *
+ * If an executor is set (see setExecutor()), no sending thread is used either. The queue is then
+ * drained by tasks on the (shared) executor, which are submitted when messages are queued and
+ * write at most MAX_BATCHES_PER_DRAIN batches before they re-submit themselves, so that busy
+ * senders can't starve others. The maxLingerTime is not applied in this mode.
+ *
+ * Messages of conflating channels (see BlaubotChannelConfig#setConflating) overwrite the queued
+ * message with the same conflation key instead of being queued. The overwritten message's queue
+ * entry is kept as a placeholder, which is replaced by the most recent message when it is polled,
+ * so a slow connection only gets the freshest value per key, at the position of the oldest one.
+ *
+ * The queued channel messages are indexed per priority and sequence number, so the overflow
+ * policies find their victims without scanning the queue. Dropped messages are only marked and
+ * skipped when they are polled; the queue is purged once the marked messages outnumber the
+ * queued ones.
  *
  * TODO: handle failing connections
  */
 public class BlaubotMessageSender {
     private static final String LOG_TAG = "BlaubotMessageSender";
+    /**
+     * Counter of the sent messages (chunks)
+     */
+    public static final String METRIC_MESSAGES = "sender.messages";
+    /**
+     * Counter of the sent bytes
+     */
+    public static final String METRIC_BYTES = "sender.bytes";
+    /**
+     * Counter of the write calls (batches)
+     */
+    public static final String METRIC_BATCHES = "sender.batches";
+    /**
+     * Counter of the messages dropped or rejected due to the overflow policy
+     */
+    public static final String METRIC_DROPPED = "sender.dropped";
+    /**
+     * Histogram of the duration of the write calls in microseconds (not available for ISelectableBlaubotConnections)
+     */
+    public static final String METRIC_WRITE_LATENCY = "sender.writeLatencyMicros";
+    /**
+     * Counter of the messages of conflating channels that were overwritten by a more recent message
+     * before they were sent
+     */
+    public static final String METRIC_CONFLATED = "sender.conflated";
     /**
      * Generator for chunk ids
      */
@@ -42,6 +99,26 @@ public class BlaubotMessageSender {
      */
     private final PriorityBlockingQueue<BlaubotMessage> queuedMessages;
 
+    /**
+     * A conflation slot: the queued message holding the position and the most recent message with
+     * the same conflation key, which is sent instead.
+     */
+    private static class ConflationSlot {
+        private final BlaubotMessage placeholder;
+        private BlaubotMessage latest;
+
+        private ConflationSlot(BlaubotMessage placeholder) {
+            this.placeholder = placeholder;
+            this.latest = placeholder;
+        }
+    }
+
+    /**
+     * conflation key -> the slot of the queued message with this key
+     * Guarded by itself.
+     */
+    private final HashMap<BlaubotConflationKey, ConflationSlot> conflationSlots = new HashMap<>();
+
     /**
      * The connection over which the messages are send
      */
@@ -52,6 +129,46 @@ public class BlaubotMessageSender {
      */
     private volatile MessageSendingThread messageSendingThread;
 
+    /**
+     * True, iff activated on an ISelectableBlaubotConnection.
+     */
+    private volatile boolean selectorModeActive = false;
+
+    /**
+     * Max number of batches a drain task writes before it has to queue up again on the executor.
+     */
+    public static final int MAX_BATCHES_PER_DRAIN = 16;
+
+    /**
+     * The executor running the drain tasks, if set. Null to use a sending thread.
+     */
+    private volatile Executor executor;
+
+    /**
+     * True, iff activated with an executor.
+     */
+    private volatile boolean executorModeActive = false;
+    /**
+     * Time in ms at which the write of the running drain task started, 0 if no write is running.
+     */
+    private volatile long drainWriteStartTime = 0;
+
+    /**
+     * True, iff the drainTask is submitted to the executor (or running).
+     * Guarantees that a sender occupies at most one thread of the executor at a time.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    /**
+     * The task handed to the executor to drain the queue.
+     */
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainQueue();
+        }
+    };
+
     /**
      * Generates sequence numbers for messages added to the queue to ensure that messages which are
      * sent with the same priority arrive in the sending order.
@@ -59,8 +176,103 @@ public class BlaubotMessageSender {
     private AtomicInteger sequenceNumberGenerator;
     private long sentMessages = 0;
     private long sentPayloadBytes = 0;
+    private long sentBatches = 0;
+
+    /**
+     * Default upper bound of bytes coalesced into one write.
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = BlaubotMessageBufferPool.DEFAULT_BUFFER_CAPACITY;
+    /**
+     * Default time in ms to wait for further messages before a batch is written.
+     * 0 means that a batch is written as soon as the queue is empty.
+     */
+    public static final long DEFAULT_MAX_LINGER_TIME = 0;
+
+    /**
+     * Max number of bytes that are written to the connection in one write call.
+     * A single message exceeding this limit is written on its own.
+     */
+    private volatile int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    /**
+     * Max time in ms the sending thread waits for more messages to fill up a batch.
+     */
+    private volatile long maxLingerTime = DEFAULT_MAX_LINGER_TIME;
     private volatile AtomicLong queuedBytes = new AtomicLong(0);
 
+    /**
+     * Default max number of payload bytes in the queue.
+     */
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    /**
+     * Default max number of messages in the queue.
+     */
+    public static final int DEFAULT_MAX_QUEUED_MESSAGES = 50000;
+    /**
+     * Default policy applied, if the queue budget is exceeded.
+     * BLOCK throttles the publishers instead of dropping messages. Only messages relayed by the
+     * master that would exceed twice the budget are rejected.
+     */
+    public static final MessageSenderOverflowPolicy DEFAULT_OVERFLOW_POLICY = MessageSenderOverflowPolicy.BLOCK;
+    /**
+     * Min number of dropped messages that are kept in the queue before it is purged.
+     */
+    private static final int MIN_DROPPED_BEFORE_PURGE = 1024;
+    /**
+     * Number of slots needed to index the messages by their priority value.
+     */
+    private static final int PRIORITY_SLOTS = maxPriorityValue() + 1;
+
+    private volatile long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private volatile int maxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+    private volatile MessageSenderOverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+
+    /**
+     * Guards the budget check and the following enqueue of non-admin messages.
+     */
+    private final Object budgetLock = new Object();
+    /**
+     * The number of queued (not dropped) messages.
+     */
+    private final AtomicInteger queuedMessageCount = new AtomicInteger(0);
+    /**
+     * The queued droppable (channel) messages, sequence number -> message, indexed by their priority value.
+     * Guarded by budgetLock.
+     */
+    private final List<TreeMap<Integer, BlaubotMessage>> droppableMessages = new ArrayList<>(PRIORITY_SLOTS);
+    /**
+     * The payload bytes of the queued droppable messages, indexed by their priority value.
+     * Guarded by budgetLock.
+     */
+    private final long[] droppableBytes = new long[PRIORITY_SLOTS];
+    /**
+     * chunk id -> sequence numbers of the queued droppable chunks of the message
+     * Guarded by budgetLock.
+     */
+    private final HashMap<Short, List<Integer>> droppableChunks = new HashMap<>();
+    /**
+     * Sequence numbers of the messages that were dropped but are still in the queue.
+     * Guarded by budgetLock.
+     */
+    private final HashSet<Integer> droppedSequenceNumbers = new HashSet<>();
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final AtomicBoolean disconnectingSlowConsumer = new AtomicBoolean(false);
+    private volatile boolean congested = false;
+    private final Object congestionStateLock = new Object();
+    private final CopyOnWriteArrayList<IBlaubotSenderCongestionListener> congestionListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The pool from which the buffers to serialize the messages into are taken.
+     */
+    private final BlaubotMessageBufferPool bufferPool;
+
+    private final Counter messagesCounter;
+    private final Counter bytesCounter;
+    private final Counter batchesCounter;
+    private final Counter droppedCounter;
+    private final Counter conflatedCounter;
+    private final LatencyHistogram writeLatencyHistogram;
+
     /**
      * Synchronizing monitor for activation and deactivation.
      */
@@ -98,21 +310,505 @@ public class BlaubotMessageSender {
      */
     private final Object senderMonitor = new Object();
 
+    /**
+     * Creates a sender recording its metrics to the default registry.
+     *
+     * @param blaubotConnection the connection to send the messages over
+     */
     public BlaubotMessageSender(IBlaubotConnection blaubotConnection) {
+        this(blaubotConnection, BlaubotMetricsRegistry.getDefault());
+    }
+
+    /**
+     * @param blaubotConnection the connection to send the messages over
+     * @param metricsRegistry   the registry to record the metrics to
+     */
+    public BlaubotMessageSender(IBlaubotConnection blaubotConnection, BlaubotMetricsRegistry metricsRegistry) {
+        this.messagesCounter = metricsRegistry.counter(METRIC_MESSAGES);
+        this.bytesCounter = metricsRegistry.counter(METRIC_BYTES);
+        this.batchesCounter = metricsRegistry.counter(METRIC_BATCHES);
+        this.droppedCounter = metricsRegistry.counter(METRIC_DROPPED);
+        this.conflatedCounter = metricsRegistry.counter(METRIC_CONFLATED);
+        this.writeLatencyHistogram = metricsRegistry.histogram(METRIC_WRITE_LATENCY);
         this.sequenceNumberGenerator = new AtomicInteger(0);
         this.chunkIdGenerator = new AtomicShort((short) 0);
         this.blaubotConnection = blaubotConnection;
         this.queuedMessages = new PriorityBlockingQueue<>(50, priorityComparator);
+        for (int i = 0; i < PRIORITY_SLOTS; i++) {
+            droppableMessages.add(new TreeMap<Integer, BlaubotMessage>());
+        }
         this.chunkIdMapping = new ConcurrentHashMap<>();
+        this.bufferPool = BlaubotMessageBufferPool.getDefault();
     }
 
     /**
      * Queues the given message to be sent over the IBlaubotConnection this object was
      * created with.
      *
+     * If the message would exceed the queue budget (see setMaxQueuedBytes() and
+     * setMaxQueuedMessages()), the overflow policy decides whether other queued messages are
+     * dropped to make room or this message is rejected.
+     * Admin messages, keep alives and relay frames are always queued. A message of a conflating
+     * channel that overwrites a queued message is always accepted.
+     *
      * @param message the message to be send
+     * @return true, iff the message was queued, false if it was rejected by the overflow policy
+     */
+    public boolean sendMessage(BlaubotMessage message) {
+        final BlaubotMessageType messageType = message.getMessageType();
+        if (!messageType.isChannelMessage()) {
+            enqueue(message);
+            return true;
+        }
+
+        final boolean admitted;
+        synchronized (budgetLock) {
+            if (conflate(message)) {
+                // -- overwrote a queued message, no additional room needed
+                admitted = true;
+                // the overwritten message may have been put back after a failed write, which needs a new trigger
+                onMessagesQueued();
+            } else {
+                admitted = makeRoomFor(message);
+                if (admitted) {
+                    enqueue(message);
+                }
+            }
+        }
+        if (!admitted) {
+            droppedMessages.incrementAndGet();
+            droppedCounter.increment();
+            message.releaseFrame();
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "Rejected message due to the overflow policy " + overflowPolicy + " on " + blaubotConnection);
+            }
+        }
+        updateCongestionState();
+        return admitted;
+    }
+
+    /**
+     * @param message the message
+     * @return true, iff the message belongs to a conflating channel and is sent as a single message
      */
-    public void sendMessage(BlaubotMessage message) {
+    private static boolean isConflatable(BlaubotMessage message) {
+        return message.conflationKey != null && !message.getMessageType().isChunk() && message.getPayload().length <= BlaubotConstants.MAX_PAYLOAD_SIZE;
+    }
+
+    /**
+     * Overwrites the queued message with the same conflation key, if any.
+     *
+     * @param message the message to be queued
+     * @return true, iff a queued message was overwritten, false if the message has to be queued
+     */
+    private boolean conflate(BlaubotMessage message) {
+        if (!isConflatable(message)) {
+            return false;
+        }
+        synchronized (conflationSlots) {
+            final ConflationSlot slot = conflationSlots.get(message.conflationKey);
+            if (slot == null) {
+                return false;
+            }
+            final BlaubotMessage replaced = slot.latest;
+            slot.latest = message;
+            final int delta = message.getPayload().length - replaced.getPayload().length;
+            queuedBytes.addAndGet(delta);
+            droppableBytes[slot.placeholder.getPriority().value] += delta;
+            if (replaced != slot.placeholder) {
+                // the placeholder's frame is released when it is polled
+                replaced.releaseFrame();
+            }
+        }
+        conflatedCounter.increment();
+        return true;
+    }
+
+    /**
+     * Resolves a message taken from the queue: if it is the placeholder of a conflation slot, the
+     * slot is removed and its most recent message is returned (taking the placeholder's position).
+     *
+     * @param message the message taken from the queue, can be null
+     * @return the message to send (or drop) instead of the taken one
+     */
+    private BlaubotMessage resolveConflated(BlaubotMessage message) {
+        if (message == null || message.conflationKey == null) {
+            return message;
+        }
+        synchronized (conflationSlots) {
+            final ConflationSlot slot = conflationSlots.get(message.conflationKey);
+            if (slot == null || slot.placeholder != message) {
+                return message;
+            }
+            conflationSlots.remove(message.conflationKey);
+            final BlaubotMessage latest = slot.latest;
+            if (latest != message) {
+                message.releaseFrame();
+                // keeps the position, if it is put back to the queue
+                latest.sequenceNumber = message.sequenceNumber;
+            }
+            return latest;
+        }
+    }
+
+    /**
+     * @return the next message to send or null, if the queue is empty
+     */
+    private BlaubotMessage pollNext() {
+        while (true) {
+            final BlaubotMessage message = queuedMessages.poll();
+            if (message == null || takeFromIndex(message)) {
+                return resolveConflated(message);
+            }
+        }
+    }
+
+    /**
+     * @param timeout the max time to wait in ms
+     * @return the next message to send or null, if the queue stayed empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private BlaubotMessage pollNext(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            final BlaubotMessage message = queuedMessages.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (message == null || takeFromIndex(message)) {
+                return resolveConflated(message);
+            }
+        }
+    }
+
+    /**
+     * Removes a message taken from the queue from the index.
+     *
+     * @param message the message taken from the queue
+     * @return false, if the message was dropped while it was queued and has to be skipped
+     */
+    private boolean takeFromIndex(BlaubotMessage message) {
+        if (isDroppable(message)) {
+            synchronized (budgetLock) {
+                if (droppedSequenceNumbers.remove(message.sequenceNumber)) {
+                    return false;
+                }
+                unindex(message);
+            }
+        }
+        queuedMessageCount.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Puts a message taken from the queue back (i.e. it did not fit into the batch or the write failed).
+     * It keeps its sequence number and therefore its position.
+     * A conflatable message gets its conflation slot back, so that newer messages with the same
+     * key overwrite it again. If a newer message with the same key was queued in the meantime,
+     * the put back message is superseded and discarded instead.
+     *
+     * @param message the message
+     */
+    private void requeue(BlaubotMessage message) {
+        synchronized (budgetLock) {
+            if (isConflatable(message)) {
+                synchronized (conflationSlots) {
+                    if (conflationSlots.containsKey(message.conflationKey)) {
+                        queuedBytes.addAndGet(-message.getPayload().length);
+                        conflatedCounter.increment();
+                        message.releaseFrame();
+                        return;
+                    }
+                    conflationSlots.put(message.conflationKey, new ConflationSlot(message));
+                }
+            }
+            if (isDroppable(message)) {
+                index(message);
+            }
+        }
+        queuedMessageCount.incrementAndGet();
+        queuedMessages.add(message);
+    }
+
+    /**
+     * Adds a droppable message to the index. Has to be called with the budgetLock held.
+     *
+     * @param message the message
+     */
+    private void index(BlaubotMessage message) {
+        final byte priority = message.getPriority().value;
+        droppableMessages.get(priority).put(message.sequenceNumber, message);
+        droppableBytes[priority] += message.getPayload().length;
+        if (message.getMessageType().isChunk()) {
+            List<Integer> chunks = droppableChunks.get(message.getChunkId());
+            if (chunks == null) {
+                chunks = new ArrayList<>();
+                droppableChunks.put(message.getChunkId(), chunks);
+            }
+            chunks.add(message.sequenceNumber);
+        }
+    }
+
+    /**
+     * Removes a droppable message from the index. Has to be called with the budgetLock held.
+     *
+     * @param message the message
+     */
+    private void unindex(BlaubotMessage message) {
+        final byte priority = message.getPriority().value;
+        if (droppableMessages.get(priority).remove(message.sequenceNumber) == null) {
+            return;
+        }
+        droppableBytes[priority] -= queuedLength(message);
+        if (message.getMessageType().isChunk()) {
+            final List<Integer> chunks = droppableChunks.get(message.getChunkId());
+            if (chunks != null) {
+                chunks.remove(Integer.valueOf(message.sequenceNumber));
+                if (chunks.isEmpty()) {
+                    droppableChunks.remove(message.getChunkId());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param message a queued message
+     * @return the payload length of the message that is sent instead of the queued one
+     */
+    private int queuedLength(BlaubotMessage message) {
+        if (message.conflationKey != null) {
+            synchronized (conflationSlots) {
+                final ConflationSlot slot = conflationSlots.get(message.conflationKey);
+                if (slot != null && slot.placeholder == message) {
+                    return slot.latest.getPayload().length;
+                }
+            }
+        }
+        return message.getPayload().length;
+    }
+
+    /**
+     * Checks the budget for the given message and applies the overflow policy, if it does not fit.
+     * Has to be called with the budgetLock held.
+     *
+     * @param message the message to be queued
+     * @return true, iff the message can be queued
+     */
+    private boolean makeRoomFor(BlaubotMessage message) {
+        final int payloadLength = message.getPayload().length;
+        final int messageCount = message.getMessageType().containsPayload() ? Math.max(1, (payloadLength + BlaubotConstants.MAX_PAYLOAD_SIZE - 1) / BlaubotConstants.MAX_PAYLOAD_SIZE) : 1;
+        if (!exceedsBudget(payloadLength, messageCount, 1)) {
+            return true;
+        }
+        if (queuedMessageCount.get() == 0) {
+            // a single message bigger than the whole budget is still sent
+            return true;
+        }
+        final MessageSenderOverflowPolicy policy = overflowPolicy;
+        switch (policy) {
+            case BLOCK:
+                // the publishers are throttled via the congestion state, we only protect against unbounded growth
+                return !exceedsBudget(payloadLength, messageCount, 2);
+            case DISCONNECT:
+                disconnectSlowConsumer();
+                return false;
+            default:
+                break;
+        }
+        final boolean dropLowestPriority = policy == MessageSenderOverflowPolicy.DROP_LOWEST_PRIORITY;
+        // only messages with a lower priority (higher value) may be dropped for DROP_LOWEST_PRIORITY
+        final int minVictimPriorityValue = dropLowestPriority ? message.getPriority().value + 1 : 0;
+        if (!canMakeRoom(payloadLength, messageCount, minVictimPriorityValue)) {
+            // don't drop anything for a message that is rejected anyway
+            return false;
+        }
+        while (exceedsBudget(payloadLength, messageCount, 1)) {
+            final BlaubotMessage victim = dropLowestPriority ? findLowestPriorityVictim(message.getPriority()) : findOldestVictim();
+            if (victim == null) {
+                // -- everything that could be dropped is gone (or sent meanwhile)
+                break;
+            }
+            drop(victim);
+        }
+        purgeDroppedIfNeeded();
+        return true;
+    }
+
+    /**
+     * Checks, if the message fits into the budget after all droppable messages of at least the
+     * given priority value were dropped. Has to be called with the budgetLock held.
+     *
+     * @param payloadLength          the payload length of the message to add
+     * @param messageCount           the number of messages (chunks) to add
+     * @param minVictimPriorityValue the min priority value of the messages that may be dropped
+     * @return true, iff the message can be queued after dropping messages
+     */
+    private boolean canMakeRoom(int payloadLength, int messageCount, int minVictimPriorityValue) {
+        long remainingBytes = queuedBytes.get();
+        long remainingMessages = queuedMessageCount.get();
+        for (int priorityValue = minVictimPriorityValue; priorityValue < PRIORITY_SLOTS; priorityValue++) {
+            remainingBytes -= droppableBytes[priorityValue];
+            remainingMessages -= droppableMessages.get(priorityValue).size();
+        }
+        if (remainingMessages <= 0) {
+            // a single message bigger than the whole budget is still sent
+            return true;
+        }
+        return remainingBytes + payloadLength <= maxQueuedBytes && remainingMessages + messageCount <= maxQueuedMessages;
+    }
+
+    /**
+     * @param payloadLength the payload length of the message to add
+     * @param messageCount  the number of messages (chunks) to add
+     * @param factor        multiplier for the budget
+     * @return true, iff the queue would be over the (multiplied) budget after adding
+     */
+    private boolean exceedsBudget(int payloadLength, int messageCount, int factor) {
+        return queuedBytes.get() + payloadLength > maxQueuedBytes * factor || queuedMessageCount.get() + messageCount > (long) maxQueuedMessages * factor;
+    }
+
+    /**
+     * Has to be called with the budgetLock held.
+     *
+     * @return the queued non-admin message with the smallest sequence number or null
+     */
+    private BlaubotMessage findOldestVictim() {
+        BlaubotMessage victim = null;
+        for (TreeMap<Integer, BlaubotMessage> messages : droppableMessages) {
+            if (!messages.isEmpty() && (victim == null || messages.firstKey() < victim.sequenceNumber)) {
+                victim = messages.firstEntry().getValue();
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Has to be called with the budgetLock held.
+     *
+     * @param priority the priority of the message that needs room
+     * @return the newest of the queued non-admin messages with the lowest priority, if this priority is lower than the given priority, null otherwise
+     */
+    private BlaubotMessage findLowestPriorityVictim(BlaubotMessage.Priority priority) {
+        for (int priorityValue = PRIORITY_SLOTS - 1; priorityValue > priority.value; priorityValue--) {
+            final TreeMap<Integer, BlaubotMessage> messages = droppableMessages.get(priorityValue);
+            if (!messages.isEmpty()) {
+                return messages.lastEntry().getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the highest value of the message priorities
+     */
+    private static int maxPriorityValue() {
+        int max = 0;
+        for (BlaubotMessage.Priority priority : BlaubotMessage.Priority.values()) {
+            max = Math.max(max, priority.value);
+        }
+        return max;
+    }
+
+    private static boolean isDroppable(BlaubotMessage message) {
+        final BlaubotMessageType messageType = message.getMessageType();
+        return messageType.isChannelMessage();
+    }
+
+    /**
+     * Drops the (indexed) message. If it is a chunk, all queued chunks of the same message
+     * are dropped as well, since the message could not be reassembled anyway.
+     * The dropped messages stay in the queue until they are polled or purged.
+     * Has to be called with the budgetLock held.
+     *
+     * @param victim the message to drop
+     */
+    private void drop(BlaubotMessage victim) {
+        final List<BlaubotMessage> victims = new ArrayList<>();
+        final List<Integer> chunks = victim.getMessageType().isChunk() ? droppableChunks.get(victim.getChunkId()) : null;
+        if (chunks != null) {
+            final TreeMap<Integer, BlaubotMessage> messages = droppableMessages.get(victim.getPriority().value);
+            for (Integer sequenceNumber : chunks) {
+                final BlaubotMessage chunk = messages.get(sequenceNumber);
+                if (chunk != null) {
+                    victims.add(chunk);
+                }
+            }
+        } else {
+            victims.add(victim);
+        }
+        for (BlaubotMessage victimMessage : victims) {
+            unindex(victimMessage);
+            droppedSequenceNumbers.add(victimMessage.sequenceNumber);
+            queuedMessageCount.decrementAndGet();
+            final BlaubotMessage message = resolveConflated(victimMessage);
+            queuedBytes.addAndGet(-message.getPayload().length);
+            droppedMessages.incrementAndGet();
+            droppedCounter.increment();
+            message.releaseFrame();
+        }
+    }
+
+    /**
+     * Removes the dropped messages from the queue, once they outnumber the queued messages.
+     * Has to be called with the budgetLock held.
+     */
+    private void purgeDroppedIfNeeded() {
+        if (droppedSequenceNumbers.size() <= Math.max(MIN_DROPPED_BEFORE_PURGE, queuedMessageCount.get())) {
+            return;
+        }
+        final List<BlaubotMessage> drained = new ArrayList<>(queuedMessages.size());
+        queuedMessages.drainTo(drained);
+        final List<BlaubotMessage> kept = new ArrayList<>(drained.size());
+        for (BlaubotMessage message : drained) {
+            // messages polled meanwhile are skipped by the polling side
+            if (!isDroppable(message) || !droppedSequenceNumbers.remove(message.sequenceNumber)) {
+                kept.add(message);
+            }
+        }
+        queuedMessages.addAll(kept);
+        // the sending side may have found the queue empty meanwhile
+        onMessagesQueued();
+    }
+
+    /**
+     * Closes the connection (once) on a separate thread.
+     */
+    private void disconnectSlowConsumer() {
+        if (!disconnectingSlowConsumer.compareAndSet(false, true)) {
+            return;
+        }
+        if (Log.logWarningMessages()) {
+            Log.w(LOG_TAG, "Queue budget exceeded, disconnecting slow consumer " + blaubotConnection);
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                blaubotConnection.disconnect();
+            }
+        }, "msg-sender-overflow-disconnect").start();
+    }
+
+    /**
+     * Re-evaluates the congestion state and informs the listeners on changes.
+     * Only senders using the BLOCK policy can be congested.
+     */
+    private void updateCongestionState() {
+        synchronized (congestionStateLock) {
+            final int queuedCount = queuedMessageCount.get();
+            final boolean nowCongested = overflowPolicy == MessageSenderOverflowPolicy.BLOCK && queuedCount > 0 && (queuedBytes.get() >= maxQueuedBytes || queuedCount >= maxQueuedMessages);
+            if (nowCongested == congested) {
+                return;
+            }
+            congested = nowCongested;
+            for (IBlaubotSenderCongestionListener listener : congestionListeners) {
+                listener.onCongestionChanged(this, nowCongested);
+            }
+        }
+    }
+
+    /**
+     * Chunks the message if needed and adds it to the queue.
+     *
+     * @param message the message
+     */
+    private void enqueue(BlaubotMessage message) {
         // check if we need to chunk this message
         final boolean needsToBeChunked = message.getMessageType().containsPayload() && message.getPayload().length > BlaubotConstants.MAX_PAYLOAD_SIZE;
         if (needsToBeChunked) {
@@ -122,7 +818,7 @@ public class BlaubotMessageSender {
             final short chunkId = chunkIdGenerator.getAndIncrement();
             List<BlaubotMessage> chunkMessages = message.createChunks(chunkId);
             for (BlaubotMessage chunkMessage : chunkMessages) {
-                sendMessage(chunkMessage);
+                enqueue(chunkMessage);
             }
             return;
         }
@@ -140,14 +836,55 @@ public class BlaubotMessageSender {
 
         // apply a sequence number and add to queue
         message.sequenceNumber = sequenceNumberGenerator.incrementAndGet();
+        if (isConflatable(message)) {
+            synchronized (conflationSlots) {
+                conflationSlots.put(message.conflationKey, new ConflationSlot(message));
+            }
+        }
+        if (isDroppable(message)) {
+            // channel messages are always queued with the budgetLock held (see sendMessage)
+            index(message);
+        }
+        queuedMessageCount.incrementAndGet();
         queuedMessages.add(message);
         queuedBytes.addAndGet(message.getPayload().length);
+        onMessagesQueued();
+    }
+
+    /**
+     * Triggers the sending, if the connection's selector or the executor sends the messages.
+     */
+    private void onMessagesQueued() {
+        if (selectorModeActive) {
+            ((ISelectableBlaubotConnection) blaubotConnection).requestWrite();
+        } else if (executorModeActive) {
+            scheduleDrain();
+        }
     }
 
     /**
      * Activates the message receiver (reading from the connection)
      */
     public void activate() {
+        if (blaubotConnection instanceof ISelectableBlaubotConnection) {
+            // -- the connection pulls the messages on its selector thread, no thread needed
+            final ISelectableBlaubotConnection selectableConnection = (ISelectableBlaubotConnection) blaubotConnection;
+            synchronized (activationLock) {
+                selectableConnection.setOutboundSource(outboundSource);
+                selectorModeActive = true;
+            }
+            selectableConnection.requestWrite();
+            return;
+        }
+        final Executor exec = executor;
+        if (exec != null) {
+            // -- the queue is drained by tasks on the executor, no thread needed
+            synchronized (activationLock) {
+                executorModeActive = true;
+            }
+            scheduleDrain();
+            return;
+        }
         MessageSendingThread mrt = new MessageSendingThread();
         mrt.setName("msg-sender-" + blaubotConnection.getRemoteDevice().getUniqueDeviceID() + ", " + mrt.getId());
         synchronized (activationLock) {
@@ -167,6 +904,15 @@ public class BlaubotMessageSender {
         synchronized (activationLock) {
             mst = messageSendingThread;
             messageSendingThread = null;
+            if (selectorModeActive) {
+                selectorModeActive = false;
+                ((ISelectableBlaubotConnection) blaubotConnection).setOutboundSource(null);
+            }
+            if (executorModeActive) {
+                executorModeActive = false;
+                awaitDrainFinished(actionListener);
+                return;
+            }
          
             if (mst != null) {
                 mst.attachFinishListener(actionListener);
@@ -189,6 +935,147 @@ public class BlaubotMessageSender {
         return sentPayloadBytes;
     }
 
+    /**
+     * @return number of write calls (batches of one or more messages) issued so far
+     */
+    public long getSentBatches() {
+        return sentBatches;
+    }
+
+    /**
+     * Sets the executor to drain the queue with instead of a dedicated sending thread.
+     * Has to be called before activate(). Not used for ISelectableBlaubotConnections.
+     *
+     * @param executor the (shared) executor or null to use a sending thread
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor draining the queue or null, if a sending thread is used
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the max number of bytes that are coalesced into one write to the connection.
+     *
+     * @param maxBatchBytes the max batch size in bytes
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the max number of bytes coalesced into one write
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Sets the max time to wait for further messages before a batch is flushed to the connection.
+     * Higher values trade latency for fewer writes.
+     *
+     * @param maxLingerTime the linger time in ms, 0 to flush as soon as the queue is empty
+     */
+    public void setMaxLingerTime(long maxLingerTime) {
+        this.maxLingerTime = maxLingerTime;
+    }
+
+    /**
+     * @return the max linger time in ms
+     */
+    public long getMaxLingerTime() {
+        return maxLingerTime;
+    }
+
+    /**
+     * Sets the max number of payload bytes that may be queued before the overflow policy applies.
+     *
+     * @param maxQueuedBytes the max number of queued payload bytes
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        updateCongestionState();
+    }
+
+    /**
+     * @return the max number of queued payload bytes
+     */
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * Sets the max number of messages (chunks) that may be queued before the overflow policy applies.
+     *
+     * @param maxQueuedMessages the max number of queued messages
+     */
+    public void setMaxQueuedMessages(int maxQueuedMessages) {
+        this.maxQueuedMessages = maxQueuedMessages;
+        updateCongestionState();
+    }
+
+    /**
+     * @return the max number of queued messages
+     */
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    /**
+     * Sets the policy to be applied, if a message would exceed the queue budget.
+     *
+     * @param overflowPolicy the policy
+     */
+    public void setOverflowPolicy(MessageSenderOverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        this.overflowPolicy = overflowPolicy;
+        updateCongestionState();
+    }
+
+    /**
+     * @return the policy applied, if a message would exceed the queue budget
+     */
+    public MessageSenderOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of messages (chunks) that were dropped or rejected due to the overflow policy
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * A sender using the BLOCK policy is congested, while its queue is over budget.
+     *
+     * @return true, iff congested
+     */
+    public boolean isCongested() {
+        return congested;
+    }
+
+    /**
+     * @param listener the listener to be informed about congestion state changes
+     */
+    public void addCongestionListener(IBlaubotSenderCongestionListener listener) {
+        congestionListeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeCongestionListener(IBlaubotSenderCongestionListener listener) {
+        congestionListeners.remove(listener);
+    }
+
     /**
      * sent messages
      *
@@ -198,6 +1085,207 @@ public class BlaubotMessageSender {
         return sentMessages;
     }
 
+    /**
+     * Serializes all messages of the batch into one (pooled) buffer and writes it to the
+     * connection with a single write call.
+     *
+     * @param batch      the messages to send, in sending order
+     * @param batchBytes the sum of the encoded lengths of the batch's messages
+     * @throws IOException if the write failed
+     */
+    private void writeBatch(List<BlaubotMessage> batch, int batchBytes) throws IOException {
+        final ByteBuffer buffer = bufferPool.acquire(batchBytes);
+        try {
+            for (BlaubotMessage message : batch) {
+                message.writeTo(buffer);
+            }
+            final long writeStart = System.nanoTime();
+            blaubotConnection.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            writeLatencyHistogram.record((System.nanoTime() - writeStart) / 1000);
+        } finally {
+            bufferPool.release(buffer);
+        }
+
+        onBatchWritten(batch, batchBytes);
+    }
+
+    /**
+     * Submits the drainTask to the executor, if there is something to send and it is not
+     * submitted yet.
+     */
+    private void scheduleDrain() {
+        if (!executorModeActive || queuedMessages.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            drainScheduled.set(false);
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Executor rejected the drain task for " + blaubotConnection + ", messages stay queued.");
+            }
+        }
+    }
+
+    /**
+     * Writes up to MAX_BATCHES_PER_DRAIN batches of the ready messages and re-submits itself, if
+     * there is more to send. Run by the executor.
+     */
+    private void drainQueue() {
+        boolean failed = false;
+        synchronized (senderMonitor) {
+            final List<BlaubotMessage> batch = new ArrayList<>();
+            final int maxBytes = Math.max(maxBatchBytes, 1);
+            for (int batches = 0; batches < MAX_BATCHES_PER_DRAIN && executorModeActive; batches++) {
+                batch.clear();
+                int batchBytes = 0;
+                while (true) {
+                    final BlaubotMessage next = pollNext();
+                    if (next == null) {
+                        break;
+                    }
+                    final int nextLength = next.getEncodedLength();
+                    if (!batch.isEmpty() && batchBytes + nextLength > maxBytes) {
+                        // -- does not fit, back to the queue (keeps its sequence number and therefore its position)
+                        requeue(next);
+                        break;
+                    }
+                    batch.add(next);
+                    batchBytes += nextLength;
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                try {
+                    drainWriteStartTime = System.currentTimeMillis();
+                    writeBatch(batch, batchBytes);
+                } catch (IOException e) {
+                    // back to queue on fail, the next queued message triggers a retry
+                    for (BlaubotMessage message : batch) {
+                        requeue(message);
+                    }
+                    failed = true;
+                    if (Log.logDebugMessages()) {
+                        Log.d(LOG_TAG, "IOException (" + e.getMessage() + ") while writing to connection: " + blaubotConnection);
+                    }
+                    break;
+                } finally {
+                    drainWriteStartTime = 0;
+                }
+            }
+        }
+        drainScheduled.set(false);
+        if (!failed) {
+            // more to send or messages queued after our last poll
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Closes the connection, if a write of a drain task blocks for longer than the write timeout.
+     * This makes the blocked write fail and frees the executor's thread.
+     *
+     * @param now          the current time in ms
+     * @param writeTimeout the max time in ms a write may block
+     * @return true, iff the connection was closed
+     */
+    protected boolean closeIfWriteStalled(long now, long writeTimeout) {
+        final long writeStartTime = drainWriteStartTime;
+        if (writeStartTime == 0 || now - writeStartTime < writeTimeout) {
+            return false;
+        }
+        if (Log.logWarningMessages()) {
+            Log.w(LOG_TAG, "A write to " + blaubotConnection + " is blocked for " + (now - writeStartTime) + " ms, closing the connection.");
+        }
+        blaubotConnection.disconnect();
+        return true;
+    }
+
+    /**
+     * Calls the listener as soon as a currently running drain task finished.
+     *
+     * @param actionListener the listener, can be null
+     */
+    private void awaitDrainFinished(final IActionListener actionListener) {
+        if (actionListener == null) {
+            return;
+        }
+        final Runnable awaitTask = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (senderMonitor) {
+                    // a running drain task has finished its batch
+                }
+                actionListener.onFinished();
+            }
+        };
+        try {
+            executor.execute(awaitTask);
+        } catch (RejectedExecutionException e) {
+            awaitTask.run();
+        }
+    }
+
+    /**
+     * Maintains the stats after a batch of messages was written and releases shared frames.
+     *
+     * @param batch      the written messages
+     * @param batchBytes the sum of the encoded lengths of the batch's messages
+     */
+    private void onBatchWritten(List<BlaubotMessage> batch, int batchBytes) {
+        int payloadBytes = 0;
+        for (BlaubotMessage message : batch) {
+            payloadBytes += message.getPayload().length;
+            message.releaseFrame();
+        }
+        sentMessages += batch.size();
+        sentPayloadBytes += batchBytes;
+        sentBatches += 1;
+        messagesCounter.add(batch.size());
+        bytesCounter.add(batchBytes);
+        batchesCounter.increment();
+        queuedBytes.addAndGet(-payloadBytes);
+        if (congested) {
+            updateCongestionState();
+        }
+    }
+
+    /**
+     * Used as the IBlaubotOutboundSource of ISelectableBlaubotConnections.
+     * Fills the connection's buffer with the ready messages, bounded by maxBatchBytes.
+     * Only called by the connection's selector thread.
+     */
+    private final IBlaubotOutboundSource outboundSource = new IBlaubotOutboundSource() {
+        private final List<BlaubotMessage> batch = new ArrayList<>();
+
+        @Override
+        public int fillOutboundBuffer(ByteBuffer buffer) {
+            batch.clear();
+            final int maxBytes = Math.min(Math.max(maxBatchBytes, 1), buffer.remaining());
+            int batchBytes = 0;
+            while (true) {
+                final BlaubotMessage next = pollNext();
+                if (next == null) {
+                    break;
+                }
+                final int nextLength = next.getEncodedLength();
+                if (batchBytes + nextLength > maxBytes && (!batch.isEmpty() || nextLength > buffer.remaining())) {
+                    // -- does not fit, back to the queue (keeps its sequence number and therefore its position)
+                    requeue(next);
+                    break;
+                }
+                next.writeTo(buffer);
+                batch.add(next);
+                batchBytes += nextLength;
+            }
+            if (!batch.isEmpty()) {
+                onBatchWritten(batch, batchBytes);
+                batch.clear();
+            }
+            return batchBytes;
+        }
+    };
+
     class MessageSendingThread extends Thread {
         private static final long POLL_TIMEOUT = 1000;
         private static final long WAIT_TIME_ON_FAILED_SEND = 500;
@@ -237,10 +1325,11 @@ public class BlaubotMessageSender {
                 if (Log.logDebugMessages()) {
                     Log.d(LOG_TAG, "Started sender for connection " + blaubotConnection);
                 }
+                final List<BlaubotMessage> batch = new ArrayList<>();
                 while (messageSendingThread == this && !isInterrupted()) {
                     BlaubotMessage messageToSend;
                     try {
-                        messageToSend = queuedMessages.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                        messageToSend = pollNext(POLL_TIMEOUT);
                     } catch (InterruptedException interruptedException) {
                         break;
                     }
@@ -249,20 +1338,49 @@ public class BlaubotMessageSender {
                         continue;
                     }
 
-                    try {
-                        if (Log.logDebugMessages()) {
-                            //Log.d(LOG_TAG, "Sending message: " + messageToSend);
+                    // collect all ready messages (respecting the batch size and linger time) into one
+                    // coalesced buffer to issue a single write for all of them
+                    batch.clear();
+                    batch.add(messageToSend);
+                    int batchBytes = messageToSend.getEncodedLength();
+                    final int maxBytes = Math.max(maxBatchBytes, 1);
+                    final long lingerDeadline = System.currentTimeMillis() + maxLingerTime;
+                    boolean interrupted = false;
+                    while (batchBytes < maxBytes) {
+                        BlaubotMessage next = pollNext();
+                        if (next == null) {
+                            final long lingerLeft = lingerDeadline - System.currentTimeMillis();
+                            if (lingerLeft <= 0) {
+                                break;
+                            }
+                            try {
+                                next = pollNext(lingerLeft);
+                            } catch (InterruptedException interruptedException) {
+                                interrupted = true;
+                                break;
+                            }
+                            if (next == null) {
+                                break;
+                            }
                         }
-                        final byte[] bytes = messageToSend.toBytes();
-                        blaubotConnection.write(bytes);
+                        final int nextLength = next.getEncodedLength();
+                        if (batchBytes + nextLength > maxBytes) {
+                            // -- does not fit, back to the queue (keeps its sequence number and therefore its position),
+                            // so that higher priority messages queued meanwhile are sent first
+                            requeue(next);
+                            break;
+                        }
+                        batch.add(next);
+                        batchBytes += nextLength;
+                    }
 
-                        // maintain stats
-                        sentMessages += 1;
-                        sentPayloadBytes += bytes.length;
-                        queuedBytes.addAndGet(-messageToSend.getPayload().length);
+                    try {
+                        writeBatch(batch, batchBytes);
                     } catch (IOException e) {
                         // back to queue on fail
-                        queuedMessages.add(messageToSend);
+                        for (BlaubotMessage message : batch) {
+                            requeue(message);
+                        }
                         try {
                             // wait an amount of time to mitigate busy waits on failed connections
                             Thread.sleep(WAIT_TIME_ON_FAILED_SEND);
@@ -270,7 +1388,9 @@ public class BlaubotMessageSender {
                             break;
                         }
                     }
-                    // send message
+                    if (interrupted) {
+                        break;
+                    }
                 }
                 synchronized (finishedMonitor) {
                     finished = true;
@@ -302,7 +1422,7 @@ public class BlaubotMessageSender {
      * @return current amount of messages in the queue
      */
     protected int getQueueSize() {
-        return queuedMessages.size();
+        return queuedMessageCount.get();
     }
 
     /**
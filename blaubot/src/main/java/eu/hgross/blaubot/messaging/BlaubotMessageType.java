@@ -15,6 +15,8 @@ public class BlaubotMessageType {
     private static final int CONTAINS_PAYLOAD_BIT = 3;
     private static final int IS_CHUNK = 4;
     private static final int EXCLUDE_SENDER = 5; // if set, a message is not dispatched to the connection, over which the message was received
+    private static final int IS_COMPRESSED = 6; // if set, the payload was compressed by a IBlaubotPayloadCodec (see BlaubotPayloadCodecs)
+    private static final int IS_RELAY_FRAME = 7; // if set, the payload is a relay frame (see BlaubotRelayFrame)
 
     public BlaubotMessageType() {
         this.bitset = new BitSet(8);
@@ -76,6 +78,21 @@ public class BlaubotMessageType {
         return bitset.get(EXCLUDE_SENDER);
     }
 
+    public boolean isCompressed() {
+        return bitset.get(IS_COMPRESSED);
+    }
+
+    public boolean isRelayFrame() {
+        return bitset.get(IS_RELAY_FRAME);
+    }
+
+    /**
+     * @return true, iff the message belongs to a channel (is neither an admin message, a keep alive nor a relay frame)
+     */
+    public boolean isChannelMessage() {
+        return !isAdminMessage() && !isKeepAliveMessage() && !isRelayFrame();
+    }
+
     public BlaubotMessageType setContainsPayload(boolean val) {
         bitset.set(CONTAINS_PAYLOAD_BIT, val);
         return this;
@@ -106,6 +123,16 @@ public class BlaubotMessageType {
         return this;
     }
 
+    public BlaubotMessageType setIsCompressed(boolean val) {
+        bitset.set(IS_COMPRESSED, val);
+        return this;
+    }
+
+    public BlaubotMessageType setIsRelayFrame(boolean val) {
+        bitset.set(IS_RELAY_FRAME, val);
+        return this;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -131,6 +158,8 @@ public class BlaubotMessageType {
         sb.append(", isKeepAliveMessage=").append(isKeepAliveMessage());
         sb.append(", isFirstHop=").append(isFirstHop());
         sb.append(", isChunk=").append(isChunk());
+        sb.append(", isCompressed=").append(isCompressed());
+        sb.append(", isRelayFrame=").append(isRelayFrame());
         sb.append(", bitset=").append(bitset);
         sb.append('}');
         return sb.toString();
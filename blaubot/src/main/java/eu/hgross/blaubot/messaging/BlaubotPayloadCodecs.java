@@ -0,0 +1,112 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * Registry of the IBlaubotPayloadCodecs known to this device and the framing of compressed payloads.
+ *
+ * A compressed payload consists of the codec id (1 byte), the uncompressed length (4 bytes) and
+ * the data produced by the codec. Messages with a compressed payload are flagged in the message
+ * type (BlaubotMessageType#isCompressed()), so the receiving device can pick the codec by its id.
+ *
+ * The DEFLATE and LZ codecs are always registered. Codecs using preset dictionaries or custom
+ * implementations have to be registered on every device with the same id.
+ */
+public class BlaubotPayloadCodecs {
+    /**
+     * The length of the codec id and uncompressed length fields preceding the compressed data.
+     */
+    public static final int COMPRESSION_HEADER_LENGTH = 5;
+    /**
+     * The max length of a decompressed payload, to protect us from corrupt or malicious length fields.
+     */
+    public static final int MAX_UNCOMPRESSED_LENGTH = 64 * 1024 * 1024;
+    /**
+     * Codec ids up to this value are reserved for the codecs shipped with Blaubot.
+     */
+    public static final byte MAX_RESERVED_CODEC_ID = 15;
+
+    /**
+     * Deflate codec (best compression of the built in codecs)
+     */
+    public static final IBlaubotPayloadCodec DEFLATE = new DeflatePayloadCodec();
+    /**
+     * LZ77 codec using the LZ4 block format (fast, less compression)
+     */
+    public static final IBlaubotPayloadCodec LZ = new LzPayloadCodec();
+
+    private static final ConcurrentHashMap<Byte, IBlaubotPayloadCodec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        codecs.put(DEFLATE.getCodecId(), DEFLATE);
+        codecs.put(LZ.getCodecId(), LZ);
+    }
+
+    /**
+     * Registers a codec to be able to decompress payloads compressed with it.
+     *
+     * @param codec the codec
+     * @throws IllegalArgumentException if another codec with the same id is already registered
+     */
+    public static void register(IBlaubotPayloadCodec codec) {
+        final IBlaubotPayloadCodec existing = codecs.putIfAbsent(codec.getCodecId(), codec);
+        if (existing != null && existing != codec) {
+            throw new IllegalArgumentException("There is already a codec registered with id " + codec.getCodecId() + ": " + existing);
+        }
+    }
+
+    /**
+     * @param codecId the codec id
+     * @return the registered codec or null
+     */
+    public static IBlaubotPayloadCodec getCodec(byte codecId) {
+        return codecs.get(codecId);
+    }
+
+    /**
+     * Compresses the payload and prepends the compression header.
+     *
+     * @param codec   the codec to use
+     * @param payload the payload
+     * @return the compressed payload including the header or null, if compression does not reduce the size
+     */
+    public static byte[] compress(IBlaubotPayloadCodec codec, byte[] payload) {
+        final byte[] compressed = codec.compress(payload);
+        if (compressed == null || compressed.length + COMPRESSION_HEADER_LENGTH >= payload.length) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(COMPRESSION_HEADER_LENGTH + compressed.length).order(BlaubotConstants.BYTE_ORDER);
+        buffer.put(codec.getCodecId());
+        buffer.putInt(payload.length);
+        buffer.put(compressed);
+        return buffer.array();
+    }
+
+    /**
+     * Decompresses a payload created by compress(..).
+     *
+     * @param compressedPayload the compressed payload including the header
+     * @return the original payload
+     * @throws IOException if the codec is unknown or the data is corrupt
+     */
+    public static byte[] decompress(byte[] compressedPayload) throws IOException {
+        if (compressedPayload.length < COMPRESSION_HEADER_LENGTH) {
+            throw new IOException("Compressed payload is too short");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(compressedPayload).order(BlaubotConstants.BYTE_ORDER);
+        final byte codecId = buffer.get();
+        final int uncompressedLength = buffer.getInt();
+        final IBlaubotPayloadCodec codec = codecs.get(codecId);
+        if (codec == null) {
+            throw new IOException("Unknown codec id " + codecId + ". The codec has to be registered on all devices.");
+        }
+        if (uncompressedLength < 0 || uncompressedLength > MAX_UNCOMPRESSED_LENGTH) {
+            throw new IOException("Invalid uncompressed length " + uncompressedLength);
+        }
+        return codec.decompress(compressedPayload, COMPRESSION_HEADER_LENGTH, compressedPayload.length - COMPRESSION_HEADER_LENGTH, uncompressedLength);
+    }
+}
@@ -0,0 +1,143 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.core.IBlaubotConnection;
+
+/**
+ * A relay frame carries a serialized BlaubotMessage to or from the BlaubotServer between the king and
+ * the mediator holding the actual server connection (see ServerConnectionManager).
+ *
+ * Relay frames are BlaubotMessages with the relay frame bit set in their type and no channel.
+ * The payload has a fixed layout:
+ *
+ * | mediator id length (unsigned short) | mediator's unique device id (UTF-8) | relayed message (serialized BlaubotMessage) |
+ *
+ * The relayed message is serialized right into the frame's payload on creation and is exposed as a
+ * slice of the received payload, so it is neither wrapped nor re-encoded on its way through the kingdom.
+ */
+public class BlaubotRelayFrame {
+    private static final int MEDIATOR_ID_LENGTH_FIELD_LENGTH = 2;
+
+    private final String mediatorUniqueDeviceId;
+    private final byte[] buffer;
+    private final int relayedMessageOffset;
+    private final int relayedMessageLength;
+
+    private BlaubotRelayFrame(String mediatorUniqueDeviceId, byte[] buffer, int relayedMessageOffset, int relayedMessageLength) {
+        this.mediatorUniqueDeviceId = mediatorUniqueDeviceId;
+        this.buffer = buffer;
+        this.relayedMessageOffset = relayedMessageOffset;
+        this.relayedMessageLength = relayedMessageLength;
+    }
+
+    /**
+     * Creates the message to send a relay frame.
+     *
+     * @param mediatorUniqueDeviceId the unique device id of the mediator holding the server connection
+     * @param relayedMessage the message to be relayed
+     * @return the relay frame message
+     */
+    public static BlaubotMessage createMessage(String mediatorUniqueDeviceId, BlaubotMessage relayedMessage) {
+        final byte[] mediatorBytes = mediatorUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        final byte[] payload = new byte[MEDIATOR_ID_LENGTH_FIELD_LENGTH + mediatorBytes.length + relayedMessage.getEncodedLength()];
+        final ByteBuffer bb = ByteBuffer.wrap(payload).order(BlaubotConstants.BYTE_ORDER);
+        bb.putShort((short) mediatorBytes.length);
+        bb.put(mediatorBytes);
+        relayedMessage.writeTo(bb);
+
+        final BlaubotMessage message = new BlaubotMessage();
+        message.getMessageType().setIsFirstHop(false).setIsRelayFrame(true);
+        message.setChannelId((short) -1);
+        message.setPriority(BlaubotMessage.Priority.ADMIN_LOW);
+        message.setPayload(payload);
+        return message;
+    }
+
+    /**
+     * Reads the relay frame from a received message without copying the relayed message.
+     *
+     * @param message the received message
+     * @return the relay frame
+     * @throws IllegalArgumentException if the message is no relay frame
+     */
+    public static BlaubotRelayFrame fromMessage(BlaubotMessage message) {
+        if (!message.getMessageType().isRelayFrame()) {
+            throw new IllegalArgumentException("Not a relay frame: " + message);
+        }
+        final byte[] payload = message.getPayload();
+        final ByteBuffer bb = ByteBuffer.wrap(payload).order(BlaubotConstants.BYTE_ORDER);
+        final int mediatorBytesLength = bb.getShort() & 0xffff;
+        final String mediatorUniqueDeviceId = new String(payload, MEDIATOR_ID_LENGTH_FIELD_LENGTH, mediatorBytesLength, BlaubotConstants.STRING_CHARSET);
+        final int relayedMessageOffset = MEDIATOR_ID_LENGTH_FIELD_LENGTH + mediatorBytesLength;
+        return new BlaubotRelayFrame(mediatorUniqueDeviceId, payload, relayedMessageOffset, payload.length - relayedMessageOffset);
+    }
+
+    /**
+     * @return the unique device id of the mediator holding the server connection
+     */
+    public String getMediatorUniqueDeviceId() {
+        return mediatorUniqueDeviceId;
+    }
+
+    /**
+     * The array backing the relay frame. The serialized relayed message is located at
+     * getRelayedMessageOffset() and has getRelayedMessageLength() bytes.
+     * Must not be modified.
+     *
+     * @return the backing array
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the offset of the serialized relayed message in the backing array
+     */
+    public int getRelayedMessageOffset() {
+        return relayedMessageOffset;
+    }
+
+    /**
+     * @return the number of bytes of the serialized relayed message
+     */
+    public int getRelayedMessageLength() {
+        return relayedMessageLength;
+    }
+
+    /**
+     * Writes the serialized relayed message to a connection.
+     *
+     * @param connection the connection
+     * @throws IOException if the write fails
+     */
+    public void writeRelayedMessageTo(IBlaubotConnection connection) throws IOException {
+        connection.write(buffer, relayedMessageOffset, relayedMessageLength);
+    }
+
+    /**
+     * @return a copy of the serialized relayed message
+     */
+    public byte[] getRelayedMessageBytes() {
+        return Arrays.copyOfRange(buffer, relayedMessageOffset, relayedMessageOffset + relayedMessageLength);
+    }
+
+    /**
+     * @return the deserialized relayed message
+     */
+    public BlaubotMessage getRelayedMessage() {
+        return BlaubotMessage.fromByteArray(getRelayedMessageBytes());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("BlaubotRelayFrame{");
+        sb.append("mediatorUniqueDeviceId='").append(mediatorUniqueDeviceId).append('\'');
+        sb.append(", relayedMessageLength=").append(relayedMessageLength);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * The header prepended to the payloads of messages published to a reliable channel
+ * (see BlaubotChannelConfig#setReliable). The payload has a fixed layout:
+ *
+ * | epoch (long) | sequence number (int) | window base (int) | publisher id length (unsigned short) | publisher's unique device id (UTF-8) | application payload |
+ *
+ * The epoch identifies the publisher's retransmit window, the window base is the lowest sequence
+ * number the publisher still holds for retransmission, when the message was (re)transmitted.
+ *
+ * The sequence numbers wrap around, so they have to be compared with serial number arithmetic
+ * (see compareSequenceNumbers()), which is valid as long as the held or held back sequence
+ * numbers span less than 2^31.
+ */
+class BlaubotReliableHeader {
+    private static final int FIXED_LENGTH = 8 + 4 + 4 + 2;
+
+    /**
+     * Orders sequence numbers with serial number arithmetic, to be used for the sorted maps of
+     * sequence numbers.
+     */
+    static final Comparator<Integer> SEQUENCE_NUMBER_ORDER = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return compareSequenceNumbers(a, b);
+        }
+    };
+
+    private final long epoch;
+    private final int sequenceNumber;
+    private final int windowBase;
+    private final String publisherUniqueDeviceId;
+    private final byte[] payload;
+
+    private BlaubotReliableHeader(long epoch, int sequenceNumber, int windowBase, String publisherUniqueDeviceId, byte[] payload) {
+        this.epoch = epoch;
+        this.sequenceNumber = sequenceNumber;
+        this.windowBase = windowBase;
+        this.publisherUniqueDeviceId = publisherUniqueDeviceId;
+        this.payload = payload;
+    }
+
+    /**
+     * Creates the payload of a reliable message.
+     *
+     * @param epoch                   the publisher's epoch
+     * @param sequenceNumber          the message's sequence number
+     * @param windowBase              the lowest sequence number held by the publisher
+     * @param publisherUniqueDeviceId the publisher's unique device id
+     * @param payload                 the application payload
+     * @return the header followed by the application payload
+     */
+    static byte[] encode(long epoch, int sequenceNumber, int windowBase, byte[] publisherUniqueDeviceId, byte[] payload) {
+        final byte[] out = new byte[FIXED_LENGTH + publisherUniqueDeviceId.length + payload.length];
+        final ByteBuffer bb = ByteBuffer.wrap(out).order(BlaubotConstants.BYTE_ORDER);
+        bb.putLong(epoch);
+        bb.putInt(sequenceNumber);
+        bb.putInt(windowBase);
+        bb.putShort((short) publisherUniqueDeviceId.length);
+        bb.put(publisherUniqueDeviceId);
+        bb.put(payload);
+        return out;
+    }
+
+    /**
+     * Reads the header and application payload of a reliable message.
+     *
+     * @param message the (uncompressed) message
+     * @return the header
+     * @throws IllegalArgumentException if the payload is too short to contain a header
+     */
+    static BlaubotReliableHeader decode(BlaubotMessage message) {
+        final byte[] bytes = message.getPayload();
+        if (bytes.length < FIXED_LENGTH) {
+            throw new IllegalArgumentException("Payload too short for a reliable message header: " + bytes.length);
+        }
+        final ByteBuffer bb = ByteBuffer.wrap(bytes).order(BlaubotConstants.BYTE_ORDER);
+        final long epoch = bb.getLong();
+        final int sequenceNumber = bb.getInt();
+        final int windowBase = bb.getInt();
+        final int idLength = bb.getShort() & 0xffff;
+        if (bb.remaining() < idLength) {
+            throw new IllegalArgumentException("Payload too short for a reliable message header: " + bytes.length);
+        }
+        final String publisherUniqueDeviceId = new String(bytes, FIXED_LENGTH, idLength, BlaubotConstants.STRING_CHARSET);
+        final byte[] payload = Arrays.copyOfRange(bytes, FIXED_LENGTH + idLength, bytes.length);
+        return new BlaubotReliableHeader(epoch, sequenceNumber, windowBase, publisherUniqueDeviceId, payload);
+    }
+
+    /**
+     * Compares two sequence numbers with serial number arithmetic, so that a sequence number that
+     * wrapped around is greater than the ones before the wrap.
+     *
+     * @param a a sequence number
+     * @param b another sequence number
+     * @return a negative value, zero or a positive value, if a is before, equal to or after b
+     */
+    static int compareSequenceNumbers(int a, int b) {
+        return a - b;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    int getWindowBase() {
+        return windowBase;
+    }
+
+    String getPublisherUniqueDeviceId() {
+        return publisherUniqueDeviceId;
+    }
+
+    /**
+     * @return the application payload
+     */
+    byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("BlaubotReliableHeader{");
+        sb.append("epoch=").append(epoch);
+        sb.append(", sequenceNumber=").append(sequenceNumber);
+        sb.append(", windowBase=").append(windowBase);
+        sb.append(", publisherUniqueDeviceId='").append(publisherUniqueDeviceId).append('\'');
+        sb.append(", payloadLength=").append(payload.length);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import eu.hgross.blaubot.admin.ReliableAckAdminMessage;
+
+/**
+ * The subscriber side of a reliable channel (see BlaubotChannelConfig#setReliable).
+ *
+ * Tracks the received sequence numbers per publisher, suppresses duplicates (retransmissions of
+ * already delivered messages) and delivers the messages of each publisher in sequence order.
+ * Messages received beyond a gap are held back (bounded by the max buffer size) until the gap is
+ * filled by retransmissions.
+ *
+ * The first message of a publisher (or of a new epoch) starts the delivery at the publisher's
+ * window base. If the window base passes a gap, the missing messages were acknowledged by all
+ * devices that were subscribed when they were published, so the gap is skipped.
+ */
+class BlaubotReorderBuffer {
+    /**
+     * Max number of selective acks in an ack message.
+     */
+    static final int MAX_SELECTIVE_ACKS = 32;
+
+    /**
+     * Receives the messages to deliver in order.
+     */
+    interface IDeliveryListener {
+        /**
+         * @param message the message with the application payload
+         */
+        void deliver(BlaubotMessage message);
+    }
+
+    /**
+     * The reception state of one publisher.
+     */
+    private static class PublisherState {
+        private long epoch;
+        private int nextExpected;
+        /**
+         * sequence number -> message held back due to a gap
+         */
+        private final TreeMap<Integer, BlaubotMessage> heldBack = new TreeMap<>(BlaubotReliableHeader.SEQUENCE_NUMBER_ORDER);
+        private boolean ackPending;
+
+        private PublisherState(long epoch, int nextExpected) {
+            this.epoch = epoch;
+            this.nextExpected = nextExpected;
+        }
+    }
+
+    /**
+     * publisher unique device id -> state
+     * Guarded by this.
+     */
+    private final Map<String, PublisherState> publishers = new HashMap<>();
+
+    /**
+     * Processes a received message and delivers the in-order messages of its publisher.
+     * The delivery happens with the monitor held to keep the order.
+     *
+     * @param message       the received (uncompressed) message
+     * @param maxHeldBack   the max number of messages held back per publisher
+     * @param listener      receives the messages to deliver
+     * @return false, if the message was a duplicate
+     */
+    synchronized boolean receive(BlaubotMessage message, int maxHeldBack, IDeliveryListener listener) {
+        final BlaubotReliableHeader header = BlaubotReliableHeader.decode(message);
+        final int sequenceNumber = header.getSequenceNumber();
+        PublisherState state = publishers.get(header.getPublisherUniqueDeviceId());
+        if (state == null || state.epoch != header.getEpoch()) {
+            // -- new publisher or restarted publisher
+            state = new PublisherState(header.getEpoch(), header.getWindowBase());
+            publishers.put(header.getPublisherUniqueDeviceId(), state);
+        }
+        state.ackPending = true;
+
+        if (BlaubotReliableHeader.compareSequenceNumbers(state.nextExpected, header.getWindowBase()) < 0) {
+            // -- the publisher released the missing messages, deliver what we have and skip the gap
+            for (Iterator<BlaubotMessage> it = state.heldBack.headMap(header.getWindowBase()).values().iterator(); it.hasNext(); ) {
+                listener.deliver(it.next());
+                it.remove();
+            }
+            state.nextExpected = header.getWindowBase();
+            deliverHeldBack(state, listener);
+        }
+
+        if (BlaubotReliableHeader.compareSequenceNumbers(sequenceNumber, state.nextExpected) < 0 || state.heldBack.containsKey(sequenceNumber)) {
+            return false;
+        }
+        final BlaubotMessage payloadMessage = BlaubotMessage.copyHeaderWithPayload(message, header.getPayload());
+        if (BlaubotReliableHeader.compareSequenceNumbers(sequenceNumber, state.nextExpected) > 0) {
+            if (state.heldBack.size() < maxHeldBack) {
+                state.heldBack.put(sequenceNumber, payloadMessage);
+            }
+            // else: dropped without ack, will be retransmitted
+            return true;
+        }
+        listener.deliver(payloadMessage);
+        state.nextExpected += 1;
+        deliverHeldBack(state, listener);
+        return true;
+    }
+
+    /**
+     * Delivers the held back messages that are in order now.
+     * Must be called with the monitor held.
+     */
+    private static void deliverHeldBack(PublisherState state, IDeliveryListener listener) {
+        while (!state.heldBack.isEmpty() && state.heldBack.firstKey() == state.nextExpected) {
+            listener.deliver(state.heldBack.pollFirstEntry().getValue());
+            state.nextExpected += 1;
+        }
+    }
+
+    /**
+     * Creates the ack messages for all publishers from which messages were received since the last call.
+     *
+     * @param channelId            the channel id
+     * @param ownUniqueDeviceId    the acknowledging (own) device's unique device id
+     * @return the ack messages
+     */
+    synchronized List<ReliableAckAdminMessage> collectAcks(short channelId, String ownUniqueDeviceId) {
+        final List<ReliableAckAdminMessage> acks = new ArrayList<>();
+        for (Map.Entry<String, PublisherState> publisherEntry : publishers.entrySet()) {
+            final PublisherState state = publisherEntry.getValue();
+            if (!state.ackPending) {
+                continue;
+            }
+            state.ackPending = false;
+            final int[] selectiveAcks = new int[Math.min(MAX_SELECTIVE_ACKS, state.heldBack.size())];
+            int i = 0;
+            for (Integer sequenceNumber : state.heldBack.keySet()) {
+                if (i >= selectiveAcks.length) {
+                    break;
+                }
+                selectiveAcks[i++] = sequenceNumber;
+            }
+            acks.add(new ReliableAckAdminMessage(channelId, publisherEntry.getKey(), ownUniqueDeviceId, state.epoch, state.nextExpected - 1, selectiveAcks));
+        }
+        return acks;
+    }
+}
@@ -0,0 +1,235 @@
+package eu.hgross.blaubot.messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * The publisher side of a reliable channel (see BlaubotChannelConfig#setReliable).
+ *
+ * Assigns the sequence numbers to the published messages and holds each message until all devices
+ * that were subscribed when it was published acknowledged it (or unsubscribed). The number of held
+ * messages is bounded by the capacity, the channel stops picking messages while the window is full.
+ *
+ * The window's epoch is chosen randomly on creation, so that the subscribers can tell a restarted
+ * publisher from retransmissions.
+ */
+class BlaubotRetransmitWindow {
+    /**
+     * A held message and the devices that did not acknowledge it yet.
+     */
+    private static class Entry {
+        private final int sequenceNumber;
+        private final BlaubotMessage message;
+        private final Set<String> pendingDevices;
+        private long lastTransmission;
+
+        private Entry(int sequenceNumber, BlaubotMessage message, Set<String> pendingDevices, long lastTransmission) {
+            this.sequenceNumber = sequenceNumber;
+            this.message = message;
+            this.pendingDevices = pendingDevices;
+            this.lastTransmission = lastTransmission;
+        }
+    }
+
+    private final long epoch;
+    private final byte[] publisherUniqueDeviceId;
+    private volatile int capacity;
+    private int nextSequenceNumber = 1;
+    /**
+     * sequence number -> held message
+     * Guarded by this.
+     */
+    private final TreeMap<Integer, Entry> entries = new TreeMap<>(BlaubotReliableHeader.SEQUENCE_NUMBER_ORDER);
+    /**
+     * unique device id of a pending device -> time since when it is not subscribed anymore
+     * Guarded by this.
+     */
+    private final Map<String, Long> unsubscribedSince = new HashMap<>();
+
+    /**
+     * @param publisherUniqueDeviceId the publishing (own) device's unique device id
+     * @param capacity                the max number of held messages
+     */
+    BlaubotRetransmitWindow(String publisherUniqueDeviceId, int capacity) {
+        this.epoch = new Random().nextLong();
+        this.publisherUniqueDeviceId = publisherUniqueDeviceId.getBytes(BlaubotConstants.STRING_CHARSET);
+        this.capacity = capacity;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @param capacity the max number of held messages
+     */
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return true, iff no more messages can be added
+     */
+    synchronized boolean isFull() {
+        return entries.size() >= capacity;
+    }
+
+    /**
+     * @return true, iff no messages are held
+     */
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return the number of held messages
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Assigns the next sequence number to a picked message and holds it until acknowledged.
+     *
+     * @param message        the picked message
+     * @param pendingDevices the devices that have to acknowledge the message, the message is not held if empty
+     * @param now            the current time in ms
+     * @return the message to transmit, carrying the reliable header
+     */
+    synchronized BlaubotMessage add(BlaubotMessage message, Set<String> pendingDevices, long now) {
+        final int sequenceNumber = nextSequenceNumber++;
+        final Entry entry = new Entry(sequenceNumber, message, new HashSet<>(pendingDevices), now);
+        if (!entry.pendingDevices.isEmpty()) {
+            entries.put(sequenceNumber, entry);
+        }
+        return createTransmission(entry);
+    }
+
+    /**
+     * Must be called with the monitor held.
+     *
+     * @param entry the entry
+     * @return a copy of the entry's message with the reliable header prepended to the payload
+     */
+    private BlaubotMessage createTransmission(Entry entry) {
+        final int windowBase = entries.isEmpty() || BlaubotReliableHeader.compareSequenceNumbers(entry.sequenceNumber, entries.firstKey()) < 0 ? entry.sequenceNumber : entries.firstKey();
+        final byte[] payload = BlaubotReliableHeader.encode(epoch, entry.sequenceNumber, windowBase, publisherUniqueDeviceId, entry.message.getPayload());
+        final BlaubotMessage transmission = BlaubotMessage.copyHeaderWithPayload(entry.message, payload);
+        transmission.publishTime = entry.message.publishTime;
+        return transmission;
+    }
+
+    /**
+     * Processes an acknowledgement.
+     *
+     * @param ackEpoch         the epoch the acknowledged sequence numbers belong to
+     * @param ackingDeviceId   the acknowledging device
+     * @param cumulativeAck    all messages up to this sequence number were received
+     * @param selectiveAcks    further received sequence numbers
+     * @return the number of messages that were released by this ack
+     */
+    synchronized int onAck(long ackEpoch, String ackingDeviceId, int cumulativeAck, int[] selectiveAcks) {
+        if (ackEpoch != epoch) {
+            return 0;
+        }
+        final int sizeBefore = entries.size();
+        for (Iterator<Entry> it = entries.headMap(cumulativeAck, true).values().iterator(); it.hasNext(); ) {
+            final Entry entry = it.next();
+            entry.pendingDevices.remove(ackingDeviceId);
+            if (entry.pendingDevices.isEmpty()) {
+                it.remove();
+            }
+        }
+        for (int selectiveAck : selectiveAcks) {
+            final Entry entry = entries.get(selectiveAck);
+            if (entry != null) {
+                entry.pendingDevices.remove(ackingDeviceId);
+                if (entry.pendingDevices.isEmpty()) {
+                    entries.remove(selectiveAck);
+                }
+            }
+        }
+        return sizeBefore - entries.size();
+    }
+
+    /**
+     * Collects the messages that were not acknowledged within the retransmit timeout.
+     *
+     * Pending devices that are not subscribed anymore for longer than the grace period are
+     * removed from the pending devices, the subscriptions are only checked if checkSubscriptions
+     * is true (the subscriptions are unknown while not connected).
+     *
+     * @param now                the current time in ms
+     * @param retransmitTimeout  the time in ms after which a message is retransmitted
+     * @param subscriptions      the currently subscribed devices
+     * @param checkSubscriptions true, iff the subscriptions are up to date
+     * @param gracePeriod        the time in ms after which unsubscribed devices are not waited for anymore
+     * @return the messages to retransmit in sequence order
+     */
+    synchronized List<BlaubotMessage> collectRetransmissions(long now, long retransmitTimeout, Set<String> subscriptions, boolean checkSubscriptions, long gracePeriod) {
+        if (checkSubscriptions) {
+            releaseUnsubscribedDevices(now, subscriptions, gracePeriod);
+        }
+        final List<BlaubotMessage> retransmissions = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (now - entry.lastTransmission >= retransmitTimeout) {
+                entry.lastTransmission = now;
+                retransmissions.add(createTransmission(entry));
+            }
+        }
+        return retransmissions;
+    }
+
+    /**
+     * Must be called with the monitor held.
+     */
+    private void releaseUnsubscribedDevices(long now, Set<String> subscriptions, long gracePeriod) {
+        final Set<String> pendingDevices = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            pendingDevices.addAll(entry.pendingDevices);
+        }
+        unsubscribedSince.keySet().retainAll(pendingDevices);
+        final Set<String> released = new HashSet<>();
+        for (String device : pendingDevices) {
+            if (subscriptions.contains(device)) {
+                unsubscribedSince.remove(device);
+                continue;
+            }
+            final Long since = unsubscribedSince.get(device);
+            if (since == null) {
+                unsubscribedSince.put(device, now);
+            } else if (now - since >= gracePeriod) {
+                released.add(device);
+                unsubscribedSince.remove(device);
+            }
+        }
+        if (released.isEmpty()) {
+            return;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            final Entry entry = it.next();
+            entry.pendingDevices.removeAll(released);
+            if (entry.pendingDevices.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Marks all held messages for retransmission, i.e. to replay them to a new master.
+     */
+    synchronized void requestReplay() {
+        for (Entry entry : entries.values()) {
+            entry.lastTransmission = Long.MIN_VALUE / 2;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Payload codec using raw deflate (without the zlib header and checksum to keep small messages small).
+ *
+ * Optionally a preset dictionary can be used, which makes small and redundant payloads (like JSON
+ * messages with recurring keys) a lot cheaper. Both sides have to use the same dictionary, so a
+ * codec with a dictionary needs its own codec id and has to be registered on all devices (see
+ * BlaubotPayloadCodecs#register). Use trainDictionary(..) to build a dictionary from sample payloads.
+ */
+public class DeflatePayloadCodec implements IBlaubotPayloadCodec {
+    /**
+     * The codec id of BlaubotPayloadCodecs.DEFLATE
+     */
+    static final byte CODEC_ID = 1;
+    /**
+     * Max size of a deflate dictionary (the deflate window size)
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private final byte codecId;
+    private final int level;
+    private final byte[] dictionary;
+
+    /**
+     * The built in codec without dictionary.
+     */
+    DeflatePayloadCodec() {
+        this.codecId = CODEC_ID;
+        this.level = Deflater.DEFAULT_COMPRESSION;
+        this.dictionary = null;
+    }
+
+    /**
+     * @param codecId    the codec id, has to be greater than BlaubotPayloadCodecs.MAX_RESERVED_CODEC_ID
+     * @param level      the compression level (0-9 or Deflater.DEFAULT_COMPRESSION)
+     * @param dictionary the preset dictionary, can be null
+     */
+    public DeflatePayloadCodec(byte codecId, int level, byte[] dictionary) {
+        if (codecId >= 0 && codecId <= BlaubotPayloadCodecs.MAX_RESERVED_CODEC_ID) {
+            throw new IllegalArgumentException("Codec ids up to " + BlaubotPayloadCodecs.MAX_RESERVED_CODEC_ID + " are reserved");
+        }
+        if (dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+        }
+        this.codecId = codecId;
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Builds a preset dictionary from recent payloads.
+     * Deflate references the end of the dictionary with the shortest distances, so the samples
+     * are added from the oldest to the most recent one and duplicates only once.
+     *
+     * @param samples the sample payloads, most recent last
+     * @param maxSize the max size of the dictionary (at most MAX_DICTIONARY_SIZE)
+     * @return the dictionary
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+        // distinct samples, walking from the most recent one back until the dictionary is full
+        final HashSet<ByteBuffer> seen = new HashSet<>();
+        final byte[] dictionary = new byte[maxSize];
+        int start = maxSize;
+        for (int i = samples.size() - 1; i >= 0 && start > 0; i--) {
+            final byte[] sample = samples.get(i);
+            if (!seen.add(ByteBuffer.wrap(sample))) {
+                continue;
+            }
+            final int length = Math.min(sample.length, start);
+            System.arraycopy(sample, sample.length - length, dictionary, start - length, length);
+            start -= length;
+        }
+        return Arrays.copyOfRange(dictionary, start, maxSize);
+    }
+
+    @Override
+    public byte getCodecId() {
+        return codecId;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            // we are only interested in results smaller than the input
+            final byte[] buffer = new byte[data.length];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    return null;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(data, offset, length);
+            final byte[] out = new byte[uncompressedLength];
+            int written = 0;
+            while (written < uncompressedLength) {
+                final int count = inflater.inflate(out, written, uncompressedLength - written);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())) {
+                    throw new IOException("Deflate data is truncated");
+                }
+                written += count;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeflatePayloadCodec{" +
+                "codecId=" + codecId +
+                ", level=" + level +
+                ", dictionarySize=" + (dictionary == null ? 0 : dictionary.length) +
+                '}';
+    }
+}
@@ -3,7 +3,6 @@ package eu.hgross.blaubot.messaging;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Picks messages from the given queue.
@@ -12,23 +11,15 @@ import java.util.concurrent.TimeUnit;
 public class DiscardNewPickerStrategy implements IBlaubotMessagePickerStrategy {
     @Override
     public BlaubotMessage pickNextMessage(BlockingQueue<BlaubotMessage> messageQueue) {
-        List<BlaubotMessage> messages = new ArrayList<>();
-        BlaubotMessage blaubotMessage;
-        try {
-            blaubotMessage = messageQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            return null;
-        }
-        if (blaubotMessage == null) {
+        final BlaubotMessage oldestMessage = messageQueue.poll();
+        if (oldestMessage == null) {
             return null;
         }
 
-        messageQueue.drainTo(messages);
-        BlaubotMessage queuedMessage = null;
-        if (!messages.isEmpty()) {
-            queuedMessage = messages.get(0);
-        }
-        return queuedMessage;
+        // discard the newer ones
+        List<BlaubotMessage> newerMessages = new ArrayList<>();
+        messageQueue.drainTo(newerMessages);
+        return oldestMessage;
     }
 
     @Override
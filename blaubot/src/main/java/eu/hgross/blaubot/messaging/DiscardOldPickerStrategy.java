@@ -3,7 +3,6 @@ package eu.hgross.blaubot.messaging;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Picks messages from the given queue.
@@ -13,12 +12,7 @@ public class DiscardOldPickerStrategy implements IBlaubotMessagePickerStrategy {
     @Override
     public BlaubotMessage pickNextMessage(BlockingQueue<BlaubotMessage> messageQueue) {
         List<BlaubotMessage> oldmessages = new ArrayList<>();
-        BlaubotMessage blaubotMessage;
-        try {
-            blaubotMessage = messageQueue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            return null;
-        }
+        BlaubotMessage blaubotMessage = messageQueue.poll();
         if (blaubotMessage == null) {
             return null;
         }
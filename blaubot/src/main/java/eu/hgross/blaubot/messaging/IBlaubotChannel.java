@@ -17,7 +17,7 @@ public interface IBlaubotChannel {
      * 
      * @deprecated we don't allow the pre-creation of BlaubotMessages anymore
      * @param blaubotMessage the message
-     * @return true, iff the message was added to the queue or false, if the queue was full while trying to publish
+     * @return true, iff the message was added to the queue or false, if the queue was full or the message senders were congested while trying to publish
      */
     boolean publish(BlaubotMessage blaubotMessage);
 
@@ -27,13 +27,13 @@ public interface IBlaubotChannel {
      * @deprecated we don't allow the pre-creation of BlaubotMessages anymore
      * @param blaubotMessage the message
      * @param excludeSender if true, the message will not be dispatched back to this channel but to all other subscribers.
-     * @return true, iff the message was added to the queue or false, if the queue was full while trying to publish
+     * @return true, iff the message was added to the queue or false, if the queue was full or the message senders were congested while trying to publish
      */
     boolean publish(BlaubotMessage blaubotMessage, boolean excludeSender);
 
     /**
      * Posts a BlaubotMessage to the message queue of this channel to be dispatched to subscribers later.
-     * Blocks for 'timeout' milliseconds, if the channel's message queue is full.
+     * Blocks for 'timeout' milliseconds, if the channel's message queue is full or the message senders are congested.
      * @deprecated we don't allow the pre-creation of BlaubotMessages anymore
      *
      * @param blaubotMessage the mssage
@@ -44,7 +44,7 @@ public interface IBlaubotChannel {
 
     /**
      * Posts a BlaubotMessage to the message queue of this channel to be dispatched to subscribers later.
-     * Blocks for 'timeout' milliseconds, if the channel's message queue is full.
+     * Blocks for 'timeout' milliseconds, if the channel's message queue is full or the message senders are congested.
      * @deprecated we don't allow the pre-creation of BlaubotMessages anymore
      *
      * @param blaubotMessage the mssage
@@ -59,7 +59,7 @@ public interface IBlaubotChannel {
      * The payload will be wrapped in a BlaubotMessage.
      *
      * @param payload the payload as byte array
-     * @return true, iff the message was added to the queue or false, if the queue was full while trying to publish
+     * @return true, iff the message was added to the queue or false, if the queue was full or the message senders were congested while trying to publish
      */
     boolean publish(byte[] payload);
     
@@ -69,14 +69,14 @@ public interface IBlaubotChannel {
      *
      * @param payload the payload as byte array
      * @param excludeSender if true, the message will not be dispatched back to this channel but to all other subscribers.
-     * @return true, iff the message was added to the queue or false, if the queue was full while trying to publish
+     * @return true, iff the message was added to the queue or false, if the queue was full or the message senders were congested while trying to publish
      */
     boolean publish(byte[] payload, boolean excludeSender);
 
     /**
      * Post the payload to this channel's queue.
      * The payload will be wrapped in a BlaubotMessage.
-     * Blocks for 'timeout' milliseconds, if the channel's message queue is full.
+     * Blocks for 'timeout' milliseconds, if the channel's message queue is full or the message senders are congested.
      *
      * @param payload the payload as byte array
      * @param timeout the timeout in ms
@@ -87,7 +87,7 @@ public interface IBlaubotChannel {
     /**
      * Post the payload to this channel's queue.
      * The payload will be wrapped in a BlaubotMessage.
-     * Blocks for 'timeout' milliseconds, if the channel's message queue is full.
+     * Blocks for 'timeout' milliseconds, if the channel's message queue is full or the message senders are congested.
      *
      * @param payload the payload as byte array
      * @param timeout the timeout in ms
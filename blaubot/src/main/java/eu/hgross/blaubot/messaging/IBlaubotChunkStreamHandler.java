@@ -0,0 +1,18 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Decides for each incoming chunked message whether it is consumed as a stream of payloads
+ * or reassembled as a whole.
+ *
+ * @see BlaubotChunkReassembler#setChunkStreamHandler(IBlaubotChunkStreamHandler)
+ */
+public interface IBlaubotChunkStreamHandler {
+    /**
+     * Called when the first chunk of a new chunked message is received.
+     * Note that due to out of order delivery this is not necessarily the chunk with number 1.
+     *
+     * @param firstChunk the first received chunk, providing the header fields (channel id, priority, ...)
+     * @return the listener to stream the payloads to or null, if the message should be reassembled and dispatched as usual
+     */
+    IBlaubotChunkStreamListener onChunkedMessageStarted(BlaubotMessage firstChunk);
+}
@@ -0,0 +1,28 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Consumes a chunked message as a stream of payload parts instead of a reassembled message.
+ * All methods are called on the receiving thread of the connection and should return quickly.
+ *
+ * @see IBlaubotChunkStreamHandler
+ */
+public interface IBlaubotChunkStreamListener {
+    /**
+     * Called for each chunk's payload in the order of the chunk numbers.
+     *
+     * @param payload the payload of the next chunk
+     */
+    void onChunkPayload(byte[] payload);
+
+    /**
+     * Called once all chunks were handed over.
+     */
+    void onCompleted();
+
+    /**
+     * Called if the message can not be completed, because it expired, was evicted due to the
+     * memory caps or the receiver was deactivated.
+     * No further calls will happen.
+     */
+    void onAborted();
+}
@@ -0,0 +1,20 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Extracts an application defined conflation key from the messages of a conflating channel
+ * (see BlaubotChannelConfig#setConflating). Of the queued messages with equal keys, only the most
+ * recent one is sent, so a key could for instance be the id of the tracked finger or of the
+ * device reporting its location.
+ */
+public interface IBlaubotConflationKeyExtractor {
+
+    /**
+     * Called for each message published to the channel (with its uncompressed payload) and on the
+     * master for each message of the channel that is dispatched to the subscribers.
+     * Has to be fast and must not modify the message.
+     *
+     * @param message the message
+     * @return the key, which has to implement equals() and hashCode(), or null to conflate per channel and sender only
+     */
+    public Object getConflationKey(BlaubotMessage message);
+}
@@ -8,13 +8,18 @@ import java.util.concurrent.BlockingQueue;
 public interface IBlaubotMessagePickerStrategy {
     /**
      * The default timeout for polling operations on the blocking queue.
+     *
+     * @deprecated pickers are called by the shared BlaubotChannelScheduler whenever the queue is
+     *             non-empty and must not wait for messages anymore.
      */
+    @Deprecated
     long POLL_TIMEOUT = 500;
 
     /**
      * Picks a message from the given queue.
-     * The implementation has to ensure, that it returns regularly, even when there is no message available.
-     * The preferred time for this is specified by the POLL_TIMEOUT constant.
+     * The implementation must not block: it is called by the channel manager's shared
+     * BlaubotChannelScheduler when the queue went non-empty and has to return null immediately,
+     * if nothing is available.
      *
      * @param messageQueue the queue to pick the next message from
      * @return the picked message or null, if nothing is available to be sent.
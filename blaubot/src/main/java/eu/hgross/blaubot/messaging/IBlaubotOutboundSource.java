@@ -0,0 +1,19 @@
+package eu.hgross.blaubot.messaging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the outgoing bytes of an ISelectableBlaubotConnection.
+ * Called by the connection's selector thread whenever the connection is writable and has
+ * nothing else to send.
+ */
+public interface IBlaubotOutboundSource {
+    /**
+     * Writes the next ready bytes (whole serialized messages) into the given buffer.
+     * The buffer's capacity is large enough to hold at least one message of the max size.
+     *
+     * @param buffer the buffer to write to, starting at its current position
+     * @return the number of bytes written, 0 if there is nothing to send
+     */
+    int fillOutboundBuffer(ByteBuffer buffer);
+}
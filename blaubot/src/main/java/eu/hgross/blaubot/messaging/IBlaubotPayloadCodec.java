@@ -0,0 +1,37 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses message payloads.
+ * Codecs are identified on the wire by their codec id, so a codec has to be registered with the
+ * same id on all devices of a kingdom (see BlaubotPayloadCodecs#register) before it is used by a
+ * channel.
+ * Implementations have to be thread safe.
+ */
+public interface IBlaubotPayloadCodec {
+    /**
+     * @return the id identifying this codec on the wire
+     */
+    byte getCodecId();
+
+    /**
+     * Compresses the data.
+     *
+     * @param data the uncompressed data
+     * @return the compressed data or null, if the compressed data would not be smaller than the input
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompresses data compressed by compress(..) of the same codec.
+     *
+     * @param data               the buffer containing the compressed data
+     * @param offset             the offset of the compressed data in data
+     * @param length             the length of the compressed data
+     * @param uncompressedLength the length of the original data
+     * @return the decompressed data
+     * @throws IOException if the data is corrupt
+     */
+    byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) throws IOException;
+}
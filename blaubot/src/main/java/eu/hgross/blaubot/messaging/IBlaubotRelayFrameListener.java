@@ -0,0 +1,14 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Listener for the relay frames received by the BlaubotChannelManager.
+ */
+public interface IBlaubotRelayFrameListener {
+
+    /**
+     * Called when a relay frame was received
+     *
+     * @param relayFrame the received relay frame
+     */
+    public void onRelayFrame(BlaubotRelayFrame relayFrame);
+}
@@ -0,0 +1,17 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Gets informed if a BlaubotMessageSender using the BLOCK overflow policy exceeds or falls
+ * back below its queue budget.
+ */
+public interface IBlaubotSenderCongestionListener {
+    /**
+     * Called whenever the congestion state of the sender changes.
+     * Note that the calls may happen on any thread, so use sender.isCongested() to get the
+     * latest state.
+     *
+     * @param sender    the sender
+     * @param congested true, iff the sender's queue is over budget
+     */
+    void onCongestionChanged(BlaubotMessageSender sender, boolean congested);
+}
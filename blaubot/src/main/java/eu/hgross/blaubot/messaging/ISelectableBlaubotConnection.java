@@ -0,0 +1,40 @@
+package eu.hgross.blaubot.messaging;
+
+import eu.hgross.blaubot.core.IBlaubotConnection;
+
+/**
+ * A connection that is driven by a shared selector instead of blocking reads and writes.
+ *
+ * The BlaubotMessageReceiver and BlaubotMessageSender detect connections implementing this
+ * interface and don't start their own threads for them. Instead the connection decodes incoming
+ * BlaubotMessages itself and hands them to the registered message listener and pulls outgoing
+ * bytes from the registered outbound source, whenever the underlying transport is writable.
+ *
+ * The stream methods of IBlaubotConnection stay usable as long as no message listener is set
+ * (i.e. for the handshakes before the messaging starts).
+ */
+public interface ISelectableBlaubotConnection extends IBlaubotConnection {
+    /**
+     * Sets the listener to be called with each received message.
+     * Messages are decoded and dispatched on the connection's selector thread, so the listener
+     * must not block.
+     * If set to null, the connection stops reading as soon as its input buffer is full and keeps
+     * the buffered bytes for the next listener.
+     *
+     * @param messageListener the listener or null
+     */
+    void setMessageListener(IBlaubotMessageListener messageListener);
+
+    /**
+     * Sets the source for the outgoing bytes.
+     *
+     * @param outboundSource the source or null to stop pulling data
+     */
+    void setOutboundSource(IBlaubotOutboundSource outboundSource);
+
+    /**
+     * Tells the connection that the outbound source has new data available.
+     * Does not block.
+     */
+    void requestWrite();
+}
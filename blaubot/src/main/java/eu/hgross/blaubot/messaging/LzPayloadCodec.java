@@ -0,0 +1,211 @@
+package eu.hgross.blaubot.messaging;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 payload codec producing the LZ4 block format, implemented in plain Java.
+ * Compresses less than deflate, but costs only a fraction of the CPU time.
+ *
+ * The data is a sequence of (literals, match) pairs. Each sequence starts with a token byte
+ * (high nibble: literal length, low nibble: match length - 4, 15 meaning that additional length
+ * bytes follow), followed by the literals and the little endian 2 byte offset of the match.
+ * The last sequence consists of literals only.
+ */
+public class LzPayloadCodec implements IBlaubotPayloadCodec {
+    /**
+     * The codec id of BlaubotPayloadCodecs.LZ
+     */
+    static final byte CODEC_ID = 2;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    /**
+     * The last bytes are always literals
+     */
+    private static final int LAST_LITERALS = 5;
+    /**
+     * Matches must not start within the last MF_LIMIT bytes
+     */
+    private static final int MF_LIMIT = 12;
+    private static final int HASH_LOG = 12;
+
+    LzPayloadCodec() {
+    }
+
+    @Override
+    public byte getCodecId() {
+        return CODEC_ID;
+    }
+
+    private static int readInt(byte[] data, int index) {
+        return (data[index] & 0xff) | (data[index + 1] & 0xff) << 8 | (data[index + 2] & 0xff) << 16 | (data[index + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        final int length = data.length;
+        // worst case output size, we give up if we exceed the input length anyway
+        final byte[] out = new byte[length + length / 255 + 16];
+        int outIndex = 0;
+        int anchor = 0;
+        if (length > MF_LIMIT) {
+            final int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            final int matchStartLimit = length - MF_LIMIT;
+            final int matchEndLimit = length - LAST_LITERALS;
+            int index = 0;
+            while (index < matchStartLimit) {
+                final int value = readInt(data, index);
+                final int h = hash(value);
+                int ref = table[h];
+                table[h] = index;
+                if (ref < 0 || index - ref > MAX_OFFSET || readInt(data, ref) != value) {
+                    index += 1;
+                    continue;
+                }
+                // extend the match backwards into the pending literals
+                while (index > anchor && ref > 0 && data[index - 1] == data[ref - 1]) {
+                    index -= 1;
+                    ref -= 1;
+                }
+                // and forwards
+                int matchLength = MIN_MATCH;
+                while (index + matchLength < matchEndLimit && data[ref + matchLength] == data[index + matchLength]) {
+                    matchLength += 1;
+                }
+                outIndex = writeSequence(data, anchor, index - anchor, index - ref, matchLength, out, outIndex);
+                if (outIndex > length) {
+                    return null;
+                }
+                index += matchLength;
+                anchor = index;
+            }
+        }
+        // the last literals
+        outIndex = writeSequence(data, anchor, length - anchor, 0, 0, out, outIndex);
+        if (outIndex >= length) {
+            return null;
+        }
+        return Arrays.copyOf(out, outIndex);
+    }
+
+    /**
+     * Writes a sequence.
+     *
+     * @param data          the input
+     * @param literalStart  start of the literals in the input
+     * @param literalLength number of literals
+     * @param offset        offset of the match
+     * @param matchLength   length of the match, 0 for the last sequence
+     * @param out           the output
+     * @param outIndex      the position in the output
+     * @return the new position in the output
+     */
+    private static int writeSequence(byte[] data, int literalStart, int literalLength, int offset, int matchLength, byte[] out, int outIndex) {
+        final int tokenIndex = outIndex++;
+        int token;
+        if (literalLength >= 15) {
+            token = 15 << 4;
+            outIndex = writeLength(literalLength - 15, out, outIndex);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(data, literalStart, out, outIndex, literalLength);
+        outIndex += literalLength;
+        if (matchLength > 0) {
+            out[outIndex++] = (byte) offset;
+            out[outIndex++] = (byte) (offset >>> 8);
+            final int matchLengthCode = matchLength - MIN_MATCH;
+            if (matchLengthCode >= 15) {
+                token |= 15;
+                outIndex = writeLength(matchLengthCode - 15, out, outIndex);
+            } else {
+                token |= matchLengthCode;
+            }
+        }
+        out[tokenIndex] = (byte) token;
+        return outIndex;
+    }
+
+    private static int writeLength(int length, byte[] out, int outIndex) {
+        while (length >= 255) {
+            out[outIndex++] = (byte) 255;
+            length -= 255;
+        }
+        out[outIndex++] = (byte) length;
+        return outIndex;
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedLength) throws IOException {
+        final byte[] out = new byte[uncompressedLength];
+        final int end = offset + length;
+        int index = offset;
+        int outIndex = 0;
+        try {
+            while (true) {
+                final int token = data[index++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = data[index++] & 0xff;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (literalLength > end - index || literalLength > uncompressedLength - outIndex) {
+                    throw new IOException("Corrupt LZ data (literals out of bounds)");
+                }
+                System.arraycopy(data, index, out, outIndex, literalLength);
+                index += literalLength;
+                outIndex += literalLength;
+                if (index >= end) {
+                    break;
+                }
+
+                final int matchOffset = (data[index] & 0xff) | (data[index + 1] & 0xff) << 8;
+                index += 2;
+                if (matchOffset == 0 || matchOffset > outIndex) {
+                    throw new IOException("Corrupt LZ data (invalid offset)");
+                }
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = data[index++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (matchLength > uncompressedLength - outIndex) {
+                    throw new IOException("Corrupt LZ data (match out of bounds)");
+                }
+                final int matchStart = outIndex - matchOffset;
+                if (matchOffset >= matchLength) {
+                    System.arraycopy(out, matchStart, out, outIndex, matchLength);
+                } else {
+                    // overlapping copy, byte by byte
+                    for (int i = 0; i < matchLength; i++) {
+                        out[outIndex + i] = out[matchStart + i];
+                    }
+                }
+                outIndex += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ data (truncated)");
+        }
+        if (outIndex != uncompressedLength) {
+            throw new IOException("Corrupt LZ data (length mismatch)");
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "LzPayloadCodec{codecId=" + CODEC_ID + '}';
+    }
+}
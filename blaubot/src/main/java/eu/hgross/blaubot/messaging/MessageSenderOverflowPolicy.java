@@ -0,0 +1,31 @@
+package eu.hgross.blaubot.messaging;
+
+/**
+ * Defines how a BlaubotMessageSender reacts, if a message would exceed its queue budget
+ * (max queued bytes and max queued messages).
+ *
+ * Admin and keep alive messages are never subject to the budget and never dropped.
+ */
+public enum MessageSenderOverflowPolicy {
+    /**
+     * The sender reports itself as congested while it is over budget and the channels
+     * publishing through it refuse (or block, if a timeout is given) new publishes.
+     * Messages that still arrive (i.e. relayed by the master) are queued up to twice the
+     * budget, beyond that they are rejected.
+     */
+    BLOCK,
+    /**
+     * Queued messages with a lower priority than the new message are dropped (lowest priority
+     * and newest first) to make room. If there are none, the new message is rejected.
+     */
+    DROP_LOWEST_PRIORITY,
+    /**
+     * The oldest queued messages are dropped to make room for the new message.
+     */
+    DROP_OLDEST,
+    /**
+     * The new message is rejected and the connection is closed, assuming that the consumer
+     * on the other side is not able to keep up.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,115 @@
+package eu.hgross.blaubot.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Holds the named counters, gauges and histograms of a blaubot instance.
+ * Each {@link eu.hgross.blaubot.core.Blaubot} instance has its own registry, which is handed down to
+ * its components (channel manager, message senders and receivers, channels, state machine, ...).
+ * Components created outside of a blaubot instance use the process wide default registry.
+ *
+ * The metric names are hierarchical and dot separated, like "sender.messages". The names used by the
+ * blaubot components are declared as METRIC_* constants in the respective classes.
+ */
+public class BlaubotMetricsRegistry {
+    private static final String LOG_TAG = "BlaubotMetricsRegistry";
+    private static final BlaubotMetricsRegistry DEFAULT = new BlaubotMetricsRegistry();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IGauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the process wide registry used by components that are not part of a blaubot instance
+     */
+    public static BlaubotMetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets or creates the counter with the given name.
+     *
+     * @param name the name
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            final Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Gets or creates the histogram with the given name.
+     *
+     * @param name the name
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            final LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge under the given name, replacing a previously registered gauge of the same name.
+     *
+     * @param name  the name
+     * @param gauge the gauge
+     */
+    public void registerGauge(String name, IGauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Removes the gauge with the given name.
+     *
+     * @param name the name
+     */
+    public void unregisterGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Takes a snapshot of all counters, gauges and histograms.
+     *
+     * @param uniqueDeviceId the unique device id of the device owning this registry
+     * @return the snapshot
+     */
+    public MetricsSnapshot snapshot(String uniqueDeviceId) {
+        final Map<String, Long> counterValues = new HashMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        final Map<String, Long> gaugeValues = new HashMap<>();
+        for (Map.Entry<String, IGauge> entry : gauges.entrySet()) {
+            try {
+                gaugeValues.put(entry.getKey(), entry.getValue().getValue());
+            } catch (RuntimeException e) {
+                if (Log.logWarningMessages()) {
+                    Log.w(LOG_TAG, "Failed to sample gauge " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+        final Map<String, HistogramSnapshot> histogramSnapshots = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new MetricsSnapshot(uniqueDeviceId, System.currentTimeMillis(), counterValues, gaugeValues, histogramSnapshots);
+    }
+}
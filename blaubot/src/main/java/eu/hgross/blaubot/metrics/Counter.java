@@ -0,0 +1,34 @@
+package eu.hgross.blaubot.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing counter.
+ * Obtained via {@link BlaubotMetricsRegistry#counter(String)}.
+ */
+public class Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * Increments the counter by one.
+     */
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    /**
+     * Increments the counter by the given amount.
+     *
+     * @param amount the amount to add
+     */
+    public void add(long amount) {
+        value.addAndGet(amount);
+    }
+
+    /**
+     * @return the current value
+     */
+    public long get() {
+        return value.get();
+    }
+}
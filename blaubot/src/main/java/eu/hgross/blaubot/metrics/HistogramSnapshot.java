@@ -0,0 +1,171 @@
+package eu.hgross.blaubot.metrics;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of a {@link LatencyHistogram}.
+ * Only the non-empty buckets are kept, so snapshots of different devices can be merged without
+ * losing precision (see {@link #merge(HistogramSnapshot)}).
+ */
+public class HistogramSnapshot {
+    /**
+     * The snapshot of a histogram without values
+     */
+    public static final HistogramSnapshot EMPTY = new HistogramSnapshot(0, 0, 0, 0, new int[0], new long[0]);
+
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+    /**
+     * The indexes of the non-empty buckets in ascending order
+     */
+    private final int[] bucketIndexes;
+    private final long[] bucketCounts;
+
+    HistogramSnapshot(long count, long sum, long min, long max, int[] bucketIndexes, long[] bucketCounts) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.bucketIndexes = bucketIndexes;
+        this.bucketCounts = bucketCounts;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the recorded values
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the smallest recorded value or 0, if empty
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest recorded value or 0, if empty
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the recorded values or 0, if empty
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall.
+     * The result is the upper bound of the containing bucket (capped by the max), so it may be
+     * up to ~3% higher than the exact value.
+     *
+     * @param percentile the percentile in the range [0, 100]
+     * @return the value at the percentile or 0, if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(Math.min(100d, Math.max(0d, percentile)) / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < bucketIndexes.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= target) {
+                return Math.max(min, Math.min(max, LatencyHistogram.highestValue(bucketIndexes[i])));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Merges this snapshot with another one, as if all values were recorded by one histogram.
+     *
+     * @param other the other snapshot
+     * @return the merged snapshot
+     */
+    public HistogramSnapshot merge(HistogramSnapshot other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            return other;
+        }
+        final int[] indexes = new int[bucketIndexes.length + other.bucketIndexes.length];
+        final long[] counts = new long[indexes.length];
+        int i = 0, j = 0, pos = 0;
+        while (i < bucketIndexes.length || j < other.bucketIndexes.length) {
+            if (j >= other.bucketIndexes.length || (i < bucketIndexes.length && bucketIndexes[i] < other.bucketIndexes[j])) {
+                indexes[pos] = bucketIndexes[i];
+                counts[pos++] = bucketCounts[i++];
+            } else if (i >= bucketIndexes.length || other.bucketIndexes[j] < bucketIndexes[i]) {
+                indexes[pos] = other.bucketIndexes[j];
+                counts[pos++] = other.bucketCounts[j++];
+            } else {
+                indexes[pos] = bucketIndexes[i];
+                counts[pos++] = bucketCounts[i++] + other.bucketCounts[j++];
+            }
+        }
+        return new HistogramSnapshot(count + other.count, sum + other.sum, Math.min(min, other.min), Math.max(max, other.max), Arrays.copyOf(indexes, pos), Arrays.copyOf(counts, pos));
+    }
+
+    int[] getBucketIndexes() {
+        return bucketIndexes;
+    }
+
+    long[] getBucketCounts() {
+        return bucketCounts;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("HistogramSnapshot{");
+        sb.append("count=").append(count);
+        sb.append(", min=").append(min);
+        sb.append(", mean=").append(String.format("%.1f", getMean()));
+        sb.append(", p50=").append(getValueAtPercentile(50));
+        sb.append(", p90=").append(getValueAtPercentile(90));
+        sb.append(", p99=").append(getValueAtPercentile(99));
+        sb.append(", max=").append(max);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HistogramSnapshot that = (HistogramSnapshot) o;
+
+        if (count != that.count) return false;
+        if (sum != that.sum) return false;
+        if (min != that.min) return false;
+        if (max != that.max) return false;
+        if (!Arrays.equals(bucketIndexes, that.bucketIndexes)) return false;
+        return Arrays.equals(bucketCounts, that.bucketCounts);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (count ^ (count >>> 32));
+        result = 31 * result + (int) (sum ^ (sum >>> 32));
+        result = 31 * result + (int) (min ^ (min >>> 32));
+        result = 31 * result + (int) (max ^ (max >>> 32));
+        result = 31 * result + Arrays.hashCode(bucketIndexes);
+        result = 31 * result + Arrays.hashCode(bucketCounts);
+        return result;
+    }
+}
@@ -0,0 +1,13 @@
+package eu.hgross.blaubot.metrics;
+
+/**
+ * A value that is sampled when a {@link MetricsSnapshot} is taken (queue depths, connection counts, ...).
+ * Registered via {@link BlaubotMetricsRegistry#registerGauge(String, IGauge)}.
+ * Implementations must be cheap and thread safe, they are called from arbitrary threads.
+ */
+public interface IGauge {
+    /**
+     * @return the current value
+     */
+    long getValue();
+}
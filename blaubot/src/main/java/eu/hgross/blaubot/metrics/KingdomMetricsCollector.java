@@ -0,0 +1,73 @@
+package eu.hgross.blaubot.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.MetricsAdminMessage;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.LifecycleListenerAdapter;
+import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
+
+/**
+ * Collects the latest {@link MetricsSnapshot} of each device of the kingdom from the received
+ * {@link MetricsAdminMessage}s (which are only sent to the king).
+ * Snapshots of devices that left the kingdom are forgotten.
+ */
+public class KingdomMetricsCollector extends LifecycleListenerAdapter implements IBlaubotAdminMessageListener {
+    private final String ownUniqueDeviceId;
+    private final ConcurrentHashMap<String, MetricsSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * @param ownUniqueDeviceId the unique device id of the collecting device
+     */
+    public KingdomMetricsCollector(String ownUniqueDeviceId) {
+        this.ownUniqueDeviceId = ownUniqueDeviceId;
+    }
+
+    /**
+     * Stores the snapshot as the latest snapshot of its device, if it is newer than the known one.
+     *
+     * @param snapshot the snapshot
+     */
+    public void onSnapshot(MetricsSnapshot snapshot) {
+        while (true) {
+            final MetricsSnapshot known = snapshots.putIfAbsent(snapshot.getUniqueDeviceId(), snapshot);
+            if (known == null || known.getTimestamp() > snapshot.getTimestamp() || snapshots.replace(snapshot.getUniqueDeviceId(), known, snapshot)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the latest snapshot of each device by unique device id
+     */
+    public Map<String, MetricsSnapshot> getSnapshots() {
+        return new HashMap<>(snapshots);
+    }
+
+    /**
+     * @return the aggregation of the latest snapshots of all devices
+     */
+    public MetricsSnapshot getAggregatedSnapshot() {
+        return MetricsSnapshot.aggregate(ownUniqueDeviceId, snapshots.values());
+    }
+
+    @Override
+    public void onAdminMessage(AbstractAdminMessage adminMessage) {
+        if (adminMessage instanceof MetricsAdminMessage) {
+            onSnapshot(((MetricsAdminMessage) adminMessage).getSnapshot());
+        }
+    }
+
+    @Override
+    public void onDeviceLeft(IBlaubotDevice blaubotDevice) {
+        snapshots.remove(blaubotDevice.getUniqueDeviceID());
+    }
+
+    @Override
+    public void onDisconnected() {
+        snapshots.clear();
+    }
+}
@@ -0,0 +1,127 @@
+package eu.hgross.blaubot.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative long values (usually latencies in ms or microseconds).
+ * Obtained via {@link BlaubotMetricsRegistry#histogram(String)}.
+ *
+ * The values are counted in log-linear buckets, like in an HDR histogram: each power of two range
+ * is split into SUB_BUCKET_COUNT equally sized buckets, so the value range of a long is covered by
+ * a fixed number of buckets with a relative error of at most 1/SUB_BUCKET_COUNT (~3%).
+ * Recording is O(1) and does not allocate.
+ */
+public class LatencyHistogram {
+    /**
+     * log2 of the number of buckets per power of two
+     */
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * The number of buckets needed to cover all non-negative long values
+     */
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        sum.addAndGet(value);
+        long currentMin;
+        while (value < (currentMin = min.get()) && !min.compareAndSet(currentMin, value)) {
+            // retry
+        }
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Takes a snapshot of the recorded values.
+     * Values recorded concurrently may or may not be part of the snapshot.
+     *
+     * @return the snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        int nonEmpty = 0;
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            if (copy[i] > 0) {
+                nonEmpty++;
+            }
+        }
+        final int[] indexes = new int[nonEmpty];
+        final long[] bucketCounts = new long[nonEmpty];
+        long count = 0;
+        int pos = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (copy[i] > 0) {
+                indexes[pos] = i;
+                bucketCounts[pos] = copy[i];
+                count += copy[i];
+                pos++;
+            }
+        }
+        if (count == 0) {
+            return HistogramSnapshot.EMPTY;
+        }
+        // a concurrent record() may not have updated min/max yet
+        final long currentMin = min.get();
+        final long currentMax = max.get();
+        final long snapshotMin = currentMin == Long.MAX_VALUE ? lowestValue(indexes[0]) : currentMin;
+        final long snapshotMax = currentMax == Long.MIN_VALUE ? highestValue(indexes[nonEmpty - 1]) : currentMax;
+        return new HistogramSnapshot(count, sum.get(), snapshotMin, snapshotMax, indexes, bucketCounts);
+    }
+
+    /**
+     * @param value a non-negative value
+     * @return the index of the bucket counting the value
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @param index the bucket index
+     * @return the smallest value counted by the bucket
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        return (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    }
+
+    /**
+     * @param index the bucket index
+     * @return the largest value counted by the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+}
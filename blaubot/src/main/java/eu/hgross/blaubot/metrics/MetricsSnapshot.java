@@ -0,0 +1,286 @@
+package eu.hgross.blaubot.metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+
+/**
+ * An immutable snapshot of the values of a {@link BlaubotMetricsRegistry} (counters, gauges and histograms)
+ * of one device at one point in time.
+ * Snapshots are sent to the king via {@link eu.hgross.blaubot.admin.MetricsAdminMessage}s and can be
+ * aggregated to kingdom-wide values via {@link #aggregate(String, Collection)}.
+ *
+ * The binary form (see {@link #toBytes()}) is:
+ * 		version (byte) | uniqueDeviceId | timestamp (long) |
+ * 		counter count (int) | [name | value (long)]* | gauge count (int) | [name | value (long)]* |
+ * 		histogram count (int) | [name | count (long) | sum (long) | min (long) | max (long) | bucket count (int) | [bucket index (short) | bucket count (long)]*]*
+ * where the strings are encoded as length (short) followed by the string bytes.
+ */
+public class MetricsSnapshot {
+    private static final byte VERSION = 1;
+
+    private final String uniqueDeviceId;
+    private final long timestamp;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    /**
+     * @param uniqueDeviceId the device the values were taken from
+     * @param timestamp      the time the snapshot was taken (ms since epoch)
+     * @param counters       the counter values by name
+     * @param gauges         the gauge values by name
+     * @param histograms     the histogram snapshots by name
+     */
+    public MetricsSnapshot(String uniqueDeviceId, long timestamp, Map<String, Long> counters, Map<String, Long> gauges, Map<String, HistogramSnapshot> histograms) {
+        this.uniqueDeviceId = uniqueDeviceId;
+        this.timestamp = timestamp;
+        this.counters = Collections.unmodifiableMap(new TreeMap<>(counters));
+        this.gauges = Collections.unmodifiableMap(new TreeMap<>(gauges));
+        this.histograms = Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Sums up the counters and gauges and merges the histograms of the given snapshots.
+     *
+     * @param uniqueDeviceId the id to be used for the aggregated snapshot (usually the king's)
+     * @param snapshots      the snapshots to aggregate
+     * @return the aggregated snapshot with the timestamp of the latest snapshot
+     */
+    public static MetricsSnapshot aggregate(String uniqueDeviceId, Collection<MetricsSnapshot> snapshots) {
+        final Map<String, Long> counters = new TreeMap<>();
+        final Map<String, Long> gauges = new TreeMap<>();
+        final Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+        long timestamp = 0;
+        for (MetricsSnapshot snapshot : snapshots) {
+            timestamp = Math.max(timestamp, snapshot.timestamp);
+            addAll(counters, snapshot.counters);
+            addAll(gauges, snapshot.gauges);
+            for (Entry<String, HistogramSnapshot> entry : snapshot.histograms.entrySet()) {
+                final HistogramSnapshot existing = histograms.get(entry.getKey());
+                histograms.put(entry.getKey(), existing == null ? entry.getValue() : existing.merge(entry.getValue()));
+            }
+        }
+        return new MetricsSnapshot(uniqueDeviceId, timestamp, counters, gauges, histograms);
+    }
+
+    private static void addAll(Map<String, Long> target, Map<String, Long> values) {
+        for (Entry<String, Long> entry : values.entrySet()) {
+            final Long existing = target.get(entry.getKey());
+            target.put(entry.getKey(), existing == null ? entry.getValue() : existing + entry.getValue());
+        }
+    }
+
+    /**
+     * @return the binary form of this snapshot
+     */
+    public byte[] toBytes() {
+        int length = 1 + stringLength(uniqueDeviceId) + 8 + 12;
+        for (String name : counters.keySet()) {
+            length += stringLength(name) + 8;
+        }
+        for (String name : gauges.keySet()) {
+            length += stringLength(name) + 8;
+        }
+        for (Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+            length += stringLength(entry.getKey()) + 36 + entry.getValue().getBucketIndexes().length * 10;
+        }
+        final ByteBuffer bb = ByteBuffer.allocate(length);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.put(VERSION);
+        putString(bb, uniqueDeviceId);
+        bb.putLong(timestamp);
+        putValues(bb, counters);
+        putValues(bb, gauges);
+        bb.putInt(histograms.size());
+        for (Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+            final HistogramSnapshot histogram = entry.getValue();
+            putString(bb, entry.getKey());
+            bb.putLong(histogram.getCount());
+            bb.putLong(histogram.getSum());
+            bb.putLong(histogram.getMin());
+            bb.putLong(histogram.getMax());
+            final int[] indexes = histogram.getBucketIndexes();
+            final long[] bucketCounts = histogram.getBucketCounts();
+            bb.putInt(indexes.length);
+            for (int i = 0; i < indexes.length; i++) {
+                bb.putShort((short) indexes[i]);
+                bb.putLong(bucketCounts[i]);
+            }
+        }
+        return bb.array();
+    }
+
+    /**
+     * Reads a snapshot from its binary form.
+     *
+     * @param bb the buffer positioned at the start of the binary form
+     * @return the snapshot
+     * @throws IllegalArgumentException if the version is not supported
+     */
+    public static MetricsSnapshot fromBytes(ByteBuffer bb) {
+        final byte version = bb.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported metrics snapshot version: " + version);
+        }
+        final String uniqueDeviceId = getString(bb);
+        final long timestamp = bb.getLong();
+        final Map<String, Long> counters = getValues(bb);
+        final Map<String, Long> gauges = getValues(bb);
+        final Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+        final int histogramCount = bb.getInt();
+        for (int i = 0; i < histogramCount; i++) {
+            final String name = getString(bb);
+            final long count = bb.getLong();
+            final long sum = bb.getLong();
+            final long min = bb.getLong();
+            final long max = bb.getLong();
+            final int bucketCount = bb.getInt();
+            final int[] indexes = new int[bucketCount];
+            final long[] bucketCounts = new long[bucketCount];
+            for (int j = 0; j < bucketCount; j++) {
+                indexes[j] = bb.getShort() & 0xffff;
+                bucketCounts[j] = bb.getLong();
+            }
+            histograms.put(name, count == 0 ? HistogramSnapshot.EMPTY : new HistogramSnapshot(count, sum, min, max, indexes, bucketCounts));
+        }
+        return new MetricsSnapshot(uniqueDeviceId, timestamp, counters, gauges, histograms);
+    }
+
+    private static void putValues(ByteBuffer bb, Map<String, Long> values) {
+        bb.putInt(values.size());
+        for (Entry<String, Long> entry : values.entrySet()) {
+            putString(bb, entry.getKey());
+            bb.putLong(entry.getValue());
+        }
+    }
+
+    private static Map<String, Long> getValues(ByteBuffer bb) {
+        final Map<String, Long> values = new TreeMap<>();
+        final int count = bb.getInt();
+        for (int i = 0; i < count; i++) {
+            final String name = getString(bb);
+            values.put(name, bb.getLong());
+        }
+        return values;
+    }
+
+    private static int stringLength(String str) {
+        return 2 + str.getBytes(BlaubotConstants.STRING_CHARSET).length;
+    }
+
+    private static void putString(ByteBuffer bb, String str) {
+        final byte[] bytes = str.getBytes(BlaubotConstants.STRING_CHARSET);
+        bb.putShort((short) bytes.length);
+        bb.put(bytes);
+    }
+
+    private static String getString(ByteBuffer bb) {
+        final byte[] bytes = new byte[bb.getShort() & 0xffff];
+        bb.get(bytes);
+        return new String(bytes, BlaubotConstants.STRING_CHARSET);
+    }
+
+    /**
+     * @return the device the values were taken from
+     */
+    public String getUniqueDeviceId() {
+        return uniqueDeviceId;
+    }
+
+    /**
+     * @return the time the snapshot was taken (ms since epoch)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the counter values by name
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return the gauge values by name
+     */
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    /**
+     * @return the histogram snapshots by name
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @param name the counter's name
+     * @return the counter's value or 0, if unknown
+     */
+    public long getCounter(String name) {
+        final Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @param name the gauge's name
+     * @return the gauge's value or 0, if unknown
+     */
+    public long getGauge(String name) {
+        final Long value = gauges.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @param name the histogram's name
+     * @return the histogram's snapshot or an empty snapshot, if unknown
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        final HistogramSnapshot histogram = histograms.get(name);
+        return histogram == null ? HistogramSnapshot.EMPTY : histogram;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("MetricsSnapshot{");
+        sb.append("uniqueDeviceId='").append(uniqueDeviceId).append('\'');
+        sb.append(", timestamp=").append(timestamp);
+        sb.append(", counters=").append(counters);
+        sb.append(", gauges=").append(gauges);
+        sb.append(", histograms=").append(histograms);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        MetricsSnapshot that = (MetricsSnapshot) o;
+
+        if (timestamp != that.timestamp) return false;
+        if (!uniqueDeviceId.equals(that.uniqueDeviceId)) return false;
+        if (!counters.equals(that.counters)) return false;
+        if (!gauges.equals(that.gauges)) return false;
+        return histograms.equals(that.histograms);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = uniqueDeviceId.hashCode();
+        result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+        result = 31 * result + counters.hashCode();
+        result = 31 * result + gauges.hashCode();
+        result = 31 * result + histograms.hashCode();
+        return result;
+    }
+}
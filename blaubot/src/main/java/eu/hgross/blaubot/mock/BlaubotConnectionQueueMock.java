@@ -7,7 +7,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 import java.util.UUID;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import eu.hgross.blaubot.core.AbstractBlaubotConnection;
 import eu.hgross.blaubot.core.IBlaubotConnection;
@@ -15,7 +14,7 @@ import eu.hgross.blaubot.core.IBlaubotDevice;
 
 /**
  * 
- * Mock object utilizing an input and an output queue to emulate connection operations. To
+ * Mock object utilizing an input and an output byte queue to emulate connection operations. To
  * emulate data sent from a client (this connection is the client connection) use the
  * {@link #writeMockDataToInputStream(byte[])} method. This data can then be retrieved via
  * the read*() methods like {@link #readFully(byte[])}.
@@ -23,6 +22,9 @@ import eu.hgross.blaubot.core.IBlaubotDevice;
  * If you want to read the data written to this connection via its write*() methods like
  * {@link #write(byte[])}, use the {@link #getInputStreamForWrittenConnectionData()}
  * {@link InputStream} to do so.
+ *
+ * The queues are {@link BlockingByteRingBuffer}s, so reads and writes of byte ranges are
+ * handled in bulk and no objects are created per byte.
  * 
  * If you need a pair of connections where one connection writes to the other connections
  * input stream, use {@link BlaubotConnectionQueueMock#getOtherEndpointConnection(eu.hgross.blaubot.core.IBlaubotDevice)}.
@@ -32,8 +34,8 @@ import eu.hgross.blaubot.core.IBlaubotDevice;
  */
 public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 
-	protected LinkedBlockingQueue<Byte> inputQueue;
-	protected LinkedBlockingQueue<Byte> outputQueue;
+	protected BlockingByteRingBuffer inputQueue;
+	protected BlockingByteRingBuffer outputQueue;
 	private DataInputStream dataInputStream;
 	private DataOutputStream dataOutputStream;
 	protected volatile boolean connected = true;
@@ -46,8 +48,8 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 	 */
 	public BlaubotConnectionQueueMock(IBlaubotDevice remoteDevice) {
 		this.device = remoteDevice;
-		this.inputQueue = new LinkedBlockingQueue<Byte>();
-		this.outputQueue = new LinkedBlockingQueue<Byte>();
+		this.inputQueue = new BlockingByteRingBuffer();
+		this.outputQueue = new BlockingByteRingBuffer();
 		setupDataStreams();
 	}
 
@@ -79,10 +81,23 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 	 * @param data
 	 *            the data to write to the input stream as byte array
 	 */
-	public synchronized void writeMockDataToInputStream(byte[] data) {
-		for (byte b : data) {
-			this.inputQueue.add(b);
-		}
+	public void writeMockDataToInputStream(byte[] data) {
+		this.inputQueue.write(data, 0, data.length);
+	}
+
+	/**
+	 * Write a slice of data to the stream that can be retrieved via the {@link IBlaubotConnection}s
+	 * read*() methods.
+	 *
+	 * @param data
+	 *            the array containing the data
+	 * @param offset
+	 *            the offset of the data in the array
+	 * @param length
+	 *            the number of bytes to write
+	 */
+	public void writeMockDataToInputStream(byte[] data, int offset, int length) {
+		this.inputQueue.write(data, offset, length);
 	}
 
 	/**
@@ -92,22 +107,7 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 	 * @return the input stream
 	 */
 	public InputStream getInputStreamForWrittenConnectionData() {
-		return new InputStream() {
-			@Override
-			public int read() throws IOException {
-				Byte b;
-				try {
-					b = outputQueue.take();
-					if (!connected) {
-						throw new IOException("Connection was closed");
-					}
-				} catch (InterruptedException e) {
-                    // EOF
-					return -1;
-				}
-				return b != null ? unsignedToBytes(b) : -1;
-			}
-		};
+		return new QueueInputStream(false);
 	}
 
 	/**
@@ -120,36 +120,77 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 		return b & 0xFF;
 	}
 
-	private InputStream inputStream = new InputStream() {
+	/**
+	 * Reads from the input or output queue and fails with an IOException, if the connection was closed.
+	 * The queue is resolved on each call because getOtherEndpointConnection() replaces the queues.
+	 */
+	private class QueueInputStream extends InputStream {
+		private final boolean readsInputQueue;
+
+		/**
+		 * @param readsInputQueue if true, reads from the inputQueue, otherwise from the outputQueue
+		 */
+		QueueInputStream(boolean readsInputQueue) {
+			this.readsInputQueue = readsInputQueue;
+		}
+
+		private BlockingByteRingBuffer queue() {
+			return readsInputQueue ? inputQueue : outputQueue;
+		}
+
 		@Override
 		public int read() throws IOException {
-			Byte b;
+			byte b;
 			try {
-				b = inputQueue.take();
+				b = queue().take();
 				if (!connected) {
 					throw new IOException("Connection was closed");
 				}
 			} catch (InterruptedException e) {
-                // EOF
+				// EOF
 				return -1;
 			}
-			return b != null ? unsignedToBytes(b) : -1;
+			return unsignedToBytes(b);
 		}
-	};
 
-	private OutputStream outputStream = new OutputStream() {
 		@Override
-		public void write(int b) throws IOException {
-			byte toWrite = (byte) (b & 0xFF);
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int read;
 			try {
+				read = queue().take(b, off, len);
 				if (!connected) {
 					throw new IOException("Connection was closed");
 				}
-				outputQueue.put(toWrite);
 			} catch (InterruptedException e) {
-				e.printStackTrace();
-				throw new IOException(e);
+				// EOF
+				return -1;
 			}
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return queue().available();
+		}
+	}
+
+	private InputStream inputStream = new QueueInputStream(true);
+
+	private OutputStream outputStream = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			if (!connected) {
+				throw new IOException("Connection was closed");
+			}
+			outputQueue.put((byte) (b & 0xFF));
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (!connected) {
+				throw new IOException("Connection was closed");
+			}
+			outputQueue.write(b, off, len);
 		}
 	};
 
@@ -164,12 +205,7 @@ public class BlaubotConnectionQueueMock extends AbstractBlaubotConnection {
 		}
 		// put a byte to the inputQueue to ensure the readFully operations will die with
 		// ioexceptions
-		try {
-			inputQueue.put((byte) 0);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-            throw new RuntimeException(e);
-		}
+		inputQueue.put((byte) 0);
 		this.notifyDisconnected();
 	}
 
@@ -0,0 +1,246 @@
+package eu.hgross.blaubot.mock;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An unbounded, growable FIFO of bytes backed by a ring-organized byte array.
+ *
+ * Writers never block; the backing array is doubled if the written bytes don't fit.
+ * Readers block until at least one byte is available. All operations work on byte ranges,
+ * so a read or write of n bytes costs one lock acquisition instead of n queue operations
+ * and no per-byte objects are allocated.
+ *
+ * Replaces the former LinkedBlockingQueue&lt;Byte&gt; based queues of the
+ * {@link BlaubotConnectionQueueMock}.
+ */
+public class BlockingByteRingBuffer {
+    /**
+     * Initial capacity of the backing array in bytes.
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 4096;
+    /**
+     * Max capacity of the backing array (some VMs reserve header words in arrays).
+     */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private final int initialCapacity;
+    private final Object lock = new Object();
+    private byte[] buffer;
+    /**
+     * Index of the next byte to read
+     */
+    private int head = 0;
+    /**
+     * Number of readable bytes
+     */
+    private int size = 0;
+    /**
+     * If true, no more bytes will be written and readers get the end of stream once the
+     * remaining bytes were read.
+     */
+    private boolean closed = false;
+
+    public BlockingByteRingBuffer() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the initial capacity of the backing array
+     */
+    public BlockingByteRingBuffer(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity has to be positive");
+        }
+        this.initialCapacity = initialCapacity;
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Appends a single byte.
+     *
+     * @param b the byte
+     */
+    public void put(byte b) {
+        synchronized (lock) {
+            ensureCapacity((long) size + 1);
+            buffer[(head + size) % buffer.length] = b;
+            size += 1;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Appends the given byte range.
+     *
+     * @param bytes  the source array
+     * @param offset the offset in bytes
+     * @param length number of bytes to append
+     */
+    public void write(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return;
+        }
+        synchronized (lock) {
+            ensureCapacity((long) size + length);
+            final int tail = (head + size) % buffer.length;
+            final int firstPart = Math.min(length, buffer.length - tail);
+            System.arraycopy(bytes, offset, buffer, tail, firstPart);
+            if (firstPart < length) {
+                System.arraycopy(bytes, offset + firstPart, buffer, 0, length - firstPart);
+            }
+            size += length;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Appends all remaining bytes of the given buffer and advances its position.
+     *
+     * @param source the buffer to read from
+     */
+    public void write(ByteBuffer source) {
+        final int length = source.remaining();
+        if (length == 0) {
+            return;
+        }
+        if (source.hasArray()) {
+            write(source.array(), source.arrayOffset() + source.position(), length);
+            source.position(source.limit());
+            return;
+        }
+        synchronized (lock) {
+            ensureCapacity((long) size + length);
+            final int tail = (head + size) % buffer.length;
+            final int firstPart = Math.min(length, buffer.length - tail);
+            source.get(buffer, tail, firstPart);
+            if (firstPart < length) {
+                source.get(buffer, 0, length - firstPart);
+            }
+            size += length;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Closes the buffer like the end of a stream: the bytes already written can still be read,
+     * afterwards the reads signal the end of the stream. Blocked readers are woken up.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes the next byte, blocking until one is available.
+     *
+     * @return the byte
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the buffer was closed and all bytes were read
+     */
+    public byte take() throws InterruptedException {
+        synchronized (lock) {
+            while (size == 0 && !closed) {
+                lock.wait();
+            }
+            if (size == 0) {
+                throw new IllegalStateException("The buffer was closed");
+            }
+            final byte b = buffer[head];
+            consumed(1);
+            return b;
+        }
+    }
+
+    /**
+     * Reads up to length bytes into the given array, blocking until at least one byte is available.
+     *
+     * @param bytes  the destination array
+     * @param offset the offset in the destination array
+     * @param length max number of bytes to read
+     * @return the number of bytes read (at least 1, if length is greater than 0) or -1, if the buffer
+     * was closed and all bytes were read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int take(byte[] bytes, int offset, int length) throws InterruptedException {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        synchronized (lock) {
+            while (size == 0 && !closed) {
+                lock.wait();
+            }
+            if (size == 0) {
+                return -1;
+            }
+            final int toRead = Math.min(length, size);
+            final int firstPart = Math.min(toRead, buffer.length - head);
+            System.arraycopy(buffer, head, bytes, offset, firstPart);
+            if (firstPart < toRead) {
+                System.arraycopy(buffer, 0, bytes, offset + firstPart, toRead - firstPart);
+            }
+            consumed(toRead);
+            return toRead;
+        }
+    }
+
+    /**
+     * @return the number of currently readable bytes
+     */
+    public int available() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Advances the head after a read and shrinks the backing array back to the initial capacity
+     * once it was grown and is empty again. Must be called holding the lock.
+     *
+     * @param count number of bytes read
+     */
+    private void consumed(int count) {
+        size -= count;
+        head = (head + count) % buffer.length;
+        if (size == 0) {
+            head = 0;
+            if (buffer.length > initialCapacity * 4) {
+                buffer = new byte[initialCapacity];
+            }
+        }
+    }
+
+    /**
+     * Grows the backing array, if needed. Must be called holding the lock.
+     *
+     * @param required the number of bytes that have to fit
+     * @throws IllegalStateException if the required capacity exceeds the max array size
+     */
+    private void ensureCapacity(long required) {
+        if (required <= buffer.length) {
+            return;
+        }
+        if (required > MAX_CAPACITY) {
+            throw new IllegalStateException("The buffer can not hold " + required + " bytes");
+        }
+        long newCapacity = buffer.length;
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        final byte[] newBuffer = new byte[(int) Math.min(newCapacity, MAX_CAPACITY)];
+        final int firstPart = Math.min(size, buffer.length - head);
+        System.arraycopy(buffer, head, newBuffer, 0, firstPart);
+        if (firstPart < size) {
+            System.arraycopy(buffer, 0, newBuffer, firstPart, size - firstPart);
+        }
+        buffer = newBuffer;
+        head = 0;
+    }
+}
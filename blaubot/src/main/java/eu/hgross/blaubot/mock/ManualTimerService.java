@@ -0,0 +1,129 @@
+package eu.hgross.blaubot.mock;
+
+import java.util.PriorityQueue;
+
+import eu.hgross.blaubot.util.ITimeout;
+import eu.hgross.blaubot.util.ITimerService;
+
+/**
+ * {@link ITimerService} running on a virtual clock for deterministic tests.
+ * Time only passes when {@link #advance(long)} is called, which executes all due tasks in the order
+ * of their deadlines on the calling thread.
+ */
+public class ManualTimerService implements ITimerService {
+    private final PriorityQueue<ManualTimeout> timeouts = new PriorityQueue<>();
+    private long currentTime = 0;
+    private long sequence = 0;
+
+    @Override
+    public synchronized ITimeout schedule(Runnable task, long delay) {
+        return add(task, delay, 0);
+    }
+
+    @Override
+    public synchronized ITimeout scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period has to be positive: " + period);
+        }
+        return add(task, initialDelay, period);
+    }
+
+    private ITimeout add(Runnable task, long delay, long period) {
+        final ManualTimeout timeout = new ManualTimeout(task, currentTime + Math.max(0, delay), period, sequence++);
+        timeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advances the virtual clock and executes all tasks that are due until then.
+     * Tasks scheduled by the executed tasks are executed as well, if they are due.
+     *
+     * @param millis the amount of ms to advance
+     */
+    public synchronized void advance(long millis) {
+        final long targetTime = currentTime + millis;
+        while (!timeouts.isEmpty() && timeouts.peek().deadline <= targetTime) {
+            final ManualTimeout timeout = timeouts.poll();
+            if (timeout.cancelled) {
+                continue;
+            }
+            currentTime = timeout.deadline;
+            if (timeout.period == 0) {
+                timeout.expired = true;
+            }
+            timeout.task.run();
+            if (timeout.period > 0 && !timeout.cancelled) {
+                timeout.deadline += timeout.period;
+                timeout.sequence = sequence++;
+                timeouts.add(timeout);
+            }
+        }
+        currentTime = targetTime;
+    }
+
+    /**
+     * @return the virtual time in ms since the creation of this service
+     */
+    public synchronized long getCurrentTime() {
+        return currentTime;
+    }
+
+    /**
+     * @return the number of pending (not cancelled) tasks
+     */
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (ManualTimeout timeout : timeouts) {
+            if (!timeout.cancelled) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        for (ManualTimeout timeout : timeouts) {
+            timeout.cancelled = true;
+        }
+        timeouts.clear();
+    }
+
+    private static class ManualTimeout implements ITimeout, Comparable<ManualTimeout> {
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private long sequence;
+        private volatile boolean cancelled = false;
+        private volatile boolean expired = false;
+
+        ManualTimeout(Runnable task, long deadline, long period, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public synchronized boolean cancel() {
+            if (cancelled || expired) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(ManualTimeout other) {
+            if (deadline != other.deadline) {
+                return deadline < other.deadline ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import eu.hgross.blaubot.core.BlaubotUUIDSet;
+import eu.hgross.blaubot.metrics.HistogramSnapshot;
+import eu.hgross.blaubot.util.HashedWheelTimerService;
+import eu.hgross.blaubot.util.ITimerService;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Runs many {@link eu.hgross.blaubot.core.Blaubot} instances in one JVM, connected through a
+ * {@link SimulatedNetwork}, and measures how fast they converge to kingdoms.
+ *
+ * The network is converged, when
+ * - election: each partition of the network has exactly one king, which is followed by all other nodes of
+ *   the partition (a node without reachable peers may also stay free) and
+ * - census: additionally each node's census (learned from its lifecycle events) contains exactly the
+ *   members of its kingdom.
+ * The convergence times are measured from {@link #start()} and from each partition change applied by
+ * {@link #schedulePartitions(long, Collection)} or {@link #scheduleHeal(long)}.
+ *
+ * All nodes share one timer service, so the number of threads grows with the connections, not with
+ * the timers.
+ */
+public class KingdomSimulator implements Closeable {
+    private static final String LOG_TAG = "KingdomSimulator";
+    private static final UUID APP_UUID = UUID.fromString("6a9a3ef6-3a2f-4c0e-93e3-1f6e5ad2b1c7");
+    private static final long CONVERGENCE_POLL_INTERVAL = 50;
+
+    private final SimulatedNetwork network;
+    private final ITimerService timerService;
+    private final List<SimulatedNode> nodes;
+    private final Object measurementLock = new Object();
+    private long epoch;
+    private long electionConvergenceTime = -1;
+    private long censusConvergenceTime = -1;
+    private LoadGenerator loadGenerator;
+
+    /**
+     * @param nodeCount the number of blaubot instances to create
+     * @param network   the network connecting the instances
+     */
+    public KingdomSimulator(int nodeCount, SimulatedNetwork network) {
+        this.network = network;
+        this.timerService = new HashedWheelTimerService("kingdom-simulator-timer");
+        final BlaubotUUIDSet uuidSet = new BlaubotUUIDSet(APP_UUID);
+        final List<SimulatedNode> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.add(new SimulatedNode(String.format(Locale.US, "node-%04d", i), uuidSet, network, timerService));
+        }
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @return the simulated nodes
+     */
+    public List<SimulatedNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the network connecting the nodes
+     */
+    public SimulatedNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Starts all blaubot instances and the convergence measurement.
+     */
+    public void start() {
+        resetMeasurement();
+        for (SimulatedNode node : nodes) {
+            node.getBlaubot().startBlaubot();
+        }
+    }
+
+    /**
+     * Partitions the network after the given delay and restarts the convergence measurement.
+     *
+     * @param delay      the delay in ms
+     * @param partitions the unique device ids of each partition (see {@link SimulatedNetwork#setPartitions(Collection)})
+     */
+    public void schedulePartitions(long delay, final Collection<? extends Collection<String>> partitions) {
+        timerService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Applying partitions " + partitions);
+                }
+                resetMeasurement();
+                network.setPartitions(partitions);
+            }
+        }, delay);
+    }
+
+    /**
+     * Heals all partitions after the given delay and restarts the convergence measurement.
+     *
+     * @param delay the delay in ms
+     */
+    public void scheduleHeal(long delay) {
+        timerService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Healing partitions");
+                }
+                resetMeasurement();
+                network.healPartitions();
+            }
+        }, delay);
+    }
+
+    /**
+     * Starts publishing on the given channels from all nodes.
+     *
+     * @param channelIds  the channels to publish on
+     * @param interval    the publish interval per node and channel in ms
+     * @param payloadSize the payload size in bytes
+     * @return the started load generator
+     */
+    public synchronized LoadGenerator startLoad(short[] channelIds, long interval, int payloadSize) {
+        if (loadGenerator != null) {
+            throw new IllegalStateException("The load generator was already started.");
+        }
+        loadGenerator = new LoadGenerator(nodes, channelIds, interval, payloadSize);
+        loadGenerator.start(timerService);
+        return loadGenerator;
+    }
+
+    /**
+     * Blocks until the census converged (see class doc) or the timeout elapsed.
+     *
+     * @param timeout the timeout in ms
+     * @return true, iff the census converged
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitConvergence(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            if (checkConvergence()) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(CONVERGENCE_POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * @return the report of the current measurement and the load generated so far
+     */
+    public SimulationReport createReport() {
+        final LoadGenerator load;
+        synchronized (this) {
+            load = loadGenerator;
+        }
+        final int kingdomCount = getKings().size();
+        synchronized (measurementLock) {
+            return new SimulationReport(nodes.size(), network.getSeed(), electionConvergenceTime, censusConvergenceTime, kingdomCount,
+                    load == null ? 0 : load.getPublishedCount(),
+                    load == null ? 0 : load.getRejectedCount(),
+                    load == null ? HistogramSnapshot.EMPTY : load.getLatencies());
+        }
+    }
+
+    /**
+     * @return a human readable description of each node's state
+     */
+    public String createCensusString() {
+        final StringBuffer sb = new StringBuffer();
+        for (SimulatedNode node : nodes) {
+            sb.append(node).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (loadGenerator != null) {
+                loadGenerator.stop();
+            }
+        }
+        for (SimulatedNode node : nodes) {
+            node.getBlaubot().close();
+        }
+        timerService.shutdown();
+        network.shutdown();
+    }
+
+    private void resetMeasurement() {
+        synchronized (measurementLock) {
+            epoch = System.currentTimeMillis();
+            electionConvergenceTime = -1;
+            censusConvergenceTime = -1;
+        }
+    }
+
+    /**
+     * Checks the convergence and records the convergence times, if not yet recorded since the last reset.
+     *
+     * @return true, iff the census converged
+     */
+    private boolean checkConvergence() {
+        final long measurementEpoch;
+        synchronized (measurementLock) {
+            measurementEpoch = epoch;
+        }
+        final Map<String, String> kings = new HashMap<>();
+        for (SimulatedNode node : nodes) {
+            kings.put(node.getUniqueDeviceId(), node.getKingUniqueId());
+        }
+        final boolean electionConverged = isElectionConverged(kings);
+        final boolean censusConverged = electionConverged && isCensusConverged(kings);
+        synchronized (measurementLock) {
+            if (epoch != measurementEpoch) {
+                // the partitions changed while checking
+                return false;
+            }
+            final long elapsed = System.currentTimeMillis() - epoch;
+            if (electionConverged && electionConvergenceTime < 0) {
+                electionConvergenceTime = elapsed;
+            }
+            if (censusConverged && censusConvergenceTime < 0) {
+                censusConvergenceTime = elapsed;
+            }
+        }
+        return censusConverged;
+    }
+
+    private boolean isElectionConverged(Map<String, String> kings) {
+        for (SimulatedNode node : nodes) {
+            final String id = node.getUniqueDeviceId();
+            final String king = kings.get(id);
+            if (king == null) {
+                // only allowed, if there is nobody to form a kingdom with
+                for (SimulatedNode other : nodes) {
+                    if (other != node && network.isReachable(id, other.getUniqueDeviceId())) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            if (!king.equals(kings.get(king))) {
+                return false;
+            }
+            for (SimulatedNode other : nodes) {
+                final String otherId = other.getUniqueDeviceId();
+                if (network.isReachable(id, otherId) != king.equals(kings.get(otherId))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isCensusConverged(Map<String, String> kings) {
+        final Map<String, Set<String>> kingdoms = new HashMap<>();
+        for (Map.Entry<String, String> entry : kings.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            Set<String> members = kingdoms.get(entry.getValue());
+            if (members == null) {
+                members = new HashSet<>();
+                kingdoms.put(entry.getValue(), members);
+            }
+            members.add(entry.getKey());
+        }
+        for (SimulatedNode node : nodes) {
+            final String king = kings.get(node.getUniqueDeviceId());
+            // whether the own device is part of the census depends on the order of the lifecycle events
+            final Set<String> census = node.getCensus();
+            census.remove(node.getUniqueDeviceId());
+            final Set<String> expected = king == null ? new HashSet<String>() : new HashSet<>(kingdoms.get(king));
+            expected.remove(node.getUniqueDeviceId());
+            if (!census.equals(expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<String> getKings() {
+        final Set<String> kings = new HashSet<>();
+        for (SimulatedNode node : nodes) {
+            if (node.getUniqueDeviceId().equals(node.getKingUniqueId())) {
+                kings.add(node.getUniqueDeviceId());
+            }
+        }
+        return kings;
+    }
+}
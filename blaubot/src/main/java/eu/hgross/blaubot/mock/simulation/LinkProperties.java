@@ -0,0 +1,120 @@
+package eu.hgross.blaubot.mock.simulation;
+
+/**
+ * The properties of a simulated link between two devices of a {@link SimulatedNetwork}.
+ * Links are symmetric: the same properties apply to both directions.
+ *
+ * Loss is modelled like on a stream connection: a lost segment is not missing but delayed by a
+ * retransmission (see {@link SimulatedNetwork}), whereas a lost connection attempt or beacon probe
+ * fails.
+ */
+public class LinkProperties {
+    private final long latency;
+    private final long jitter;
+    private final long bandwidth;
+    private final double loss;
+
+    /**
+     * A link without latency, bandwidth limit and loss.
+     */
+    public LinkProperties() {
+        this(0, 0, 0, 0);
+    }
+
+    /**
+     * @param latency   the one way latency in ms
+     * @param jitter    the maximum additional random latency in ms
+     * @param bandwidth the bandwidth in bytes per second or 0 for an unlimited bandwidth
+     * @param loss      the probability in [0, 1] that a write, a connection attempt or a beacon probe is lost
+     */
+    public LinkProperties(long latency, long jitter, long bandwidth, double loss) {
+        if (latency < 0 || jitter < 0 || bandwidth < 0) {
+            throw new IllegalArgumentException("latency, jitter and bandwidth must not be negative");
+        }
+        if (loss < 0 || loss > 1) {
+            throw new IllegalArgumentException("loss has to be in [0, 1]");
+        }
+        this.latency = latency;
+        this.jitter = jitter;
+        this.bandwidth = bandwidth;
+        this.loss = loss;
+    }
+
+    /**
+     * @return the one way latency in ms
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the maximum additional random latency in ms
+     */
+    public long getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return the bandwidth in bytes per second or 0, if unlimited
+     */
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * @return the probability that a write, a connection attempt or a beacon probe is lost
+     */
+    public double getLoss() {
+        return loss;
+    }
+
+    /**
+     * @param latency the one way latency in ms
+     * @return a copy of these properties with the given latency
+     */
+    public LinkProperties withLatency(long latency) {
+        return new LinkProperties(latency, jitter, bandwidth, loss);
+    }
+
+    /**
+     * @param jitter the maximum additional random latency in ms
+     * @return a copy of these properties with the given jitter
+     */
+    public LinkProperties withJitter(long jitter) {
+        return new LinkProperties(latency, jitter, bandwidth, loss);
+    }
+
+    /**
+     * @param bandwidth the bandwidth in bytes per second or 0 for an unlimited bandwidth
+     * @return a copy of these properties with the given bandwidth
+     */
+    public LinkProperties withBandwidth(long bandwidth) {
+        return new LinkProperties(latency, jitter, bandwidth, loss);
+    }
+
+    /**
+     * @param loss the loss probability in [0, 1]
+     * @return a copy of these properties with the given loss
+     */
+    public LinkProperties withLoss(double loss) {
+        return new LinkProperties(latency, jitter, bandwidth, loss);
+    }
+
+    /**
+     * @return true, if writes have to be delayed
+     */
+    boolean isDelaying() {
+        return latency > 0 || jitter > 0 || bandwidth > 0 || loss > 0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("LinkProperties{");
+        sb.append("latency=").append(latency);
+        sb.append(", jitter=").append(jitter);
+        sb.append(", bandwidth=").append(bandwidth);
+        sb.append(", loss=").append(loss);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.hgross.blaubot.core.BlaubotConstants;
+import eu.hgross.blaubot.messaging.BlaubotMessage;
+import eu.hgross.blaubot.messaging.IBlaubotChannel;
+import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
+import eu.hgross.blaubot.metrics.HistogramSnapshot;
+import eu.hgross.blaubot.metrics.LatencyHistogram;
+import eu.hgross.blaubot.util.ITimeout;
+import eu.hgross.blaubot.util.ITimerService;
+
+/**
+ * Publishes messages on a set of channels from each node of a {@link KingdomSimulator} and records the
+ * end to end latency of every received message.
+ * Each message carries its send time (System.nanoTime(), which is shared by all nodes in the JVM), so
+ * the latencies are measured in microseconds without any clock synchronization.
+ *
+ * Each node publishes one message per interval on each channel; messages are not echoed to the sender.
+ */
+public class LoadGenerator {
+    private static final int HEADER_SIZE = 8;
+
+    private final List<SimulatedNode> nodes;
+    private final short[] channelIds;
+    private final long interval;
+    private final int payloadSize;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final List<ITimeout> timeouts = new ArrayList<>();
+
+    /**
+     * @param nodes       the publishing and subscribing nodes
+     * @param channelIds  the channels to publish on
+     * @param interval    the publish interval per node and channel in ms
+     * @param payloadSize the payload size in bytes (at least 8)
+     */
+    public LoadGenerator(List<SimulatedNode> nodes, short[] channelIds, long interval, int payloadSize) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The interval has to be positive: " + interval);
+        }
+        this.nodes = nodes;
+        this.channelIds = channelIds.clone();
+        this.interval = interval;
+        this.payloadSize = Math.max(HEADER_SIZE, payloadSize);
+    }
+
+    /**
+     * Subscribes all nodes to the channels and starts publishing using the given timer service.
+     * The first publishes are spread over one interval.
+     *
+     * @param timerService the timer service to schedule the publishes with
+     */
+    public synchronized void start(ITimerService timerService) {
+        if (!timeouts.isEmpty()) {
+            return;
+        }
+        final IBlaubotMessageListener listener = new IBlaubotMessageListener() {
+            @Override
+            public void onMessage(BlaubotMessage message) {
+                final ByteBuffer bb = ByteBuffer.wrap(message.getPayload());
+                bb.order(BlaubotConstants.BYTE_ORDER);
+                latencies.record((System.nanoTime() - bb.getLong()) / 1000);
+            }
+        };
+        int i = 0;
+        for (SimulatedNode node : nodes) {
+            final List<IBlaubotChannel> channels = new ArrayList<>();
+            for (short channelId : channelIds) {
+                final IBlaubotChannel channel = node.getBlaubot().createChannel(channelId);
+                channel.subscribe(listener);
+                channels.add(channel);
+            }
+            final long initialDelay = interval * i++ / nodes.size();
+            timeouts.add(timerService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    for (IBlaubotChannel channel : channels) {
+                        publish(channel);
+                    }
+                }
+            }, initialDelay, interval));
+        }
+    }
+
+    /**
+     * Stops publishing.
+     */
+    public synchronized void stop() {
+        for (ITimeout timeout : timeouts) {
+            timeout.cancel();
+        }
+        timeouts.clear();
+    }
+
+    private void publish(IBlaubotChannel channel) {
+        final ByteBuffer bb = ByteBuffer.allocate(payloadSize);
+        bb.order(BlaubotConstants.BYTE_ORDER);
+        bb.putLong(System.nanoTime());
+        if (channel.publish(bb.array(), true)) {
+            published.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the end to end latencies of the received messages in microseconds
+     */
+    public HistogramSnapshot getLatencies() {
+        return latencies.snapshot();
+    }
+
+    /**
+     * @return the number of messages accepted by the channels
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of messages rejected by the channels (full queue or congestion)
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
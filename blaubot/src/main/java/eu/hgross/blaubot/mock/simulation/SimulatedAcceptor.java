@@ -0,0 +1,116 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotListeningStateListener;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+
+/**
+ * Acceptor of a {@link SimulatedAdapter}. While listening, it is registered at the network under
+ * the own unique device id.
+ */
+public class SimulatedAcceptor implements IBlaubotConnectionAcceptor {
+    /**
+     * The acceptor type used in the connection meta data
+     */
+    public static final String ACCEPTOR_TYPE = "Simulated_1.0";
+
+    private final IBlaubotAdapter adapter;
+    private final IBlaubotDevice ownDevice;
+    private final SimulatedNetwork network;
+    private final Object startStopMonitor = new Object();
+    private volatile boolean started = false;
+    private volatile IBlaubotListeningStateListener listeningStateListener;
+    private volatile IBlaubotIncomingConnectionListener incomingConnectionListener;
+    private volatile IBlaubotBeaconStore beaconStore;
+
+    public SimulatedAcceptor(IBlaubotAdapter adapter, IBlaubotDevice ownDevice, SimulatedNetwork network) {
+        this.adapter = adapter;
+        this.ownDevice = ownDevice;
+        this.network = network;
+    }
+
+    /**
+     * Called by the network when a connector connected to this acceptor.
+     *
+     * @param connection    the acceptor side endpoint
+     * @param beaconMessage the connecting device's beacon message
+     * @return false, if this acceptor is not listening
+     */
+    boolean onIncomingConnection(SimulatedConnection connection, BeaconMessage beaconMessage) {
+        if (!started) {
+            return false;
+        }
+        // like the ethernet acceptor: store their state and most importantly their acceptor meta data
+        beaconStore.putDiscoveryEvent(beaconMessage, connection.getRemoteDevice());
+        final IBlaubotIncomingConnectionListener listener = incomingConnectionListener;
+        if (listener != null) {
+            listener.onConnectionEstablished(connection);
+        }
+        return true;
+    }
+
+    @Override
+    public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+        this.beaconStore = beaconStore;
+    }
+
+    @Override
+    public IBlaubotAdapter getAdapter() {
+        return adapter;
+    }
+
+    @Override
+    public void startListening() {
+        synchronized (startStopMonitor) {
+            if (started) {
+                return;
+            }
+            network.registerAcceptor(ownDevice.getUniqueDeviceID(), this);
+            started = true;
+        }
+        if (listeningStateListener != null) {
+            listeningStateListener.onListeningStarted(this);
+        }
+    }
+
+    @Override
+    public void stopListening() {
+        synchronized (startStopMonitor) {
+            if (!started) {
+                return;
+            }
+            network.unregisterAcceptor(ownDevice.getUniqueDeviceID(), this);
+            started = false;
+        }
+        if (listeningStateListener != null) {
+            listeningStateListener.onListeningStopped(this);
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public void setListeningStateListener(IBlaubotListeningStateListener stateListener) {
+        this.listeningStateListener = stateListener;
+    }
+
+    @Override
+    public void setAcceptorListener(IBlaubotIncomingConnectionListener acceptorListener) {
+        this.incomingConnectionListener = acceptorListener;
+    }
+
+    @Override
+    public ConnectionMetaDataDTO getConnectionMetaData() {
+        final ConnectionMetaDataDTO connectionMetaDataDTO = new ConnectionMetaDataDTO();
+        connectionMetaDataDTO.setAcceptorType(ACCEPTOR_TYPE);
+        return connectionMetaDataDTO;
+    }
+}
@@ -0,0 +1,67 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotAdapterConfig;
+import eu.hgross.blaubot.core.ConnectionStateMachineConfig;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.IBlaubotConnectionAcceptor;
+import eu.hgross.blaubot.core.connector.IBlaubotConnector;
+
+/**
+ * Adapter connecting blaubot instances through a {@link SimulatedNetwork}.
+ * The timeouts are configured like the ones of the ethernet adapter.
+ */
+public class SimulatedAdapter implements IBlaubotAdapter {
+    private static final int KING_TIMEOUT_WITHOUT_PEASANTS = 2500;
+    private static final int CROWNING_PREPARATION_TIME_FACTOR = 3;
+    private final SimulatedConnector connector;
+    private final SimulatedAcceptor acceptor;
+    private final ConnectionStateMachineConfig connectionStateMachineConfig;
+    private final BlaubotAdapterConfig adapterConfig;
+    private Blaubot blaubot;
+
+    /**
+     * @param ownDevice the own device
+     * @param network   the network to connect through
+     */
+    public SimulatedAdapter(IBlaubotDevice ownDevice, SimulatedNetwork network) {
+        this.connector = new SimulatedConnector(this, ownDevice, network);
+        this.acceptor = new SimulatedAcceptor(this, ownDevice, network);
+        this.adapterConfig = new BlaubotAdapterConfig();
+        this.connectionStateMachineConfig = new ConnectionStateMachineConfig();
+        this.connectionStateMachineConfig.setCrowningPreparationTimeout(CROWNING_PREPARATION_TIME_FACTOR * adapterConfig.getKeepAliveInterval());
+        this.connectionStateMachineConfig.setKingWithoutPeasantsTimeout(KING_TIMEOUT_WITHOUT_PEASANTS);
+        ConnectionStateMachineConfig.validateTimeouts(connectionStateMachineConfig, adapterConfig);
+    }
+
+    @Override
+    public IBlaubotConnector getConnector() {
+        return connector;
+    }
+
+    @Override
+    public IBlaubotConnectionAcceptor getConnectionAcceptor() {
+        return acceptor;
+    }
+
+    @Override
+    public void setBlaubot(Blaubot blaubotInstance) {
+        this.blaubot = blaubotInstance;
+    }
+
+    @Override
+    public Blaubot getBlaubot() {
+        return blaubot;
+    }
+
+    @Override
+    public ConnectionStateMachineConfig getConnectionStateMachineConfig() {
+        return connectionStateMachineConfig;
+    }
+
+    @Override
+    public BlaubotAdapterConfig getBlaubotAdapterConfig() {
+        return adapterConfig;
+    }
+}
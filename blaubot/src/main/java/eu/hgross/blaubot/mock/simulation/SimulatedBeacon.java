@@ -0,0 +1,199 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.util.List;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.IBlaubotListeningStateListener;
+import eu.hgross.blaubot.core.acceptor.discovery.ExchangeStatesTask;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeacon;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotDiscoveryEventListener;
+import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Beacon for the {@link SimulatedNetwork}. Works like the ethernet fixed device set beacon: a scanner
+ * thread iterates through all beacons reachable in the network (except the own and the connected devices)
+ * and exchanges states with them via the {@link ExchangeStatesTask}.
+ * Incoming beacon connections are handed to the registered {@link IBlaubotIncomingConnectionListener}.
+ */
+public class SimulatedBeacon implements IBlaubotBeacon {
+    private static final String LOG_TAG = "SimulatedBeacon";
+    private static final long BEACON_PROBE_INTERVAL = 200;
+    private static final long DISCOVERY_DISABLED_SLEEP = 300;
+
+    private final SimulatedNetwork network;
+    private final Object startStopMonitor = new Object();
+    private volatile IBlaubotState currentState;
+    private volatile IBlaubotDiscoveryEventListener discoveryEventListener;
+    private volatile IBlaubotIncomingConnectionListener incomingConnectionListener;
+    private volatile IBlaubotListeningStateListener listeningStateListener;
+    private volatile boolean discoveryActive = true;
+    private volatile BeaconScanner beaconScanner;
+    private IBlaubotBeaconStore beaconStore;
+    private Blaubot blaubot;
+    private IBlaubotDevice ownDevice;
+
+    /**
+     * @param network the network to probe
+     */
+    public SimulatedBeacon(SimulatedNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * Called by the network when another device probes this beacon.
+     *
+     * @param connection the probed side's endpoint
+     * @return false, if this beacon is not listening
+     */
+    boolean onIncomingConnection(SimulatedConnection connection) {
+        final IBlaubotIncomingConnectionListener listener = incomingConnectionListener;
+        if (!isStarted() || listener == null) {
+            return false;
+        }
+        listener.onConnectionEstablished(connection);
+        return true;
+    }
+
+    @Override
+    public IBlaubotAdapter getAdapter() {
+        return null;
+    }
+
+    @Override
+    public void startListening() {
+        synchronized (startStopMonitor) {
+            if (isStarted()) {
+                return;
+            }
+            beaconScanner = new BeaconScanner();
+            beaconScanner.setName("simulated-beacon-scanner-" + ownDevice.getUniqueDeviceID());
+            beaconScanner.setDaemon(true);
+            network.registerBeacon(ownDevice.getUniqueDeviceID(), this);
+            beaconScanner.start();
+            if (listeningStateListener != null) {
+                listeningStateListener.onListeningStarted(this);
+            }
+        }
+    }
+
+    @Override
+    public void stopListening() {
+        synchronized (startStopMonitor) {
+            if (!isStarted()) {
+                return;
+            }
+            network.unregisterBeacon(ownDevice.getUniqueDeviceID(), this);
+            // like the ethernet beacons we don't join the scanner, it finishes its current probe in the background
+            beaconScanner.interrupt();
+            beaconScanner = null;
+            if (listeningStateListener != null) {
+                listeningStateListener.onListeningStopped(this);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return beaconScanner != null;
+    }
+
+    @Override
+    public void setListeningStateListener(IBlaubotListeningStateListener stateListener) {
+        this.listeningStateListener = stateListener;
+    }
+
+    @Override
+    public void setAcceptorListener(IBlaubotIncomingConnectionListener acceptorListener) {
+        this.incomingConnectionListener = acceptorListener;
+    }
+
+    @Override
+    public ConnectionMetaDataDTO getConnectionMetaData() {
+        return null;
+    }
+
+    @Override
+    public void setBlaubot(Blaubot blaubot) {
+        this.blaubot = blaubot;
+        this.ownDevice = blaubot.getOwnDevice();
+    }
+
+    @Override
+    public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+        this.beaconStore = beaconStore;
+    }
+
+    @Override
+    public void setDiscoveryEventListener(IBlaubotDiscoveryEventListener discoveryEventListener) {
+        this.discoveryEventListener = discoveryEventListener;
+    }
+
+    @Override
+    public void onConnectionStateMachineStateChanged(IBlaubotState state) {
+        this.currentState = state;
+    }
+
+    @Override
+    public void setDiscoveryActivated(boolean active) {
+        this.discoveryActive = active;
+    }
+
+    /**
+     * Probes the reachable beacons one after another.
+     */
+    class BeaconScanner extends Thread {
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted() && beaconScanner == this) {
+                    if (!discoveryActive) {
+                        Thread.sleep(DISCOVERY_DISABLED_SLEEP);
+                        continue;
+                    }
+                    final List<String> reachableBeacons = network.getReachableBeacons(ownDevice.getUniqueDeviceID());
+                    if (reachableBeacons.isEmpty()) {
+                        Thread.sleep(BEACON_PROBE_INTERVAL);
+                        continue;
+                    }
+                    for (String uniqueDeviceId : reachableBeacons) {
+                        if (!discoveryActive || beaconScanner != this) {
+                            break;
+                        }
+                        final IBlaubotDevice device = new BlaubotDevice(uniqueDeviceId);
+                        final List<IBlaubotDevice> connectedDevices = blaubot.getConnectionManager().getConnectedDevices();
+                        if (!connectedDevices.contains(device)) {
+                            probe(device);
+                        }
+                        Thread.sleep(BEACON_PROBE_INTERVAL);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+            if (Log.logDebugMessages()) {
+                Log.d(LOG_TAG, "BeaconScanner finished.");
+            }
+        }
+
+        private void probe(IBlaubotDevice device) {
+            final SimulatedConnection connection = network.connectToBeacon(ownDevice, device);
+            if (connection == null) {
+                if (Log.logDebugMessages()) {
+                    Log.d(LOG_TAG, "Probing " + device + "'s beacon failed.");
+                }
+                return;
+            }
+            final List<ConnectionMetaDataDTO> ownAcceptorsMetaDataList = BlaubotAdapterHelper.getConnectionMetaDataList(BlaubotAdapterHelper.getConnectionAcceptors(blaubot.getAdapters()));
+            final ExchangeStatesTask exchangeStatesTask = new ExchangeStatesTask(ownDevice, connection, currentState, ownAcceptorsMetaDataList, beaconStore, discoveryEventListener);
+            exchangeStatesTask.run();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import eu.hgross.blaubot.core.AbstractBlaubotConnection;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.mock.BlockingByteRingBuffer;
+
+/**
+ * One endpoint of a connection of a {@link SimulatedNetwork}.
+ * Written bytes are handed to the network, which delivers them to the other endpoint according to
+ * the link's properties (in order, like a stream socket).
+ *
+ * A disconnect is delivered to the other endpoint after the bytes written before (like a FIN), so
+ * the other endpoint reads the remaining bytes and then gets the end of the stream, which
+ * disconnects it. Partitions break connections immediately on both ends.
+ */
+public class SimulatedConnection extends AbstractBlaubotConnection {
+    private final SimulatedNetwork network;
+    private final IBlaubotDevice ownDevice;
+    private final IBlaubotDevice remoteDevice;
+    private final BlockingByteRingBuffer inputBuffer = new BlockingByteRingBuffer();
+    private final Object disconnectMonitor = new Object();
+    private volatile boolean connected = true;
+    private volatile SimulatedConnection otherEndpoint;
+
+    /**
+     * @param network      the network transporting the bytes
+     * @param ownDevice    the device owning this endpoint
+     * @param remoteDevice the device at the other endpoint
+     */
+    SimulatedConnection(SimulatedNetwork network, IBlaubotDevice ownDevice, IBlaubotDevice remoteDevice) {
+        this.network = network;
+        this.ownDevice = ownDevice;
+        this.remoteDevice = remoteDevice;
+    }
+
+    /**
+     * Creates a connected pair of endpoints.
+     *
+     * @param network the network transporting the bytes
+     * @param device1 the device owning the first endpoint
+     * @param device2 the device owning the second endpoint
+     * @return the endpoint of device1 at index 0 and the endpoint of device2 at index 1
+     */
+    static SimulatedConnection[] createPair(SimulatedNetwork network, IBlaubotDevice device1, IBlaubotDevice device2) {
+        final SimulatedConnection endpoint1 = new SimulatedConnection(network, device1, device2);
+        final SimulatedConnection endpoint2 = new SimulatedConnection(network, device2, device1);
+        endpoint1.otherEndpoint = endpoint2;
+        endpoint2.otherEndpoint = endpoint1;
+        return new SimulatedConnection[]{endpoint1, endpoint2};
+    }
+
+    /**
+     * @return the device owning this endpoint
+     */
+    public IBlaubotDevice getOwnDevice() {
+        return ownDevice;
+    }
+
+    /**
+     * @return the other endpoint
+     */
+    SimulatedConnection getOtherEndpoint() {
+        return otherEndpoint;
+    }
+
+    /**
+     * Called by the network to deliver bytes written by the other endpoint.
+     *
+     * @param data the bytes
+     */
+    void deliver(byte[] data) {
+        if (connected) {
+            inputBuffer.write(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Called by the network when the other endpoint's disconnect arrived.
+     * The remaining bytes can still be read, then the reads fail.
+     */
+    void onOtherEndpointClosed() {
+        inputBuffer.close();
+    }
+
+    @Override
+    public void disconnect() {
+        synchronized (disconnectMonitor) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+        }
+        inputBuffer.close();
+        network.onDisconnected(this);
+        notifyDisconnected();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public IBlaubotDevice getRemoteDevice() {
+        return remoteDevice;
+    }
+
+    @Override
+    public void write(int b) throws SocketTimeoutException, IOException {
+        write(new byte[]{(byte) b});
+    }
+
+    @Override
+    public void write(byte[] bytes) throws SocketTimeoutException, IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        if (!connected) {
+            throw new IOException("not connected");
+        }
+        if (byteCount == 0) {
+            return;
+        }
+        network.transmit(this, Arrays.copyOfRange(bytes, byteOffset, byteOffset + byteCount));
+    }
+
+    @Override
+    public int read() throws SocketTimeoutException, IOException {
+        final byte[] b = new byte[1];
+        final int read = read(b, 0, 1);
+        return read == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws SocketTimeoutException, IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws SocketTimeoutException, IOException {
+        if (!connected) {
+            throw new IOException("not connected");
+        }
+        try {
+            return inputBuffer.take(buffer, byteOffset, byteCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading");
+        }
+    }
+
+    @Override
+    public void readFully(byte[] buffer) throws SocketTimeoutException, IOException {
+        readFully(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void readFully(byte[] buffer, int offset, int byteCount) throws SocketTimeoutException, IOException {
+        int read = 0;
+        while (read < byteCount) {
+            final int count = read(buffer, offset + read, byteCount - read);
+            if (count == -1) {
+                disconnect();
+                throw new EOFException("Connection was closed by " + remoteDevice);
+            }
+            read += count;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("SimulatedConnection{");
+        sb.append("ownDevice=").append(ownDevice);
+        sb.append(", remoteDevice=").append(remoteDevice);
+        sb.append(", connected=").append(connected);
+        sb.append('}');
+        return sb.toString();
+    }
+}
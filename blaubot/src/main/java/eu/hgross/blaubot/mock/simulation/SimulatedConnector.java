@@ -0,0 +1,85 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotConnection;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.ConnectionMetaDataDTO;
+import eu.hgross.blaubot.core.acceptor.IBlaubotIncomingConnectionListener;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeaconStore;
+import eu.hgross.blaubot.core.connector.IBlaubotConnector;
+import eu.hgross.blaubot.core.connector.IncompatibleBlaubotDeviceException;
+import eu.hgross.blaubot.core.statemachine.BlaubotAdapterHelper;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * Connector of a {@link SimulatedAdapter}.
+ * Like the real connectors, it only connects to devices whose acceptor meta data is known from the
+ * beacon store.
+ */
+public class SimulatedConnector implements IBlaubotConnector {
+    private static final String LOG_TAG = "SimulatedConnector";
+    private static final List<String> SUPPORTED_ACCEPTOR_TYPES = Arrays.asList(SimulatedAcceptor.ACCEPTOR_TYPE);
+    private final IBlaubotAdapter adapter;
+    private final IBlaubotDevice ownDevice;
+    private final SimulatedNetwork network;
+    private volatile IBlaubotIncomingConnectionListener incomingConnectionListener;
+    private volatile IBlaubotBeaconStore beaconStore;
+
+    public SimulatedConnector(IBlaubotAdapter adapter, IBlaubotDevice ownDevice, SimulatedNetwork network) {
+        this.adapter = adapter;
+        this.ownDevice = ownDevice;
+        this.network = network;
+    }
+
+    @Override
+    public IBlaubotAdapter getAdapter() {
+        return adapter;
+    }
+
+    @Override
+    public void setBeaconStore(IBlaubotBeaconStore beaconStore) {
+        this.beaconStore = beaconStore;
+    }
+
+    @Override
+    public void setIncomingConnectionListener(IBlaubotIncomingConnectionListener acceptorConnectorListener) {
+        this.incomingConnectionListener = acceptorConnectorListener;
+    }
+
+    @Override
+    public IBlaubotConnection connectToBlaubotDevice(IBlaubotDevice blaubotDevice) {
+        final String uniqueDeviceID = blaubotDevice.getUniqueDeviceID();
+        final List<ConnectionMetaDataDTO> lastKnownConnectionMetaData = beaconStore.getLastKnownConnectionMetaData(uniqueDeviceID);
+        if (lastKnownConnectionMetaData == null) {
+            if (Log.logErrorMessages()) {
+                Log.e(LOG_TAG, "Could not get connection meta data for unique device id " + uniqueDeviceID);
+            }
+            return null;
+        }
+        if (BlaubotAdapterHelper.filterBySupportedAcceptorTypes(lastKnownConnectionMetaData, getSupportedAcceptorTypes()).isEmpty()) {
+            throw new IncompatibleBlaubotDeviceException(blaubotDevice + " has no simulated acceptor.");
+        }
+
+        final BeaconMessage currentBeaconMessage = adapter.getBlaubot().getConnectionStateMachine().getBeaconService().getCurrentBeaconMessage();
+        final SimulatedConnection connection = network.connectToAcceptor(ownDevice, blaubotDevice, currentBeaconMessage);
+        if (connection == null) {
+            if (Log.logWarningMessages()) {
+                Log.w(LOG_TAG, "Failed to connect to " + blaubotDevice);
+            }
+            return null;
+        }
+        if (incomingConnectionListener != null) {
+            incomingConnectionListener.onConnectionEstablished(connection);
+        }
+        return connection;
+    }
+
+    @Override
+    public List<String> getSupportedAcceptorTypes() {
+        return SUPPORTED_ACCEPTOR_TYPES;
+    }
+}
@@ -0,0 +1,469 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.acceptor.discovery.BeaconMessage;
+import eu.hgross.blaubot.util.Log;
+
+/**
+ * An in-memory network connecting the {@link SimulatedAdapter}s and {@link SimulatedBeacon}s of
+ * many blaubot instances in one JVM.
+ *
+ * Every written byte range is delivered to the other endpoint in order after
+ * <pre>
+ *     queueing (the link and the sender's uplink are busy with earlier writes)
+ *   + transmission (size / bandwidth)
+ *   + latency (+ random jitter)
+ *   + a retransmission delay of max(RETRANSMISSION_TIMEOUT, 2 * latency), if the write was lost
+ * </pre>
+ * Connection attempts and beacon probes take a round trip and fail with the link's loss probability.
+ * Devices in different partitions (see {@link #setPartitions(Collection)}) can not reach each other;
+ * a new partitioning breaks the connections between the separated devices.
+ *
+ * All random decisions (jitter, loss, probe order) are drawn from generators derived from the seed,
+ * one per directed link, so a run with the same seed makes the same decisions for the same
+ * sequence of writes on a link. The blaubot instances themselves run on real threads and timers, so
+ * the interleaving of the links is not reproducible.
+ */
+public class SimulatedNetwork {
+    private static final String LOG_TAG = "SimulatedNetwork";
+    /**
+     * The minimum delay of a lost write (like the minimum retransmission timeout of TCP)
+     */
+    public static final long RETRANSMISSION_TIMEOUT = 200;
+
+    private final long seed;
+    private final Random random;
+    private final ScheduledExecutorService deliveryExecutor;
+    private volatile LinkProperties defaultLinkProperties = new LinkProperties();
+    private volatile long uplinkBandwidth = 0;
+    private final ConcurrentHashMap<String, LinkProperties> linkProperties = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Uplink> uplinks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SimulatedAcceptor> acceptors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SimulatedBeacon> beacons = new ConcurrentHashMap<>();
+    private final Set<SimulatedConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<SimulatedConnection, Boolean>());
+    /**
+     * Maps unique device ids to the index of their partition. Devices not contained share a partition.
+     */
+    private volatile Map<String, Integer> partitions = Collections.emptyMap();
+
+    /**
+     * @param seed the seed for all random decisions of the network
+     */
+    public SimulatedNetwork(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.deliveryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "simulated-network-delivery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the seed of the random decisions
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the properties of all links without explicitly set properties.
+     *
+     * @param defaultLinkProperties the properties
+     */
+    public void setDefaultLinkProperties(LinkProperties defaultLinkProperties) {
+        this.defaultLinkProperties = defaultLinkProperties;
+    }
+
+    /**
+     * @return the properties of all links without explicitly set properties
+     */
+    public LinkProperties getDefaultLinkProperties() {
+        return defaultLinkProperties;
+    }
+
+    /**
+     * Sets the properties of the link between two devices (both directions).
+     *
+     * @param uniqueDeviceId1 the first device
+     * @param uniqueDeviceId2 the second device
+     * @param properties      the properties or null, to use the default properties
+     */
+    public void setLinkProperties(String uniqueDeviceId1, String uniqueDeviceId2, LinkProperties properties) {
+        final String key = symmetricKey(uniqueDeviceId1, uniqueDeviceId2);
+        if (properties == null) {
+            linkProperties.remove(key);
+        } else {
+            linkProperties.put(key, properties);
+        }
+    }
+
+    /**
+     * @param uniqueDeviceId1 the first device
+     * @param uniqueDeviceId2 the second device
+     * @return the properties of the link between the two devices
+     */
+    public LinkProperties getLinkProperties(String uniqueDeviceId1, String uniqueDeviceId2) {
+        final LinkProperties properties = linkProperties.get(symmetricKey(uniqueDeviceId1, uniqueDeviceId2));
+        return properties == null ? defaultLinkProperties : properties;
+    }
+
+    /**
+     * Limits the bytes per second each device can send over all of its links together, which makes
+     * a king with many peasants a bottleneck like a real radio.
+     *
+     * @param uplinkBandwidth the bandwidth in bytes per second or 0 for an unlimited bandwidth
+     */
+    public void setUplinkBandwidth(long uplinkBandwidth) {
+        if (uplinkBandwidth < 0) {
+            throw new IllegalArgumentException("uplinkBandwidth must not be negative");
+        }
+        this.uplinkBandwidth = uplinkBandwidth;
+    }
+
+    /**
+     * Separates the devices into partitions. Devices of different partitions can not reach each
+     * other and their connections are broken. All devices not contained in any of the given
+     * partitions form another partition.
+     *
+     * @param partitions the sets of unique device ids forming a partition
+     */
+    public void setPartitions(Collection<? extends Collection<String>> partitions) {
+        final Map<String, Integer> newPartitions = new HashMap<>();
+        int index = 1;
+        for (Collection<String> partition : partitions) {
+            for (String uniqueDeviceId : partition) {
+                newPartitions.put(uniqueDeviceId, index);
+            }
+            index++;
+        }
+        this.partitions = newPartitions;
+        if (Log.logDebugMessages()) {
+            Log.d(LOG_TAG, "Partitioned the network: " + partitions);
+        }
+        for (SimulatedConnection connection : new ArrayList<>(connections)) {
+            if (!isReachable(connection.getOwnDevice().getUniqueDeviceID(), connection.getRemoteDevice().getUniqueDeviceID())) {
+                connection.disconnect();
+                connection.getOtherEndpoint().disconnect();
+            }
+        }
+    }
+
+    /**
+     * Removes all partitions.
+     */
+    public void healPartitions() {
+        setPartitions(Collections.<Collection<String>>emptyList());
+    }
+
+    /**
+     * @param uniqueDeviceId1 the first device
+     * @param uniqueDeviceId2 the second device
+     * @return true, if both devices are in the same partition
+     */
+    public boolean isReachable(String uniqueDeviceId1, String uniqueDeviceId2) {
+        final Map<String, Integer> partitions = this.partitions;
+        final Integer partition1 = partitions.get(uniqueDeviceId1);
+        final Integer partition2 = partitions.get(uniqueDeviceId2);
+        return partition1 == null ? partition2 == null : partition1.equals(partition2);
+    }
+
+    /**
+     * @return the number of open connection endpoints
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Shuts down the delivery of bytes. Pending bytes are discarded.
+     */
+    public void shutdown() {
+        deliveryExecutor.shutdownNow();
+    }
+
+    void registerAcceptor(String uniqueDeviceId, SimulatedAcceptor acceptor) {
+        acceptors.put(uniqueDeviceId, acceptor);
+    }
+
+    void unregisterAcceptor(String uniqueDeviceId, SimulatedAcceptor acceptor) {
+        acceptors.remove(uniqueDeviceId, acceptor);
+    }
+
+    void registerBeacon(String uniqueDeviceId, SimulatedBeacon beacon) {
+        beacons.put(uniqueDeviceId, beacon);
+    }
+
+    void unregisterBeacon(String uniqueDeviceId, SimulatedBeacon beacon) {
+        beacons.remove(uniqueDeviceId, beacon);
+    }
+
+    /**
+     * @param ownUniqueDeviceId the probing device
+     * @return the unique device ids of all listening beacons reachable from the given device in random order
+     */
+    List<String> getReachableBeacons(String ownUniqueDeviceId) {
+        final List<String> result = new ArrayList<>();
+        for (String uniqueDeviceId : beacons.keySet()) {
+            if (!uniqueDeviceId.equals(ownUniqueDeviceId) && isReachable(ownUniqueDeviceId, uniqueDeviceId)) {
+                result.add(uniqueDeviceId);
+            }
+        }
+        Collections.sort(result);
+        synchronized (random) {
+            Collections.shuffle(result, random);
+        }
+        return result;
+    }
+
+    /**
+     * Connects to the acceptor of a device. The acceptor gets the connecting device's beacon message
+     * like the real acceptors do.
+     *
+     * @param ownDevice      the connecting device
+     * @param remoteDevice   the device to connect to
+     * @param beaconMessage  the connecting device's current beacon message
+     * @return the connecting device's endpoint or null, if the acceptor is not reachable or the attempt was lost
+     */
+    SimulatedConnection connectToAcceptor(IBlaubotDevice ownDevice, IBlaubotDevice remoteDevice, BeaconMessage beaconMessage) {
+        final SimulatedConnection[] pair = establish(ownDevice, remoteDevice);
+        if (pair == null) {
+            return null;
+        }
+        final SimulatedAcceptor acceptor = acceptors.get(remoteDevice.getUniqueDeviceID());
+        if (acceptor == null || !acceptor.onIncomingConnection(pair[1], beaconMessage)) {
+            pair[0].disconnect();
+            pair[1].disconnect();
+            return null;
+        }
+        return pair[0];
+    }
+
+    /**
+     * Connects to the beacon of a device.
+     *
+     * @param ownDevice    the probing device
+     * @param remoteDevice the device to probe
+     * @return the probing device's endpoint or null, if the beacon is not reachable or the probe was lost
+     */
+    SimulatedConnection connectToBeacon(IBlaubotDevice ownDevice, IBlaubotDevice remoteDevice) {
+        final SimulatedConnection[] pair = establish(ownDevice, remoteDevice);
+        if (pair == null) {
+            return null;
+        }
+        final SimulatedBeacon beacon = beacons.get(remoteDevice.getUniqueDeviceID());
+        if (beacon == null || !beacon.onIncomingConnection(pair[1])) {
+            pair[0].disconnect();
+            pair[1].disconnect();
+            return null;
+        }
+        return pair[0];
+    }
+
+    /**
+     * Takes a round trip and creates a connection pair, if the devices can reach each other and the
+     * attempt was not lost.
+     */
+    private SimulatedConnection[] establish(IBlaubotDevice ownDevice, IBlaubotDevice remoteDevice) {
+        final String ownId = ownDevice.getUniqueDeviceID();
+        final String remoteId = remoteDevice.getUniqueDeviceID();
+        if (!isReachable(ownId, remoteId)) {
+            return null;
+        }
+        final LinkProperties properties = getLinkProperties(ownId, remoteId);
+        final Link link = getLink(ownId, remoteId);
+        final boolean lost = link.isLost(properties);
+        final long roundTrip = 2 * properties.getLatency();
+        if (roundTrip > 0) {
+            try {
+                Thread.sleep(roundTrip);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (lost || !isReachable(ownId, remoteId)) {
+            return null;
+        }
+        final SimulatedConnection[] pair = SimulatedConnection.createPair(this, ownDevice, remoteDevice);
+        connections.add(pair[0]);
+        connections.add(pair[1]);
+        return pair;
+    }
+
+    /**
+     * Sends bytes written to an endpoint to the other endpoint.
+     *
+     * @param source the endpoint the bytes were written to
+     * @param data   the bytes
+     */
+    void transmit(SimulatedConnection source, byte[] data) {
+        getLink(source.getOwnDevice().getUniqueDeviceID(), source.getRemoteDevice().getUniqueDeviceID()).send(source.getOtherEndpoint(), data);
+    }
+
+    /**
+     * Called when an endpoint was disconnected. The disconnect is sent to the other endpoint behind
+     * the bytes written before.
+     *
+     * @param endpoint the disconnected endpoint
+     */
+    void onDisconnected(SimulatedConnection endpoint) {
+        if (connections.remove(endpoint)) {
+            getLink(endpoint.getOwnDevice().getUniqueDeviceID(), endpoint.getRemoteDevice().getUniqueDeviceID()).send(endpoint.getOtherEndpoint(), null);
+        }
+    }
+
+    private Link getLink(String fromUniqueDeviceId, String toUniqueDeviceId) {
+        final String key = fromUniqueDeviceId + "->" + toUniqueDeviceId;
+        Link link = links.get(key);
+        if (link == null) {
+            final Link newLink = new Link(fromUniqueDeviceId, toUniqueDeviceId, new Random(seed ^ key.hashCode()));
+            link = links.putIfAbsent(key, newLink);
+            if (link == null) {
+                link = newLink;
+            }
+        }
+        return link;
+    }
+
+    private Uplink getUplink(String uniqueDeviceId) {
+        Uplink uplink = uplinks.get(uniqueDeviceId);
+        if (uplink == null) {
+            final Uplink newUplink = new Uplink();
+            uplink = uplinks.putIfAbsent(uniqueDeviceId, newUplink);
+            if (uplink == null) {
+                uplink = newUplink;
+            }
+        }
+        return uplink;
+    }
+
+    private static String symmetricKey(String uniqueDeviceId1, String uniqueDeviceId2) {
+        return uniqueDeviceId1.compareTo(uniqueDeviceId2) < 0 ? uniqueDeviceId1 + "<->" + uniqueDeviceId2 : uniqueDeviceId2 + "<->" + uniqueDeviceId1;
+    }
+
+    /**
+     * The time (System.nanoTime()) until which a device's uplink is busy.
+     */
+    private static class Uplink {
+        private long busyUntil;
+    }
+
+    /**
+     * Bytes to be delivered to an endpoint or a disconnect (data is null).
+     */
+    private static class Delivery {
+        private final SimulatedConnection target;
+        private final byte[] data;
+        private final long deliveryTime;
+
+        private Delivery(SimulatedConnection target, byte[] data, long deliveryTime) {
+            this.target = target;
+            this.data = data;
+            this.deliveryTime = deliveryTime;
+        }
+
+        private void deliver() {
+            if (data == null) {
+                target.onOtherEndpointClosed();
+            } else {
+                target.deliver(data);
+            }
+        }
+    }
+
+    /**
+     * One direction of the link between two devices, shared by all connections between them.
+     * The deliveries are queued in order of their (non-decreasing) delivery times.
+     */
+    private class Link implements Runnable {
+        private final String from;
+        private final String to;
+        private final Random random;
+        private final ArrayDeque<Delivery> pending = new ArrayDeque<>();
+        private long busyUntil;
+        private long lastDeliveryTime;
+
+        private Link(String from, String to, Random random) {
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        private synchronized boolean isLost(LinkProperties properties) {
+            return properties.getLoss() > 0 && random.nextDouble() < properties.getLoss();
+        }
+
+        private synchronized void send(SimulatedConnection target, byte[] data) {
+            final LinkProperties properties = getLinkProperties(from, to);
+            final long uplinkBandwidth = SimulatedNetwork.this.uplinkBandwidth;
+            if (!properties.isDelaying() && uplinkBandwidth == 0 && pending.isEmpty()) {
+                new Delivery(target, data, 0).deliver();
+                return;
+            }
+
+            final long now = System.nanoTime();
+            final int length = data == null ? 0 : data.length;
+            long start = Math.max(now, busyUntil);
+            if (uplinkBandwidth > 0) {
+                final Uplink uplink = getUplink(from);
+                synchronized (uplink) {
+                    start = Math.max(start, uplink.busyUntil);
+                    uplink.busyUntil = start + transmissionTime(length, uplinkBandwidth);
+                }
+            }
+            busyUntil = start + transmissionTime(length, properties.getBandwidth());
+            long deliveryTime = busyUntil + TimeUnit.MILLISECONDS.toNanos(properties.getLatency());
+            if (properties.getJitter() > 0) {
+                deliveryTime += (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(properties.getJitter()));
+            }
+            if (data != null && isLost(properties)) {
+                deliveryTime += TimeUnit.MILLISECONDS.toNanos(Math.max(RETRANSMISSION_TIMEOUT, 2 * properties.getLatency()));
+            }
+            // keep the order of the stream
+            deliveryTime = Math.max(deliveryTime, lastDeliveryTime);
+            lastDeliveryTime = deliveryTime;
+            pending.add(new Delivery(target, data, deliveryTime));
+            try {
+                deliveryExecutor.schedule(this, deliveryTime - now, TimeUnit.NANOSECONDS);
+            } catch (RuntimeException e) {
+                // the network was shut down
+                pending.clear();
+            }
+        }
+
+        private long transmissionTime(int length, long bandwidth) {
+            return bandwidth > 0 ? length * TimeUnit.SECONDS.toNanos(1) / bandwidth : 0;
+        }
+
+        /**
+         * Delivers all due deliveries
+         */
+        @Override
+        public synchronized void run() {
+            final long now = System.nanoTime();
+            while (!pending.isEmpty() && pending.peek().deliveryTime <= now) {
+                pending.poll().deliver();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.hgross.blaubot.core.Blaubot;
+import eu.hgross.blaubot.core.BlaubotDevice;
+import eu.hgross.blaubot.core.BlaubotUUIDSet;
+import eu.hgross.blaubot.core.IBlaubotAdapter;
+import eu.hgross.blaubot.core.IBlaubotDevice;
+import eu.hgross.blaubot.core.LifecycleListenerAdapter;
+import eu.hgross.blaubot.core.acceptor.discovery.IBlaubotBeacon;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotState;
+import eu.hgross.blaubot.core.statemachine.states.IBlaubotSubordinatedState;
+import eu.hgross.blaubot.core.statemachine.states.KingState;
+import eu.hgross.blaubot.util.ITimerService;
+
+/**
+ * A {@link Blaubot} instance of a {@link KingdomSimulator} together with the census it learned
+ * from its lifecycle events.
+ */
+public class SimulatedNode {
+    private final Blaubot blaubot;
+    private final String uniqueDeviceId;
+    /**
+     * The kingdom members known from the lifecycle events (including the own device while connected)
+     */
+    private final Set<String> census = new HashSet<>();
+
+    /**
+     * @param uniqueDeviceId the node's unique device id
+     * @param uuidSet        the uuid set shared by all nodes
+     * @param network        the network to connect through
+     * @param timerService   the timer service shared by all nodes
+     */
+    public SimulatedNode(String uniqueDeviceId, BlaubotUUIDSet uuidSet, SimulatedNetwork network, ITimerService timerService) {
+        this.uniqueDeviceId = uniqueDeviceId;
+        final IBlaubotDevice ownDevice = new BlaubotDevice(uniqueDeviceId);
+        final List<IBlaubotAdapter> adapters = new ArrayList<>();
+        adapters.add(new SimulatedAdapter(ownDevice, network));
+        final List<IBlaubotBeacon> beacons = new ArrayList<>();
+        beacons.add(new SimulatedBeacon(network));
+        this.blaubot = new Blaubot(ownDevice, uuidSet, adapters, beacons, timerService);
+        this.blaubot.addLifecycleListener(new CensusListener());
+    }
+
+    /**
+     * @return the blaubot instance
+     */
+    public Blaubot getBlaubot() {
+        return blaubot;
+    }
+
+    /**
+     * @return the node's unique device id
+     */
+    public String getUniqueDeviceId() {
+        return uniqueDeviceId;
+    }
+
+    /**
+     * @return the unique device id of the king this node follows (its own, if it is king) or null, if it is not part of a kingdom
+     */
+    public String getKingUniqueId() {
+        final IBlaubotState state = blaubot.getConnectionStateMachine().getCurrentState();
+        if (state instanceof KingState) {
+            return uniqueDeviceId;
+        } else if (state instanceof IBlaubotSubordinatedState) {
+            return ((IBlaubotSubordinatedState) state).getKingUniqueId();
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of the kingdom members known from the lifecycle events
+     */
+    public Set<String> getCensus() {
+        synchronized (census) {
+            return new HashSet<>(census);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("SimulatedNode{");
+        sb.append("uniqueDeviceId='").append(uniqueDeviceId).append('\'');
+        sb.append(", state=").append(blaubot.getConnectionStateMachine().getCurrentState());
+        sb.append(", king=").append(getKingUniqueId());
+        sb.append(", census=").append(getCensus());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    class CensusListener extends LifecycleListenerAdapter {
+        @Override
+        public void onConnected() {
+            synchronized (census) {
+                census.add(uniqueDeviceId);
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            synchronized (census) {
+                census.clear();
+            }
+        }
+
+        @Override
+        public void onDeviceJoined(IBlaubotDevice blaubotDevice) {
+            synchronized (census) {
+                census.add(blaubotDevice.getUniqueDeviceID());
+            }
+        }
+
+        @Override
+        public void onDeviceLeft(IBlaubotDevice blaubotDevice) {
+            synchronized (census) {
+                census.remove(blaubotDevice.getUniqueDeviceID());
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package eu.hgross.blaubot.mock.simulation;
+
+import eu.hgross.blaubot.metrics.HistogramSnapshot;
+
+/**
+ * The results of a {@link KingdomSimulator} run.
+ * Convergence times are measured from the start of the simulation or the last partition change and
+ * are -1, if the network did not converge within the timeout.
+ */
+public class SimulationReport {
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+    private final int nodeCount;
+    private final long seed;
+    private final long electionConvergenceTime;
+    private final long censusConvergenceTime;
+    private final int kingdomCount;
+    private final long publishedCount;
+    private final long rejectedCount;
+    private final HistogramSnapshot messageLatencies;
+
+    /**
+     * @param nodeCount               the number of simulated blaubot instances
+     * @param seed                    the network's seed
+     * @param electionConvergenceTime the time until each partition had exactly one king followed by all its nodes in ms
+     * @param censusConvergenceTime   the time until each node's census matched its kingdom in ms
+     * @param kingdomCount            the number of kingdoms at the end of the run
+     * @param publishedCount          the number of messages published by the load generator
+     * @param rejectedCount           the number of messages rejected by the channels
+     * @param messageLatencies        the end to end latencies of the received messages in microseconds
+     */
+    public SimulationReport(int nodeCount, long seed, long electionConvergenceTime, long censusConvergenceTime, int kingdomCount, long publishedCount, long rejectedCount, HistogramSnapshot messageLatencies) {
+        this.nodeCount = nodeCount;
+        this.seed = seed;
+        this.electionConvergenceTime = electionConvergenceTime;
+        this.censusConvergenceTime = censusConvergenceTime;
+        this.kingdomCount = kingdomCount;
+        this.publishedCount = publishedCount;
+        this.rejectedCount = rejectedCount;
+        this.messageLatencies = messageLatencies;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the time until each partition had exactly one king followed by all its nodes in ms or -1
+     */
+    public long getElectionConvergenceTime() {
+        return electionConvergenceTime;
+    }
+
+    /**
+     * @return the time until each node's census matched its kingdom in ms or -1
+     */
+    public long getCensusConvergenceTime() {
+        return censusConvergenceTime;
+    }
+
+    public int getKingdomCount() {
+        return kingdomCount;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return the end to end latencies of the received messages in microseconds
+     */
+    public HistogramSnapshot getMessageLatencies() {
+        return messageLatencies;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer sb = new StringBuffer("SimulationReport{");
+        sb.append("nodeCount=").append(nodeCount);
+        sb.append(", seed=").append(seed);
+        sb.append(", electionConvergenceTime=").append(electionConvergenceTime);
+        sb.append(", censusConvergenceTime=").append(censusConvergenceTime);
+        sb.append(", kingdomCount=").append(kingdomCount);
+        sb.append(", publishedCount=").append(publishedCount);
+        sb.append(", rejectedCount=").append(rejectedCount);
+        sb.append(", receivedCount=").append(messageLatencies.getCount());
+        if (messageLatencies.getCount() > 0) {
+            for (double percentile : REPORTED_PERCENTILES) {
+                sb.append(", p").append(percentile).append("=").append(messageLatencies.getValueAtPercentile(percentile)).append("us");
+            }
+            sb.append(", max=").append(messageLatencies.getMax()).append("us");
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
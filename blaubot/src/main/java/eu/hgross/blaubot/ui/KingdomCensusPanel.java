@@ -20,6 +20,7 @@ import eu.hgross.blaubot.core.IBlaubotDevice;
 import eu.hgross.blaubot.core.ILifecycleListener;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
 
@@ -44,6 +45,12 @@ public class KingdomCensusPanel extends JPanel implements IBlaubotDebugView, IBl
             if(adminMessage instanceof CensusMessage) {
                 mLastCensusMessage = (CensusMessage) adminMessage;
                 updateViews();
+            } else if(adminMessage instanceof CensusDeltaMessage && mLastCensusMessage != null) {
+                final CensusMessage updated = mLastCensusMessage.applyDelta((CensusDeltaMessage) adminMessage);
+                if(updated != null) {
+                    mLastCensusMessage = updated;
+                    updateViews();
+                }
             }
         }
     };
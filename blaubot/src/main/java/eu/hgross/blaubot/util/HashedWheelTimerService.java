@@ -0,0 +1,339 @@
+package eu.hgross.blaubot.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ITimerService} backed by a hashed timing wheel driven by a single daemon thread.
+ *
+ * The wheel consists of a ring of buckets, each covering one tick. A scheduled task is put into the
+ * bucket of its deadline's tick together with the number of remaining wheel rotations, so scheduling
+ * and cancelling are O(1) regardless of the number of pending tasks. The price is the precision:
+ * tasks are executed up to one tick late.
+ *
+ * The thread is started lazily by the first scheduled task and stopped by {@link #shutdown()}.
+ */
+public class HashedWheelTimerService implements ITimerService {
+    private static final String LOG_TAG = "HashedWheelTimerService";
+    /**
+     * The default duration of a tick in ms
+     */
+    public static final long DEFAULT_TICK_DURATION = 10;
+    /**
+     * The default number of buckets in the wheel
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final String name;
+    private final long tickDurationNanos;
+    private final int wheelSize;
+    private final Object workerLock = new Object();
+    /**
+     * The currently running worker, guarded by workerLock
+     */
+    private Worker worker;
+
+    /**
+     * @param name the name of the timer thread
+     */
+    public HashedWheelTimerService(String name) {
+        this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param name         the name of the timer thread
+     * @param tickDuration the duration of a tick in ms
+     * @param wheelSize    the number of buckets (will be rounded up to the next power of two)
+     */
+    public HashedWheelTimerService(String name, long tickDuration, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration has to be positive: " + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheelSize out of range: " + wheelSize);
+        }
+        this.name = name;
+        this.tickDurationNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.wheelSize = size;
+    }
+
+    @Override
+    public ITimeout schedule(Runnable task, long delay) {
+        return add(task, delay, 0);
+    }
+
+    @Override
+    public ITimeout scheduleAtFixedRate(Runnable task, long initialDelay, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period has to be positive: " + period);
+        }
+        return add(task, initialDelay, period);
+    }
+
+    private ITimeout add(Runnable task, long delay, long period) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+        synchronized (workerLock) {
+            if (worker == null) {
+                worker = new Worker();
+                worker.thread.start();
+            }
+            final WheelTimeout timeout = new WheelTimeout(worker, task, deadline, TimeUnit.MILLISECONDS.toNanos(period));
+            worker.newTimeouts.add(timeout);
+            return timeout;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        final Worker stoppedWorker;
+        synchronized (workerLock) {
+            stoppedWorker = worker;
+            worker = null;
+        }
+        if (stoppedWorker == null) {
+            return;
+        }
+        stoppedWorker.running = false;
+        stoppedWorker.thread.interrupt();
+        if (Thread.currentThread() == stoppedWorker.thread) {
+            return; // shut down from a task, the worker exits after the current tick
+        }
+        try {
+            stoppedWorker.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of pending (scheduled, not cancelled and not yet expired) tasks
+     */
+    public int getPendingCount() {
+        final Worker current;
+        synchronized (workerLock) {
+            current = worker;
+        }
+        return current == null ? 0 : current.pendingCount.get();
+    }
+
+    /**
+     * A doubly linked list of timeouts, only accessed by the worker thread.
+     */
+    private static class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        WheelTimeout remove(WheelTimeout timeout) {
+            final WheelTimeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        void clear() {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                timeout = remove(timeout);
+            }
+        }
+    }
+
+    private class WheelTimeout implements ITimeout {
+        private final Worker owner;
+        private final Runnable task;
+        private final long period;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        private long deadline;
+        // worker thread only
+        private long remainingRounds;
+        private Bucket bucket;
+        private WheelTimeout prev;
+        private WheelTimeout next;
+
+        WheelTimeout(Worker owner, Runnable task, long deadline, long period) {
+            this.owner = owner;
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+            owner.pendingCount.incrementAndGet();
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            owner.pendingCount.decrementAndGet();
+            owner.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        void expire() {
+            if (period == 0) {
+                if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                    return;
+                }
+                owner.pendingCount.decrementAndGet();
+            } else if (state.get() != STATE_PENDING) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                if (Log.logErrorMessages()) {
+                    Log.e(LOG_TAG, "Scheduled task " + task + " failed: " + e.getMessage(), e);
+                }
+            }
+            if (period > 0 && state.get() == STATE_PENDING) {
+                deadline += period;
+                owner.newTimeouts.add(this);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Thread thread;
+        private final Bucket[] wheel;
+        private final int mask;
+        private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<>();
+        private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private volatile boolean running = true;
+        private long startTime;
+        private long tick;
+
+        Worker() {
+            this.wheel = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                wheel[i] = new Bucket();
+            }
+            this.mask = wheelSize - 1;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            startTime = System.nanoTime();
+            while (running) {
+                if (!waitForNextTick()) {
+                    break;
+                }
+                removeCancelledTimeouts();
+                transferNewTimeouts();
+                expireTimeouts(wheel[(int) (tick & mask)]);
+                tick++;
+            }
+            for (Bucket bucket : wheel) {
+                bucket.clear();
+            }
+            newTimeouts.clear();
+            cancelledTimeouts.clear();
+        }
+
+        /**
+         * Sleeps until the start of the next tick.
+         *
+         * @return false, if the worker was stopped
+         */
+        private boolean waitForNextTick() {
+            final long nextTickTime = tickDurationNanos * (tick + 1);
+            while (true) {
+                final long now = System.nanoTime() - startTime;
+                final long sleepMillis = TimeUnit.NANOSECONDS.toMillis(nextTickTime - now + 999999);
+                if (sleepMillis <= 0) {
+                    return true;
+                }
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void removeCancelledTimeouts() {
+            WheelTimeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferNewTimeouts() {
+            WheelTimeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                if (timeout.state.get() != STATE_PENDING) {
+                    continue;
+                }
+                final long calculatedTick = Math.max(0, timeout.deadline - startTime) / tickDurationNanos;
+                timeout.remainingRounds = (calculatedTick - tick) / wheelSize;
+                // deadlines in the past go to the current tick
+                final long ticks = Math.max(calculatedTick, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void expireTimeouts(Bucket bucket) {
+            WheelTimeout timeout = bucket.head;
+            while (timeout != null) {
+                final WheelTimeout next;
+                if (timeout.remainingRounds <= 0) {
+                    next = bucket.remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    next = bucket.remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                    next = timeout.next;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package eu.hgross.blaubot.util;
+
+/**
+ * Handle for a task scheduled on an {@link ITimerService}.
+ */
+public interface ITimeout {
+    /**
+     * Cancels the task. A cancelled task will not be executed (again).
+     * Cancelling is cheap and can be called from any thread, including the task itself.
+     *
+     * @return true, if the task was cancelled by this call; false, if it was already cancelled or a one-shot task already ran
+     */
+    boolean cancel();
+
+    /**
+     * @return true, iff the task was cancelled
+     */
+    boolean isCancelled();
+}
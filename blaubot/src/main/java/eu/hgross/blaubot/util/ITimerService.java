@@ -0,0 +1,35 @@
+package eu.hgross.blaubot.util;
+
+/**
+ * Schedules delayed and periodic tasks for the blaubot components (keep alives, timeouts, watchdogs).
+ * A single service is shared by all components of a {@link eu.hgross.blaubot.core.Blaubot} instance
+ * (and can be shared across instances) instead of creating a {@link java.util.Timer} thread per use.
+ *
+ * The tasks are executed on the service's thread and therefore must not block.
+ */
+public interface ITimerService {
+    /**
+     * Executes the task once after the given delay.
+     *
+     * @param task  the task
+     * @param delay the delay in ms
+     * @return the handle to cancel the task
+     */
+    ITimeout schedule(Runnable task, long delay);
+
+    /**
+     * Executes the task periodically at a fixed rate after the initial delay until it gets cancelled.
+     *
+     * @param task         the task
+     * @param initialDelay the delay before the first execution in ms
+     * @param period       the period between two executions in ms
+     * @return the handle to cancel the task
+     */
+    ITimeout scheduleAtFixedRate(Runnable task, long initialDelay, long period);
+
+    /**
+     * Cancels all pending tasks and releases the service's resources.
+     * Tasks scheduled afterwards will start the service again.
+     */
+    void shutdown();
+}
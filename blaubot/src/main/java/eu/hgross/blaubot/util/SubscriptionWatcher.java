@@ -32,7 +32,8 @@ public abstract class SubscriptionWatcher implements ILifecycleListener, IBlaubo
     }
 
     public void registerWithBlaubot(Blaubot blaubot) {
-        blaubot.getChannelManager().addAdminMessageListener(this);
+        blaubot.getChannelManager().addAdminMessageListener(AddSubscriptionAdminMessage.class, this);
+        blaubot.getChannelManager().addAdminMessageListener(RemoveSubscriptionAdminMessage.class, this);
         blaubot.addLifecycleListener(this);
         ownDevice = blaubot.getOwnDevice();
     }
@@ -46,7 +47,8 @@ public abstract class SubscriptionWatcher implements ILifecycleListener, IBlaubo
     public void registerWithBlaubotKingdom(BlaubotKingdom blaubotKingdom) {
         // TODO: the blaubotKingdom needs a method to get to know when the kingdom was disconnected!
         blaubotKingdom.addLifecycleListener(this);
-        blaubotKingdom.getChannelManager().addAdminMessageListener(this);
+        blaubotKingdom.getChannelManager().addAdminMessageListener(AddSubscriptionAdminMessage.class, this);
+        blaubotKingdom.getChannelManager().addAdminMessageListener(RemoveSubscriptionAdminMessage.class, this);
         ownDevice = blaubotKingdom.getOwnDevice();
     }
 
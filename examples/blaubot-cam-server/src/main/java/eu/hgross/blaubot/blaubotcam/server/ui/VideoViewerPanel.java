@@ -14,6 +14,7 @@ import javax.swing.SwingUtilities;
 import eu.hgross.blaubot.blaubotcam.server.model.ImageMessage;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
@@ -118,6 +119,11 @@ public class VideoViewerPanel extends JScrollPane implements IBlaubotAdminMessag
     public void onAdminMessage(AbstractAdminMessage adminMessage) {
         if (adminMessage instanceof CensusMessage) {
             mLastCensusMessage = (CensusMessage) adminMessage;
+        } else if (adminMessage instanceof CensusDeltaMessage && mLastCensusMessage != null) {
+            final CensusMessage updated = mLastCensusMessage.applyDelta((CensusDeltaMessage) adminMessage);
+            if (updated != null) {
+                mLastCensusMessage = updated;
+            }
         }
     }
 }
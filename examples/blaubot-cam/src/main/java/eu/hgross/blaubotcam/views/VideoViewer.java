@@ -18,6 +18,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import eu.hgross.blaubot.android.views.KingdomView;
 import eu.hgross.blaubot.core.State;
 import eu.hgross.blaubot.admin.AbstractAdminMessage;
+import eu.hgross.blaubot.admin.CensusDeltaMessage;
 import eu.hgross.blaubot.admin.CensusMessage;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.IBlaubotAdminMessageListener;
@@ -143,6 +144,11 @@ public class VideoViewer extends LinearLayout implements IBlaubotMessageListener
     public void onAdminMessage(AbstractAdminMessage adminMessage) {
         if (adminMessage instanceof CensusMessage) {
             mLastCensusMessage = (CensusMessage) adminMessage;
+        } else if (adminMessage instanceof CensusDeltaMessage && mLastCensusMessage != null) {
+            final CensusMessage updated = mLastCensusMessage.applyDelta((CensusDeltaMessage) adminMessage);
+            if (updated != null) {
+                mLastCensusMessage = updated;
+            }
         }
     }
 }
\ No newline at end of file
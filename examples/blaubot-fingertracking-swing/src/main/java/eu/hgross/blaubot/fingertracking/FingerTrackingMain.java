@@ -5,7 +5,6 @@ import java.util.UUID;
 import eu.hgross.blaubot.core.Blaubot;
 import eu.hgross.blaubot.core.BlaubotFactory;
 import eu.hgross.blaubot.core.LifecycleListenerAdapter;
-import eu.hgross.blaubot.messaging.BlaubotChannelConfig;
 import eu.hgross.blaubot.messaging.IBlaubotChannel;
 import eu.hgross.blaubot.util.Log;
 
@@ -20,7 +19,8 @@ public class FingerTrackingMain {
         Log.LOG_LEVEL = Log.LogLevel.WARNINGS;
         final Blaubot blaubot = BlaubotFactory.createEthernetBlaubot(APP_UUID);
         final IBlaubotChannel channel = blaubot.createChannel(FINGER_MESSAGE_CHANNEL_ID);
-        channel.getChannelConfig().setMessagePickerStrategy(BlaubotChannelConfig.MessagePickerStrategy.DISCARD_OLD);
+        // only the latest finger positions of each device matter
+        channel.getChannelConfig().setConflating(true);
         channel.getChannelConfig().setMessageRateLimit(MIN_MESSAGE_RATE_DELAY);
 
         blaubot.addLifecycleListener(new LifecycleListenerAdapter() {
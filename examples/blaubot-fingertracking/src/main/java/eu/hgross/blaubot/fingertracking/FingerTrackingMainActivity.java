@@ -19,7 +19,6 @@ import eu.hgross.blaubot.android.views.StateView;
 import eu.hgross.blaubot.core.Blaubot;
 import eu.hgross.blaubot.core.BlaubotFactory;
 import eu.hgross.blaubot.core.LifecycleListenerAdapter;
-import eu.hgross.blaubot.messaging.BlaubotChannelConfig;
 import eu.hgross.blaubot.messaging.BlaubotMessage;
 import eu.hgross.blaubot.messaging.IBlaubotChannel;
 import eu.hgross.blaubot.messaging.IBlaubotMessageListener;
@@ -76,7 +75,8 @@ public class FingerTrackingMainActivity extends Activity implements IBlaubotMess
 
         final short channelId = (short) 1;
         final IBlaubotChannel channel = mBlaubot.createChannel(channelId);
-        channel.getChannelConfig().setMessagePickerStrategy(BlaubotChannelConfig.MessagePickerStrategy.DISCARD_OLD);
+        // only the latest finger positions of each device matter
+        channel.getChannelConfig().setConflating(true);
         channel.getChannelConfig().setMessageRateLimit(MIN_MESSAGE_RATE_DELAY);
 
         mField = (FingerField) findViewById(R.id.fingerField);